@@ -16,6 +16,8 @@ public class BookStoreBook extends ImmutableBook implements Comparator<BookStore
 	private long timesRated;
 	private long saleMisses;
 	private boolean editorPick;
+	// Shared by every copy of the book handed out, as it never changes
+	private final ImmutableBook metadata;
 	
 	
 	public int compare(BookStoreBook b1,BookStoreBook b2) {
@@ -29,6 +31,7 @@ public class BookStoreBook extends ImmutableBook implements Comparator<BookStore
 	public BookStoreBook(int ISBN, String title, String author, float price,
 			int numCopies) {
 		super(ISBN, title, author, price);
+		this.metadata = new ImmutableBook(ISBN, title, author, price);
 		this.setSaleMisses(0);
 		this.setTimesRated(0);
 		this.setNumCopies(numCopies);
@@ -44,6 +47,8 @@ public class BookStoreBook extends ImmutableBook implements Comparator<BookStore
 	public BookStoreBook(StockBook bookToCopy) {
 		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy
 				.getAuthor(), bookToCopy.getPrice());
+		this.metadata = new ImmutableBook(getISBN(), getTitle(), getAuthor(),
+				getPrice());
 		this.setSaleMisses(bookToCopy.getSaleMisses());
 		this.setTimesRated(bookToCopy.getTimesRated());
 		this.setNumCopies(bookToCopy.getNumCopies());
@@ -68,7 +73,7 @@ public class BookStoreBook extends ImmutableBook implements Comparator<BookStore
 	}
 
 	public float getAverageRating() {
-		return (float) (timesRated == 0 ? -1.0 : totalRating / timesRated);
+		return timesRated == 0 ? -1.0f : (float) totalRating / timesRated;
 	}
 
 	public boolean isEditorPick() {
@@ -197,25 +202,25 @@ public class BookStoreBook extends ImmutableBook implements Comparator<BookStore
 	}
 
 	/**
-	 * Returns a ImmutableBook copy of the book.
+	 * Returns the immutable metadata of the book. The same instance is
+	 * returned every time, as the metadata never changes.
 	 * 
 	 * @return
 	 */
 	public ImmutableBook immutableBook() {
-		return new ImmutableBook(this.getISBN(), new String(this.getTitle()),
-				new String(this.getAuthor()), this.getPrice());
+		return metadata;
 	}
 
 	/**
-	 * Returns a ImmutableStockBook copy of the book.
+	 * Returns a ImmutableStockBook copy of the stock state of the book, which
+	 * shares the metadata of the book instead of copying it.
 	 * 
 	 * @return
 	 */
 	public StockBook immutableStockBook() {
-		return new ImmutableStockBook(this.getISBN(), new String(
-				this.getTitle()), new String(this.getAuthor()),
-				this.getPrice(), this.numCopies, this.saleMisses,
-				this.timesRated, this.totalRating, this.editorPick);
+		return new ImmutableStockBook(metadata, this.numCopies,
+				this.saleMisses, this.timesRated, this.totalRating,
+				this.editorPick);
 	}
 
 	/**
@@ -224,7 +229,7 @@ public class BookStoreBook extends ImmutableBook implements Comparator<BookStore
 	 * @return
 	 */
 	public BookStoreBook copy() {
-		return new BookStoreBook(this.getISBN(), new String(this.getTitle()),
-				new String(this.getAuthor()), this.getPrice(), this.numCopies);
+		return new BookStoreBook(this.getISBN(), this.getTitle(),
+				this.getAuthor(), this.getPrice(), this.numCopies);
 	}
 }
@@ -5,8 +5,6 @@ package com.acertainbookstore.business;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -25,9 +23,16 @@ import com.acertainbookstore.utils.BookStoreUtility;
 /**
  * CertainBookStore implements the bookstore and its functionality which is
  * defined in the BookStore
+ *
+ * The books are also kept ordered by average rating in a RatingIndex, so that
+ * getTopRatedBooks does not sort the catalog, and the ISBNs of the books that
+ * had a sale miss since their last replenishment are kept in a set, so that
+ * getBooksInDemand does not scan it.
  */
 public class CertainBookStore implements BookStore, StockManager {
 	private Map<Integer, BookStoreBook> bookMap = null;
+	private final RatingIndex ratingIndex = new RatingIndex();
+	private final Set<Integer> booksInDemand = new HashSet<Integer>();
 
 	public CertainBookStore() {
 		// Constructors are not synchronized
@@ -62,7 +67,13 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (StockBook book : bookSet) {
 			int ISBN = book.getISBN();
-			bookMap.put(ISBN, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(ISBN, bookStoreBook);
+			ratingIndex.put(bookStoreBook.immutableBook(),
+					bookStoreBook.getAverageRating());
+			if (bookStoreBook.hadSaleMiss()) {
+				booksInDemand.add(ISBN);
+			}
 		}
 		return;
 	}
@@ -97,6 +108,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(ISBN);
 			book.addCopies(numCopies);
+			booksInDemand.remove(ISBN);
 		}
 	}
 
@@ -161,6 +173,7 @@ public class CertainBookStore implements BookStore, StockManager {
 			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 				book.addSaleMiss(); // If we cannot sell the copies of the book
 									// its a miss
+				booksInDemand.add(ISBN);
 				saleMiss = true;
 			}
 		}
@@ -277,47 +290,24 @@ public class CertainBookStore implements BookStore, StockManager {
 	}
 
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks)
+	public List<Book> getTopRatedBooks(int numBooks)
 			throws BookStoreException {
 		if(numBooks < 0) {
 			throw new BookStoreException(BookStoreConstants.INVALID + numBooks);
 		}
-		List<Book> requested = new ArrayList<Book>();
-		if(numBooks >= bookMap.size()) {
-			for(Book b : bookMap.values()) {
-				requested.add(new ImmutableBook(b));
-			}
-			return requested;
-		}
-	
-		List<BookStoreBook> sortedBooks = new ArrayList<BookStoreBook>(bookMap.values());
-		Collections.sort(sortedBooks, new Comparator<BookStoreBook>() {
-			@Override
-			public int compare(BookStoreBook b1, BookStoreBook b2) {
-				Float b = new Float(b2.getAverageRating());
-				return b.compareTo(new Float(b1.getAverageRating()));
-			}
-		});
-	
-		for(int i = 0; i<  numBooks; i++) {
-			requested.add(new ImmutableBook(sortedBooks.get(i)));
-		}
-		return requested;
+		return ratingIndex.top(numBooks);
 	}
 
 	@Override
 	public synchronized List<StockBook> getBooksInDemand()
 			throws BookStoreException {
-		
-		List<StockBook> listBooks = new ArrayList<StockBook>();
-		
+		List<StockBook> listBooks = new ArrayList<StockBook>(
+				booksInDemand.size());
+
 		// Get the books
-		Collection<BookStoreBook> books = bookMap.values();
-		for (BookStoreBook book: books){
-			if (book.hadSaleMiss())
-				listBooks.add(book.immutableStockBook());
+		for (Integer ISBN : booksInDemand) {
+			listBooks.add(bookMap.get(ISBN).immutableStockBook());
 		}
-		
 		return listBooks;
 	}
 
@@ -347,12 +337,14 @@ public class CertainBookStore implements BookStore, StockManager {
 		for (BookRating br : bookRating) {
 			BookStoreBook tmp = bookMap.get(br.getISBN());
 			tmp.addRating(br.getRating());
-			bookMap.put(br.getISBN(), tmp);
+			ratingIndex.put(tmp.immutableBook(), tmp.getAverageRating());
 		}
 	}
 
 	public synchronized void removeAllBooks() throws BookStoreException {
 		bookMap.clear();
+		ratingIndex.clear();
+		booksInDemand.clear();
 	}
 
 	public synchronized void removeBooks(Set<Integer> isbnSet)
@@ -372,6 +364,8 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		for (int isbn : isbnSet) {
 			bookMap.remove(isbn);
+			ratingIndex.remove(isbn);
+			booksInDemand.remove(isbn);
 		}
 	}
 }
\ No newline at end of file
@@ -39,6 +39,24 @@ public final class ImmutableStockBook extends ImmutableBook implements
 		this.editorPick = editorPick;
 	}
 
+	/**
+	 * Creates an immutable StockBook sharing the title and author of the
+	 * book, which must be immutable.
+	 * 
+	 * @param book
+	 * @param numCopies
+	 * @param saleMisses
+	 * @param timesRated
+	 * @param totalRating
+	 * @param editorPick
+	 */
+	public ImmutableStockBook(Book book, int numCopies, long saleMisses,
+			long timesRated, long totalRating, boolean editorPick) {
+		this(book.getISBN(), book.getTitle(), book.getAuthor(), book
+				.getPrice(), numCopies, saleMisses, timesRated, totalRating,
+				editorPick);
+	}
+
 	public long getTotalRating() {
 		return totalRating;
 	}
@@ -56,7 +74,7 @@ public final class ImmutableStockBook extends ImmutableBook implements
 	}
 
 	public float getAverageRating() {
-		return (float) (timesRated == 0 ? -1.0 : totalRating / timesRated);
+		return timesRated == 0 ? -1.0f : (float) totalRating / timesRated;
 	}
 
 	public boolean isEditorPick() {
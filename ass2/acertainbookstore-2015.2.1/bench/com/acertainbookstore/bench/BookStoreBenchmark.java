@@ -0,0 +1,64 @@
+package com.acertainbookstore.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * BookStoreBenchmark measures the throughput of each operation of the
+ * BookStore interface on its own, for every implementation, catalog size and
+ * ISBN set size. The thread count is set with the -t option of JMH.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BookStoreBenchmark {
+	private static final int NUM_BOOKS = 10;
+
+	@Benchmark
+	public void buyBooks(StoreState store, RequestState request)
+			throws BookStoreException {
+		store.bookStore.buyBooks(request.copies());
+		request.advance();
+	}
+
+	@Benchmark
+	public void rateBooks(StoreState store, RequestState request)
+			throws BookStoreException {
+		store.bookStore.rateBooks(request.ratings());
+		request.advance();
+	}
+
+	@Benchmark
+	public List<Book> getBooks(StoreState store, RequestState request)
+			throws BookStoreException {
+		List<Book> books = store.bookStore.getBooks(request.isbns());
+		request.advance();
+		return books;
+	}
+
+	@Benchmark
+	public List<Book> getTopRatedBooks(StoreState store)
+			throws BookStoreException {
+		return store.bookStore.getTopRatedBooks(NUM_BOOKS);
+	}
+
+	@Benchmark
+	public List<Book> getEditorPicks(StoreState store)
+			throws BookStoreException {
+		return store.bookStore.getEditorPicks(NUM_BOOKS);
+	}
+}
@@ -0,0 +1,85 @@
+package com.acertainbookstore.bench;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * ContentionBenchmark measures how buying books scales with the threads when
+ * the threads buy the same books and when each buys books of its own.
+ *
+ * With overlapping sets every thread buys the books 1 to isbnSetSize; with
+ * disjoint sets thread i buys the isbnSetSize books after those of thread
+ * i-1, so the catalog must hold isbnSetSize books per thread. Each thread adds
+ * back the copies it bought every other call.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class ContentionBenchmark {
+
+	/**
+	 * The copies one thread buys
+	 */
+	@State(Scope.Thread)
+	public static class Buyer {
+		@Param({ "overlapping", "disjoint" })
+		public String isbnSets;
+
+		private Set<BookCopy> copies;
+		private boolean buy = true;
+
+		@Setup(Level.Trial)
+		public void setUp(StoreState store, RequestState request,
+				ThreadParams thread) {
+			int firstISBN = 1;
+			if (isbnSets.equals("disjoint")) {
+				firstISBN += thread.getThreadIndex() * request.isbnSetSize;
+			} else if (!isbnSets.equals("overlapping")) {
+				throw new IllegalArgumentException("Unknown ISBN sets "
+						+ isbnSets);
+			}
+			if (firstISBN + request.isbnSetSize - 1 > store.catalogSize) {
+				throw new IllegalStateException("The catalog has too few books"
+						+ " for " + thread.getThreadCount() + " threads");
+			}
+			copies = new HashSet<BookCopy>();
+			for (int i = 0; i < request.isbnSetSize; i++) {
+				copies.add(new BookCopy(firstISBN + i, 1));
+			}
+		}
+	}
+
+	@Benchmark
+	public void buyBooks(StoreState store, Buyer buyer)
+			throws BookStoreException {
+		if (buyer.buy) {
+			store.bookStore.buyBooks(buyer.copies);
+		} else {
+			store.stockManager.addCopies(buyer.copies);
+		}
+		buyer.buy = !buyer.buy;
+	}
+}
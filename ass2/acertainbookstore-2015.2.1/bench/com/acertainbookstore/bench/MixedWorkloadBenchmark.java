@@ -0,0 +1,62 @@
+package com.acertainbookstore.bench;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * MixedWorkloadBenchmark measures the throughput of a mix of reads and writes
+ * on the same books. A readRatio of the requests get the books, the others
+ * alternate between buying a copy of each book and adding a copy, so the
+ * stock stays around its initial level.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MixedWorkloadBenchmark {
+	@Param({ "1.0", "0.9", "0.5" })
+	public double readRatio;
+
+	@Benchmark
+	public List<Book> mixed(StoreState store, RequestState request,
+			WriteTurn turn) throws BookStoreException {
+		List<Book> books = null;
+		if (ThreadLocalRandom.current().nextDouble() < readRatio) {
+			books = store.bookStore.getBooks(request.isbns());
+		} else if (turn.buy) {
+			store.bookStore.buyBooks(request.copies());
+			turn.buy = false;
+		} else {
+			store.stockManager.addCopies(request.copies());
+			turn.buy = true;
+		}
+		request.advance();
+		return books;
+	}
+
+	/**
+	 * Whether the next write of a thread buys or adds copies
+	 */
+	@State(Scope.Thread)
+	public static class WriteTurn {
+		private boolean buy = true;
+	}
+}
@@ -0,0 +1,87 @@
+package com.acertainbookstore.bench;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+
+/**
+ * RequestState holds the requests of one benchmark thread, drawn before the
+ * trial so that building the sets of ISBNs is not measured.
+ *
+ * Each request names isbnSetSize distinct books drawn uniformly from the
+ * catalog of the StoreState. The benchmarks cycle through a pool of requests.
+ *
+ */
+@State(Scope.Thread)
+public class RequestState {
+	private static final int POOL_SIZE = 1024;
+
+	@Param({ "1", "10" })
+	public int isbnSetSize;
+
+	private Set<Integer>[] isbns;
+	private Set<BookCopy>[] copies;
+	private Set<BookRating>[] ratings;
+	private Set<BookEditorPick>[] editorPicks;
+	private int next = 0;
+
+	@SuppressWarnings("unchecked")
+	@Setup(Level.Trial)
+	public void setUp(StoreState store, ThreadParams thread) {
+		Random random = new Random(thread.getThreadIndex());
+		int setSize = Math.min(isbnSetSize, store.catalogSize);
+		isbns = new Set[POOL_SIZE];
+		copies = new Set[POOL_SIZE];
+		ratings = new Set[POOL_SIZE];
+		editorPicks = new Set[POOL_SIZE];
+		for (int i = 0; i < POOL_SIZE; i++) {
+			isbns[i] = new HashSet<Integer>();
+			while (isbns[i].size() < setSize) {
+				isbns[i].add(random.nextInt(store.catalogSize) + 1);
+			}
+			copies[i] = new HashSet<BookCopy>();
+			ratings[i] = new HashSet<BookRating>();
+			editorPicks[i] = new HashSet<BookEditorPick>();
+			for (int isbn : isbns[i]) {
+				copies[i].add(new BookCopy(isbn, 1));
+				ratings[i].add(new BookRating(isbn, random.nextInt(6)));
+				editorPicks[i].add(new BookEditorPick(isbn, random
+						.nextBoolean()));
+			}
+		}
+	}
+
+	/**
+	 * Moves on to the next request of the pool
+	 */
+	public void advance() {
+		next = (next + 1) & (POOL_SIZE - 1);
+	}
+
+	public Set<Integer> isbns() {
+		return isbns[next];
+	}
+
+	public Set<BookCopy> copies() {
+		return copies[next];
+	}
+
+	public Set<BookRating> ratings() {
+		return ratings[next];
+	}
+
+	public Set<BookEditorPick> editorPicks() {
+		return editorPicks[next];
+	}
+}
@@ -0,0 +1,129 @@
+package com.acertainbookstore.bench;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * StockManagerBenchmark measures the throughput of each operation of the
+ * StockManager interface on its own, for every implementation, catalog size
+ * and ISBN set size. The thread count is set with the -t option of JMH.
+ *
+ * Adding and removing books are measured together, so that the catalog keeps
+ * its size, and removing all books is measured once per iteration on a store
+ * of its own.
+ *
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StockManagerBenchmark {
+	// Each thread adds and removes books in a range of ISBNs of its own
+	private static final int ISBNS_PER_THREAD = 1 << 20;
+
+	/**
+	 * The books one thread adds and removes, outside the catalog
+	 */
+	@State(Scope.Thread)
+	public static class NewBooks {
+		private Set<StockBook> books;
+		private Set<Integer> isbns;
+
+		@Setup(Level.Trial)
+		public void setUp(StoreState store, RequestState request,
+				ThreadParams thread) {
+			int firstISBN = store.catalogSize + 1 + thread.getThreadIndex()
+					* ISBNS_PER_THREAD;
+			books = StoreState.books(firstISBN, request.isbnSetSize);
+			isbns = new HashSet<Integer>();
+			for (StockBook book : books) {
+				isbns.add(book.getISBN());
+			}
+		}
+	}
+
+	/**
+	 * A full store of one thread, refilled before every iteration
+	 */
+	@State(Scope.Thread)
+	public static class FullStore {
+		private StockManager stockManager;
+
+		@Setup(Level.Iteration)
+		public void setUp(StoreState store) throws BookStoreException {
+			StoreState full = new StoreState();
+			full.implementation = store.implementation;
+			full.catalogSize = store.catalogSize;
+			full.setUp();
+			stockManager = full.stockManager;
+		}
+	}
+
+	@Benchmark
+	public void addAndRemoveBooks(StoreState store, NewBooks newBooks)
+			throws BookStoreException {
+		store.stockManager.addBooks(newBooks.books);
+		store.stockManager.removeBooks(newBooks.isbns);
+	}
+
+	@Benchmark
+	public void addCopies(StoreState store, RequestState request)
+			throws BookStoreException {
+		store.stockManager.addCopies(request.copies());
+		request.advance();
+	}
+
+	@Benchmark
+	public List<StockBook> getBooks(StoreState store)
+			throws BookStoreException {
+		return store.stockManager.getBooks();
+	}
+
+	@Benchmark
+	public List<StockBook> getBooksByISBN(StoreState store,
+			RequestState request) throws BookStoreException {
+		List<StockBook> books = store.stockManager.getBooksByISBN(request
+				.isbns());
+		request.advance();
+		return books;
+	}
+
+	@Benchmark
+	public List<StockBook> getBooksInDemand(StoreState store)
+			throws BookStoreException {
+		return store.stockManager.getBooksInDemand();
+	}
+
+	@Benchmark
+	public void updateEditorPicks(StoreState store, RequestState request)
+			throws BookStoreException {
+		store.stockManager.updateEditorPicks(request.editorPicks());
+		request.advance();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	public void removeAllBooks(FullStore full) throws BookStoreException {
+		full.stockManager.removeAllBooks();
+	}
+}
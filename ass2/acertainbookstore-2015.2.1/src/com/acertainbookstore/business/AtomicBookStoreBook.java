@@ -0,0 +1,226 @@
+package com.acertainbookstore.business;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * The book representation used by the OptimisticCertainBookStore. The number
+ * of copies is kept in a single atomic stamp together with a version number
+ * and a commit lock bit, so that a set of books can be updated all-or-nothing
+ * by compare-and-set instead of by holding a monitor.
+ *
+ * Stamp layout: bit 63 is the lock bit, bits 32-62 hold the version and bits
+ * 0-31 hold the number of copies.
+ *
+ * The sale misses are only changed while the stamp is locked by tryLock, so
+ * that they change in the same version as the copies.
+ *
+ * The total rating and the number of ratings are replaced together, so that
+ * readers always see a matching pair. Ratings are added under the monitor of
+ * the book.
+ *
+ */
+public class AtomicBookStoreBook extends ImmutableBook {
+	private static final long LOCKED = 1L << 63;
+	private static final long VERSION_MASK = 0x7FFFFFFFL;
+	private static final long COPIES_MASK = 0xFFFFFFFFL;
+
+	private final AtomicLong stamp;
+	private final AtomicLong saleMisses;
+	private volatile Ratings ratings;
+	private volatile boolean editorPick;
+	// Shared by every copy of the book handed out, as it never changes
+	private final ImmutableBook metadata;
+
+	/**
+	 * The total rating of the book and the number of times it was rated
+	 */
+	private static final class Ratings {
+		private final long totalRating;
+		private final long timesRated;
+
+		private Ratings(long totalRating, long timesRated) {
+			this.totalRating = totalRating;
+			this.timesRated = timesRated;
+		}
+	}
+
+	/**
+	 * Constructor to create a book store book object from a stock book object
+	 *
+	 * @param bookToCopy
+	 */
+	public AtomicBookStoreBook(StockBook bookToCopy) {
+		super(bookToCopy.getISBN(), bookToCopy.getTitle(), bookToCopy
+				.getAuthor(), bookToCopy.getPrice());
+		this.metadata = new ImmutableBook(getISBN(), getTitle(), getAuthor(),
+				getPrice());
+		this.stamp = new AtomicLong(makeStamp(0, bookToCopy.getNumCopies()));
+		this.saleMisses = new AtomicLong(bookToCopy.getSaleMisses());
+		this.ratings = new Ratings(bookToCopy.getTotalRating(),
+				bookToCopy.getTimesRated());
+		this.editorPick = bookToCopy.isEditorPick();
+	}
+
+	/**
+	 * Returns the current stamp of the book. Use copiesOf and isLocked to
+	 * decode it.
+	 *
+	 * @return
+	 */
+	public long getStamp() {
+		return stamp.get();
+	}
+
+	/**
+	 * Returns the number of copies recorded in the stamp.
+	 *
+	 * @param stamp
+	 * @return
+	 */
+	public static int copiesOf(long stamp) {
+		return (int) (stamp & COPIES_MASK);
+	}
+
+	/**
+	 * Returns True if a commit holds the book.
+	 *
+	 * @param stamp
+	 * @return
+	 */
+	public static boolean isLocked(long stamp) {
+		return (stamp & LOCKED) != 0;
+	}
+
+	private static long versionOf(long stamp) {
+		return (stamp >>> 32) & VERSION_MASK;
+	}
+
+	private static long makeStamp(long version, int numCopies) {
+		return ((version & VERSION_MASK) << 32) | (numCopies & COPIES_MASK);
+	}
+
+	/**
+	 * Locks the book for a commit, provided its stamp is still the one that
+	 * was read and validated by the caller.
+	 *
+	 * @param expectedStamp
+	 * @return
+	 */
+	public boolean tryLock(long expectedStamp) {
+		return !isLocked(expectedStamp)
+				&& stamp.compareAndSet(expectedStamp, expectedStamp | LOCKED);
+	}
+
+	/**
+	 * Releases a lock taken by tryLock without changing the book.
+	 *
+	 * @param lockedFromStamp
+	 *            the stamp passed to tryLock
+	 */
+	public void abort(long lockedFromStamp) {
+		stamp.set(lockedFromStamp);
+	}
+
+	/**
+	 * Installs the new number of copies with the next version and releases the
+	 * lock taken by tryLock.
+	 *
+	 * @param lockedFromStamp
+	 *            the stamp passed to tryLock
+	 * @param numCopies
+	 */
+	public void commit(long lockedFromStamp, int numCopies) {
+		stamp.set(makeStamp(versionOf(lockedFromStamp) + 1, numCopies));
+	}
+
+	public int getNumCopies() {
+		return copiesOf(stamp.get());
+	}
+
+	public long getSaleMisses() {
+		return saleMisses.get();
+	}
+
+	public long getTotalRating() {
+		return ratings.totalRating;
+	}
+
+	public long getTimesRated() {
+		return ratings.timesRated;
+	}
+
+	public float getAverageRating() {
+		Ratings current = ratings;
+		return current.timesRated == 0 ? -1.0f
+				: (float) current.totalRating / current.timesRated;
+	}
+
+	public boolean isEditorPick() {
+		return editorPick;
+	}
+
+	/**
+	 * Sets the book to be an editor pick if the boolean is true, otherwise the
+	 * book is not an editor pick.
+	 *
+	 * @param editorPick
+	 */
+	public void setEditorPick(boolean editorPick) {
+		this.editorPick = editorPick;
+	}
+
+	/**
+	 * Adds the rating to the total rating of the book.
+	 *
+	 * @param rating
+	 */
+	public synchronized void addRating(int rating) {
+		if (!BookStoreUtility.isInvalidRating(rating)) {
+			Ratings current = ratings;
+			ratings = new Ratings(current.totalRating + rating,
+					current.timesRated + 1);
+		}
+	}
+
+	/**
+	 * Increases the amount of missed sales of the book, the caller must hold
+	 * the lock taken by tryLock.
+	 */
+	public void addSaleMiss() {
+		saleMisses.incrementAndGet();
+	}
+
+	/**
+	 * Resets the amount of missed sales of the book, done when new copies
+	 * arrive, the caller must hold the lock taken by tryLock.
+	 */
+	public void resetSaleMisses() {
+		saleMisses.set(0);
+	}
+
+	/**
+	 * Returns the immutable metadata of the book. The same instance is
+	 * returned every time, as the metadata never changes.
+	 *
+	 * @return
+	 */
+	public ImmutableBook immutableBook() {
+		return metadata;
+	}
+
+	/**
+	 * Returns a ImmutableStockBook copy of the book with the number of copies
+	 * taken from the given stamp.
+	 *
+	 * @param stamp
+	 * @return
+	 */
+	public StockBook immutableStockBook(long stamp) {
+		Ratings current = ratings;
+		return new ImmutableStockBook(metadata, copiesOf(stamp),
+				this.saleMisses.get(), current.timesRated,
+				current.totalRating, this.editorPick);
+	}
+}
@@ -0,0 +1,337 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * CatalogTable stores the books of the store column by column, so that scans
+ * of the catalog read contiguous memory instead of chasing one object per
+ * book.
+ *
+ * Each book has a dense slot id. The counters that change (copies, ratings,
+ * sale misses and the editor pick flag) are kept in parallel primitive arrays
+ * indexed by the slot, and the immutable metadata (ISBN, title, author and
+ * price) in an array of ImmutableBook. An open-addressing index with primitive
+ * keys maps the ISBNs to their slots. Removing a book moves the last book into
+ * its slot, so the slots stay dense.
+ *
+ * The table is not synchronized. Adding and removing books must be exclusive
+ * of every other access; the counters of different books may be read and
+ * changed concurrently as long as the accesses to each book are serialized,
+ * cf. ConcurrentCertainBookStore.
+ *
+ */
+public class CatalogTable {
+	private static final int INITIAL_CAPACITY = 16;
+	private static final int NO_SLOT = -1;
+	// ISBNs are positive, so 0 marks a free entry of the index
+	private static final int FREE = 0;
+
+	private ImmutableBook[] metadata;
+	private int[] numCopies;
+	private long[] totalRating;
+	private long[] timesRated;
+	private long[] saleMisses;
+	private boolean[] editorPick;
+	private int size = 0;
+
+	private int[] indexKeys;
+	private int[] indexSlots;
+
+	public CatalogTable() {
+		allocate(INITIAL_CAPACITY);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the slot of the book, -1 if it is not in the table
+	 *
+	 * @param isbn
+	 * @return
+	 */
+	public int slotOf(int isbn) {
+		if (isbn == FREE) {
+			return NO_SLOT;
+		}
+		for (int i = hash(isbn) & (indexKeys.length - 1);; i = (i + 1)
+				& (indexKeys.length - 1)) {
+			if (indexKeys[i] == isbn) {
+				return indexSlots[i];
+			}
+			if (indexKeys[i] == FREE) {
+				return NO_SLOT;
+			}
+		}
+	}
+
+	public boolean contains(int isbn) {
+		return slotOf(isbn) != NO_SLOT;
+	}
+
+	/**
+	 * Adds a book, which must not be in the table, with all its counters
+	 *
+	 * @param book
+	 * @return the slot of the book
+	 */
+	public int add(StockBook book) {
+		if (size == metadata.length) {
+			grow();
+		}
+		int slot = size++;
+		metadata[slot] = new ImmutableBook(book.getISBN(), book.getTitle(),
+				book.getAuthor(), book.getPrice());
+		numCopies[slot] = book.getNumCopies();
+		totalRating[slot] = book.getTotalRating();
+		timesRated[slot] = book.getTimesRated();
+		saleMisses[slot] = book.getSaleMisses();
+		editorPick[slot] = book.isEditorPick();
+		indexPut(book.getISBN(), slot);
+		return slot;
+	}
+
+	/**
+	 * Removes the book and moves the last book into its slot
+	 *
+	 * @param isbn
+	 */
+	public void remove(int isbn) {
+		int slot = slotOf(isbn);
+		if (slot == NO_SLOT) {
+			return;
+		}
+		indexRemove(isbn);
+		int last = --size;
+		if (slot != last) {
+			metadata[slot] = metadata[last];
+			numCopies[slot] = numCopies[last];
+			totalRating[slot] = totalRating[last];
+			timesRated[slot] = timesRated[last];
+			saleMisses[slot] = saleMisses[last];
+			editorPick[slot] = editorPick[last];
+			indexPut(metadata[slot].getISBN(), slot);
+		}
+		metadata[last] = null;
+	}
+
+	public void clear() {
+		allocate(INITIAL_CAPACITY);
+		size = 0;
+	}
+
+	public ImmutableBook getBook(int slot) {
+		return metadata[slot];
+	}
+
+	public int getNumCopies(int slot) {
+		return numCopies[slot];
+	}
+
+	public boolean hadSaleMiss(int slot) {
+		return saleMisses[slot] > 0;
+	}
+
+	public float getAverageRating(int slot) {
+		return timesRated[slot] == 0 ? -1.0f : (float) totalRating[slot]
+				/ timesRated[slot];
+	}
+
+	/**
+	 * Returns an immutable copy of the book in the slot with its counters
+	 *
+	 * @param slot
+	 * @return
+	 */
+	public StockBook getStockBook(int slot) {
+		return new ImmutableStockBook(metadata[slot], numCopies[slot],
+				saleMisses[slot], timesRated[slot], totalRating[slot],
+				editorPick[slot]);
+	}
+
+	public void setEditorPick(int slot, boolean isEditorPick) {
+		editorPick[slot] = isEditorPick;
+	}
+
+	/**
+	 * Adds copies of the book, which clears its sale misses, cf.
+	 * BookStoreBook.addCopies
+	 *
+	 * @param slot
+	 * @param copies
+	 */
+	public void addCopies(int slot, int copies) {
+		if (!BookStoreUtility.isInvalidNoCopies(copies)) {
+			numCopies[slot] += copies;
+			saleMisses[slot] = 0;
+		}
+	}
+
+	/**
+	 * Removes the copies of the book if they are all in stock
+	 *
+	 * @param slot
+	 * @param copies
+	 * @return true if the copies were bought
+	 */
+	public boolean buyCopies(int slot, int copies) {
+		if (!BookStoreUtility.isInvalidNoCopies(copies)
+				&& numCopies[slot] >= copies) {
+			numCopies[slot] -= copies;
+			return true;
+		}
+		return false;
+	}
+
+	public boolean areCopiesInStore(int slot, int copies) {
+		return numCopies[slot] >= copies;
+	}
+
+	public void addSaleMiss(int slot) {
+		saleMisses[slot]++;
+	}
+
+	public void addRating(int slot, int rating) {
+		if (!BookStoreUtility.isInvalidRating(rating)) {
+			totalRating[slot] += rating;
+			timesRated[slot]++;
+		}
+	}
+
+	/**
+	 * Returns all books with their counters
+	 *
+	 * @return
+	 */
+	public List<StockBook> getStockBooks() {
+		List<StockBook> books = new ArrayList<StockBook>(size);
+		for (int slot = 0; slot < size; slot++) {
+			books.add(getStockBook(slot));
+		}
+		return books;
+	}
+
+	/**
+	 * Returns the books that are editor picks, found by a pass over the
+	 * editor pick flags
+	 *
+	 * @return
+	 */
+	public List<Book> getEditorPicks() {
+		List<Book> books = new ArrayList<Book>();
+		for (int slot = 0; slot < size; slot++) {
+			if (editorPick[slot]) {
+				books.add(metadata[slot]);
+			}
+		}
+		return books;
+	}
+
+	/**
+	 * Returns the numBooks books with the fewest copies in stock, fewest
+	 * first, found by a pass over the copy counters
+	 *
+	 * @param numBooks
+	 * @return
+	 */
+	public List<StockBook> getLowestStock(int numBooks) {
+		int k = Math.min(numBooks, size);
+		// The k lowest counts seen so far, packed with their slots into
+		// longs kept sorted by insertion
+		long[] lowest = new long[k];
+		int found = 0;
+		for (int slot = 0; slot < size && k > 0; slot++) {
+			long packed = ((long) numCopies[slot] << 32) | slot;
+			if (found == k && packed >= lowest[k - 1]) {
+				continue;
+			}
+			int i = found < k ? found++ : k - 1;
+			while (i > 0 && lowest[i - 1] > packed) {
+				lowest[i] = lowest[i - 1];
+				i--;
+			}
+			lowest[i] = packed;
+		}
+		List<StockBook> books = new ArrayList<StockBook>(found);
+		for (int i = 0; i < found; i++) {
+			books.add(getStockBook((int) lowest[i]));
+		}
+		return books;
+	}
+
+	private void allocate(int capacity) {
+		metadata = new ImmutableBook[capacity];
+		numCopies = new int[capacity];
+		totalRating = new long[capacity];
+		timesRated = new long[capacity];
+		saleMisses = new long[capacity];
+		editorPick = new boolean[capacity];
+		// The index is kept at most half full
+		indexKeys = new int[capacity * 2];
+		indexSlots = new int[capacity * 2];
+	}
+
+	private void grow() {
+		int capacity = metadata.length * 2;
+		metadata = Arrays.copyOf(metadata, capacity);
+		numCopies = Arrays.copyOf(numCopies, capacity);
+		totalRating = Arrays.copyOf(totalRating, capacity);
+		timesRated = Arrays.copyOf(timesRated, capacity);
+		saleMisses = Arrays.copyOf(saleMisses, capacity);
+		editorPick = Arrays.copyOf(editorPick, capacity);
+		indexKeys = new int[capacity * 2];
+		indexSlots = new int[capacity * 2];
+		for (int slot = 0; slot < size; slot++) {
+			indexPut(metadata[slot].getISBN(), slot);
+		}
+	}
+
+	private void indexPut(int isbn, int slot) {
+		int mask = indexKeys.length - 1;
+		int i = hash(isbn) & mask;
+		while (indexKeys[i] != isbn && indexKeys[i] != FREE) {
+			i = (i + 1) & mask;
+		}
+		indexKeys[i] = isbn;
+		indexSlots[i] = slot;
+	}
+
+	/**
+	 * Removes the ISBN from the index, shifting back the entries probed past
+	 * it so that no probe sequence is broken
+	 */
+	private void indexRemove(int isbn) {
+		int mask = indexKeys.length - 1;
+		int i = hash(isbn) & mask;
+		while (indexKeys[i] != isbn) {
+			if (indexKeys[i] == FREE) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		int free = i;
+		for (int j = (free + 1) & mask; indexKeys[j] != FREE; j = (j + 1)
+				& mask) {
+			int home = hash(indexKeys[j]) & mask;
+			// Move the entry back unless its home lies cyclically in
+			// (free, j]
+			if (free <= j ? (home <= free || home > j)
+					: (home <= free && home > j)) {
+				indexKeys[free] = indexKeys[j];
+				indexSlots[free] = indexSlots[j];
+				free = j;
+			}
+		}
+		indexKeys[free] = FREE;
+	}
+
+	private static int hash(int isbn) {
+		int h = isbn * 0x9E3779B9; // spread consecutive ISBNs
+		return h ^ (h >>> 16);
+	}
+}
@@ -3,34 +3,95 @@
  */
 package com.acertainbookstore.business;
 
-import java.util.*;
-import java.util.Map.Entry;
-
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.LockProfiler;
 
 /**
  * ConcurrentCertainBookStore implements the bookstore and its functionality which is
  * defined in the BookStore
+ *
+ * Concurrency control uses a fixed array of read/write lock stripes indexed
+ * by a hash of the ISBN. Operations on a set of ISBNs lock the stripes
+ * covering those ISBNs in ascending stripe order, and validate and mutate
+ * under the same locks, so operations on disjoint stripes never wait for each
+ * other. Operations that change the structure of the catalog (adding and
+ * removing books) or that scan the whole catalog take every stripe, which
+ * makes them exclusive with respect to all other operations.
+ *
+ * getTopRatedBooks reads a RatingIndex, which rateBooks keeps up to date under
+ * the stripes of the rated books, and does not take any stripe. Likewise
+ * getEditorPicks samples an EditorPicksIndex, which changes under the stripes
+ * of the picked books, so it takes no stripe and does not scan the catalog. The ISBNs of
+ * the books that had a sale miss since their last replenishment are kept in a
+ * concurrent set, so getBooksInDemand only locks the stripes of those books.
+ *
+ * The books are kept in a CatalogTable, which stores their counters in
+ * primitive arrays so that getBooks and getLowestStockBooks are sequential
+ * passes over those arrays. Adding and removing books moves
+ * books between slots and resizes the arrays, so it takes every stripe.
+ *
+ * Setting a LockProfiler makes the bookstore record how long it waits for
+ * and holds its locks, cf. setLockProfiler. A stripe is then taken with the
+ * same lock() as without the profiler, so the profiler does not change who
+ * gets the lock, and it counts as contended if it was held or had threads
+ * queued for it just before.
  */
 public class ConcurrentCertainBookStore implements BookStore, StockManager {
-	private Map<Integer, BookStoreBook> bookMap;
-  private ConcurrentHashMap<Integer, ReadWriteLock> lockMap;
-  ReadWriteLock readWriteLock = new ReentrantReadWriteLock();
-  private Lock readLock = readWriteLock.readLock();
-  private Lock writeLock = readWriteLock.readLock();
+
+	/**
+	 * Number of lock stripes used by the default constructor
+	 */
+	public static final int DEFAULT_NUM_STRIPES = 64;
+
+	private final CatalogTable catalog;
+	private final ReentrantReadWriteLock[] stripes;
+	private final int stripeMask;
+	private final RatingIndex ratingIndex = new RatingIndex();
+	private final EditorPicksIndex editorPicksIndex = new EditorPicksIndex();
+	private final Set<Integer> booksInDemand = Collections
+			.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+	private volatile LockProfiler lockProfiler = null;
+
 	public ConcurrentCertainBookStore() {
+		this(DEFAULT_NUM_STRIPES);
+	}
+
+	/**
+	 * Creates a bookstore using numStripes lock stripes, rounded up to the
+	 * next power of two
+	 *
+	 * @param numStripes
+	 */
+	public ConcurrentCertainBookStore(int numStripes) {
 		// Constructors are not synchronized
-		bookMap = new HashMap<>();
-    lockMap = new ConcurrentHashMap<>();
+		if (numStripes < 1) {
+			throw new IllegalArgumentException("numStripes = " + numStripes
+					+ ", but it must be positive");
+		}
+		int size = Integer.highestOneBit(numStripes);
+		if (size < numStripes) {
+			size <<= 1;
+		}
+		catalog = new CatalogTable();
+		stripes = new ReentrantReadWriteLock[size];
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new ReentrantReadWriteLock();
+		}
+		stripeMask = size - 1;
 	}
 
 	public void addBooks(Set<StockBook> bookSet)
@@ -39,34 +100,44 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 		if (bookSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-		// Check if all are there
-    writeLock.lock();
-		for (StockBook book : bookSet) {
-			int ISBN = book.getISBN();
-			String bookTitle = book.getTitle();
-			String bookAuthor = book.getAuthor();
-			int noCopies = book.getNumCopies();
-			float bookPrice = book.getPrice();
-			if (BookStoreUtility.isInvalidISBN(ISBN)
-					|| BookStoreUtility.isEmpty(bookTitle)
-					|| BookStoreUtility.isEmpty(bookAuthor)
-					|| BookStoreUtility.isInvalidNoCopies(noCopies)
-					|| bookPrice < 0.0) {
-        writeLock.unlock();
-				throw new BookStoreException(BookStoreConstants.BOOK
-						+ book.toString() + BookStoreConstants.INVALID);
-			} else if (bookMap.containsKey(ISBN)) {
-        writeLock.unlock();
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-						+ BookStoreConstants.DUPLICATED);
+		lockAllStripes(true);
+		try {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				int ISBN = book.getISBN();
+				String bookTitle = book.getTitle();
+				String bookAuthor = book.getAuthor();
+				int noCopies = book.getNumCopies();
+				float bookPrice = book.getPrice();
+				if (BookStoreUtility.isInvalidISBN(ISBN)
+						|| BookStoreUtility.isEmpty(bookTitle)
+						|| BookStoreUtility.isEmpty(bookAuthor)
+						|| BookStoreUtility.isInvalidNoCopies(noCopies)
+						|| bookPrice < 0.0) {
+					throw new BookStoreException(BookStoreConstants.BOOK
+							+ book.toString() + BookStoreConstants.INVALID);
+				} else if (catalog.contains(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+							+ BookStoreConstants.DUPLICATED);
+				}
 			}
+
+			List<Book> picked = new ArrayList<>();
+			for (StockBook book : bookSet) {
+				int slot = catalog.add(book);
+				ratingIndex.put(catalog.getBook(slot),
+						catalog.getAverageRating(slot));
+				if (catalog.hadSaleMiss(slot)) {
+					booksInDemand.add(book.getISBN());
+				}
+				if (book.isEditorPick()) {
+					picked.add(catalog.getBook(slot));
+				}
+			}
+			editorPicksIndex.update(picked, Collections.<Integer> emptySet());
+		} finally {
+			unlockAllStripes(true);
 		}
-		for (StockBook book : bookSet) {
-			int ISBN = book.getISBN();
-			bookMap.put(ISBN, new BookStoreBook(book));
-      lockMap.put(ISBN, new ReentrantReadWriteLock());
-		}
-    writeLock.unlock();
 	}
 
 	public void addCopies(Set<BookCopy> bookCopiesSet)
@@ -76,50 +147,41 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 		if (bookCopiesSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-    readLock.lock();
-		for (BookCopy bookCopy : bookCopiesSet) {
-			ISBN = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.INVALID);
-      }
-			if (!bookMap.containsKey(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.NOT_AVAILABLE);
-      }
-			if (BookStoreUtility.isInvalidNoCopies(numCopies))
-				throw new BookStoreException(BookStoreConstants.NUM_COPIES
-						+ numCopies + BookStoreConstants.INVALID);
-		}
-    readLock.unlock();
-		BookStoreBook book;
-		// Update the number of copies
-    Set<Integer> isbnSet = new HashSet<>();
-    for (BookCopy bookCopy : bookCopiesSet) {
-      isbnSet.add(bookCopy.getISBN());
-    }
-    lockISBNSet(isbnSet, true);
+
+		Set<Integer> isbnSet = new HashSet<>();
 		for (BookCopy bookCopy : bookCopiesSet) {
-			ISBN = bookCopy.getISBN();
-			numCopies = bookCopy.getNumCopies();
-			book = bookMap.get(ISBN);
-			book.addCopies(numCopies);
+			isbnSet.add(bookCopy.getISBN());
+		}
+		int[] lockedStripes = lockISBNSet(isbnSet, true);
+		try {
+			for (BookCopy bookCopy : bookCopiesSet) {
+				ISBN = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
+				validateISBNInStore(ISBN);
+				if (BookStoreUtility.isInvalidNoCopies(numCopies))
+					throw new BookStoreException(BookStoreConstants.NUM_COPIES
+							+ numCopies + BookStoreConstants.INVALID);
+			}
+
+			// Update the number of copies
+			for (BookCopy bookCopy : bookCopiesSet) {
+				ISBN = bookCopy.getISBN();
+				numCopies = bookCopy.getNumCopies();
+				catalog.addCopies(catalog.slotOf(ISBN), numCopies);
+				booksInDemand.remove(ISBN);
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
 		}
-    unlockISBNSet(isbnSet, true);
 	}
 
 	public List<StockBook> getBooks() {
-		List<StockBook> listBooks = new ArrayList<>();
-    readLock.lock();
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
-		for (BookStoreBook book : bookMapValues) {
-			listBooks.add(book.immutableStockBook());
+		lockAllStripes(false);
+		try {
+			return catalog.getStockBooks();
+		} finally {
+			unlockAllStripes(false);
 		}
-    readLock.unlock();
-		return listBooks;
 	}
 
 	public void updateEditorPicks(Set<BookEditorPick> editorPicks)
@@ -129,32 +191,31 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		int ISBNVal;
-    readLock.lock();
+		Set<Integer> isbnSet = new HashSet<>();
 		for (BookEditorPick editorPickArg : editorPicks) {
-			ISBNVal = editorPickArg.getISBN();
-			if (BookStoreUtility.isInvalidISBN(ISBNVal)) {
-        readLock.unlock();
-				throw new BookStoreException(BookStoreConstants.ISBN + ISBNVal
-						+ BookStoreConstants.INVALID);
-      }
-			if (!bookMap.containsKey(ISBNVal)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBNVal
-                + BookStoreConstants.NOT_AVAILABLE);
-      }
-		}
-    readLock.unlock();
-    Set<Integer> isbnSet = new HashSet<>();
-    for (BookEditorPick editorPickArg : editorPicks) {
-      isbnSet.add(editorPickArg.getISBN());
-    }
-    lockISBNSet(isbnSet, true);
-    for (BookEditorPick editorPickArg : editorPicks) {
-      bookMap.get(editorPickArg.getISBN()).setEditorPick(
-              editorPickArg.isEditorPick());
-    }
-    unlockISBNSet(isbnSet, true);
+			isbnSet.add(editorPickArg.getISBN());
+		}
+		int[] lockedStripes = lockISBNSet(isbnSet, true);
+		try {
+			for (BookEditorPick editorPickArg : editorPicks) {
+				validateISBNInStore(editorPickArg.getISBN());
+			}
+
+			List<Book> picked = new ArrayList<>();
+			Set<Integer> unpicked = new HashSet<>();
+			for (BookEditorPick editorPickArg : editorPicks) {
+				int slot = catalog.slotOf(editorPickArg.getISBN());
+				catalog.setEditorPick(slot, editorPickArg.isEditorPick());
+				if (editorPickArg.isEditorPick()) {
+					picked.add(catalog.getBook(slot));
+				} else {
+					unpicked.add(editorPickArg.getISBN());
+				}
+			}
+			editorPicksIndex.update(picked, unpicked);
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
 	}
 
 	public void buyBooks(Set<BookCopy> bookCopiesToBuy)
@@ -163,59 +224,47 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
 
-		// Check that all ISBNs that we buy are there first.
-		int ISBN;
-		BookStoreBook book;
-		Boolean saleMiss = false;
-    readLock.lock();
+		Set<Integer> isbnSet = new HashSet<>();
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-      ISBN = bookCopyToBuy.getISBN();
-      if (bookCopyToBuy.getNumCopies() < 0) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.NUM_COPIES
-                + bookCopyToBuy.getNumCopies()
-                + BookStoreConstants.INVALID);
-      }
-      if (BookStoreUtility.isInvalidISBN(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.INVALID);
-      }
-      if (!bookMap.containsKey(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.NOT_AVAILABLE);
-      }
-    }
-    readLock.unlock();
-
-    Set<Integer> isbnSet = new HashSet<>();
-    for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-      isbnSet.add(bookCopyToBuy.getISBN());
-    }
-    lockISBNSet(isbnSet, true);
-    for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
-				book.addSaleMiss(); // If we cannot sell the copies of the book
-									// its a miss
-				saleMiss = true;
-			}
+			isbnSet.add(bookCopyToBuy.getISBN());
 		}
+		int[] lockedStripes = lockISBNSet(isbnSet, true);
+		try {
+			// Check that all ISBNs that we buy are there first.
+			int slot;
+			Boolean saleMiss = false;
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				if (bookCopyToBuy.getNumCopies() < 0)
+					throw new BookStoreException(BookStoreConstants.NUM_COPIES
+							+ bookCopyToBuy.getNumCopies()
+							+ BookStoreConstants.INVALID);
+				validateISBNInStore(bookCopyToBuy.getISBN());
+			}
 
-		// We throw exception now since we want to see how many books in the
-		// order incurred misses which is used by books in demand
-		if (saleMiss) {
-      unlockISBNSet(isbnSet, true);
-      throw new BookStoreException(BookStoreConstants.BOOK
-              + BookStoreConstants.NOT_AVAILABLE);
-    }
-		// Then make purchase
-		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
-			book = bookMap.get(bookCopyToBuy.getISBN());
-			book.buyCopies(bookCopyToBuy.getNumCopies());
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				slot = catalog.slotOf(bookCopyToBuy.getISBN());
+				if (!catalog.areCopiesInStore(slot, bookCopyToBuy.getNumCopies())) {
+					catalog.addSaleMiss(slot); // If we cannot sell the copies of
+												// the book its a miss
+					booksInDemand.add(bookCopyToBuy.getISBN());
+					saleMiss = true;
+				}
+			}
+
+			// We throw exception now since we want to see how many books in the
+			// order incurred misses which is used by books in demand
+			if (saleMiss)
+				throw new BookStoreException(BookStoreConstants.BOOK
+						+ BookStoreConstants.NOT_AVAILABLE);
+
+			// Then make purchase
+			for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+				catalog.buyCopies(catalog.slotOf(bookCopyToBuy.getISBN()),
+						bookCopyToBuy.getNumCopies());
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
 		}
-    unlockISBNSet(isbnSet, true);
 	}
 
 
@@ -224,28 +273,20 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-    readLock.lock();
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.INVALID);
-      }
-			if (!bookMap.containsKey(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.NOT_AVAILABLE);
-      }
-		}
-    readLock.unlock();
 
 		List<StockBook> listBooks = new ArrayList<>();
+		int[] lockedStripes = lockISBNSet(isbnSet, false);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStore(ISBN);
+			}
 
-    lockISBNSet(isbnSet, false);
-		for (Integer ISBN : isbnSet) {
-			listBooks.add(bookMap.get(ISBN).immutableStockBook());
+			for (Integer ISBN : isbnSet) {
+				listBooks.add(catalog.getStockBook(catalog.slotOf(ISBN)));
+			}
+		} finally {
+			unlockStripes(lockedStripes, false);
 		}
-    unlockISBNSet(isbnSet, false);
 
 		return listBooks;
 	}
@@ -255,27 +296,20 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-    readLock.lock();
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.INVALID);
-      }
-			if (!bookMap.containsKey(ISBN)) {
-        readLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.NOT_AVAILABLE);
-      }
-		}
-    readLock.unlock();
 
 		List<Book> listBooks = new ArrayList<>();
-    lockISBNSet(isbnSet, false);
-		for (Integer ISBN : isbnSet) {
-			listBooks.add(bookMap.get(ISBN).immutableBook());
+		int[] lockedStripes = lockISBNSet(isbnSet, false);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStore(ISBN);
+			}
+
+			for (Integer ISBN : isbnSet) {
+				listBooks.add(catalog.getBook(catalog.slotOf(ISBN)));
+			}
+		} finally {
+			unlockStripes(lockedStripes, false);
 		}
-    unlockISBNSet(isbnSet, false);
 
 		return listBooks;
 	}
@@ -287,70 +321,103 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 					+ ", but it must be positive");
 		}
 
-		List<BookStoreBook> listAllEditorPicks = new ArrayList<>();
-		List<Book> listEditorPicks = new ArrayList<>();
-    readLock.lock();
-		Iterator<Entry<Integer, BookStoreBook>> it = bookMap.entrySet()
-				.iterator();
-		BookStoreBook book;
-
-		// Get all books that are editor picks
-		while (it.hasNext()) {
-			Entry<Integer, BookStoreBook> pair = it.next();
-			book = pair.getValue();
-			if (book.isEditorPick()) {
-				listAllEditorPicks.add(book);
-			}
-		}
-    readLock.unlock();
-
-		// Find numBooks random indices of books that will be picked
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<>();
-		int rangePicks = listAllEditorPicks.size();
-		if (rangePicks <= numBooks) {
-			// We need to add all the books
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-			// We need to pick randomly the books that need to be returned
-			int randNum;
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
-
-		// Get the numBooks random books
-		for (Integer index : tobePicked) {
-			book = listAllEditorPicks.get(index);
-			listEditorPicks.add(book.immutableBook());
-		}
-		return listEditorPicks;
-
+		return editorPicksIndex.sample(numBooks);
 	}
 
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks)
 			throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks
+					+ ", but it must be positive");
+		}
+		return ratingIndex.top(numBooks);
 	}
 
 	@Override
 	public List<StockBook> getBooksInDemand()
 			throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		Set<Integer> isbnSet = new HashSet<>(booksInDemand);
+		List<StockBook> listBooks = new ArrayList<>(isbnSet.size());
+		int[] lockedStripes = lockISBNSet(isbnSet, false);
+		try {
+			// Books replenished or removed since the set was copied are skipped
+			for (Integer ISBN : isbnSet) {
+				int slot = catalog.slotOf(ISBN);
+				if (slot >= 0 && catalog.hadSaleMiss(slot)) {
+					listBooks.add(catalog.getStockBook(slot));
+				}
+			}
+		} finally {
+			unlockStripes(lockedStripes, false);
+		}
+		return listBooks;
+	}
+
+	/**
+	 * Returns the numBooks books with the fewest copies in stock, fewest
+	 * first, so that the stock manager knows what to replenish
+	 *
+	 * @param numBooks
+	 * @return
+	 * @throws BookStoreException
+	 */
+	public List<StockBook> getLowestStockBooks(int numBooks)
+			throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks
+					+ ", but it must be positive");
+		}
+		lockAllStripes(false);
+		try {
+			return catalog.getLowestStock(numBooks);
+		} finally {
+			unlockAllStripes(false);
+		}
 	}
 
 	@Override
 	public void rateBooks(Set<BookRating> bookRating)
 			throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		Set<Integer> isbnSet = new HashSet<>();
+		for (BookRating rating : bookRating) {
+			isbnSet.add(rating.getISBN());
+		}
+		int[] lockedStripes = lockISBNSet(isbnSet, true);
+		try {
+			// Check that all ISBNs that we rate are there first.
+			for (BookRating rating : bookRating) {
+				if (BookStoreUtility.isInvalidRating(rating.getRating()))
+					throw new BookStoreException(BookStoreConstants.RATING
+							+ rating.getRating() + BookStoreConstants.INVALID);
+				validateISBNInStore(rating.getISBN());
+			}
+
+			for (BookRating rating : bookRating) {
+				int slot = catalog.slotOf(rating.getISBN());
+				catalog.addRating(slot, rating.getRating());
+				ratingIndex.put(catalog.getBook(slot),
+						catalog.getAverageRating(slot));
+			}
+		} finally {
+			unlockStripes(lockedStripes, true);
+		}
 	}
 
 	public void removeAllBooks() throws BookStoreException {
-		bookMap.clear();
+		lockAllStripes(true);
+		try {
+			catalog.clear();
+			ratingIndex.clear();
+			editorPicksIndex.clear();
+			booksInDemand.clear();
+		} finally {
+			unlockAllStripes(true);
+		}
 	}
 
 	public void removeBooks(Set<Integer> isbnSet)
@@ -359,53 +426,210 @@ public class ConcurrentCertainBookStore implements BookStore, StockManager {
 		if (isbnSet == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
 		}
-    writeLock.lock();
-		for (Integer ISBN : isbnSet) {
-			if (BookStoreUtility.isInvalidISBN(ISBN)) {
-        writeLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.INVALID);
-      }
-			if (!bookMap.containsKey(ISBN)) {
-        writeLock.unlock();
-        throw new BookStoreException(BookStoreConstants.ISBN + ISBN
-                + BookStoreConstants.NOT_AVAILABLE);
-      }
-		}
-    lockISBNSet(isbnSet, true);
-		for (int isbn : isbnSet) {
-			bookMap.remove(isbn);
-      lockMap.get(isbn).writeLock().unlock();
-      lockMap.remove(isbn);
-    }
-    writeLock.unlock();
+		lockAllStripes(true);
+		try {
+			for (Integer ISBN : isbnSet) {
+				validateISBNInStore(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				catalog.remove(isbn);
+				ratingIndex.remove(isbn);
+				booksInDemand.remove(isbn);
+			}
+			editorPicksIndex.update(Collections.<Book> emptyList(), isbnSet);
+		} finally {
+			unlockAllStripes(true);
+		}
+	}
+
+	/**
+	 * Throws if the ISBN is invalid or not in the store. The caller must hold
+	 * the stripe lock covering the ISBN.
+	 *
+	 * @param ISBN
+	 * @throws BookStoreException
+	 */
+	private void validateISBNInStore(Integer ISBN) throws BookStoreException {
+		if (ISBN == null || BookStoreUtility.isInvalidISBN(ISBN))
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+					+ BookStoreConstants.INVALID);
+		if (!catalog.contains(ISBN))
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+					+ BookStoreConstants.NOT_AVAILABLE);
+	}
+
+	/**
+	 * Returns the index of the stripe guarding the ISBN
+	 *
+	 * @param isbn
+	 * @return
+	 */
+	private int stripeOf(int isbn) {
+		int h = isbn * 0x9E3779B9; // spread consecutive ISBNs over the stripes
+		return (h ^ (h >>> 16)) & stripeMask;
+	}
+
+	/**
+	 * Sets the profiler recording the locks the bookstore takes from now on,
+	 * null to stop profiling
+	 *
+	 * @param lockProfiler
+	 */
+	public void setLockProfiler(LockProfiler lockProfiler) {
+		this.lockProfiler = lockProfiler;
+	}
+
+	public LockProfiler getLockProfiler() {
+		return lockProfiler;
+	}
+
+	/**
+	 * Returns the number of lock stripes, which a LockProfiler for this
+	 * bookstore is created with
+	 *
+	 * @return
+	 */
+	public int getNumStripes() {
+		return stripes.length;
+	}
+
+	/**
+	 * Locks the stripes covering the ISBNs in ascending stripe order, which
+	 * rules out deadlocks between concurrent callers
+	 *
+	 * @param isbnSet
+	 * @param isWrite
+	 * @return the locked stripes, to be passed to unlockStripes
+	 */
+	private int[] lockISBNSet(Set<Integer> isbnSet, boolean isWrite) {
+		int[] stripeIndices = new int[isbnSet.size()];
+		int numStripes = 0;
+		for (Integer isbn : isbnSet) {
+			if (isbn != null) {
+				stripeIndices[numStripes++] = stripeOf(isbn);
+			}
+		}
+		Arrays.sort(stripeIndices, 0, numStripes);
+
+		// Several ISBNs can share a stripe, which must only be locked once
+		int numDistinct = 0;
+		for (int i = 0; i < numStripes; i++) {
+			if (numDistinct == 0
+					|| stripeIndices[numDistinct - 1] != stripeIndices[i]) {
+				stripeIndices[numDistinct++] = stripeIndices[i];
+			}
+		}
+		int[] lockedStripes = Arrays.copyOf(stripeIndices, numDistinct);
+		LockProfiler profiler = lockProfiler;
+		if (profiler == null) {
+			for (int stripe : lockedStripes) {
+				lockOf(stripe, isWrite).lock();
+			}
+			return lockedStripes;
+		}
+
+		long[] waitNanoSecs = new long[numDistinct];
+		long totalWaitNanoSecs = 0;
+		for (int i = 0; i < numDistinct; i++) {
+			waitNanoSecs[i] = lockStripe(lockedStripes[i], isWrite, profiler);
+			totalWaitNanoSecs += waitNanoSecs[i];
+		}
+		// The wait for a stripe is charged to the ISBNs it covers
+		for (Integer isbn : isbnSet) {
+			if (isbn != null) {
+				profiler.recordISBNAcquisition(isbn);
+				long wait = waitNanoSecs[Arrays.binarySearch(lockedStripes,
+						stripeOf(isbn))];
+				if (wait > 0) {
+					profiler.recordISBNWait(isbn, wait);
+				}
+			}
+		}
+		profiler.acquired(isWrite ? LockProfiler.Kind.ISBN_WRITE
+				: LockProfiler.Kind.ISBN_READ, totalWaitNanoSecs);
+		return lockedStripes;
 	}
 
-  public void lockISBNSet(Set<Integer> isbnSet, Boolean isWrite) {
-    Integer[] isbnList = isbnSet.toArray(new Integer[isbnSet.size()]);
-    Arrays.sort(isbnList);
-    if (isWrite) {
-      for (Integer isbn : isbnList) {
-        lockMap.get(isbn).writeLock().lock();
-      }
-    } else {
-      for (Integer isbn : isbnList) {
-        lockMap.get(isbn).readLock().lock();
-      }
-    }
-  }
-
-  public void unlockISBNSet(Set<Integer> isbnSet, Boolean isWrite) {
-    Integer[] isbnList = isbnSet.toArray(new Integer[isbnSet.size()]);
-    Arrays.sort(isbnList);
-    if (isWrite) {
-      for (Integer isbn : isbnList) {
-        lockMap.get(isbn).writeLock().unlock();
-      }
-    } else {
-      for (Integer isbn : isbnList) {
-        lockMap.get(isbn).readLock().unlock();
-      }
-    }
-  }
+	/**
+	 * Unlocks the stripes returned by lockISBNSet
+	 *
+	 * @param lockedStripes
+	 * @param isWrite
+	 */
+	private void unlockStripes(int[] lockedStripes, boolean isWrite) {
+		LockProfiler profiler = lockProfiler;
+		if (profiler != null) {
+			profiler.released(isWrite ? LockProfiler.Kind.ISBN_WRITE
+					: LockProfiler.Kind.ISBN_READ);
+		}
+		for (int i = lockedStripes.length - 1; i >= 0; i--) {
+			lockOf(lockedStripes[i], isWrite).unlock();
+		}
+	}
+
+	/**
+	 * Locks every stripe in ascending order, giving the caller exclusive
+	 * (isWrite) or shared access to the whole catalog
+	 *
+	 * @param isWrite
+	 */
+	private void lockAllStripes(boolean isWrite) {
+		LockProfiler profiler = lockProfiler;
+		if (profiler == null) {
+			for (int i = 0; i < stripes.length; i++) {
+				lockOf(i, isWrite).lock();
+			}
+			return;
+		}
+
+		long totalWaitNanoSecs = 0;
+		for (int i = 0; i < stripes.length; i++) {
+			totalWaitNanoSecs += lockStripe(i, isWrite, profiler);
+		}
+		profiler.acquired(isWrite ? LockProfiler.Kind.CATALOG_WRITE
+				: LockProfiler.Kind.CATALOG_READ, totalWaitNanoSecs);
+	}
+
+	private void unlockAllStripes(boolean isWrite) {
+		LockProfiler profiler = lockProfiler;
+		if (profiler != null) {
+			profiler.released(isWrite ? LockProfiler.Kind.CATALOG_WRITE
+					: LockProfiler.Kind.CATALOG_READ);
+		}
+		for (int i = stripes.length - 1; i >= 0; i--) {
+			lockOf(i, isWrite).unlock();
+		}
+	}
+
+	private Lock lockOf(int stripe, boolean isWrite) {
+		return isWrite ? stripes[stripe].writeLock() : stripes[stripe]
+				.readLock();
+	}
+
+	/**
+	 * Locks the stripe and times the wait if the stripe was contended. A
+	 * tryLock first would let a reader barge past the writers queued for the
+	 * stripe, which lock() does not.
+	 *
+	 * @param stripe
+	 * @param isWrite
+	 * @param profiler
+	 * @return the nanoseconds waited, 0 if the stripe was free
+	 */
+	private long lockStripe(int stripe, boolean isWrite, LockProfiler profiler) {
+		ReentrantReadWriteLock lock = stripes[stripe];
+		boolean contended = lock.isWriteLocked() || lock.hasQueuedThreads()
+				|| (isWrite && lock.getReadLockCount() > 0);
+		long startTimeInNanoSecs = System.nanoTime();
+		lockOf(stripe, isWrite).lock();
+		if (!contended) {
+			return 0;
+		}
+		// A wait of 0 would not count as contended
+		long waitNanoSecs = Math.max(System.nanoTime() - startTimeInNanoSecs,
+				1);
+		profiler.recordStripeWait(stripe, waitNanoSecs);
+		return waitNanoSecs;
+	}
 }
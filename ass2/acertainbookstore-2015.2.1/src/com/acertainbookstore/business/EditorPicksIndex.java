@@ -0,0 +1,119 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * EditorPicksIndex keeps the books that are editor picks in a dense array so
+ * that a random sample of k picks is drawn in O(k) without scanning the
+ * catalog.
+ *
+ * A book is removed by moving the last pick into its slot, and a map from
+ * ISBN to slot makes an update O(1). A sample is a partial Fisher-Yates
+ * shuffle of the array. The bookstore keeps the index up to date, and it may
+ * be read concurrently with the updates.
+ *
+ */
+public class EditorPicksIndex {
+	private Book[] picks = new Book[16];
+	private int size = 0;
+	private final Map<Integer, Integer> positions = new HashMap<>();
+
+	/**
+	 * Marks and unmarks books as editor picks in one step, so that a sample
+	 * sees either none or all of the changes
+	 *
+	 * @param picked
+	 *            the books that are now editor picks
+	 * @param unpicked
+	 *            the ISBNs of the books that no longer are editor picks
+	 */
+	public synchronized void update(Collection<? extends Book> picked,
+			Collection<Integer> unpicked) {
+		for (Integer ISBN : unpicked) {
+			removePick(ISBN);
+		}
+		for (Book book : picked) {
+			addPick(book);
+		}
+	}
+
+	/**
+	 * Removes all editor picks
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < size; i++) {
+			picks[i] = null;
+		}
+		size = 0;
+		positions.clear();
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns numBooks editor picks chosen uniformly at random, or all of them
+	 * if there are no more than numBooks
+	 *
+	 * @param numBooks
+	 * @return
+	 */
+	public synchronized List<Book> sample(int numBooks) {
+		int numPicked = Math.min(numBooks, size);
+		List<Book> sample = new ArrayList<>(numPicked);
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		// The first i slots hold the sample drawn so far and the rest are the
+		// candidates, so each draw is a swap
+		for (int i = 0; i < numPicked; i++) {
+			swap(i, i + rand.nextInt(size - i));
+			sample.add(picks[i]);
+		}
+		return sample;
+	}
+
+	private void addPick(Book book) {
+		Integer position = positions.get(book.getISBN());
+		if (position != null) {
+			picks[position] = book;
+			return;
+		}
+		if (size == picks.length) {
+			Book[] grown = new Book[picks.length * 2];
+			System.arraycopy(picks, 0, grown, 0, size);
+			picks = grown;
+		}
+		picks[size] = book;
+		positions.put(book.getISBN(), size);
+		size++;
+	}
+
+	private void removePick(int ISBN) {
+		Integer position = positions.remove(ISBN);
+		if (position == null) {
+			return;
+		}
+		size--;
+		if (position != size) {
+			picks[position] = picks[size];
+			positions.put(picks[position].getISBN(), position);
+		}
+		picks[size] = null;
+	}
+
+	private void swap(int i, int j) {
+		if (i == j) {
+			return;
+		}
+		Book tmp = picks[i];
+		picks[i] = picks[j];
+		picks[j] = tmp;
+		positions.put(picks[i].getISBN(), i);
+		positions.put(picks[j].getISBN(), j);
+	}
+}
@@ -0,0 +1,549 @@
+/**
+ *
+ */
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntHashMap;
+
+/**
+ * OptimisticCertainBookStore implements the bookstore and its functionality
+ * which is defined in the BookStore without locking on the customer path.
+ *
+ * Each book keeps its number of copies in a version-stamped atomic (see
+ * AtomicBookStoreBook). Purchases and replenishments read the stamps of all
+ * books involved, validate the order against them and commit by
+ * compare-and-set of every stamp; if another commit interferes the attempt is
+ * undone and retried. Readers never take a lock: book metadata is immutable
+ * and stock readers take a consistent snapshot by double-collecting stamps.
+ * Only changes to the catalog structure (adding and removing books) are
+ * serialized among themselves.
+ *
+ * getTopRatedBooks reads a RatingIndex. Its entry for a book is only changed
+ * under the monitor of the book, both by rateBooks and when the book is
+ * removed, so a rating racing with a removal cannot put the book back.
+ * getEditorPicks samples an EditorPicksIndex, whose entry for a book is
+ * guarded by the monitor of the book in the same way.
+ *
+ * The ISBNs of the books that had a sale miss since their last replenishment
+ * are kept in a concurrent set. Sale misses are counted, and reset by a
+ * replenishment, only while the stamps of the books are locked, so a miss is
+ * ordered with the replenishments by the version of the stamp and the set
+ * changes together with the count. getBooksInDemand only reports books whose
+ * miss count is positive.
+ *
+ * The books are kept in a ConcurrentIntHashMap keyed by the primitive ISBN,
+ * which readers probe without a lock.
+ */
+public class OptimisticCertainBookStore implements BookStore, StockManager {
+	private final ConcurrentIntHashMap<AtomicBookStoreBook> bookMap;
+	private final Object catalogLock = new Object();
+	private final RatingIndex ratingIndex = new RatingIndex();
+	private final EditorPicksIndex editorPicksIndex = new EditorPicksIndex();
+	private final Set<Integer> booksInDemand = Collections
+			.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+
+	private static final Comparator<AtomicBookStoreBook> ISBN_ORDER = new Comparator<AtomicBookStoreBook>() {
+		@Override
+		public int compare(AtomicBookStoreBook b1, AtomicBookStoreBook b2) {
+			return Integer.compare(b1.getISBN(), b2.getISBN());
+		}
+	};
+
+	public OptimisticCertainBookStore() {
+		// Constructors are not synchronized
+		bookMap = new ConcurrentIntHashMap<>();
+	}
+
+	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
+
+		if (bookSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		synchronized (catalogLock) {
+			// Check if all are there
+			for (StockBook book : bookSet) {
+				int ISBN = book.getISBN();
+				String bookTitle = book.getTitle();
+				String bookAuthor = book.getAuthor();
+				int noCopies = book.getNumCopies();
+				float bookPrice = book.getPrice();
+				if (BookStoreUtility.isInvalidISBN(ISBN)
+						|| BookStoreUtility.isEmpty(bookTitle)
+						|| BookStoreUtility.isEmpty(bookAuthor)
+						|| BookStoreUtility.isInvalidNoCopies(noCopies)
+						|| bookPrice < 0.0) {
+					throw new BookStoreException(BookStoreConstants.BOOK
+							+ book.toString() + BookStoreConstants.INVALID);
+				} else if (bookMap.containsKey(ISBN)) {
+					throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+							+ BookStoreConstants.DUPLICATED);
+				}
+			}
+
+			for (StockBook book : bookSet) {
+				AtomicBookStoreBook newBook = new AtomicBookStoreBook(book);
+				// Index the book before raters can find it
+				ratingIndex.put(newBook.immutableBook(),
+						newBook.getAverageRating());
+				if (newBook.getSaleMisses() > 0) {
+					booksInDemand.add(newBook.getISBN());
+				}
+				if (newBook.isEditorPick()) {
+					editorPicksIndex.update(
+							Collections.singleton(newBook.immutableBook()),
+							Collections.<Integer> emptySet());
+				}
+				bookMap.put(book.getISBN(), newBook);
+			}
+		}
+	}
+
+	public void addCopies(Set<BookCopy> bookCopiesSet)
+			throws BookStoreException {
+		if (bookCopiesSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookCopy bookCopy : bookCopiesSet) {
+			int numCopies = bookCopy.getNumCopies();
+			lookupBook(bookCopy.getISBN());
+			if (BookStoreUtility.isInvalidNoCopies(numCopies))
+				throw new BookStoreException(BookStoreConstants.NUM_COPIES
+						+ numCopies + BookStoreConstants.INVALID);
+		}
+		AtomicBookStoreBook[] books = lookupBooks(bookCopiesSet);
+		int[] deltas = copiesPerBook(books, bookCopiesSet);
+		long[] stamps = new long[books.length];
+		int[] newCopies = new int[books.length];
+
+		while (true) {
+			if (readStamps(books, stamps) && lockStamps(books, stamps)) {
+				break;
+			}
+			Thread.yield();
+		}
+		for (int i = 0; i < books.length; i++) {
+			newCopies[i] = AtomicBookStoreBook.copiesOf(stamps[i]) + deltas[i];
+			// The misses are reset with the copies, so a miss counted
+			// against the new stock is not lost
+			booksInDemand.remove(books[i].getISBN());
+			books[i].resetSaleMisses();
+		}
+		commitLocked(books, stamps, newCopies);
+	}
+
+	public List<StockBook> getBooks() {
+		List<AtomicBookStoreBook> allBooks = new ArrayList<>(bookMap.values());
+		AtomicBookStoreBook[] books = allBooks
+				.toArray(new AtomicBookStoreBook[allBooks.size()]);
+		long[] stamps = new long[books.length];
+		// A purchase of several books is seen either whole or not at all
+		while (!readStamps(books, stamps) || !validateStamps(books, stamps)) {
+			Thread.yield();
+		}
+
+		List<StockBook> listBooks = new ArrayList<>();
+		for (int i = 0; i < books.length; i++) {
+			listBooks.add(books[i].immutableStockBook(stamps[i]));
+		}
+		return listBooks;
+	}
+
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks)
+			throws BookStoreException {
+		// Check that all ISBNs that we add/remove are there first.
+		if (editorPicks == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			lookupBook(editorPickArg.getISBN());
+		}
+
+		for (BookEditorPick editorPickArg : editorPicks) {
+			AtomicBookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			if (book == null) {
+				continue;
+			}
+			synchronized (book) {
+				// A book removed meanwhile is not put back in the index
+				if (bookMap.get(editorPickArg.getISBN()) == book) {
+					book.setEditorPick(editorPickArg.isEditorPick());
+					if (editorPickArg.isEditorPick()) {
+						editorPicksIndex.update(
+								Collections.singleton(book.immutableBook()),
+								Collections.<Integer> emptySet());
+					} else {
+						editorPicksIndex.update(
+								Collections.<Book> emptySet(),
+								Collections.singleton(book.getISBN()));
+					}
+				}
+			}
+		}
+	}
+
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy)
+			throws BookStoreException {
+		if (bookCopiesToBuy == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we buy are there first.
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			if (bookCopyToBuy.getNumCopies() < 0)
+				throw new BookStoreException(BookStoreConstants.NUM_COPIES
+						+ bookCopyToBuy.getNumCopies()
+						+ BookStoreConstants.INVALID);
+			lookupBook(bookCopyToBuy.getISBN());
+		}
+		AtomicBookStoreBook[] books = lookupBooks(bookCopiesToBuy);
+		int[] wanted = copiesPerBook(books, bookCopiesToBuy);
+		long[] stamps = new long[books.length];
+		int[] newCopies = new int[books.length];
+
+		while (true) {
+			if (readStamps(books, stamps)) {
+				boolean saleMiss = false;
+				for (int i = 0; i < books.length; i++) {
+					newCopies[i] = AtomicBookStoreBook.copiesOf(stamps[i])
+							- wanted[i];
+					if (newCopies[i] < 0) {
+						saleMiss = true;
+					}
+				}
+
+				if (saleMiss) {
+					// Only record the misses against a consistent view of
+					// the stock, otherwise the order may have been valid.
+					// Locking the stamps keeps a replenishment from resetting
+					// the misses until they are counted.
+					if (lockStamps(books, stamps)) {
+						for (int i = 0; i < books.length; i++) {
+							newCopies[i] = AtomicBookStoreBook
+									.copiesOf(stamps[i]);
+							if (newCopies[i] < wanted[i]) {
+								books[i].addSaleMiss();
+								booksInDemand.add(books[i].getISBN());
+							}
+						}
+						commitLocked(books, stamps, newCopies);
+						throw new BookStoreException(BookStoreConstants.BOOK
+								+ BookStoreConstants.NOT_AVAILABLE);
+					}
+				} else if (commitStamps(books, stamps, newCopies)) {
+					return;
+				}
+			}
+			Thread.yield();
+		}
+	}
+
+	public List<StockBook> getBooksByISBN(Set<Integer> isbnSet)
+			throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		AtomicBookStoreBook[] books = new AtomicBookStoreBook[isbnSet.size()];
+		int i = 0;
+		for (Integer ISBN : isbnSet) {
+			books[i++] = lookupBook(ISBN);
+		}
+		long[] stamps = new long[books.length];
+		while (!readStamps(books, stamps) || !validateStamps(books, stamps)) {
+			Thread.yield();
+		}
+
+		List<StockBook> listBooks = new ArrayList<>();
+		for (i = 0; i < books.length; i++) {
+			listBooks.add(books[i].immutableStockBook(stamps[i]));
+		}
+		return listBooks;
+	}
+
+	public List<Book> getBooks(Set<Integer> isbnSet)
+			throws BookStoreException {
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		List<Book> listBooks = new ArrayList<>();
+		for (Integer ISBN : isbnSet) {
+			listBooks.add(lookupBook(ISBN).immutableBook());
+		}
+		return listBooks;
+	}
+
+	public List<Book> getEditorPicks(int numBooks)
+			throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks
+					+ ", but it must be positive");
+		}
+
+		return editorPicksIndex.sample(numBooks);
+	}
+
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks)
+			throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks
+					+ ", but it must be positive");
+		}
+		return ratingIndex.top(numBooks);
+	}
+
+	@Override
+	public List<StockBook> getBooksInDemand() throws BookStoreException {
+		List<StockBook> listBooks = new ArrayList<>();
+		for (Integer ISBN : booksInDemand) {
+			AtomicBookStoreBook book = bookMap.get(ISBN);
+			if (book == null || book.getSaleMisses() == 0) {
+				continue;
+			}
+			long stamp = book.getStamp();
+			while (AtomicBookStoreBook.isLocked(stamp)) {
+				Thread.yield();
+				stamp = book.getStamp();
+			}
+			listBooks.add(book.immutableStockBook(stamp));
+		}
+		return listBooks;
+	}
+
+	@Override
+	public void rateBooks(Set<BookRating> bookRating)
+			throws BookStoreException {
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+
+		// Check that all ISBNs that we rate are there first.
+		for (BookRating rating : bookRating) {
+			if (BookStoreUtility.isInvalidRating(rating.getRating()))
+				throw new BookStoreException(BookStoreConstants.RATING
+						+ rating.getRating() + BookStoreConstants.INVALID);
+			lookupBook(rating.getISBN());
+		}
+
+		for (BookRating rating : bookRating) {
+			AtomicBookStoreBook book = bookMap.get(rating.getISBN());
+			if (book == null) {
+				continue;
+			}
+			synchronized (book) {
+				// A book removed meanwhile is treated as rated before removal
+				if (bookMap.get(rating.getISBN()) == book) {
+					book.addRating(rating.getRating());
+					ratingIndex.put(book.immutableBook(),
+							book.getAverageRating());
+				}
+			}
+		}
+	}
+
+	public void removeAllBooks() throws BookStoreException {
+		synchronized (catalogLock) {
+			for (AtomicBookStoreBook book : bookMap.values()) {
+				removeBook(book);
+			}
+		}
+	}
+
+	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
+
+		if (isbnSet == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		synchronized (catalogLock) {
+			for (Integer ISBN : isbnSet) {
+				lookupBook(ISBN);
+			}
+
+			for (int isbn : isbnSet) {
+				removeBook(bookMap.get(isbn));
+			}
+		}
+	}
+
+	/**
+	 * Removes the book from the catalog and the rating and editor pick
+	 * indexes, the caller must hold the catalog lock
+	 *
+	 * @param book
+	 */
+	private void removeBook(AtomicBookStoreBook book) {
+		bookMap.remove(book.getISBN());
+		booksInDemand.remove(book.getISBN());
+		synchronized (book) {
+			ratingIndex.remove(book.getISBN());
+			editorPicksIndex.update(Collections.<Book> emptySet(),
+					Collections.singleton(book.getISBN()));
+		}
+	}
+
+	/**
+	 * Returns the book with the ISBN, or throws if the ISBN is invalid or not
+	 * in the store
+	 *
+	 * @param ISBN
+	 * @return
+	 * @throws BookStoreException
+	 */
+	private AtomicBookStoreBook lookupBook(Integer ISBN)
+			throws BookStoreException {
+		if (ISBN == null || BookStoreUtility.isInvalidISBN(ISBN))
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+					+ BookStoreConstants.INVALID);
+		AtomicBookStoreBook book = bookMap.get(ISBN);
+		if (book == null)
+			throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+					+ BookStoreConstants.NOT_AVAILABLE);
+		return book;
+	}
+
+	/**
+	 * Returns the books of the copies sorted by ISBN, so that concurrent
+	 * commits try to lock shared books in the same order
+	 *
+	 * @param bookCopies
+	 * @return
+	 * @throws BookStoreException
+	 */
+	private AtomicBookStoreBook[] lookupBooks(Set<BookCopy> bookCopies)
+			throws BookStoreException {
+		AtomicBookStoreBook[] books = new AtomicBookStoreBook[bookCopies.size()];
+		int i = 0;
+		for (BookCopy bookCopy : bookCopies) {
+			books[i++] = lookupBook(bookCopy.getISBN());
+		}
+		Arrays.sort(books, ISBN_ORDER);
+		return books;
+	}
+
+	/**
+	 * Returns the number of copies requested for each of the books
+	 *
+	 * @param books
+	 * @param bookCopies
+	 * @return
+	 */
+	private int[] copiesPerBook(AtomicBookStoreBook[] books,
+			Set<BookCopy> bookCopies) {
+		int[] copies = new int[books.length];
+		for (BookCopy bookCopy : bookCopies) {
+			for (int i = 0; i < books.length; i++) {
+				if (books[i].getISBN() == bookCopy.getISBN()) {
+					copies[i] = bookCopy.getNumCopies();
+					break;
+				}
+			}
+		}
+		return copies;
+	}
+
+	/**
+	 * Reads the stamps of the books, returns false if any of them is locked by
+	 * a commit in progress
+	 *
+	 * @param books
+	 * @param stamps
+	 * @return
+	 */
+	private boolean readStamps(AtomicBookStoreBook[] books, long[] stamps) {
+		for (int i = 0; i < books.length; i++) {
+			stamps[i] = books[i].getStamp();
+			if (AtomicBookStoreBook.isLocked(stamps[i])) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if none of the books changed since the stamps were read,
+	 * i.e. the stamps form a consistent snapshot
+	 *
+	 * @param books
+	 * @param stamps
+	 * @return
+	 */
+	private boolean validateStamps(AtomicBookStoreBook[] books, long[] stamps) {
+		for (int i = 0; i < books.length; i++) {
+			if (books[i].getStamp() != stamps[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Atomically installs newCopies in all books, provided none of them changed
+	 * since the stamps were read. Returns false, leaving the books untouched,
+	 * if another commit interfered.
+	 *
+	 * @param books
+	 * @param stamps
+	 * @param newCopies
+	 * @return
+	 */
+	private boolean commitStamps(AtomicBookStoreBook[] books, long[] stamps,
+			int[] newCopies) {
+		if (!lockStamps(books, stamps)) {
+			return false;
+		}
+		commitLocked(books, stamps, newCopies);
+		return true;
+	}
+
+	/**
+	 * Locks all books for a commit, provided none of them changed since the
+	 * stamps were read. Returns false, leaving the books untouched, if another
+	 * commit interfered.
+	 *
+	 * @param books
+	 * @param stamps
+	 * @return
+	 */
+	private boolean lockStamps(AtomicBookStoreBook[] books, long[] stamps) {
+		for (int i = 0; i < books.length; i++) {
+			if (!books[i].tryLock(stamps[i])) {
+				for (int j = i - 1; j >= 0; j--) {
+					books[j].abort(stamps[j]);
+				}
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Installs newCopies in all books locked by lockStamps with the next
+	 * version and releases them
+	 *
+	 * @param books
+	 * @param stamps
+	 * @param newCopies
+	 */
+	private void commitLocked(AtomicBookStoreBook[] books, long[] stamps,
+			int[] newCopies) {
+		for (int i = 0; i < books.length; i++) {
+			books[i].commit(stamps[i], newCopies[i]);
+		}
+	}
+}
@@ -0,0 +1,107 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * RatingIndex keeps the books of the store ordered by average rating, highest
+ * first and ties broken by ISBN, so that the k top rated books are read in
+ * O(k) instead of by sorting the whole catalog.
+ *
+ * The index is backed by a skip list and can be read while it is being
+ * updated. Updates of the same book must be serialized by the caller, updates
+ * of different books may run concurrently. A re-rated book is inserted at its
+ * new position before its old entry is removed, so a reader may briefly meet
+ * the book twice but never miss it; readers keep the first occurrence.
+ *
+ */
+public class RatingIndex {
+
+	/**
+	 * The position of a book in the index
+	 */
+	private static final class Entry implements Comparable<Entry> {
+		private final float averageRating;
+		private final Book book;
+
+		private Entry(float averageRating, Book book) {
+			this.averageRating = averageRating;
+			this.book = book;
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int byRating = Float.compare(other.averageRating,
+					this.averageRating);
+			if (byRating != 0) {
+				return byRating;
+			}
+			return Integer.compare(this.book.getISBN(), other.book.getISBN());
+		}
+	}
+
+	private final ConcurrentSkipListSet<Entry> ranking = new ConcurrentSkipListSet<Entry>();
+	private final ConcurrentHashMap<Integer, Entry> entries = new ConcurrentHashMap<Integer, Entry>();
+
+	/**
+	 * Adds the book to the index, or moves it if it is already indexed.
+	 *
+	 * @param book
+	 *            an immutable copy of the book
+	 * @param averageRating
+	 */
+	public void put(Book book, float averageRating) {
+		Entry entry = new Entry(averageRating, book);
+		ranking.add(entry);
+		Entry previous = entries.put(book.getISBN(), entry);
+		if (previous != null && previous.compareTo(entry) != 0) {
+			ranking.remove(previous);
+		}
+	}
+
+	/**
+	 * Removes the book with the ISBN from the index.
+	 *
+	 * @param isbn
+	 */
+	public void remove(int isbn) {
+		Entry entry = entries.remove(isbn);
+		if (entry != null) {
+			ranking.remove(entry);
+		}
+	}
+
+	/**
+	 * Removes all books from the index.
+	 */
+	public void clear() {
+		entries.clear();
+		ranking.clear();
+	}
+
+	/**
+	 * Returns the numBooks books with the highest average rating, or all books
+	 * if there are no more than numBooks.
+	 *
+	 * @param numBooks
+	 * @return
+	 */
+	public List<Book> top(int numBooks) {
+		List<Book> topBooks = new ArrayList<Book>(Math.min(numBooks,
+				entries.size()));
+		Set<Integer> seen = new HashSet<Integer>();
+		Iterator<Entry> it = ranking.iterator();
+		while (topBooks.size() < numBooks && it.hasNext()) {
+			Book book = it.next().book;
+			if (seen.add(book.getISBN())) {
+				topBooks.add(book);
+			}
+		}
+		return topBooks;
+	}
+}
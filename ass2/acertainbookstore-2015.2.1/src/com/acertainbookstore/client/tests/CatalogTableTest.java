@@ -0,0 +1,105 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookStoreBook;
+import com.acertainbookstore.business.CatalogTable;
+import com.acertainbookstore.business.ConcurrentCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+
+public class CatalogTableTest {
+  private static final int NUM_BOOKS = 1000;
+
+  private static StockBook book(int isbn, int numCopies, boolean editorPick) {
+    return new ImmutableStockBook(isbn, "Title " + isbn, "Author " + isbn,
+        (float) 10, numCopies, 0, 0, 0, editorPick);
+  }
+
+  /**
+   * Tests that removing books keeps the slots dense and the remaining books
+   * and their counters reachable by ISBN
+   */
+  @Test
+  public void testAddAndRemove() {
+    CatalogTable table = new CatalogTable();
+    for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+      int slot = table.add(book(isbn, isbn, isbn % 10 == 0));
+      table.addRating(slot, isbn % 6);
+    }
+    for (int isbn = 1; isbn <= NUM_BOOKS; isbn += 3) {
+      table.remove(isbn);
+    }
+    int remaining = NUM_BOOKS - (NUM_BOOKS + 2) / 3;
+    assertEquals(remaining, table.size());
+    for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+      int slot = table.slotOf(isbn);
+      if (isbn % 3 == 1) {
+        assertEquals(-1, slot);
+      } else {
+        assertTrue(slot >= 0 && slot < remaining);
+        StockBook book = table.getStockBook(slot);
+        assertTrue(book.getISBN() == isbn && book.getNumCopies() == isbn
+            && book.getTotalRating() == isbn % 6
+            && book.isEditorPick() == (isbn % 10 == 0));
+      }
+    }
+    for (Book pick : table.getEditorPicks()) {
+      assertTrue(pick.getISBN() % 10 == 0 && pick.getISBN() % 3 != 1);
+    }
+    assertTrue(!table.contains(0));
+    table.clear();
+    assertEquals(0, table.size());
+    assertTrue(!table.contains(2));
+  }
+
+  /**
+   * Tests that the books lowest in stock are found, fewest copies first
+   */
+  @Test
+  public void testLowestStock() throws BookStoreException {
+    ConcurrentCertainBookStore store = new ConcurrentCertainBookStore();
+    Set<StockBook> books = new HashSet<>();
+    for (int isbn = 1; isbn <= NUM_BOOKS; isbn++) {
+      books.add(book(isbn, (isbn * 7919) % NUM_BOOKS + 1, false));
+    }
+    store.addBooks(books);
+
+    List<StockBook> lowest = store.getLowestStockBooks(10);
+    assertEquals(10, lowest.size());
+    for (int i = 0; i < lowest.size(); i++) {
+      assertEquals(i + 1, lowest.get(i).getNumCopies());
+    }
+    assertEquals(NUM_BOOKS, store.getLowestStockBooks(NUM_BOOKS + 1).size());
+    assertTrue(store.getLowestStockBooks(0).isEmpty());
+  }
+
+  /**
+   * Tests that the copies of a book handed out share its metadata instead of
+   * copying the title and author
+   */
+  @Test
+  public void testSharedMetadata() {
+    BookStoreBook book = new BookStoreBook(book(1, 5, true));
+    assertSame(book.immutableBook(), book.immutableBook());
+    StockBook stockBook = book.immutableStockBook();
+    assertSame(book.getTitle(), stockBook.getTitle());
+    assertSame(book.getAuthor(), stockBook.getAuthor());
+    assertTrue(stockBook.getNumCopies() == 5 && stockBook.isEditorPick());
+
+    CatalogTable table = new CatalogTable();
+    int slot = table.add(stockBook);
+    assertSame(table.getBook(slot).getTitle(), table.getStockBook(slot)
+        .getTitle());
+  }
+}
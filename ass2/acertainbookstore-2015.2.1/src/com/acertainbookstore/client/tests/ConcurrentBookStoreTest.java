@@ -1,5 +1,6 @@
 package com.acertainbookstore.client.tests;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -8,6 +9,10 @@ import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.junit.After;
 import org.junit.AfterClass;
@@ -17,6 +22,7 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
 import com.acertainbookstore.business.ConcurrentCertainBookStore;
 import com.acertainbookstore.business.ImmutableBook;
 import com.acertainbookstore.business.ImmutableStockBook;
@@ -26,11 +32,16 @@ import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreException;
 
 public class ConcurrentBookStoreTest {
-  private static BookStore client;
-  private static StockManager storeManager;
+  protected static BookStore client;
+  protected static StockManager storeManager;
   private static final int TEST_ISBN = 123456;
   private static final int NUM_COPIES = 5;
   private static final int NUM_REPS = 100;
+  private static final int NUM_MISS_BUYERS = 4;
+  private static final int NUM_ROUNDS = 500;
+  private static final long BARRIER_TIMEOUT_SECS = 10;
+  private static volatile boolean restocked;
+  private static volatile boolean stopped;
 
   @BeforeClass
   public static void setUpBeforeClass() {
@@ -258,6 +269,200 @@ public class ConcurrentBookStoreTest {
     }
   }
 
+  /**
+   * Test that buyers of disjoint books all succeed while the catalog is
+   * concurrently extended and shrunk, and that every book ends up sold out
+   *
+   * @throws BookStoreException
+   */
+  @Test
+  public void testDisjointBuyersWithCatalogChanges()
+      throws BookStoreException {
+    Set<StockBook> manyBooks = addManyBooks();
+    storeManager.addBooks(manyBooks);
+    List<TestBuyer> buyers = new ArrayList<TestBuyer>();
+    for (StockBook book : manyBooks) {
+      Set<BookCopy> booksToBuy = new HashSet<>();
+      booksToBuy.add(new BookCopy(book.getISBN(), NUM_COPIES));
+      buyers.add(new TestBuyer(booksToBuy));
+    }
+    Thread catalogChanger = new Thread() {
+      public void run() {
+        Set<StockBook> extraBooks = new HashSet<>();
+        Set<Integer> extraISBNs = new HashSet<>();
+        for (int i = 1; i < 10; i++) {
+          extraBooks.add(new ImmutableStockBook(TEST_ISBN - i, "Extra",
+              "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0, false));
+          extraISBNs.add(TEST_ISBN - i);
+        }
+        for (int i = 0; i < NUM_REPS; i++) {
+          try {
+            storeManager.addBooks(extraBooks);
+            storeManager.removeBooks(extraISBNs);
+          } catch (BookStoreException ex) {
+            fail();
+          }
+        }
+      }
+    };
+
+    catalogChanger.start();
+    for (TestBuyer buyer : buyers) {
+      buyer.start();
+    }
+    try {
+      for (TestBuyer buyer : buyers) {
+        buyer.join();
+      }
+      catalogChanger.join();
+    } catch (InterruptedException e) {
+      fail();
+    }
+
+    for (TestBuyer buyer : buyers) {
+      assertTrue(!buyer.isInterrupted());
+    }
+    Set<Integer> isbns = new HashSet<>();
+    for (StockBook book : manyBooks) {
+      isbns.add(book.getISBN());
+    }
+    for (StockBook book : storeManager.getBooksByISBN(isbns)) {
+      assertTrue(book.getNumCopies() == 0);
+    }
+  }
+
+  /**
+   * Test that getBooks sees a purchase of several books either whole or not
+   * at all
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testGetBooksSeesWholePurchases() throws Exception {
+    Set<StockBook> books = addManyBooks();
+    storeManager.addBooks(books);
+    Set<BookCopy> copies = new HashSet<>();
+    copies.add(new BookCopy(TEST_ISBN, 1));
+    for (StockBook book : books) {
+      copies.add(new BookCopy(book.getISBN(), 1));
+    }
+    Thread mutator = new Test2Mutator(NUM_REPS * 10, copies);
+    mutator.start();
+    try {
+      while (mutator.isAlive()) {
+        List<StockBook> snapshot = storeManager.getBooks();
+        assertEquals(books.size() + 1, snapshot.size());
+        for (StockBook book : snapshot) {
+          assertEquals(snapshot.get(0).getNumCopies(), book.getNumCopies());
+        }
+      }
+    } finally {
+      // Keeps the mutator from changing the books of the next test
+      mutator.join();
+    }
+  }
+
+  /**
+   * Test that a sale miss recorded against the stock of a replenishment is
+   * not reset by that replenishment, and that a book with sale misses is in
+   * demand
+   *
+   * @throws Exception
+   */
+  @Test
+  public void testSaleMissesAfterRestock() throws Exception {
+    stopped = false;
+    Set<BookCopy> booksToAdd = new HashSet<>();
+    booksToAdd.add(new BookCopy(TEST_ISBN, 1));
+    Set<Integer> isbns = new HashSet<>();
+    isbns.add(TEST_ISBN);
+    CyclicBarrier roundStart = new CyclicBarrier(NUM_MISS_BUYERS + 1);
+    CyclicBarrier roundEnd = new CyclicBarrier(NUM_MISS_BUYERS + 1);
+    List<TestMissBuyer> buyers = new ArrayList<TestMissBuyer>();
+    for (int i = 0; i < NUM_MISS_BUYERS; i++) {
+      buyers.add(new TestMissBuyer(roundStart, roundEnd));
+      buyers.get(i).start();
+    }
+
+    try {
+      for (int round = 1; round <= NUM_ROUNDS; round++) {
+        for (TestMissBuyer buyer : buyers) {
+          buyer.copiesAfterRestock = NUM_COPIES + round;
+          buyer.missesAfterRestock = 0;
+        }
+        restocked = false;
+        roundStart.await(BARRIER_TIMEOUT_SECS, TimeUnit.SECONDS);
+        try {
+          storeManager.addCopies(booksToAdd);
+        } finally {
+          restocked = true;
+        }
+        roundEnd.await(BARRIER_TIMEOUT_SECS, TimeUnit.SECONDS);
+
+        // Misses against the stock left by the replenishment come after it
+        int missesAfterRestock = 0;
+        for (TestMissBuyer buyer : buyers) {
+          assertTrue(!buyer.failed);
+          missesAfterRestock += buyer.missesAfterRestock;
+        }
+        StockBook book = storeManager.getBooksByISBN(isbns).get(0);
+        assertTrue(book.getSaleMisses() >= missesAfterRestock);
+        assertEquals(book.getSaleMisses() > 0, storeManager
+            .getBooksInDemand().size() == 1);
+      }
+    } finally {
+      // Breaks the barriers the buyers may wait at
+      stopped = true;
+      restocked = true;
+      roundStart.reset();
+      roundEnd.reset();
+      for (TestMissBuyer buyer : buyers) {
+        buyer.join(TimeUnit.SECONDS.toMillis(BARRIER_TIMEOUT_SECS));
+        assertTrue(!buyer.isAlive());
+      }
+    }
+  }
+
+  /**
+   * Tests that the editor picks are sampled without repeats from the books
+   * that are picks after picking, unpicking, adding and removing books
+   */
+  @Test
+  public void testEditorPicksSample() throws BookStoreException {
+    storeManager.addBooks(addManyBooks());
+    Set<BookEditorPick> editorPicks = new HashSet<>();
+    for (int i = 1; i <= 10; i++) {
+      editorPicks.add(new BookEditorPick(TEST_ISBN + i, true));
+    }
+    storeManager.updateEditorPicks(editorPicks);
+    storeManager.updateEditorPicks(Collections.singleton(new BookEditorPick(
+        TEST_ISBN + 1, false)));
+    storeManager.removeBooks(Collections.singleton(TEST_ISBN + 2));
+    storeManager.addBooks(Collections.<StockBook> singleton(
+        new ImmutableStockBook(TEST_ISBN + 200, "Harry Potter and JUnit",
+            "JK Unit", (float) 10, NUM_COPIES, 0, 0, 0, true)));
+
+    Set<Integer> picks = new HashSet<>();
+    for (int i = 3; i <= 10; i++) {
+      picks.add(TEST_ISBN + i);
+    }
+    picks.add(TEST_ISBN + 200);
+    Set<Integer> sampled = new HashSet<>();
+    for (Book book : client.getEditorPicks(5)) {
+      assertTrue(picks.contains(book.getISBN()));
+      sampled.add(book.getISBN());
+    }
+    assertEquals(5, sampled.size());
+    sampled.clear();
+    for (Book book : client.getEditorPicks(100)) {
+      sampled.add(book.getISBN());
+    }
+    assertEquals(picks, sampled);
+
+    storeManager.removeAllBooks();
+    assertTrue(client.getEditorPicks(1).isEmpty());
+  }
+
   protected class Test1BookClient extends Thread {
     volatile int reps;
     volatile Set<BookCopy> booksToBuy;
@@ -384,6 +589,52 @@ public class ConcurrentBookStoreTest {
     }
   }
 
+  protected class TestMissBuyer extends Thread {
+    final CyclicBarrier roundStart;
+    final CyclicBarrier roundEnd;
+    volatile int copiesAfterRestock;
+    volatile int missesAfterRestock;
+    volatile boolean failed = false;
+
+    public TestMissBuyer(CyclicBarrier roundStart, CyclicBarrier roundEnd) {
+      this.roundStart = roundStart;
+      this.roundEnd = roundEnd;
+    }
+
+    public void run() {
+      Set<Integer> isbns = new HashSet<>();
+      isbns.add(TEST_ISBN);
+      Set<BookCopy> booksToBuy = new HashSet<>();
+      booksToBuy.add(new BookCopy(TEST_ISBN, Integer.MAX_VALUE / 2));
+      try {
+        while (!stopped) {
+          roundStart.await(BARRIER_TIMEOUT_SECS, TimeUnit.SECONDS);
+          while (!restocked) {
+            int copies = storeManager.getBooksByISBN(isbns).get(0)
+                .getNumCopies();
+            try {
+              client.buyBooks(booksToBuy);
+              this.failed = true;
+            } catch (BookStoreException e) {
+              if (copies == copiesAfterRestock) {
+                missesAfterRestock++;
+              }
+            }
+          }
+          roundEnd.await(BARRIER_TIMEOUT_SECS, TimeUnit.SECONDS);
+        }
+      } catch (InterruptedException e) {
+        return;
+      } catch (BrokenBarrierException e) {
+        return;
+      } catch (TimeoutException e) {
+        this.failed = true;
+      } catch (BookStoreException e) {
+        this.failed = true;
+      }
+    }
+  }
+
   protected class TestGetter extends Thread {
     Set<Integer> isbns;
     boolean interrupted;
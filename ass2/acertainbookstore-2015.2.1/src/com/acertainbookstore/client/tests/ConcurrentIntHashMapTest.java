@@ -0,0 +1,126 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import com.acertainbookstore.utils.ConcurrentIntHashMap;
+
+public class ConcurrentIntHashMapTest {
+  private static final int NUM_KEYS = 100000;
+
+  /**
+   * Tests put, get and remove, including the key that marks free slots and
+   * negative keys
+   */
+  @Test
+  public void testPutGetRemove() {
+    ConcurrentIntHashMap<String> map = new ConcurrentIntHashMap<>();
+    assertNull(map.get(0));
+    assertNull(map.put(0, "zero"));
+    assertNull(map.put(-7, "minus seven"));
+    assertNull(map.put(123456, "book"));
+    assertEquals("book", map.put(123456, "other book"));
+    assertEquals(3, map.size());
+    assertEquals("zero", map.get(0));
+    assertEquals("minus seven", map.get(-7));
+    assertEquals("other book", map.get(123456));
+    assertTrue(!map.containsKey(42));
+
+    assertEquals("zero", map.remove(0));
+    assertEquals("minus seven", map.remove(-7));
+    assertNull(map.remove(-7));
+    assertEquals(1, map.size());
+    assertNull(map.get(0));
+    assertNull(map.get(-7));
+
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertNull(map.get(123456));
+  }
+
+  /**
+   * Tests that the map grows and reuses the slots of removed keys while
+   * keeping every mapping
+   */
+  @Test
+  public void testGrowAndRemove() {
+    ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+    for (int round = 0; round < 3; round++) {
+      for (int key = 1; key <= NUM_KEYS; key++) {
+        map.put(key, key * 2);
+      }
+      assertEquals(NUM_KEYS, map.size());
+      for (int key = 1; key <= NUM_KEYS; key += 2) {
+        assertEquals(Integer.valueOf(key * 2), map.remove(key));
+      }
+      assertEquals(NUM_KEYS / 2, map.size());
+      for (int key = 1; key <= NUM_KEYS; key++) {
+        assertEquals(key % 2 == 0 ? Integer.valueOf(key * 2) : null,
+            map.get(key));
+      }
+    }
+
+    Set<Integer> values = new HashSet<>();
+    for (Integer value : map.values()) {
+      values.add(value);
+    }
+    assertEquals(NUM_KEYS / 2, values.size());
+    assertEquals(NUM_KEYS / 2, map.values().size());
+  }
+
+  /**
+   * Tests that readers without a lock only see the values written for their
+   * keys while a writer keeps adding, removing and growing the map
+   */
+  @Test
+  public void testConcurrentReaders() throws InterruptedException {
+    final ConcurrentIntHashMap<Integer> map = new ConcurrentIntHashMap<>();
+    final AtomicBoolean done = new AtomicBoolean(false);
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    // Keys below the stable bound are never removed once added
+    final int stable = 1000;
+    for (int key = 1; key <= stable; key++) {
+      map.put(key, key);
+    }
+
+    Thread[] readers = new Thread[4];
+    for (int i = 0; i < readers.length; i++) {
+      readers[i] = new Thread() {
+        public void run() {
+          while (!done.get()) {
+            for (int key = 1; key <= NUM_KEYS; key += 7) {
+              Integer value = map.get(key);
+              if ((value != null && value != key)
+                  || (key <= stable && value == null)) {
+                failed.set(true);
+              }
+            }
+          }
+        }
+      };
+      readers[i].start();
+    }
+
+    for (int round = 0; round < 5; round++) {
+      for (int key = stable + 1; key <= NUM_KEYS; key++) {
+        map.put(key, key);
+      }
+      for (int key = stable + 1; key <= NUM_KEYS; key++) {
+        map.remove(key);
+      }
+    }
+    done.set(true);
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertTrue(!failed.get());
+    assertEquals(stable, map.size());
+  }
+}
@@ -0,0 +1,143 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ConcurrentCertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.LockProfiler;
+
+/**
+ * Test class to test the lock profiling of the ConcurrentCertainBookStore
+ */
+public class LockProfilerTest {
+  private static final int HOT_ISBN = 1;
+  private static final int COLD_ISBN = 2;
+  private static final int NUM_THREADS = 8;
+  private static final int NUM_REPS = 5000;
+
+  private ConcurrentCertainBookStore store;
+  private LockProfiler profiler;
+
+  @Before
+  public void setUp() throws BookStoreException {
+    store = new ConcurrentCertainBookStore();
+    Set<StockBook> books = new HashSet<StockBook>();
+    books.add(new ImmutableStockBook(HOT_ISBN, "Hot", "Author", 10, 5, 0, 0,
+        0, false));
+    books.add(new ImmutableStockBook(COLD_ISBN, "Cold", "Author", 10, 5, 0,
+        0, 0, false));
+    store.addBooks(books);
+    profiler = new LockProfiler(store.getNumStripes());
+    store.setLockProfiler(profiler);
+  }
+
+  /**
+   * Tests that every lock taken is counted with its kind and ISBNs
+   */
+  @Test
+  public void testCounts() throws BookStoreException {
+    Set<BookCopy> copies = new HashSet<BookCopy>();
+    copies.add(new BookCopy(HOT_ISBN, 1));
+    copies.add(new BookCopy(COLD_ISBN, 1));
+    store.addCopies(copies);
+    store.buyBooks(copies);
+    Set<Integer> isbns = new HashSet<Integer>();
+    isbns.add(HOT_ISBN);
+    store.getBooks(isbns);
+    store.getBooks();
+
+    assertEquals(2, profiler.getAcquisitions(LockProfiler.Kind.ISBN_WRITE));
+    assertEquals(1, profiler.getAcquisitions(LockProfiler.Kind.ISBN_READ));
+    assertEquals(1, profiler.getAcquisitions(LockProfiler.Kind.CATALOG_READ));
+    assertEquals(0, profiler.getAcquisitions(LockProfiler.Kind.CATALOG_WRITE));
+    for (LockProfiler.Kind kind : LockProfiler.Kind.values()) {
+      assertEquals(0, profiler.getContended(kind));
+      assertEquals(0, profiler.getWaitNanoSecs(kind));
+    }
+    assertTrue(profiler.getHoldNanoSecs(LockProfiler.Kind.ISBN_WRITE) > 0);
+    List<Integer> hottest = profiler.getHottestISBNs(10);
+    assertEquals(2, hottest.size());
+    // Without waits the ISBN locked most often is the hottest
+    assertEquals(HOT_ISBN, (int) hottest.get(0));
+
+    store.setLockProfiler(null);
+    store.buyBooks(copies);
+    assertEquals(2, profiler.getAcquisitions(LockProfiler.Kind.ISBN_WRITE));
+    assertNull(store.getLockProfiler());
+
+    profiler.reset();
+    assertEquals(0, profiler.getAcquisitions(LockProfiler.Kind.ISBN_WRITE));
+    assertTrue(profiler.getHottestISBNs(10).isEmpty());
+  }
+
+  /**
+   * Tests that threads updating the same book wait for each other, and that
+   * the waits are charged to that book
+   */
+  @Test
+  public void testContention() throws Exception {
+    final Set<BookCopy> copies = new HashSet<BookCopy>();
+    copies.add(new BookCopy(HOT_ISBN, 1));
+    Thread[] threads = new Thread[NUM_THREADS];
+    for (int i = 0; i < NUM_THREADS; i++) {
+      threads[i] = new Thread() {
+        public void run() {
+          try {
+            for (int j = 0; j < NUM_REPS; j++) {
+              store.addCopies(copies);
+            }
+          } catch (BookStoreException ex) {
+            ex.printStackTrace();
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Set<BookCopy> coldCopies = new HashSet<BookCopy>();
+    coldCopies.add(new BookCopy(COLD_ISBN, 1));
+    store.addCopies(coldCopies);
+
+    assertEquals(NUM_THREADS * NUM_REPS + 1,
+        profiler.getAcquisitions(LockProfiler.Kind.ISBN_WRITE));
+    assertTrue(profiler.getContended(LockProfiler.Kind.ISBN_WRITE) > 0);
+    assertTrue(profiler.getWaitNanoSecs(LockProfiler.Kind.ISBN_WRITE) > 0);
+    assertEquals(HOT_ISBN, (int) profiler.getHottestISBNs(1).get(0));
+
+    String dump = profiler.dump(5, 5);
+    assertTrue(dump.contains("ISBN_WRITE"));
+    assertTrue(dump.contains("Hottest ISBNs"));
+    assertTrue(dump.contains("Most contended stripes"));
+  }
+
+  /**
+   * Tests that the profiler keeps a bounded number of ISBNs, and keeps the
+   * hottest ones
+   */
+  @Test
+  public void testBoundedISBNs() {
+    LockProfiler bounded = new LockProfiler(store.getNumStripes(), 10);
+    bounded.recordISBNAcquisition(HOT_ISBN);
+    bounded.recordISBNWait(HOT_ISBN, 1000);
+    for (int isbn = 100; isbn < 10000; isbn++) {
+      bounded.recordISBNAcquisition(isbn);
+    }
+    List<Integer> tracked = bounded.getHottestISBNs(Integer.MAX_VALUE);
+    assertTrue(tracked.size() <= 10);
+    assertEquals(HOT_ISBN, (int) tracked.get(0));
+  }
+}
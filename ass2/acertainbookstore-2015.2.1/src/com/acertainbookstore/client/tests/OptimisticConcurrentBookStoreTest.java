@@ -0,0 +1,23 @@
+package com.acertainbookstore.client.tests;
+
+import org.junit.BeforeClass;
+
+import com.acertainbookstore.business.OptimisticCertainBookStore;
+
+/**
+ * Runs the concurrency tests against the OptimisticCertainBookStore
+ */
+public class OptimisticConcurrentBookStoreTest extends ConcurrentBookStoreTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() {
+    try {
+      OptimisticCertainBookStore store = new OptimisticCertainBookStore();
+      storeManager = store;
+      client = store;
+      storeManager.removeAllBooks();
+    } catch (Exception e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -16,6 +16,7 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.ConcurrentCertainBookStore;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreConstants;
@@ -23,6 +24,7 @@ import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.LockProfiler;
 
 /**
  * BookStoreHTTPMessageHandler implements the message handler class which is
@@ -54,6 +56,12 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		response.setStatus(HttpServletResponse.SC_OK);
 		requestURI = request.getRequestURI();
 
+		if (BookStoreConstants.LOCK_PROFILE_PATH.equals(requestURI)) {
+			handleLockProfile(response);
+			baseRequest.setHandled(true);
+			return;
+		}
+
 		// Need to do request multi-plexing
 		if (!BookStoreUtility.isEmpty(requestURI)
 				&& requestURI.toLowerCase().startsWith("/stock")) {
@@ -144,6 +152,18 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 				response.getWriter().println(listBooksxmlString);
 				break;
 
+			case GETBOOKSINDEMAND:
+				bookStoreResponse = new BookStoreResponse();
+				try {
+					bookStoreResponse.setList(myBookStore.getBooksInDemand());
+				} catch (BookStoreException ex) {
+					bookStoreResponse.setException(ex);
+				}
+				listBooksxmlString = BookStoreUtility
+						.serializeObjectToXMLString(bookStoreResponse);
+				response.getWriter().println(listBooksxmlString);
+				break;
+
 			case UPDATEEDITORPICKS:
 
 				bookStoreResponse = new BookStoreResponse();
@@ -232,7 +252,42 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 						.serializeObjectToXMLString(bookStoreResponse);
 				response.getWriter().println(listBooksxmlString);
 				break;
-				
+
+			case RATEBOOKS:
+				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
+				Set<BookRating> bookRatings = (Set<BookRating>) BookStoreUtility
+						.deserializeXMLStringToObject(xml);
+
+				bookStoreResponse = new BookStoreResponse();
+				try {
+					myBookStore.rateBooks(bookRatings);
+				} catch (BookStoreException ex) {
+					bookStoreResponse.setException(ex);
+				}
+				listBooksxmlString = BookStoreUtility
+						.serializeObjectToXMLString(bookStoreResponse);
+				response.getWriter().println(listBooksxmlString);
+				break;
+
+			case GETTOPRATEDBOOKS:
+				numBooksString = URLDecoder
+						.decode(request
+								.getParameter(BookStoreConstants.BOOK_NUM_PARAM),
+								"UTF-8");
+				bookStoreResponse = new BookStoreResponse();
+				try {
+					numBooks = BookStoreUtility
+							.convertStringToInt(numBooksString);
+					bookStoreResponse.setList(myBookStore
+							.getTopRatedBooks(numBooks));
+				} catch (BookStoreException ex) {
+					bookStoreResponse.setException(ex);
+				}
+				listBooksxmlString = BookStoreUtility
+						.serializeObjectToXMLString(bookStoreResponse);
+				response.getWriter().println(listBooksxmlString);
+				break;
+
 			default:
 				System.out.println("Unhandled message tag");
 				break;
@@ -242,4 +297,27 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		baseRequest.setHandled(true);
 
 	}
+
+	/**
+	 * Writes the lock profile of the bookstore as plain text, 404 if the
+	 * bookstore is not profiled
+	 *
+	 * @param response
+	 * @throws IOException
+	 */
+	private void handleLockProfile(HttpServletResponse response)
+			throws IOException {
+		LockProfiler profiler = myBookStore.getLockProfiler();
+		if (profiler == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND,
+					"Lock profiling is off, start the server with -D"
+							+ BookStoreConstants.PROPERTY_KEY_LOCK_PROFILE
+							+ "=true");
+			return;
+		}
+		response.setContentType("text/plain;charset=utf-8");
+		response.getWriter().print(
+				profiler.dump(BookStoreConstants.LOCK_PROFILE_TOP_N,
+						BookStoreConstants.LOCK_PROFILE_TOP_N));
+	}
 }
@@ -5,6 +5,7 @@ package com.acertainbookstore.server;
 
 import com.acertainbookstore.business.ConcurrentCertainBookStore;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.LockProfiler;
 
 /**
  * Starts the bookstore HTTP server that the clients will communicate with.
@@ -16,6 +17,10 @@ public class BookStoreHTTPServer {
 	 */
 	public static void main(String[] args) {
 		ConcurrentCertainBookStore bookStore = new ConcurrentCertainBookStore();
+		if (Boolean.getBoolean(BookStoreConstants.PROPERTY_KEY_LOCK_PROFILE)) {
+			bookStore.setLockProfiler(new LockProfiler(bookStore
+					.getNumStripes()));
+		}
 		int listen_on_port = 8081;
 		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(
 				bookStore);
@@ -33,4 +33,10 @@ public final class BookStoreConstants {
 
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
+	public static final String PROPERTY_KEY_LOCK_PROFILE = "lockprofile";
+
+	// Path on which the server dumps the lock profile, if it profiles
+	public static final String LOCK_PROFILE_PATH = "/lockprofile";
+	// Number of the hottest ISBNs and stripes in the dump
+	public static final int LOCK_PROFILE_TOP_N = 20;
 }
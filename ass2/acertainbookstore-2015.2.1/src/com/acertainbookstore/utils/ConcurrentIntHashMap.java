@@ -0,0 +1,272 @@
+package com.acertainbookstore.utils;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * ConcurrentIntHashMap maps primitive int keys to values without boxing the
+ * keys or allocating an entry per mapping.
+ *
+ * The keys are kept in an int array and the values in a parallel reference
+ * array, probed linearly from a hash of the key. Writers are serialized by the
+ * monitor of the map; readers take no lock. A slot is never given to another
+ * key once it holds one, and a removal only clears the value of the slot, so
+ * a reader probing without a lock finds the slot of its key wherever writers
+ * are. Every write ends with a volatile write that readers start with, so a
+ * reader sees all writes completed before it started. Growing or cleaning up
+ * the removed slots copies the live mappings to a new table that is then
+ * published.
+ *
+ * Iterating over the values is weakly consistent, like iterating over a
+ * ConcurrentHashMap.
+ *
+ * @param <V>
+ *            the type of the values, which cannot be null
+ */
+public class ConcurrentIntHashMap<V> {
+	private static final int FREE = 0;
+	private static final int DEFAULT_CAPACITY = 16;
+	private static final float LOAD_FACTOR = 0.75f;
+
+	private static final class Table<V> {
+		// FREE marks an unused slot, key FREE is kept in freeKeyValue
+		private final int[] keys;
+		private final AtomicReferenceArray<V> values;
+		private final int mask;
+
+		private Table(int capacity) {
+			keys = new int[capacity];
+			values = new AtomicReferenceArray<V>(capacity);
+			mask = capacity - 1;
+		}
+	}
+
+	private volatile Table<V> table;
+	private volatile V freeKeyValue;
+	// Written last by every change, cf. the class comment
+	private volatile int size;
+	// Guarded by this, the slots holding a key, including removed ones
+	private int usedSlots;
+
+	public ConcurrentIntHashMap() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a map with room for expectedSize mappings before it grows
+	 *
+	 * @param expectedSize
+	 */
+	public ConcurrentIntHashMap(int expectedSize) {
+		table = new Table<V>(capacityFor(expectedSize));
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public boolean containsKey(int key) {
+		return get(key) != null;
+	}
+
+	/**
+	 * Returns the value of the key, null if the key is not in the map
+	 *
+	 * @param key
+	 * @return
+	 */
+	public V get(int key) {
+		if (size == 0) {
+			return null;
+		}
+		if (key == FREE) {
+			return freeKeyValue;
+		}
+		Table<V> t = table;
+		for (int i = hash(key) & t.mask;; i = (i + 1) & t.mask) {
+			int k = t.keys[i];
+			if (k == key) {
+				return t.values.get(i);
+			}
+			if (k == FREE) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Maps the key to the value
+	 *
+	 * @param key
+	 * @param value
+	 * @return the previous value of the key, null if it had none
+	 */
+	public synchronized V put(int key, V value) {
+		if (value == null) {
+			throw new NullPointerException();
+		}
+		V previous;
+		if (key == FREE) {
+			previous = freeKeyValue;
+			freeKeyValue = value;
+		} else {
+			Table<V> t = table;
+			int i = slotOf(t, key);
+			if (t.keys[i] == FREE) {
+				if (usedSlots + 1 > t.keys.length * LOAD_FACTOR) {
+					t = rehash(size + 1);
+					i = slotOf(t, key);
+				}
+				usedSlots++;
+				t.keys[i] = key;
+			}
+			previous = t.values.get(i);
+			t.values.set(i, value);
+		}
+		size = previous == null ? size + 1 : size;
+		return previous;
+	}
+
+	/**
+	 * Removes the key from the map
+	 *
+	 * @param key
+	 * @return the value of the key, null if it had none
+	 */
+	public synchronized V remove(int key) {
+		V previous;
+		if (key == FREE) {
+			previous = freeKeyValue;
+			freeKeyValue = null;
+		} else {
+			Table<V> t = table;
+			int i = slotOf(t, key);
+			if (t.keys[i] == FREE) {
+				return null;
+			}
+			previous = t.values.get(i);
+			t.values.set(i, null);
+		}
+		size = previous == null ? size : size - 1;
+		return previous;
+	}
+
+	/**
+	 * Removes all mappings, keeping the capacity of the map
+	 */
+	public synchronized void clear() {
+		table = new Table<V>(table.keys.length);
+		freeKeyValue = null;
+		usedSlots = 0;
+		size = 0;
+	}
+
+	/**
+	 * Returns a view of the values of the map
+	 *
+	 * @return
+	 */
+	public Collection<V> values() {
+		return new AbstractCollection<V>() {
+			@Override
+			public Iterator<V> iterator() {
+				return new ValueIterator();
+			}
+
+			@Override
+			public int size() {
+				return size;
+			}
+		};
+	}
+
+	/**
+	 * Returns the slot holding the key, or the free slot where it would go
+	 */
+	private static int slotOf(Table<?> t, int key) {
+		int i = hash(key) & t.mask;
+		while (t.keys[i] != key && t.keys[i] != FREE) {
+			i = (i + 1) & t.mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Copies the live mappings to a new table sized for minSize mappings,
+	 * dropping the slots of removed keys, and publishes it
+	 */
+	private Table<V> rehash(int minSize) {
+		Table<V> old = table;
+		Table<V> t = new Table<V>(Math.max(old.keys.length,
+				capacityFor(minSize)));
+		int used = 0;
+		for (int i = 0; i < old.keys.length; i++) {
+			V value = old.values.get(i);
+			if (value != null) {
+				int j = slotOf(t, old.keys[i]);
+				t.keys[j] = old.keys[i];
+				t.values.lazySet(j, value);
+				used++;
+			}
+		}
+		usedSlots = used;
+		table = t;
+		return t;
+	}
+
+	private static int capacityFor(int expectedSize) {
+		int capacity = DEFAULT_CAPACITY;
+		while (capacity * LOAD_FACTOR < expectedSize) {
+			capacity <<= 1;
+		}
+		return capacity;
+	}
+
+	private static int hash(int key) {
+		int h = key * 0x9E3779B9; // spread consecutive keys
+		return h ^ (h >>> 16);
+	}
+
+	private final class ValueIterator implements Iterator<V> {
+		private final Table<V> t = table;
+		private int index = -1;
+		private V next = freeKeyValue;
+
+		private ValueIterator() {
+			if (next == null) {
+				advance();
+			}
+		}
+
+		private void advance() {
+			next = null;
+			while (next == null && ++index < t.keys.length) {
+				next = t.values.get(index);
+			}
+		}
+
+		public boolean hasNext() {
+			return next != null;
+		}
+
+		public V next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			V value = next;
+			advance();
+			return value;
+		}
+
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -0,0 +1,340 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LockProfiler records how the lock stripes of a ConcurrentCertainBookStore
+ * are used: how often each kind of lock is taken, how often a thread has to
+ * wait for it, how long it waits and how long it holds the lock. It also
+ * keeps the waits per stripe and per ISBN, so that the hottest books can be
+ * reported. At most maxISBNs ISBNs are kept: when there are more, only the
+ * hottest half of them is kept, so the ISBNs of a large catalog do not pile
+ * up while the hot ones stay.
+ *
+ * A lock counts as contended when it was held or had threads queued for it
+ * as it was requested. The kinds are
+ * the read and write locks of the stripes covering a set of ISBNs, and the
+ * read and write locks of the whole catalog, which take every stripe. The
+ * hold time of a lock is measured on the thread that took it, so a thread
+ * must release a lock before it takes the next one, which is how the
+ * bookstore takes them.
+ *
+ */
+public class LockProfiler {
+	/**
+	 * The kinds of locks the bookstore takes
+	 */
+	public enum Kind {
+		ISBN_READ, ISBN_WRITE, CATALOG_READ, CATALOG_WRITE
+	}
+
+	private static final int NUM_KINDS = Kind.values().length;
+	// Fields of the statistics of a kind and of an ISBN
+	private static final int ACQUISITIONS = 0;
+	private static final int CONTENDED = 1;
+	private static final int WAIT_NANOS = 2;
+	private static final int MAX_WAIT_NANOS = 3;
+	private static final int HOLD_NANOS = 4;
+	private static final int MAX_HOLD_NANOS = 5;
+	private static final int NUM_FIELDS = 6;
+
+	/**
+	 * Number of ISBNs kept by the constructor taking only the stripes
+	 */
+	public static final int DEFAULT_MAX_ISBNS = 10000;
+
+	// The ISBNs threads waited the longest for, then the most locked, first
+	private static final Comparator<Map.Entry<Integer, AtomicLongArray>> HOTTEST_FIRST = new Comparator<Map.Entry<Integer, AtomicLongArray>>() {
+		@Override
+		public int compare(Map.Entry<Integer, AtomicLongArray> a,
+				Map.Entry<Integer, AtomicLongArray> b) {
+			int byWait = Long.compare(b.getValue().get(WAIT_NANOS), a
+					.getValue().get(WAIT_NANOS));
+			return byWait != 0 ? byWait : Long.compare(
+					b.getValue().get(ACQUISITIONS),
+					a.getValue().get(ACQUISITIONS));
+		}
+	};
+
+	private final AtomicLongArray kinds = new AtomicLongArray(NUM_KINDS
+			* NUM_FIELDS);
+	private final AtomicLongArray stripeContended;
+	private final AtomicLongArray stripeWaitNanos;
+	private final ConcurrentMap<Integer, AtomicLongArray> isbns = new ConcurrentHashMap<Integer, AtomicLongArray>();
+	private final int maxISBNs;
+	private final AtomicBoolean pruning = new AtomicBoolean(false);
+	private final ThreadLocal<long[]> acquiredAt = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[NUM_KINDS];
+		}
+	};
+	private final AtomicLong startTimeInNanoSecs = new AtomicLong(
+			System.nanoTime());
+
+	/**
+	 * Creates a profiler for a bookstore with numStripes lock stripes
+	 *
+	 * @param numStripes
+	 */
+	public LockProfiler(int numStripes) {
+		this(numStripes, DEFAULT_MAX_ISBNS);
+	}
+
+	/**
+	 * Creates a profiler for a bookstore with numStripes lock stripes, which
+	 * keeps the statistics of at most maxISBNs ISBNs
+	 *
+	 * @param numStripes
+	 * @param maxISBNs
+	 */
+	public LockProfiler(int numStripes, int maxISBNs) {
+		if (maxISBNs < 1) {
+			throw new IllegalArgumentException("maxISBNs = " + maxISBNs
+					+ ", but it must be positive");
+		}
+		this.maxISBNs = maxISBNs;
+		stripeContended = new AtomicLongArray(numStripes);
+		stripeWaitNanos = new AtomicLongArray(numStripes);
+	}
+
+	/**
+	 * Records a wait for one stripe of a lock, made before the lock is
+	 * acquired
+	 *
+	 * @param stripe
+	 * @param waitNanoSecs
+	 */
+	public void recordStripeWait(int stripe, long waitNanoSecs) {
+		stripeContended.incrementAndGet(stripe);
+		stripeWaitNanos.addAndGet(stripe, waitNanoSecs);
+	}
+
+	/**
+	 * Records a wait of a lock on a set of ISBNs for one of the ISBNs
+	 *
+	 * @param isbn
+	 * @param waitNanoSecs
+	 */
+	public void recordISBNWait(int isbn, long waitNanoSecs) {
+		AtomicLongArray stats = statsOf(isbn);
+		stats.incrementAndGet(CONTENDED);
+		stats.addAndGet(WAIT_NANOS, waitNanoSecs);
+		max(stats, MAX_WAIT_NANOS, waitNanoSecs);
+	}
+
+	/**
+	 * Records that a lock on a set of ISBNs covers the ISBN
+	 *
+	 * @param isbn
+	 */
+	public void recordISBNAcquisition(int isbn) {
+		statsOf(isbn).incrementAndGet(ACQUISITIONS);
+	}
+
+	/**
+	 * Records that the current thread acquired a lock after waiting for it,
+	 * and starts timing how long it holds it
+	 *
+	 * @param kind
+	 * @param waitNanoSecs
+	 *            0 if the lock was not contended
+	 */
+	public void acquired(Kind kind, long waitNanoSecs) {
+		int base = kind.ordinal() * NUM_FIELDS;
+		kinds.incrementAndGet(base + ACQUISITIONS);
+		if (waitNanoSecs > 0) {
+			kinds.incrementAndGet(base + CONTENDED);
+			kinds.addAndGet(base + WAIT_NANOS, waitNanoSecs);
+			max(kinds, base + MAX_WAIT_NANOS, waitNanoSecs);
+		}
+		acquiredAt.get()[kind.ordinal()] = System.nanoTime();
+	}
+
+	/**
+	 * Records that the current thread released the lock it acquired last,
+	 * ignoring a lock acquired before the profiler was set
+	 *
+	 * @param kind
+	 */
+	public void released(Kind kind) {
+		long[] acquiredAtInNanoSecs = acquiredAt.get();
+		if (acquiredAtInNanoSecs[kind.ordinal()] == 0) {
+			return;
+		}
+		int base = kind.ordinal() * NUM_FIELDS;
+		long holdNanoSecs = System.nanoTime()
+				- acquiredAtInNanoSecs[kind.ordinal()];
+		acquiredAtInNanoSecs[kind.ordinal()] = 0;
+		kinds.addAndGet(base + HOLD_NANOS, holdNanoSecs);
+		max(kinds, base + MAX_HOLD_NANOS, holdNanoSecs);
+	}
+
+	public long getAcquisitions(Kind kind) {
+		return kinds.get(kind.ordinal() * NUM_FIELDS + ACQUISITIONS);
+	}
+
+	public long getContended(Kind kind) {
+		return kinds.get(kind.ordinal() * NUM_FIELDS + CONTENDED);
+	}
+
+	public long getWaitNanoSecs(Kind kind) {
+		return kinds.get(kind.ordinal() * NUM_FIELDS + WAIT_NANOS);
+	}
+
+	public long getHoldNanoSecs(Kind kind) {
+		return kinds.get(kind.ordinal() * NUM_FIELDS + HOLD_NANOS);
+	}
+
+	/**
+	 * Returns the numISBNs ISBNs threads waited the longest for, longest
+	 * first
+	 *
+	 * @param numISBNs
+	 * @return
+	 */
+	public List<Integer> getHottestISBNs(int numISBNs) {
+		List<Map.Entry<Integer, AtomicLongArray>> entries = hottestFirst();
+		List<Integer> hottest = new ArrayList<Integer>();
+		for (int i = 0; i < Math.min(numISBNs, entries.size()); i++) {
+			hottest.add(entries.get(i).getKey());
+		}
+		return hottest;
+	}
+
+	/**
+	 * Clears the statistics
+	 */
+	public void reset() {
+		for (int i = 0; i < kinds.length(); i++) {
+			kinds.set(i, 0);
+		}
+		for (int i = 0; i < stripeContended.length(); i++) {
+			stripeContended.set(i, 0);
+			stripeWaitNanos.set(i, 0);
+		}
+		isbns.clear();
+		startTimeInNanoSecs.set(System.nanoTime());
+	}
+
+	/**
+	 * Returns a report of the statistics with the numISBNs hottest ISBNs and
+	 * the numStripes most contended stripes
+	 *
+	 * @param numISBNs
+	 * @param numStripes
+	 * @return
+	 */
+	public String dump(int numISBNs, int numStripes) {
+		StringBuilder out = new StringBuilder();
+		out.append(String.format(Locale.ROOT, "Lock profile of the last %.1f s%n",
+				(System.nanoTime() - startTimeInNanoSecs.get()) / 1e9));
+		out.append(String.format(Locale.ROOT,
+				"%-14s %12s %12s %14s %12s %14s %12s%n", "lock",
+				"acquired", "contended", "wait ms", "max wait ms",
+				"hold ms", "max hold ms"));
+		for (Kind kind : Kind.values()) {
+			int base = kind.ordinal() * NUM_FIELDS;
+			out.append(String.format(Locale.ROOT,
+					"%-14s %12d %12d %14.3f %12.3f %14.3f %12.3f%n", kind,
+					kinds.get(base + ACQUISITIONS),
+					kinds.get(base + CONTENDED),
+					kinds.get(base + WAIT_NANOS) / 1e6,
+					kinds.get(base + MAX_WAIT_NANOS) / 1e6,
+					kinds.get(base + HOLD_NANOS) / 1e6,
+					kinds.get(base + MAX_HOLD_NANOS) / 1e6));
+		}
+
+		out.append(String.format(Locale.ROOT, "%nHottest ISBNs%n%-12s %12s %12s %14s %12s%n",
+				"isbn", "locked", "contended", "wait ms", "max wait ms"));
+		for (Integer isbn : getHottestISBNs(numISBNs)) {
+			AtomicLongArray stats = isbns.get(isbn);
+			out.append(String.format(Locale.ROOT,
+					"%-12d %12d %12d %14.3f %12.3f%n", isbn,
+					stats.get(ACQUISITIONS), stats.get(CONTENDED),
+					stats.get(WAIT_NANOS) / 1e6,
+					stats.get(MAX_WAIT_NANOS) / 1e6));
+		}
+
+		List<Integer> stripes = new ArrayList<Integer>();
+		for (int i = 0; i < stripeWaitNanos.length(); i++) {
+			if (stripeContended.get(i) > 0) {
+				stripes.add(i);
+			}
+		}
+		Collections.sort(stripes, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(stripeWaitNanos.get(b),
+						stripeWaitNanos.get(a));
+			}
+		});
+		out.append(String.format(Locale.ROOT, "%nMost contended stripes%n%-12s %12s %14s%n",
+				"stripe", "contended", "wait ms"));
+		for (int stripe : stripes.subList(0, Math.min(numStripes,
+				stripes.size()))) {
+			out.append(String.format(Locale.ROOT, "%-12d %12d %14.3f%n",
+					stripe, stripeContended.get(stripe),
+					stripeWaitNanos.get(stripe) / 1e6));
+		}
+		return out.toString();
+	}
+
+	private AtomicLongArray statsOf(int isbn) {
+		AtomicLongArray stats = isbns.get(isbn);
+		if (stats == null) {
+			AtomicLongArray created = new AtomicLongArray(NUM_FIELDS);
+			stats = isbns.putIfAbsent(isbn, created);
+			if (stats == null) {
+				stats = created;
+				if (isbns.size() > maxISBNs) {
+					prune();
+				}
+			}
+		}
+		return stats;
+	}
+
+	private List<Map.Entry<Integer, AtomicLongArray>> hottestFirst() {
+		List<Map.Entry<Integer, AtomicLongArray>> entries = new ArrayList<Map.Entry<Integer, AtomicLongArray>>(
+				isbns.entrySet());
+		Collections.sort(entries, HOTTEST_FIRST);
+		return entries;
+	}
+
+	/**
+	 * Keeps the hottest half of the ISBNs. The updates other threads make
+	 * meanwhile to the ISBNs removed are lost.
+	 */
+	private void prune() {
+		if (!pruning.compareAndSet(false, true)) {
+			return; // another thread is pruning
+		}
+		try {
+			List<Map.Entry<Integer, AtomicLongArray>> entries = hottestFirst();
+			for (int i = maxISBNs / 2; i < entries.size(); i++) {
+				isbns.remove(entries.get(i).getKey());
+			}
+		} finally {
+			pruning.set(false);
+		}
+	}
+
+	private static void max(AtomicLongArray array, int index, long value) {
+		long current;
+		while (value > (current = array.get(index))
+				&& !array.compareAndSet(index, current, value)) {
+			;
+		}
+	}
+}
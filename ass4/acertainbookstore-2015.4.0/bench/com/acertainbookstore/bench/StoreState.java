@@ -0,0 +1,70 @@
+package com.acertainbookstore.bench;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * StoreState holds the bookstore shared by all the threads of a benchmark,
+ * filled with the books 1 to catalogSize before the trial starts.
+ *
+ * The books start with enough copies that the benchmarks buying them do not
+ * run out of stock, and every tenth book is an editor pick.
+ *
+ */
+@State(Scope.Benchmark)
+public class StoreState {
+	public static final int INITIAL_COPIES = 1 << 30;
+	public static final int EDITOR_PICK_EVERY = 10;
+
+	@Param({ "certain" })
+	public String implementation;
+
+	@Param({ "1000", "100000" })
+	public int catalogSize;
+
+	public BookStore bookStore;
+	public StockManager stockManager;
+
+	@Setup(Level.Trial)
+	public void setUp() throws BookStoreException {
+		if (implementation.equals("certain")) {
+			CertainBookStore store = new CertainBookStore();
+			bookStore = store;
+			stockManager = store;
+		} else {
+			throw new IllegalArgumentException("Unknown implementation "
+					+ implementation);
+		}
+		stockManager.addBooks(books(1, catalogSize));
+	}
+
+	/**
+	 * Returns count books with consecutive ISBNs starting at firstISBN
+	 *
+	 * @param firstISBN
+	 * @param count
+	 * @return
+	 */
+	public static Set<StockBook> books(int firstISBN, int count) {
+		Set<StockBook> books = new HashSet<StockBook>();
+		for (int isbn = firstISBN; isbn < firstISBN + count; isbn++) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author "
+					+ isbn, (float) 10, INITIAL_COPIES, 0, 0, 0,
+					isbn % EDITOR_PICK_EVERY == 0));
+		}
+		return books;
+	}
+}
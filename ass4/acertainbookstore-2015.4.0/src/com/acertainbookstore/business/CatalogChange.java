@@ -0,0 +1,41 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CatalogChange holds the books one commit to the catalog changed: the new
+ * versions of the books it added or updated and the ISBNs of the books it
+ * removed. The changes of a store are numbered by consecutive sequence
+ * numbers, starting at 1.
+ * 
+ */
+public class CatalogChange {
+	private final long sequence;
+	private final List<StockBook> books;
+	private final Set<Integer> removedISBNs;
+
+	public CatalogChange(long sequence, List<StockBook> books,
+			Set<Integer> removedISBNs) {
+		this.sequence = sequence;
+		this.books = books;
+		this.removedISBNs = removedISBNs;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * Returns the books as they are after the change.
+	 * 
+	 * @return
+	 */
+	public List<StockBook> getBooks() {
+		return books;
+	}
+
+	public Set<Integer> getRemovedISBNs() {
+		return removedISBNs;
+	}
+}
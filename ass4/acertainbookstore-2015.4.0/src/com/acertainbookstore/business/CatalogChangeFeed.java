@@ -0,0 +1,104 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * CatalogChangeFeed keeps the last changes committed to a MultiVersionCatalog
+ * in a ring buffer, so that clients can pull the changes after the last one
+ * they saw instead of the whole catalog.
+ * 
+ * The catalog publishes every commit as a change numbered by its commit
+ * timestamp, so the sequence numbers are consecutive. Once the buffer is full
+ * the oldest change is overwritten, and a client asking for changes that are
+ * gone has to resync, cf. CatalogChanges. A client that is up to date can
+ * wait for the next change, which wakes it as soon as the change is
+ * committed.
+ * 
+ */
+public class CatalogChangeFeed {
+	private final CatalogChange[] changes;
+	private final long epoch;
+	// Guarded by the monitor of the feed
+	private long lastSequence = 0;
+
+	/**
+	 * Creates a feed keeping the last capacity changes of the store run with
+	 * the epoch
+	 * 
+	 * @param capacity
+	 * @param epoch
+	 */
+	public CatalogChangeFeed(int capacity, long epoch) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity = " + capacity
+					+ ", but it must be positive");
+		}
+		changes = new CatalogChange[capacity];
+		this.epoch = epoch;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Adds the change, whose sequence number must follow the last one, and
+	 * wakes the waiting clients
+	 * 
+	 * @param change
+	 */
+	public synchronized void publish(CatalogChange change) {
+		if (change.getSequence() != lastSequence + 1) {
+			throw new IllegalStateException("Change " + change.getSequence()
+					+ " does not follow change " + lastSequence);
+		}
+		changes[(int) (change.getSequence() % changes.length)] = change;
+		lastSequence = change.getSequence();
+		notifyAll();
+	}
+
+	public synchronized long getLastSequence() {
+		return lastSequence;
+	}
+
+	/**
+	 * Returns at most maxChanges changes after the sequence number, waiting
+	 * up to timeoutMillis for one if there is none yet
+	 * 
+	 * @param sinceSequence
+	 * @param maxChanges
+	 * @param timeoutMillis
+	 * @return
+	 */
+	public synchronized CatalogChanges getChanges(long sinceSequence,
+			int maxChanges, long timeoutMillis) {
+		long deadlineInNanoSecs = System.nanoTime() + timeoutMillis * 1000000;
+		while (sinceSequence == lastSequence) {
+			long remainingMillis = (deadlineInNanoSecs - System.nanoTime()) / 1000000;
+			if (remainingMillis <= 0) {
+				break;
+			}
+			try {
+				wait(remainingMillis);
+			} catch (InterruptedException ex) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		long oldestSequence = Math.max(lastSequence - changes.length + 1, 1);
+		if (sinceSequence > lastSequence || sinceSequence < oldestSequence - 1) {
+			return new CatalogChanges(Collections.<CatalogChange> emptyList(),
+					lastSequence, true, epoch);
+		}
+		long toSequence = Math.min(lastSequence, sinceSequence + maxChanges);
+		List<CatalogChange> result = new ArrayList<CatalogChange>(
+				(int) (toSequence - sinceSequence));
+		for (long sequence = sinceSequence + 1; sequence <= toSequence; sequence++) {
+			result.add(changes[(int) (sequence % changes.length)]);
+		}
+		return new CatalogChanges(result, toSequence, false, epoch);
+	}
+}
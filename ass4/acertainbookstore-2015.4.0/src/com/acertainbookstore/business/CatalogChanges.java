@@ -0,0 +1,52 @@
+package com.acertainbookstore.business;
+
+import java.util.List;
+
+/**
+ * CatalogChanges is the answer to a request for the changes after a sequence
+ * number: the changes in order, and the sequence number to ask for the next
+ * changes after.
+ * 
+ * If the changes after the sequence number are no longer kept, or the store
+ * does not know the sequence number because it restarted, the answer has no
+ * changes and requires a resync: the client reads the whole catalog with
+ * getBooks and then asks for the changes after the returned next sequence
+ * number. As a change carries the whole books, applying changes the catalog
+ * read already includes leaves the client with the same books.
+ * 
+ * The sequence numbers start over when the store restarts, so they are only
+ * comparable within an epoch, which identifies one run of the store. A client
+ * that gets changes of another epoch than the one it has applied has to
+ * resync as well.
+ * 
+ */
+public class CatalogChanges {
+	private final List<CatalogChange> changes;
+	private final long nextSequence;
+	private final boolean resyncRequired;
+	private final long epoch;
+
+	public CatalogChanges(List<CatalogChange> changes, long nextSequence,
+			boolean resyncRequired, long epoch) {
+		this.changes = changes;
+		this.nextSequence = nextSequence;
+		this.resyncRequired = resyncRequired;
+		this.epoch = epoch;
+	}
+
+	public List<CatalogChange> getChanges() {
+		return changes;
+	}
+
+	public long getNextSequence() {
+		return nextSequence;
+	}
+
+	public boolean isResyncRequired() {
+		return resyncRequired;
+	}
+
+	public long getEpoch() {
+		return epoch;
+	}
+}
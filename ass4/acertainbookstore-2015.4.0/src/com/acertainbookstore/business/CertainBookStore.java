@@ -3,36 +3,152 @@
  */
 package com.acertainbookstore.business;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.persistence.CheckpointStore;
+import com.acertainbookstore.persistence.WriteAheadLog;
+import com.acertainbookstore.utils.BatchOperation;
+import com.acertainbookstore.utils.BatchRequest;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreResponse;
 import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.ConcurrentIntHashMap;
 
 /**
  * CertainBookStore implements the bookstore and its functionality which is
  * defined in the BookStore
+ *
+ * Writers are serialized by the monitor of the bookstore and publish the books
+ * they change to a MultiVersionCatalog, from which getBooks reads a consistent
+ * snapshot without taking the monitor. The editor picks are kept in an
+ * EditorPicksIndex, the books ordered by rating in a RatingIndex and the
+ * ISBNs of the books that had a sale miss since their last replenishment in a
+ * set, so that getEditorPicks, getTopRatedBooks and getBooksInDemand do not
+ * scan the catalog. The books themselves are kept in a ConcurrentIntHashMap
+ * keyed by the primitive ISBN.
+ *
+ * A batch of operations runs under the monitor, so no other writer interleaves
+ * with it. An atomic batch publishes its changes to the catalog in a single
+ * commit and restores the books it changed if one of its operations fails.
+ *
+ * If the bookstore has a WriteAheadLog, every change is logged as the
+ * operation that made it while the monitor is held, so the log holds the
+ * operations in the order they were applied. The caller then waits for its
+ * record to become durable after releasing the monitor, so that the records of
+ * concurrent callers can be forced together. A checkpoint writes a snapshot of
+ * the catalog to a CheckpointStore, so that a restart only replays the
+ * operations logged after it.
+ *
+ * Every commit to the catalog is published to a CatalogChangeFeed as a change
+ * numbered by its commit timestamp, so clients can pull the books changed
+ * after the last change they saw with getChanges. An atomic batch is one
+ * change. The sequence numbers start over with every CertainBookStore, even
+ * one recovered from a log, so each has a random epoch that tells the clients
+ * the numbers they hold are no longer valid. A replica of the store applies the changes of its primary with
+ * applyChange and resetCatalog, which are not logged.
  */
 public class CertainBookStore implements BookStore, StockManager {
-	private Map<Integer, BookStoreBook> bookMap = null;
+	private ConcurrentIntHashMap<BookStoreBook> bookMap = null;
+	private final CatalogChangeFeed changeFeed = new CatalogChangeFeed(
+			BookStoreConstants.CHANGE_FEED_CAPACITY, newEpoch());
+	private final MultiVersionCatalog catalog = new MultiVersionCatalog(
+			changeFeed);
+	private final EditorPicksIndex editorPicksIndex = new EditorPicksIndex();
+	private final RatingIndex ratingIndex = new RatingIndex();
+	private final Set<Integer> booksInDemand = new HashSet<Integer>();
+	private final WriteAheadLog log;
+	// Guarded by the monitor, set while the changes must not be logged
+	private boolean loggingSuspended = false;
+	// The LSN of the last record logged by the current thread, which it must
+	// wait for before it returns
+	private final ThreadLocal<Long> pendingLsn = new ThreadLocal<Long>();
+	private final CheckpointStore checkpoints;
+	// Guarded by checkpointLock, which serializes the checkpoints
+	private final Object checkpointLock = new Object();
+	private long lastCheckpointLsn = 0;
 
 	public CertainBookStore() {
 		// Constructors are not synchronized
-		bookMap = new HashMap<Integer, BookStoreBook>();
+		bookMap = new ConcurrentIntHashMap<BookStoreBook>();
+		log = null;
+		checkpoints = null;
 	}
 
-	public synchronized void addBooks(Set<StockBook> bookSet)
+	/**
+	 * Creates a bookstore whose changes are written to the log, starting from
+	 * the state the operations already in the log lead to
+	 *
+	 * @param log
+	 * @throws BookStoreException
+	 *             if the log cannot be read
+	 */
+	public CertainBookStore(WriteAheadLog log) throws BookStoreException {
+		this(log, null);
+	}
+
+	/**
+	 * Creates a bookstore whose changes are written to the log, starting from
+	 * the newest checkpoint and the operations logged after it
+	 *
+	 * @param log
+	 * @param checkpoints
+	 *            the checkpoints to start from and to write, or null
+	 * @throws BookStoreException
+	 *             if the checkpoint or the log cannot be read
+	 */
+	public CertainBookStore(WriteAheadLog log, CheckpointStore checkpoints)
+			throws BookStoreException {
+		bookMap = new ConcurrentIntHashMap<BookStoreBook>();
+		this.log = log;
+		this.checkpoints = checkpoints;
+		loggingSuspended = true;
+		try {
+			if (checkpoints != null) {
+				CheckpointStore.Checkpoint checkpoint = checkpoints
+						.loadLatest();
+				if (checkpoint != null) {
+					insertBooks(checkpoint.getBooks());
+					lastCheckpointLsn = checkpoint.getLsn();
+				}
+			}
+			if (log.getLastAppended() < lastCheckpointLsn) {
+				throw new BookStoreException("The log ends at record "
+						+ log.getLastAppended() + " before the checkpoint at "
+						+ lastCheckpointLsn);
+			}
+			log.replay(lastCheckpointLsn, new WriteAheadLog.RecordHandler() {
+				public void onRecord(long lsn, Object record)
+						throws BookStoreException {
+					replayOperation((BatchOperation) record);
+				}
+			});
+		} catch (IOException ex) {
+			throw new BookStoreException(ex);
+		} finally {
+			loggingSuspended = false;
+		}
+	}
+
+	public void addBooks(Set<StockBook> bookSet)
+			throws BookStoreException {
+		applyAddBooks(bookSet);
+		awaitDurable();
+	}
+
+	private synchronized void applyAddBooks(Set<StockBook> bookSet)
 			throws BookStoreException {
 
 		if (bookSet == null) {
@@ -58,14 +174,41 @@ public class CertainBookStore implements BookStore, StockManager {
 			}
 		}
 
-		for (StockBook book : bookSet) {
+		logOperation(BookStoreMessageTag.ADDBOOKS, bookSet);
+		insertBooks(bookSet);
+	}
+
+	/**
+	 * Adds the books, which must not be in the store, with all their state
+	 */
+	private void insertBooks(Collection<StockBook> books) {
+		List<Book> newEditorPicks = new ArrayList<Book>();
+		for (StockBook book : books) {
 			int ISBN = book.getISBN();
-			bookMap.put(ISBN, new BookStoreBook(book));
+			BookStoreBook bookStoreBook = new BookStoreBook(book);
+			bookMap.put(ISBN, bookStoreBook);
+			catalog.stage(bookStoreBook.immutableStockBook());
+			ratingIndex.put(bookStoreBook.immutableBook(),
+					bookStoreBook.getAverageRating());
+			if (bookStoreBook.hadSaleMiss()) {
+				booksInDemand.add(ISBN);
+			}
+			if (bookStoreBook.isEditorPick()) {
+				newEditorPicks.add(bookStoreBook.immutableBook());
+			}
 		}
-		return;
+		catalog.commit();
+		editorPicksIndex.update(newEditorPicks,
+				Collections.<Integer> emptyList());
+	}
+
+	public void addCopies(Set<BookCopy> bookCopiesSet)
+			throws BookStoreException {
+		applyAddCopies(bookCopiesSet);
+		awaitDurable();
 	}
 
-	public synchronized void addCopies(Set<BookCopy> bookCopiesSet)
+	private synchronized void applyAddCopies(Set<BookCopy> bookCopiesSet)
 			throws BookStoreException {
 		int ISBN, numCopies;
 
@@ -88,6 +231,7 @@ public class CertainBookStore implements BookStore, StockManager {
 
 		}
 
+		logOperation(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
 		BookStoreBook book;
 		// Update the number of copies
 		for (BookCopy bookCopy : bookCopiesSet) {
@@ -95,20 +239,67 @@ public class CertainBookStore implements BookStore, StockManager {
 			numCopies = bookCopy.getNumCopies();
 			book = bookMap.get(ISBN);
 			book.addCopies(numCopies);
+			booksInDemand.remove(ISBN);
+			catalog.stage(book.immutableStockBook());
 		}
+		catalog.commit();
 	}
 
-	public synchronized List<StockBook> getBooks() {
-		List<StockBook> listBooks = new ArrayList<StockBook>();
-		Collection<BookStoreBook> bookMapValues = bookMap.values();
-		for (BookStoreBook book : bookMapValues) {
-			listBooks.add(book.immutableStockBook());
+	/**
+	 * Writes a checkpoint of the catalog and truncates the log before the
+	 * previous checkpoint, which is kept in case the new one is lost. Only
+	 * opening the snapshot of the catalog takes the monitor, so the store
+	 * keeps serving while the checkpoint is written.
+	 *
+	 * @return the LSN of the last record the checkpoint includes
+	 * @throws BookStoreException
+	 */
+	public long checkpoint() throws BookStoreException {
+		if (log == null || checkpoints == null) {
+			throw new BookStoreException(BookStoreConstants.NO_CHECKPOINTS);
+		}
+		synchronized (checkpointLock) {
+			MultiVersionCatalog.Snapshot snapshot;
+			long lsn;
+			// Every logged operation has been committed to the catalog when
+			// the monitor is free
+			synchronized (this) {
+				snapshot = catalog.openSnapshot();
+				lsn = log.getLastAppended();
+			}
+			try {
+				if (lsn == lastCheckpointLsn) {
+					return lsn;
+				}
+				checkpoints.write(lsn, snapshot.getBooks());
+				lastCheckpointLsn = lsn;
+				log.truncate(checkpoints.retainLatest(2));
+			} catch (IOException ex) {
+				throw new BookStoreException(ex);
+			} finally {
+				snapshot.close();
+			}
+			return lsn;
 		}
-		return listBooks;
 	}
 
-	public synchronized void updateEditorPicks(Set<BookEditorPick> editorPicks)
+	public List<StockBook> getBooks() {
+		MultiVersionCatalog.Snapshot snapshot = catalog.openSnapshot();
+		try {
+			return snapshot.getBooks();
+		} finally {
+			snapshot.close();
+		}
+	}
+
+	public void updateEditorPicks(Set<BookEditorPick> editorPicks)
 			throws BookStoreException {
+		applyUpdateEditorPicks(editorPicks);
+		awaitDurable();
+	}
+
+	private synchronized void applyUpdateEditorPicks(
+			Set<BookEditorPick> editorPicks) throws BookStoreException {
 		// Check that all ISBNs that we add/remove are there first.
 		if (editorPicks == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -126,14 +317,31 @@ public class CertainBookStore implements BookStore, StockManager {
 						+ BookStoreConstants.NOT_AVAILABLE);
 		}
 
+		logOperation(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks);
+		List<Book> picked = new ArrayList<Book>();
+		List<Integer> unpicked = new ArrayList<Integer>();
 		for (BookEditorPick editorPickArg : editorPicks) {
-			bookMap.get(editorPickArg.getISBN()).setEditorPick(
-					editorPickArg.isEditorPick());
+			BookStoreBook book = bookMap.get(editorPickArg.getISBN());
+			book.setEditorPick(editorPickArg.isEditorPick());
+			catalog.stage(book.immutableStockBook());
+			if (editorPickArg.isEditorPick()) {
+				picked.add(book.immutableBook());
+			} else {
+				unpicked.add(book.getISBN());
+			}
 		}
+		catalog.commit();
+		editorPicksIndex.update(picked, unpicked);
 		return;
 	}
 
-	public synchronized void buyBooks(Set<BookCopy> bookCopiesToBuy)
+	public void buyBooks(Set<BookCopy> bookCopiesToBuy)
+			throws BookStoreException {
+		applyBuyBooks(bookCopiesToBuy);
+		awaitDurable();
+	}
+
+	private synchronized void applyBuyBooks(Set<BookCopy> bookCopiesToBuy)
 			throws BookStoreException {
 		if (bookCopiesToBuy == null) {
 			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
@@ -142,8 +350,10 @@ public class CertainBookStore implements BookStore, StockManager {
 		// Check that all ISBNs that we buy are there first.
 		int ISBN;
 		BookStoreBook book;
-		Boolean saleMiss = false;
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			if (bookCopyToBuy == null) {
+				throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+			}
 			ISBN = bookCopyToBuy.getISBN();
 			if (bookCopyToBuy.getNumCopies() < 0)
 				throw new BookStoreException(BookStoreConstants.NUM_COPIES
@@ -155,25 +365,41 @@ public class CertainBookStore implements BookStore, StockManager {
 			if (!bookMap.containsKey(ISBN))
 				throw new BookStoreException(BookStoreConstants.ISBN + ISBN
 						+ BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		// A valid purchase changes the store even if it fails, since the
+		// sale misses are counted, so it is logged before the misses are
+		// staged and every staged version is committed below
+		logOperation(BookStoreMessageTag.BUYBOOKS, bookCopiesToBuy);
+
+		Boolean saleMiss = false;
+		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
+			ISBN = bookCopyToBuy.getISBN();
 			book = bookMap.get(ISBN);
 			if (!book.areCopiesInStore(bookCopyToBuy.getNumCopies())) {
 				book.addSaleMiss(); // If we cannot sell the copies of the book
 									// its a miss
+				booksInDemand.add(ISBN);
+				catalog.stage(book.immutableStockBook());
 				saleMiss = true;
 			}
 		}
 
 		// We throw exception now since we want to see how many books in the
 		// order incurred misses which is used by books in demand
-		if (saleMiss)
+		if (saleMiss) {
+			catalog.commit();
 			throw new BookStoreException(BookStoreConstants.BOOK
 					+ BookStoreConstants.NOT_AVAILABLE);
+		}
 
 		// Then make purchase
 		for (BookCopy bookCopyToBuy : bookCopiesToBuy) {
 			book = bookMap.get(bookCopyToBuy.getISBN());
 			book.buyCopies(bookCopyToBuy.getNumCopies());
+			catalog.stage(book.immutableStockBook());
 		}
+		catalog.commit();
 		return;
 	}
 
@@ -224,79 +450,98 @@ public class CertainBookStore implements BookStore, StockManager {
 		return listBooks;
 	}
 
-	public synchronized List<Book> getEditorPicks(int numBooks)
+	public List<Book> getEditorPicks(int numBooks)
 			throws BookStoreException {
 		if (numBooks < 0) {
 			throw new BookStoreException("numBooks = " + numBooks
 					+ ", but it must be positive");
 		}
 
-		List<BookStoreBook> listAllEditorPicks = new ArrayList<BookStoreBook>();
-		List<Book> listEditorPicks = new ArrayList<Book>();
-		Iterator<Entry<Integer, BookStoreBook>> it = bookMap.entrySet()
-				.iterator();
-		BookStoreBook book;
+		// Get numBooks random books that are editor picks
+		return editorPicksIndex.sample(numBooks);
+	}
 
-		// Get all books that are editor picks
-		while (it.hasNext()) {
-			Entry<Integer, BookStoreBook> pair = (Entry<Integer, BookStoreBook>) it
-					.next();
-			book = (BookStoreBook) pair.getValue();
-			if (book.isEditorPick()) {
-				listAllEditorPicks.add(book);
-			}
+	@Override
+	public List<Book> getTopRatedBooks(int numBooks)
+			throws BookStoreException {
+		if (numBooks < 0) {
+			throw new BookStoreException("numBooks = " + numBooks
+					+ ", but it must be positive");
 		}
+		return ratingIndex.top(numBooks);
+	}
 
-		// Find numBooks random indices of books that will be picked
-		Random rand = new Random();
-		Set<Integer> tobePicked = new HashSet<Integer>();
-		int rangePicks = listAllEditorPicks.size();
-		if (rangePicks <= numBooks) {
-			// We need to add all the books
-			for (int i = 0; i < listAllEditorPicks.size(); i++) {
-				tobePicked.add(i);
-			}
-		} else {
-			// We need to pick randomly the books that need to be returned
-			int randNum;
-			while (tobePicked.size() < numBooks) {
-				randNum = rand.nextInt(rangePicks);
-				tobePicked.add(randNum);
-			}
-		}
+	@Override
+	public synchronized List<StockBook> getBooksInDemand()
+			throws BookStoreException {
+		List<StockBook> listBooks = new ArrayList<StockBook>(
+				booksInDemand.size());
 
-		// Get the numBooks random books
-		for (Integer index : tobePicked) {
-			book = listAllEditorPicks.get(index);
-			listEditorPicks.add(book.immutableBook());
+		// Get the books
+		for (Integer ISBN : booksInDemand) {
+			listBooks.add(bookMap.get(ISBN).immutableStockBook());
 		}
-		return listEditorPicks;
-
+		return listBooks;
 	}
 
 	@Override
-	public synchronized List<Book> getTopRatedBooks(int numBooks)
+	public void rateBooks(Set<BookRating> bookRating)
 			throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		applyRateBooks(bookRating);
+		awaitDurable();
 	}
 
-	@Override
-	public synchronized List<StockBook> getBooksInDemand()
+	private synchronized void applyRateBooks(Set<BookRating> bookRating)
 			throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		if (bookRating == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		// Check that all ISBNs that we rate are there first.
+		for (BookRating rating : bookRating) {
+			int ISBN = rating.getISBN();
+			if (BookStoreUtility.isInvalidRating(rating.getRating()))
+				throw new BookStoreException(BookStoreConstants.RATING
+						+ rating.getRating() + BookStoreConstants.INVALID);
+			if (BookStoreUtility.isInvalidISBN(ISBN))
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+						+ BookStoreConstants.INVALID);
+			if (!bookMap.containsKey(ISBN))
+				throw new BookStoreException(BookStoreConstants.ISBN + ISBN
+						+ BookStoreConstants.NOT_AVAILABLE);
+		}
+
+		logOperation(BookStoreMessageTag.RATEBOOKS, bookRating);
+		for (BookRating rating : bookRating) {
+			BookStoreBook book = bookMap.get(rating.getISBN());
+			book.addRating(rating.getRating());
+			catalog.stage(book.immutableStockBook());
+			ratingIndex.put(book.immutableBook(), book.getAverageRating());
+		}
+		catalog.commit();
 	}
 
-	@Override
-	public synchronized void rateBooks(Set<BookRating> bookRating)
-			throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+	public void removeAllBooks() throws BookStoreException {
+		applyRemoveAllBooks();
+		awaitDurable();
 	}
 
-	public synchronized void removeAllBooks() throws BookStoreException {
+	private synchronized void applyRemoveAllBooks() throws BookStoreException {
+		logOperation(BookStoreMessageTag.REMOVEALLBOOKS, null);
 		bookMap.clear();
+		catalog.stageRemoveAll();
+		catalog.commit();
+		editorPicksIndex.clear();
+		ratingIndex.clear();
+		booksInDemand.clear();
+	}
+
+	public void removeBooks(Set<Integer> isbnSet)
+			throws BookStoreException {
+		applyRemoveBooks(isbnSet);
+		awaitDurable();
 	}
 
-	public synchronized void removeBooks(Set<Integer> isbnSet)
+	private synchronized void applyRemoveBooks(Set<Integer> isbnSet)
 			throws BookStoreException {
 
 		if (isbnSet == null) {
@@ -311,8 +556,376 @@ public class CertainBookStore implements BookStore, StockManager {
 						+ BookStoreConstants.NOT_AVAILABLE);
 		}
 
+		logOperation(BookStoreMessageTag.REMOVEBOOKS, isbnSet);
 		for (int isbn : isbnSet) {
 			bookMap.remove(isbn);
+			catalog.stageRemoval(isbn);
+			ratingIndex.remove(isbn);
+			booksInDemand.remove(isbn);
+		}
+		catalog.commit();
+		editorPicksIndex.update(Collections.<Book> emptyList(), isbnSet);
+	}
+
+	public CatalogChanges getChanges(long sinceSequence, int maxChanges,
+			long timeoutMillis) throws BookStoreException {
+		if (sinceSequence < 0) {
+			throw new BookStoreException("sinceSequence = " + sinceSequence
+					+ ", but it must not be negative");
+		}
+		if (maxChanges < 1) {
+			throw new BookStoreException("maxChanges = " + maxChanges
+					+ ", but it must be positive");
+		}
+		// Does not take the monitor, so the writers go on while it waits
+		return changeFeed.getChanges(sinceSequence,
+				Math.min(maxChanges, BookStoreConstants.MAX_CHANGES_PER_REQUEST),
+				Math.min(Math.max(timeoutMillis, 0),
+						BookStoreConstants.MAX_CHANGES_WAIT_MILLISECS));
+	}
+
+	/**
+	 * Returns the sequence number of the last change to the catalog.
+	 *
+	 * @return
+	 */
+	public long getLastSequence() {
+		return catalog.getLastCommitted();
+	}
+
+	/**
+	 * Returns the epoch of the sequence numbers of this store, which is never
+	 * 0
+	 *
+	 * @return
+	 */
+	public long getEpoch() {
+		return changeFeed.getEpoch();
+	}
+
+	private static long newEpoch() {
+		long epoch;
+		do {
+			epoch = ThreadLocalRandom.current().nextLong();
+		} while (epoch == 0);
+		return epoch;
+	}
+
+	/**
+	 * Applies a change of the primary this store replicates, as one commit.
+	 * The change is not logged, so a replica keeps no log.
+	 *
+	 * @param change
+	 */
+	public synchronized void applyChange(CatalogChange change) {
+		Map<Integer, StockBook> versions = new HashMap<Integer, StockBook>();
+		for (StockBook book : change.getBooks()) {
+			versions.put(book.getISBN(), book);
+		}
+		for (Integer isbn : change.getRemovedISBNs()) {
+			versions.put(isbn, null);
+		}
+		restoreBooks(versions);
+		catalog.commit();
+	}
+
+	/**
+	 * Replaces all books with the books of the primary this store
+	 * replicates, as one commit, so readers see the old or the new catalog.
+	 *
+	 * @param books
+	 */
+	public synchronized void resetCatalog(Collection<StockBook> books) {
+		catalog.holdCommits();
+		try {
+			bookMap.clear();
+			catalog.stageRemoveAll();
+			editorPicksIndex.clear();
+			ratingIndex.clear();
+			booksInDemand.clear();
+			insertBooks(books);
+		} finally {
+			catalog.releaseCommits();
+		}
+	}
+
+	/**
+	 * Runs the operations in order and returns one response per operation.
+	 * In a batch that is not atomic a failed operation only sets the exception
+	 * of its own response. An atomic batch stops at the first failure, undoes
+	 * the operations before it and throws the exception of the failed
+	 * operation.
+	 *
+	 * @param operations
+	 * @param atomic
+	 * @return
+	 * @throws BookStoreException
+	 */
+	public List<BookStoreResponse> executeBatch(
+			List<BatchOperation> operations, boolean atomic)
+			throws BookStoreException {
+		List<BookStoreResponse> responses = applyBatch(operations, atomic);
+		awaitDurable();
+		return responses;
+	}
+
+	private synchronized List<BookStoreResponse> applyBatch(
+			List<BatchOperation> operations, boolean atomic)
+			throws BookStoreException {
+		if (operations == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		List<BookStoreResponse> results = new ArrayList<BookStoreResponse>(
+				operations.size());
+		if (!atomic) {
+			for (BatchOperation operation : operations) {
+				BookStoreResponse result = new BookStoreResponse();
+				try {
+					result.setList(executeOperation(operation));
+				} catch (BookStoreException ex) {
+					result.setException(ex);
+				}
+				results.add(result);
+			}
+			return results;
+		}
+
+		// The versions of the changed books from before the batch, null for
+		// books that were not in the store
+		Map<Integer, StockBook> undo = new HashMap<Integer, StockBook>();
+		boolean failed = true;
+		// The batch is logged as a whole once it has succeeded, as logging
+		// its operations one by one would replay those of a rolled back batch
+		boolean wasLoggingSuspended = loggingSuspended;
+		loggingSuspended = true;
+		catalog.holdCommits();
+		try {
+			for (BatchOperation operation : operations) {
+				saveForUndo(operation, undo);
+				BookStoreResponse result = new BookStoreResponse();
+				result.setList(executeOperation(operation));
+				results.add(result);
+			}
+			loggingSuspended = wasLoggingSuspended;
+			logOperation(BookStoreMessageTag.BATCH, new BatchRequest(
+					operations, true));
+			failed = false;
+		} finally {
+			loggingSuspended = wasLoggingSuspended;
+			if (failed) {
+				restoreBooks(undo);
+			}
+			catalog.releaseCommits();
+		}
+		return results;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<?> executeOperation(BatchOperation operation)
+			throws BookStoreException {
+		if (operation == null || operation.getTag() == null) {
+			throw new BookStoreException(BookStoreConstants.NULL_INPUT);
+		}
+		Object argument = operation.getArgument();
+		try {
+			switch (operation.getTag()) {
+			case ADDBOOKS:
+				applyAddBooks((Set<StockBook>) argument);
+				return null;
+			case ADDCOPIES:
+				applyAddCopies((Set<BookCopy>) argument);
+				return null;
+			case LISTBOOKS:
+				// Read the books directly as the catalog does not show the
+				// changes of an atomic batch before it is done
+				List<StockBook> listBooks = new ArrayList<StockBook>(
+						bookMap.size());
+				for (BookStoreBook book : bookMap.values()) {
+					listBooks.add(book.immutableStockBook());
+				}
+				return listBooks;
+			case GETBOOKSINDEMAND:
+				return getBooksInDemand();
+			case UPDATEEDITORPICKS:
+				applyUpdateEditorPicks((Set<BookEditorPick>) argument);
+				return null;
+			case BUYBOOKS:
+				applyBuyBooks((Set<BookCopy>) argument);
+				return null;
+			case GETBOOKS:
+				return getBooks((Set<Integer>) argument);
+			case EDITORPICKS:
+				return getEditorPicks(numBooksArgument(operation));
+			case GETSTOCKBOOKSBYISBN:
+				return getBooksByISBN((Set<Integer>) argument);
+			case RATEBOOKS:
+				applyRateBooks((Set<BookRating>) argument);
+				return null;
+			case GETTOPRATEDBOOKS:
+				return getTopRatedBooks(numBooksArgument(operation));
+			case REMOVEALLBOOKS:
+				applyRemoveAllBooks();
+				return null;
+			case REMOVEBOOKS:
+				applyRemoveBooks((Set<Integer>) argument);
+				return null;
+			default:
+				throw new BookStoreException(BookStoreConstants.OPERATION
+						+ operation.getTag() + BookStoreConstants.INVALID);
+			}
+		} catch (ClassCastException ex) {
+			throw new BookStoreException(BookStoreConstants.OPERATION
+					+ operation.getTag() + BookStoreConstants.INVALID, ex);
+		}
+	}
+
+	private static int numBooksArgument(BatchOperation operation)
+			throws BookStoreException {
+		if (!(operation.getArgument() instanceof Integer)) {
+			throw new BookStoreException(BookStoreConstants.OPERATION
+					+ operation.getTag() + BookStoreConstants.INVALID);
+		}
+		return (Integer) operation.getArgument();
+	}
+
+	/**
+	 * Remembers the books the operation may change, unless an earlier
+	 * operation of the batch already changed them
+	 */
+	private void saveForUndo(BatchOperation operation,
+			Map<Integer, StockBook> undo) {
+		if (operation == null || operation.getTag() == null) {
+			return;
+		}
+		List<Integer> isbns = new ArrayList<Integer>();
+		switch (operation.getTag()) {
+		case REMOVEALLBOOKS:
+			for (BookStoreBook book : bookMap.values()) {
+				isbns.add(book.getISBN());
+			}
+			break;
+		case ADDBOOKS:
+		case ADDCOPIES:
+		case UPDATEEDITORPICKS:
+		case BUYBOOKS:
+		case RATEBOOKS:
+		case REMOVEBOOKS:
+			if (operation.getArgument() instanceof Set) {
+				for (Object element : (Set<?>) operation.getArgument()) {
+					if (element instanceof Integer) {
+						isbns.add((Integer) element);
+					} else if (element instanceof Book) {
+						isbns.add(((Book) element).getISBN());
+					} else if (element instanceof BookCopy) {
+						isbns.add(((BookCopy) element).getISBN());
+					} else if (element instanceof BookEditorPick) {
+						isbns.add(((BookEditorPick) element).getISBN());
+					} else if (element instanceof BookRating) {
+						isbns.add(((BookRating) element).getISBN());
+					}
+				}
+			}
+			break;
+		default:
+			break; // reads do not change any book
+		}
+		for (Integer isbn : isbns) {
+			if (!undo.containsKey(isbn)) {
+				BookStoreBook book = bookMap.get(isbn);
+				undo.put(isbn, book == null ? null : book.immutableStockBook());
+			}
+		}
+	}
+
+	/**
+	 * Puts the books in the store as the given versions with all their state,
+	 * removing the books mapped to null. Used to roll back a batch to the
+	 * versions saved before it and to apply the changes of a primary.
+	 */
+	private void restoreBooks(Map<Integer, StockBook> versions) {
+		List<Book> picked = new ArrayList<Book>();
+		List<Integer> unpicked = new ArrayList<Integer>();
+		for (Map.Entry<Integer, StockBook> entry : versions.entrySet()) {
+			int isbn = entry.getKey();
+			if (entry.getValue() == null) {
+				if (bookMap.remove(isbn) != null) {
+					catalog.stageRemoval(isbn);
+					ratingIndex.remove(isbn);
+					booksInDemand.remove(isbn);
+					unpicked.add(isbn);
+				}
+				continue;
+			}
+			BookStoreBook book = new BookStoreBook(entry.getValue());
+			bookMap.put(isbn, book);
+			catalog.stage(book.immutableStockBook());
+			ratingIndex.put(book.immutableBook(), book.getAverageRating());
+			if (book.hadSaleMiss()) {
+				booksInDemand.add(isbn);
+			} else {
+				booksInDemand.remove(isbn);
+			}
+			if (book.isEditorPick()) {
+				picked.add(book.immutableBook());
+			} else {
+				unpicked.add(isbn);
+			}
+		}
+		editorPicksIndex.update(picked, unpicked);
+	}
+
+	/**
+	 * Applies an operation read from the log. Operations that failed when
+	 * they were logged, like purchases with sale misses, fail again in the
+	 * same way and leave the same changes behind.
+	 */
+	private synchronized void replayOperation(BatchOperation operation)
+			throws BookStoreException {
+		if (operation.getTag() == BookStoreMessageTag.BATCH) {
+			BatchRequest batch = (BatchRequest) operation.getArgument();
+			applyBatch(batch.getOperations(), batch.isAtomic());
+			return;
+		}
+		try {
+			executeOperation(operation);
+		} catch (BookStoreException ex) {
+			; // failed the same way when it was logged
+		}
+	}
+
+	/**
+	 * Appends the operation to the log, unless the bookstore has no log or
+	 * logging is suspended. Must be called with the monitor held, before the
+	 * operation changes the store.
+	 */
+	private void logOperation(BookStoreMessageTag tag, Object argument)
+			throws BookStoreException {
+		if (log == null || loggingSuspended) {
+			return;
+		}
+		try {
+			pendingLsn.set(log.append(new BatchOperation(tag, argument)));
+		} catch (IOException ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	/**
+	 * Waits for the last record logged by the current thread to be durable.
+	 * Must be called without the monitor held, and only after the operation
+	 * succeeded: a caller that gets an exception was not promised its
+	 * changes, so the record of a failed operation is forced by a later sync.
+	 */
+	private void awaitDurable() throws BookStoreException {
+		Long lsn = pendingLsn.get();
+		if (lsn == null) {
+			return;
+		}
+		pendingLsn.remove();
+		try {
+			log.sync(lsn);
+		} catch (IOException ex) {
+			throw new BookStoreException(ex);
 		}
 	}
 }
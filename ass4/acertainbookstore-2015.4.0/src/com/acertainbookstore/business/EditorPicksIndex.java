@@ -0,0 +1,124 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * EditorPicksIndex keeps the books that are editor picks in a dense array so
+ * that a random sample of k picks can be drawn in O(k) without scanning the
+ * catalog.
+ *
+ * Books are removed by swapping the last pick into their slot, and a position
+ * map from ISBN to slot makes updates O(1). Samples are drawn with a partial
+ * Fisher-Yates shuffle of the array. The index is maintained by the writers of
+ * the bookstore and is safe to read concurrently with them.
+ *
+ */
+public class EditorPicksIndex {
+	private Book[] picks = new Book[16];
+	private int size = 0;
+	private final Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+
+	/**
+	 * Marks and unmarks books as editor picks in one step, so that readers see
+	 * either none or all of the changes.
+	 *
+	 * @param picked
+	 *            the books that are now editor picks
+	 * @param unpicked
+	 *            the ISBNs of the books that no longer are editor picks
+	 */
+	public synchronized void update(Collection<? extends Book> picked,
+			Collection<Integer> unpicked) {
+		for (Integer isbn : unpicked) {
+			removePick(isbn);
+		}
+		for (Book book : picked) {
+			addPick(book);
+		}
+	}
+
+	/**
+	 * Removes all editor picks.
+	 */
+	public synchronized void clear() {
+		for (int i = 0; i < size; i++) {
+			picks[i] = null;
+		}
+		size = 0;
+		positions.clear();
+	}
+
+	/**
+	 * Returns the number of editor picks.
+	 *
+	 * @return
+	 */
+	public synchronized int size() {
+		return size;
+	}
+
+	/**
+	 * Returns numBooks editor picks chosen uniformly at random, or all of them
+	 * if there are no more than numBooks.
+	 *
+	 * @param numBooks
+	 * @return
+	 */
+	public synchronized List<Book> sample(int numBooks) {
+		int numPicked = Math.min(numBooks, size);
+		List<Book> sample = new ArrayList<Book>(numPicked);
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		// The first i slots hold the sample drawn so far, the rest are the
+		// candidates, so each step is a swap
+		for (int i = 0; i < numPicked; i++) {
+			swap(i, i + rand.nextInt(size - i));
+			sample.add(picks[i]);
+		}
+		return sample;
+	}
+
+	private void addPick(Book book) {
+		Integer position = positions.get(book.getISBN());
+		if (position != null) {
+			picks[position] = book;
+			return;
+		}
+		if (size == picks.length) {
+			Book[] grown = new Book[picks.length * 2];
+			System.arraycopy(picks, 0, grown, 0, size);
+			picks = grown;
+		}
+		picks[size] = book;
+		positions.put(book.getISBN(), size);
+		size++;
+	}
+
+	private void removePick(int isbn) {
+		Integer position = positions.remove(isbn);
+		if (position == null) {
+			return;
+		}
+		size--;
+		if (position != size) {
+			picks[position] = picks[size];
+			positions.put(picks[position].getISBN(), position);
+		}
+		picks[size] = null;
+	}
+
+	private void swap(int i, int j) {
+		if (i == j) {
+			return;
+		}
+		Book tmp = picks[i];
+		picks[i] = picks[j];
+		picks[j] = tmp;
+		positions.put(picks[i].getISBN(), i);
+		positions.put(picks[j].getISBN(), j);
+	}
+}
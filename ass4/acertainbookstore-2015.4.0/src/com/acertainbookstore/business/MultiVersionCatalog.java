@@ -0,0 +1,282 @@
+package com.acertainbookstore.business;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MultiVersionCatalog keeps the committed versions of the books in the store
+ * so that readers can take a consistent point in time snapshot of the whole
+ * catalog without taking any lock.
+ *
+ * Writers stage new immutable versions of the books they changed and commit
+ * them together under a new commit timestamp. Writers must be serialized by
+ * the caller (CertainBookStore does so with its monitor). A snapshot sees,
+ * for every book, the newest version committed at or before the timestamp
+ * the snapshot was opened at. Versions that no open snapshot can see any more
+ * are unlinked by the writers.
+ *
+ * A catalog created with a CatalogChangeFeed publishes every commit to it as a
+ * change numbered by the commit timestamp.
+ *
+ */
+public class MultiVersionCatalog {
+
+	/**
+	 * A committed version of a book, a null book marks the removal of the
+	 * book
+	 */
+	private static final class Version {
+		private final long timestamp;
+		private final StockBook book;
+		private volatile Version previous;
+
+		private Version(long timestamp, StockBook book, Version previous) {
+			this.timestamp = timestamp;
+			this.book = book;
+			this.previous = previous;
+		}
+	}
+
+	private final ConcurrentHashMap<Integer, Version> versions = new ConcurrentHashMap<Integer, Version>();
+	private final AtomicLong lastCommitted = new AtomicLong(0);
+	private final Set<Snapshot> openSnapshots = Collections
+			.newSetFromMap(new ConcurrentHashMap<Snapshot, Boolean>());
+
+	// Writer state, guarded by the caller serializing the writers
+	private final Map<Integer, StockBook> staged = new LinkedHashMap<Integer, StockBook>();
+	private final Set<Integer> unpruned = new HashSet<Integer>();
+	private boolean commitsHeld = false;
+	private final CatalogChangeFeed changeFeed;
+
+	public MultiVersionCatalog() {
+		this(null);
+	}
+
+	/**
+	 * Creates a catalog publishing its commits to the feed, or to none if it
+	 * is null
+	 *
+	 * @param changeFeed
+	 */
+	public MultiVersionCatalog(CatalogChangeFeed changeFeed) {
+		this.changeFeed = changeFeed;
+	}
+
+	/**
+	 * Stages a new version of the book, visible after the next commit.
+	 *
+	 * @param book
+	 */
+	public void stage(StockBook book) {
+		staged.put(book.getISBN(), book);
+	}
+
+	/**
+	 * Stages the removal of the book with the ISBN, visible after the next
+	 * commit.
+	 *
+	 * @param isbn
+	 */
+	public void stageRemoval(int isbn) {
+		staged.put(isbn, null);
+	}
+
+	/**
+	 * Stages the removal of every book in the catalog.
+	 */
+	public void stageRemoveAll() {
+		for (Map.Entry<Integer, StockBook> entry : staged.entrySet()) {
+			entry.setValue(null);
+		}
+		for (Map.Entry<Integer, Version> entry : versions.entrySet()) {
+			if (entry.getValue().book != null) {
+				staged.put(entry.getKey(), null);
+			}
+		}
+	}
+
+	/**
+	 * Makes commit keep the staged versions staged until releaseCommits, so
+	 * that several writes are published together under one timestamp.
+	 */
+	public void holdCommits() {
+		commitsHeld = true;
+	}
+
+	/**
+	 * Ends holdCommits and publishes everything staged since.
+	 *
+	 * @return the commit timestamp
+	 */
+	public long releaseCommits() {
+		commitsHeld = false;
+		return commit();
+	}
+
+	/**
+	 * Publishes the staged versions under the next commit timestamp and
+	 * unlinks versions that can no longer be read. Does nothing while commits
+	 * are held.
+	 *
+	 * @return the commit timestamp
+	 */
+	public long commit() {
+		if (commitsHeld || staged.isEmpty()) {
+			return lastCommitted.get();
+		}
+		long timestamp = lastCommitted.get() + 1;
+		List<StockBook> changedBooks = new ArrayList<StockBook>();
+		Set<Integer> removedISBNs = new HashSet<Integer>();
+		for (Map.Entry<Integer, StockBook> entry : staged.entrySet()) {
+			Integer isbn = entry.getKey();
+			versions.put(isbn,
+					new Version(timestamp, entry.getValue(), versions.get(isbn)));
+			unpruned.add(isbn);
+			if (entry.getValue() == null) {
+				removedISBNs.add(isbn);
+			} else {
+				changedBooks.add(entry.getValue());
+			}
+		}
+		staged.clear();
+		// Versions become visible to new snapshots only from here on
+		lastCommitted.set(timestamp);
+		// A client reading the change reads the catalog at the commit or later
+		if (changeFeed != null) {
+			changeFeed.publish(new CatalogChange(timestamp, changedBooks,
+					removedISBNs));
+		}
+		prune();
+		return timestamp;
+	}
+
+	/**
+	 * Returns the timestamp of the last commit.
+	 *
+	 * @return
+	 */
+	public long getLastCommitted() {
+		return lastCommitted.get();
+	}
+
+	/**
+	 * Opens a snapshot of the catalog as of the last commit. The snapshot must
+	 * be closed so that the versions it pins can be reclaimed.
+	 *
+	 * @return
+	 */
+	public Snapshot openSnapshot() {
+		while (true) {
+			long timestamp = lastCommitted.get();
+			Snapshot snapshot = new Snapshot(timestamp);
+			openSnapshots.add(snapshot);
+			// A writer committing after this check sees the snapshot when
+			// pruning, otherwise retry with the newer timestamp
+			if (lastCommitted.get() == timestamp) {
+				return snapshot;
+			}
+			openSnapshots.remove(snapshot);
+		}
+	}
+
+	/**
+	 * Unlinks, for the books changed by recent commits, the versions that are
+	 * older than the version visible to the oldest open snapshot.
+	 */
+	private void prune() {
+		long oldestVisible = lastCommitted.get();
+		for (Snapshot snapshot : openSnapshots) {
+			oldestVisible = Math.min(oldestVisible, snapshot.timestamp);
+		}
+
+		Iterator<Integer> it = unpruned.iterator();
+		while (it.hasNext()) {
+			Integer isbn = it.next();
+			Version head = versions.get(isbn);
+			Version version = head;
+			while (version != null && version.timestamp > oldestVisible) {
+				version = version.previous;
+			}
+			if (version == null) {
+				// Every version is newer than some open snapshot
+				continue;
+			}
+			version.previous = null;
+			if (version == head) {
+				if (head.book == null) {
+					versions.remove(isbn);
+				}
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * A consistent, read-only view of the catalog as of a commit timestamp
+	 */
+	public final class Snapshot implements AutoCloseable {
+		private final long timestamp;
+
+		private Snapshot(long timestamp) {
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Returns the commit timestamp the snapshot reads at.
+		 *
+		 * @return
+		 */
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Returns the version of the book visible in the snapshot, null if the
+		 * book is not in the catalog at the snapshot timestamp.
+		 *
+		 * @param isbn
+		 * @return
+		 */
+		public StockBook getBook(int isbn) {
+			return visible(versions.get(isbn));
+		}
+
+		/**
+		 * Returns all books visible in the snapshot.
+		 *
+		 * @return
+		 */
+		public List<StockBook> getBooks() {
+			List<StockBook> books = new ArrayList<StockBook>(versions.size());
+			for (Version head : versions.values()) {
+				StockBook book = visible(head);
+				if (book != null) {
+					books.add(book);
+				}
+			}
+			return books;
+		}
+
+		private StockBook visible(Version version) {
+			while (version != null && version.timestamp > timestamp) {
+				version = version.previous;
+			}
+			return version == null ? null : version.book;
+		}
+
+		/**
+		 * Releases the versions pinned by the snapshot.
+		 */
+		public void close() {
+			openSnapshots.remove(this);
+		}
+	}
+}
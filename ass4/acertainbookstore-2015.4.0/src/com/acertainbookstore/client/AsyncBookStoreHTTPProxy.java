@@ -0,0 +1,127 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.AsyncBookStore;
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * AsyncBookStoreHTTPProxy implements the client level asynchronous
+ * CertainBookStore API declared in the AsyncBookStore interface
+ * 
+ * No thread waits for a response: the requests are sent through the select
+ * channel connector of the HttpClient and the futures are completed from its
+ * callbacks, so many requests can be in flight at once.
+ * 
+ */
+public class AsyncBookStoreHTTPProxy implements AsyncBookStore {
+	protected HttpClient client;
+	protected String serverAddress;
+	protected BookStoreCodec codec;
+
+	/**
+	 * Initialize the client object, exchanging messages with the codec
+	 * selected by the codec system property
+	 */
+	public AsyncBookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreUtility.getClientCodec());
+	}
+
+	/**
+	 * Initialize the client object, exchanging messages with the codec
+	 */
+	public AsyncBookStoreHTTPProxy(String serverAddress, BookStoreCodec codec)
+			throws Exception {
+		this.serverAddress = serverAddress;
+		this.codec = codec;
+		client = new HttpClient();
+		client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+		client.setMaxConnectionsPerAddress(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+		client.setThreadPool(new QueuedThreadPool(
+				BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		client.setTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		client.start();
+	}
+
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	public CompletableFuture<Void> buyBooks(Set<BookCopy> booksToBuy) {
+		return post(BookStoreMessageTag.BUYBOOKS, booksToBuy);
+	}
+
+	public CompletableFuture<Void> rateBooks(Set<BookRating> bookRating) {
+		return post(BookStoreMessageTag.RATEBOOKS, bookRating);
+	}
+
+	public CompletableFuture<List<Book>> getBooks(Set<Integer> ISBNList) {
+		return post(BookStoreMessageTag.GETBOOKS, ISBNList);
+	}
+
+	public CompletableFuture<List<Book>> getTopRatedBooks(int numBooks) {
+		return get(BookStoreMessageTag.GETTOPRATEDBOOKS, numBooks);
+	}
+
+	public CompletableFuture<List<Book>> getEditorPicks(int numBooks) {
+		return get(BookStoreMessageTag.EDITORPICKS, numBooks);
+	}
+
+	/**
+	 * Sends the request object to the server in the body of a POST
+	 */
+	private <T> CompletableFuture<T> post(BookStoreMessageTag tag,
+			Object request) {
+		BookStoreExchange<T> exchange = new BookStoreExchange<T>(codec);
+		try {
+			exchange.setRequestContent(new ByteArrayBuffer(codec
+					.serialize(request)));
+		} catch (BookStoreException ex) {
+			exchange.getFuture().completeExceptionally(ex);
+			return exchange.getFuture();
+		}
+		exchange.setMethod("POST");
+		exchange.setURL(serverAddress + "/" + tag);
+		return exchange.send(client);
+	}
+
+	/**
+	 * Asks the server for numBooks books with a GET
+	 */
+	private <T> CompletableFuture<T> get(BookStoreMessageTag tag, int numBooks) {
+		BookStoreExchange<T> exchange = new BookStoreExchange<T>(codec);
+		exchange.setURL(serverAddress + "/" + tag + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + numBooks);
+		return exchange.send(client);
+	}
+
+	/**
+	 * Returns an empty batch of operations sent to this proxy's server
+	 * 
+	 * @return
+	 */
+	public BookStoreBatch batch() {
+		return new BookStoreBatch(client, serverAddress, codec);
+	}
+
+	public void stop() {
+		try {
+			client.stop();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package com.acertainbookstore.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.interfaces.AsyncStockManager;
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * AsyncStockManagerHTTPProxy implements the client level asynchronous
+ * CertainBookStore API declared in the AsyncStockManager interface
+ * 
+ * Uses the HTTP protocol for communication with the server, cf.
+ * AsyncBookStoreHTTPProxy
+ * 
+ */
+public class AsyncStockManagerHTTPProxy implements AsyncStockManager {
+	protected HttpClient client;
+	protected String serverAddress;
+	protected BookStoreCodec codec;
+
+	/**
+	 * Initialize the client object, exchanging messages with the codec
+	 * selected by the codec system property
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreUtility.getClientCodec());
+	}
+
+	/**
+	 * Initialize the client object, exchanging messages with the codec
+	 */
+	public AsyncStockManagerHTTPProxy(String serverAddress,
+			BookStoreCodec codec) throws Exception {
+		this.serverAddress = serverAddress;
+		this.codec = codec;
+		client = new HttpClient();
+		client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+		client.setMaxConnectionsPerAddress(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS);
+		client.setThreadPool(new QueuedThreadPool(
+				BookStoreClientConstants.CLIENT_MAX_THREADSPOOL_THREADS));
+		client.setTimeout(BookStoreClientConstants.CLIENT_MAX_TIMEOUT_MILLISECS);
+		client.start();
+	}
+
+	public String getServerAddress() {
+		return serverAddress;
+	}
+
+	public CompletableFuture<Void> addBooks(Set<StockBook> bookSet) {
+		return post(BookStoreMessageTag.ADDBOOKS, bookSet);
+	}
+
+	public CompletableFuture<Void> addCopies(Set<BookCopy> bookCopiesSet) {
+		return post(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
+	}
+
+	public CompletableFuture<List<StockBook>> getBooks() {
+		return get(BookStoreMessageTag.LISTBOOKS);
+	}
+
+	public CompletableFuture<List<StockBook>> getBooksByISBN(Set<Integer> isbns) {
+		return post(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbns);
+	}
+
+	public CompletableFuture<List<StockBook>> getBooksInDemand() {
+		return get(BookStoreMessageTag.GETBOOKSINDEMAND);
+	}
+
+	public CompletableFuture<Void> updateEditorPicks(
+			Set<BookEditorPick> editorPicks) {
+		return post(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks);
+	}
+
+	public CompletableFuture<Void> removeAllBooks() {
+		BookStoreExchange<Void> exchange = new BookStoreExchange<Void>(codec);
+		exchange.setMethod("POST");
+		exchange.setURL(serverAddress + "/" + BookStoreMessageTag.REMOVEALLBOOKS);
+		return exchange.send(client);
+	}
+
+	public CompletableFuture<Void> removeBooks(Set<Integer> isbnSet) {
+		return post(BookStoreMessageTag.REMOVEBOOKS, isbnSet);
+	}
+
+	/**
+	 * Sends the request object to the server in the body of a POST
+	 */
+	private <T> CompletableFuture<T> post(BookStoreMessageTag tag,
+			Object request) {
+		BookStoreExchange<T> exchange = new BookStoreExchange<T>(codec);
+		try {
+			exchange.setRequestContent(new ByteArrayBuffer(codec
+					.serialize(request)));
+		} catch (BookStoreException ex) {
+			exchange.getFuture().completeExceptionally(ex);
+			return exchange.getFuture();
+		}
+		exchange.setMethod("POST");
+		exchange.setURL(serverAddress + "/" + tag);
+		return exchange.send(client);
+	}
+
+	private <T> CompletableFuture<T> get(BookStoreMessageTag tag) {
+		BookStoreExchange<T> exchange = new BookStoreExchange<T>(codec);
+		exchange.setURL(serverAddress + "/" + tag);
+		return exchange.send(client);
+	}
+
+	/**
+	 * Returns an empty batch of operations sent to this proxy's server
+	 * 
+	 * @return
+	 */
+	public BookStoreBatch batch() {
+		return new BookStoreBatch(client, serverAddress, codec);
+	}
+
+	public void stop() {
+		try {
+			client.stop();
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package com.acertainbookstore.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.acertainbookstore.business.Book;
+
+/**
+ * BookMetadataCache keeps the title, author and price of books on the client,
+ * keyed by ISBN, so that a BookStoreHTTPProxy only asks the server for the
+ * books it has not seen.
+ *
+ * The cache holds at most maxSize books and evicts the least recently used
+ * one when full. A book expires timeToLive after it was cached, which bounds
+ * how long the cache serves a book another client removed or re-added; the
+ * StockManagerHTTPProxy sharing the cache evicts the books it removes at
+ * once. The books are split over segments by ISBN, each a LinkedHashMap in
+ * access order under its own lock, so the recency is kept per segment.
+ *
+ */
+public class BookMetadataCache {
+	private static final int MAX_SEGMENTS = 16;
+
+	private final Segment[] segments;
+	private final int segmentMask;
+	private final long timeToLiveInNanoSecs;
+	private final LongSupplier ticker;
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	/**
+	 * Creates a cache of at most maxSize books, each expiring timeToLive
+	 * after it was cached, never if timeToLive is 0
+	 *
+	 * @param maxSize
+	 * @param timeToLive
+	 * @param unit
+	 */
+	public BookMetadataCache(int maxSize, long timeToLive, TimeUnit unit) {
+		this(maxSize, timeToLive, unit, System::nanoTime);
+	}
+
+	/**
+	 * Creates a cache of at most maxSize books, each expiring timeToLive
+	 * after it was cached, never if timeToLive is 0, as measured by the
+	 * ticker in nanoseconds
+	 *
+	 * @param maxSize
+	 * @param timeToLive
+	 * @param unit
+	 * @param ticker
+	 */
+	public BookMetadataCache(int maxSize, long timeToLive, TimeUnit unit,
+			LongSupplier ticker) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("maxSize = " + maxSize
+					+ ", but it must be positive");
+		}
+		if (timeToLive < 0) {
+			throw new IllegalArgumentException("timeToLive = " + timeToLive
+					+ ", but it must not be negative");
+		}
+		// A segment should hold a few books at least
+		int numSegments = Math.max(
+				Integer.highestOneBit(Math.min(maxSize / 4, MAX_SEGMENTS)), 1);
+		segments = new Segment[numSegments];
+		for (int i = 0; i < numSegments; i++) {
+			// The first maxSize % numSegments segments hold one book more
+			segments[i] = new Segment(maxSize / numSegments
+					+ (i < maxSize % numSegments ? 1 : 0));
+		}
+		segmentMask = numSegments - 1;
+		timeToLiveInNanoSecs = unit.toNanos(timeToLive);
+		this.ticker = ticker;
+	}
+
+	/**
+	 * Returns the cached book with the ISBN, null if it is not cached or has
+	 * expired
+	 *
+	 * @param isbn
+	 * @return
+	 */
+	public Book get(int isbn) {
+		Book book = segmentOf(isbn).get(isbn, ticker.getAsLong());
+		if (book == null) {
+			misses.increment();
+		} else {
+			hits.increment();
+		}
+		return book;
+	}
+
+	public void put(Book book) {
+		segmentOf(book.getISBN()).put(book, ticker.getAsLong());
+	}
+
+	public void putAll(Iterable<? extends Book> books) {
+		for (Book book : books) {
+			put(book);
+		}
+	}
+
+	public void invalidate(int isbn) {
+		segmentOf(isbn).remove(isbn);
+	}
+
+	public void invalidateAll(Set<Integer> isbnSet) {
+		for (Integer isbn : isbnSet) {
+			if (isbn != null) {
+				invalidate(isbn);
+			}
+		}
+	}
+
+	public void clear() {
+		for (Segment segment : segments) {
+			segment.clear();
+		}
+	}
+
+	/**
+	 * Returns the number of cached books, including the expired ones not yet
+	 * evicted
+	 *
+	 * @return
+	 */
+	public int size() {
+		int size = 0;
+		for (Segment segment : segments) {
+			size += segment.size();
+		}
+		return size;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Returns the number of books evicted to make room or because they
+	 * expired
+	 *
+	 * @return
+	 */
+	public long getEvictions() {
+		return evictions.sum();
+	}
+
+	public double getHitRatio() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return lookups == 0 ? 0 : (double) hits / lookups;
+	}
+
+	private Segment segmentOf(int isbn) {
+		int h = isbn * 0x9E3779B9; // spread consecutive ISBNs over segments
+		return segments[(h ^ (h >>> 16)) & segmentMask];
+	}
+
+	private static final class Entry {
+		private final Book book;
+		private final long cachedAtInNanoSecs;
+
+		private Entry(Book book, long cachedAtInNanoSecs) {
+			this.book = book;
+			this.cachedAtInNanoSecs = cachedAtInNanoSecs;
+		}
+	}
+
+	private final class Segment {
+		private final LinkedHashMap<Integer, Entry> entries;
+
+		@SuppressWarnings("serial")
+		private Segment(final int capacity) {
+			entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+				@Override
+				protected boolean removeEldestEntry(
+						Map.Entry<Integer, Entry> eldest) {
+					if (size() > capacity) {
+						evictions.increment();
+						return true;
+					}
+					return false;
+				}
+			};
+		}
+
+		private synchronized Book get(int isbn, long nowInNanoSecs) {
+			Entry entry = entries.get(isbn);
+			if (entry == null) {
+				return null;
+			}
+			if (timeToLiveInNanoSecs > 0
+					&& nowInNanoSecs - entry.cachedAtInNanoSecs >= timeToLiveInNanoSecs) {
+				entries.remove(isbn);
+				evictions.increment();
+				return null;
+			}
+			return entry.book;
+		}
+
+		private synchronized void put(Book book, long nowInNanoSecs) {
+			entries.put(book.getISBN(), new Entry(book, nowInNanoSecs));
+		}
+
+		private synchronized void remove(int isbn) {
+			entries.remove(isbn);
+		}
+
+		private synchronized void clear() {
+			entries.clear();
+		}
+
+		private synchronized int size() {
+			return entries.size();
+		}
+	}
+}
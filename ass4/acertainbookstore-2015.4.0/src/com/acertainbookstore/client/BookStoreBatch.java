@@ -0,0 +1,166 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BatchOperation;
+import com.acertainbookstore.utils.BatchRequest;
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * BookStoreBatch collects operations on the client and sends them to the
+ * server in a single BATCH message. The result holds one BookStoreResponse per
+ * operation, in the order the operations were added, with the list the
+ * operation returns or the exception it failed with.
+ * 
+ * A batch is made by the proxies, whose address decides which operations it
+ * may hold: a batch from a BookStore proxy may only hold the operations of
+ * the BookStore interface.
+ * 
+ */
+public class BookStoreBatch {
+	private final HttpClient client;
+	private final String urlString;
+	private final BookStoreCodec codec;
+	private final List<BatchOperation> operations = new ArrayList<BatchOperation>();
+	private boolean atomic = false;
+
+	public BookStoreBatch(HttpClient client, String serverAddress,
+			BookStoreCodec codec) {
+		this.client = client;
+		this.urlString = serverAddress + "/" + BookStoreMessageTag.BATCH;
+		this.codec = codec;
+	}
+
+	/**
+	 * Makes the batch all or nothing: if an operation fails the operations
+	 * before it are undone and executing the batch throws the exception of the
+	 * failed operation.
+	 * 
+	 * @param atomic
+	 * @return this batch
+	 */
+	public BookStoreBatch setAtomic(boolean atomic) {
+		this.atomic = atomic;
+		return this;
+	}
+
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	public int size() {
+		return operations.size();
+	}
+
+	private BookStoreBatch add(BookStoreMessageTag tag, Object argument) {
+		operations.add(new BatchOperation(tag, argument));
+		return this;
+	}
+
+	public BookStoreBatch buyBooks(Set<BookCopy> booksToBuy) {
+		return add(BookStoreMessageTag.BUYBOOKS, booksToBuy);
+	}
+
+	public BookStoreBatch rateBooks(Set<BookRating> bookRating) {
+		return add(BookStoreMessageTag.RATEBOOKS, bookRating);
+	}
+
+	public BookStoreBatch getBooks(Set<Integer> isbnSet) {
+		return add(BookStoreMessageTag.GETBOOKS, isbnSet);
+	}
+
+	public BookStoreBatch getTopRatedBooks(int numBooks) {
+		return add(BookStoreMessageTag.GETTOPRATEDBOOKS, numBooks);
+	}
+
+	public BookStoreBatch getEditorPicks(int numBooks) {
+		return add(BookStoreMessageTag.EDITORPICKS, numBooks);
+	}
+
+	public BookStoreBatch addBooks(Set<StockBook> bookSet) {
+		return add(BookStoreMessageTag.ADDBOOKS, bookSet);
+	}
+
+	public BookStoreBatch addCopies(Set<BookCopy> bookCopiesSet) {
+		return add(BookStoreMessageTag.ADDCOPIES, bookCopiesSet);
+	}
+
+	public BookStoreBatch getStockBooks() {
+		return add(BookStoreMessageTag.LISTBOOKS, null);
+	}
+
+	public BookStoreBatch getBooksByISBN(Set<Integer> isbnSet) {
+		return add(BookStoreMessageTag.GETSTOCKBOOKSBYISBN, isbnSet);
+	}
+
+	public BookStoreBatch getBooksInDemand() {
+		return add(BookStoreMessageTag.GETBOOKSINDEMAND, null);
+	}
+
+	public BookStoreBatch updateEditorPicks(Set<BookEditorPick> editorPicks) {
+		return add(BookStoreMessageTag.UPDATEEDITORPICKS, editorPicks);
+	}
+
+	public BookStoreBatch removeAllBooks() {
+		return add(BookStoreMessageTag.REMOVEALLBOOKS, null);
+	}
+
+	public BookStoreBatch removeBooks(Set<Integer> isbnSet) {
+		return add(BookStoreMessageTag.REMOVEBOOKS, isbnSet);
+	}
+
+	private byte[] serializeRequest() throws BookStoreException {
+		return codec.serialize(new BatchRequest(
+				new ArrayList<BatchOperation>(operations), atomic));
+	}
+
+	/**
+	 * Sends the batch and waits for the responses of its operations
+	 * 
+	 * @return
+	 * @throws BookStoreException
+	 */
+	@SuppressWarnings("unchecked")
+	public List<BookStoreResponse> execute() throws BookStoreException {
+		ContentExchange exchange = new ContentExchange(true);
+		exchange.setMethod("POST");
+		exchange.setURL(urlString);
+		exchange.setRequestContent(new ByteArrayBuffer(serializeRequest()));
+		return (List<BookStoreResponse>) BookStoreUtility.SendAndRecv(client,
+				exchange, codec);
+	}
+
+	/**
+	 * Sends the batch without waiting for the responses of its operations
+	 * 
+	 * @return
+	 */
+	public CompletableFuture<List<BookStoreResponse>> executeAsync() {
+		BookStoreExchange<List<BookStoreResponse>> exchange = new BookStoreExchange<List<BookStoreResponse>>(
+				codec);
+		try {
+			exchange.setRequestContent(new ByteArrayBuffer(serializeRequest()));
+		} catch (BookStoreException ex) {
+			exchange.getFuture().completeExceptionally(ex);
+			return exchange.getFuture();
+		}
+		exchange.setMethod("POST");
+		exchange.setURL(urlString);
+		return exchange.send(client);
+	}
+}
@@ -15,6 +15,9 @@ public final class BookStoreClientConstants {
 	public static final int CLIENT_MAX_CONNECTION_ADDRESS = 200;
 	public static final int CLIENT_MAX_THREADSPOOL_THREADS = 250;
 	public static final int CLIENT_MAX_TIMEOUT_MILLISECS = 30000;
+	// How much longer than the wait it asked for a client waits for the
+	// answer to a long poll before it gives up on the connection
+	public static final int CLIENT_POLL_MARGIN_MILLISECS = 2000;
 
 	public static final String strERR_CLIENT_REQUEST_SENDING = "ERR_CLIENT_REQUEST_SENDING";
 	public static final String strERR_CLIENT_REQUEST_EXCEPTION = "ERR_CLIENT_REQUEST_EXCEPTION";
@@ -0,0 +1,84 @@
+package com.acertainbookstore.client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import org.eclipse.jetty.client.ContentExchange;
+import org.eclipse.jetty.client.HttpClient;
+
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+
+/**
+ * BookStoreExchange is an HTTP exchange whose outcome is delivered through a
+ * CompletableFuture instead of by waiting for the exchange to be done. The
+ * future is completed from the Jetty callbacks with the list in the response,
+ * or exceptionally with a BookStoreException.
+ * 
+ * The callbacks run on the threads of the HttpClient, so work that is chained
+ * on the future without an executor also runs there and should be short.
+ * 
+ * @param <T>
+ *            the type of the list in the response, Void for requests without
+ *            a result
+ */
+public class BookStoreExchange<T> extends ContentExchange {
+	private final BookStoreCodec codec;
+	private final CompletableFuture<T> future = new CompletableFuture<T>();
+
+	public BookStoreExchange(BookStoreCodec codec) {
+		super(true); // cache the headers to find the codec of the response
+		this.codec = codec;
+	}
+
+	/**
+	 * Sends the exchange through the client without waiting for the response
+	 * 
+	 * @param client
+	 * @return the future completed with the response
+	 */
+	public CompletableFuture<T> send(HttpClient client) {
+		BookStoreUtility.prepareExchange(this, codec);
+		try {
+			client.send(this);
+		} catch (IOException ex) {
+			future.completeExceptionally(new BookStoreException(
+					BookStoreClientConstants.strERR_CLIENT_REQUEST_SENDING, ex));
+		}
+		return future;
+	}
+
+	public CompletableFuture<T> getFuture() {
+		return future;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	protected void onResponseComplete() throws IOException {
+		super.onResponseComplete();
+		try {
+			future.complete((T) BookStoreUtility.decodeResponse(this, codec));
+		} catch (BookStoreException ex) {
+			future.completeExceptionally(ex);
+		}
+	}
+
+	@Override
+	protected void onConnectionFailed(Throwable x) {
+		future.completeExceptionally(new BookStoreException(
+				BookStoreClientConstants.strERR_CLIENT_REQUEST_SENDING, x));
+	}
+
+	@Override
+	protected void onException(Throwable x) {
+		future.completeExceptionally(new BookStoreException(
+				BookStoreClientConstants.strERR_CLIENT_REQUEST_EXCEPTION, x));
+	}
+
+	@Override
+	protected void onExpire() {
+		future.completeExceptionally(new BookStoreException(
+				BookStoreClientConstants.strERR_CLIENT_REQUEST_TIMEOUT));
+	}
+}
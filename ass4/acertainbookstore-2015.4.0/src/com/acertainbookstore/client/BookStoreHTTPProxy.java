@@ -5,11 +5,17 @@ package com.acertainbookstore.client;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jetty.client.ContentExchange;
 import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.http.HttpFields;
 import org.eclipse.jetty.io.Buffer;
 import org.eclipse.jetty.io.ByteArrayBuffer;
 import org.eclipse.jetty.util.thread.QueuedThreadPool;
@@ -18,6 +24,7 @@ import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.utils.BookStoreCodec;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
@@ -29,14 +36,48 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * 
  */
 public class BookStoreHTTPProxy implements BookStore {
+
+	/**
+	 * A catalog sequence number and the epoch it belongs to, 0 if unknown
+	 */
+	private static final class CatalogPosition {
+		static final CatalogPosition NONE = new CatalogPosition(0, 0);
+
+		final long epoch;
+		final long sequence;
+
+		CatalogPosition(long epoch, long sequence) {
+			this.epoch = epoch;
+			this.sequence = sequence;
+		}
+	}
+
 	protected HttpClient client;
 	protected String serverAddress;
+	protected BookStoreCodec codec;
+	protected volatile BookMetadataCache cache = null;
+	// The highest catalog sequence number seen in a response, and the one
+	// the server must have reached before it answers, with their epochs
+	private final AtomicReference<CatalogPosition> lastPosition = new AtomicReference<CatalogPosition>(
+			CatalogPosition.NONE);
+	private final AtomicReference<CatalogPosition> minPosition = new AtomicReference<CatalogPosition>(
+			CatalogPosition.NONE);
 
 	/**
-	 * Initialize the client object
+	 * Initialize the client object, exchanging messages with the codec
+	 * selected by the codec system property
 	 */
 	public BookStoreHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreUtility.getClientCodec());
+	}
+
+	/**
+	 * Initialize the client object, exchanging messages with the codec
+	 */
+	public BookStoreHTTPProxy(String serverAddress, BookStoreCodec codec)
+			throws Exception {
 		setServerAddress(serverAddress);
+		this.codec = codec;
 		client = new HttpClient();
 		client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
 		client.setMaxConnectionsPerAddress(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS); // max
@@ -68,39 +109,87 @@ public class BookStoreHTTPProxy implements BookStore {
 		this.serverAddress = serverAddress;
 	}
 
+	public BookMetadataCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the cache getBooks serves the books it has cached from, null for
+	 * none. The books returned by getBooks, getEditorPicks and
+	 * getTopRatedBooks are cached. A cached book is returned without asking
+	 * the server whether it is still in the store, cf. BookMetadataCache.
+	 *
+	 * @param cache
+	 */
+	public void setCache(BookMetadataCache cache) {
+		this.cache = cache;
+	}
+
 	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString = serverAddress + "/" + BookStoreMessageTag.BUYBOOKS;
 
-		String listISBNsxmlString = BookStoreUtility
-				.serializeObjectToXMLString(isbnSet);
+		byte[] requestBytes = codec.serialize(isbnSet);
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(listISBNsxmlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 		exchange.setRequestContent(requestContent);
 
-		BookStoreUtility.SendAndRecv(this.client, exchange);
+		send(exchange);
 
 	}
 
-	@SuppressWarnings("unchecked")
 	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		BookMetadataCache cache = this.cache;
+		if (cache == null || isbnSet == null) {
+			return fetchBooks(isbnSet);
+		}
+
+		Map<Integer, Book> books = new HashMap<Integer, Book>();
+		Set<Integer> missingISBNs = new HashSet<Integer>();
+		for (Integer ISBN : isbnSet) {
+			if (ISBN == null) {
+				// The server rejects the set
+				return fetchBooks(isbnSet);
+			}
+			Book book = cache.get(ISBN);
+			if (book == null) {
+				missingISBNs.add(ISBN);
+			} else {
+				books.put(ISBN, book);
+			}
+		}
+		if (!missingISBNs.isEmpty()) {
+			for (Book book : fetchBooks(missingISBNs)) {
+				books.put(book.getISBN(), book);
+			}
+		}
+
+		List<Book> listBooks = new ArrayList<Book>(isbnSet.size());
+		for (Integer ISBN : isbnSet) {
+			listBooks.add(books.get(ISBN));
+		}
+		return listBooks;
+	}
+
+	@SuppressWarnings("unchecked")
+	private List<Book> fetchBooks(Set<Integer> isbnSet)
+			throws BookStoreException {
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString = serverAddress + "/" + BookStoreMessageTag.GETBOOKS;
 
-		String listISBNsxmlString = BookStoreUtility
-				.serializeObjectToXMLString(isbnSet);
+		byte[] requestBytes = codec.serialize(isbnSet);
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(listISBNsxmlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 		exchange.setRequestContent(requestContent);
 
-		return (List<Book>) BookStoreUtility.SendAndRecv(this.client, exchange);
+		return cacheBooks((List<Book>) send(exchange));
 	}
 
 	@SuppressWarnings("unchecked")
 	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlEncodedNumBooks = null;
 
 		try {
@@ -116,7 +205,139 @@ public class BookStoreHTTPProxy implements BookStore {
 
 		exchange.setURL(urlString);
 
-		return (List<Book>) BookStoreUtility.SendAndRecv(this.client, exchange);
+		return cacheBooks((List<Book>) send(exchange));
+	}
+
+	/**
+	 * Returns the highest sequence number of a change to the catalog a
+	 * response of the server reflected, which after a write is the sequence
+	 * number of the write or a later one. The sequence number starts over
+	 * when a response has another epoch.
+	 * 
+	 * @return
+	 */
+	public long getLastSequence() {
+		return lastPosition.get().sequence;
+	}
+
+	/**
+	 * Returns the epoch of the last sequence number, 0 if no response carried
+	 * one
+	 * 
+	 * @return
+	 */
+	public long getLastEpoch() {
+		return lastPosition.get().epoch;
+	}
+
+	/**
+	 * Makes the server reflect at least the change with the sequence number,
+	 * of the epoch last required, in its answers from now on
+	 * 
+	 * @param sequence
+	 */
+	public void requireSequence(long sequence) {
+		requireSequence(0, sequence);
+	}
+
+	/**
+	 * Makes the server reflect at least the change with the sequence number
+	 * of the epoch in its answers from now on, which a replica waits for. The
+	 * required sequence number only grows within an epoch, and another epoch
+	 * replaces it, since the sequence numbers of the restarted primary start
+	 * over. An epoch of 0 stands for the epoch last required.
+	 * 
+	 * @param epoch
+	 * @param sequence
+	 */
+	public void requireSequence(long epoch, long sequence) {
+		advance(minPosition, epoch, sequence);
+	}
+
+	/**
+	 * Makes the server reflect at least the last change the other proxy has
+	 * seen
+	 * 
+	 * @param proxy
+	 */
+	void requireSequenceOf(BookStoreHTTPProxy proxy) {
+		CatalogPosition position = proxy.lastPosition.get();
+		advance(minPosition, position.epoch, position.sequence);
+	}
+
+	/**
+	 * Sends the exchange with the sequence number the server must reflect
+	 * and records the sequence number of the response
+	 */
+	private List<?> send(ContentExchange exchange) throws BookStoreException {
+		CatalogPosition required = minPosition.get();
+		if (required.sequence > 0) {
+			exchange.setRequestHeader(BookStoreConstants.MIN_SEQUENCE_HEADER,
+					Long.toString(required.sequence));
+			if (required.epoch != 0) {
+				exchange.setRequestHeader(BookStoreConstants.EPOCH_HEADER,
+						Long.toString(required.epoch));
+			}
+		}
+		try {
+			return BookStoreUtility.SendAndRecv(this.client, exchange, codec);
+		} finally {
+			HttpFields fields = exchange.getResponseFields();
+			String sequence = fields == null ? null : fields
+					.getStringField(BookStoreConstants.SEQUENCE_HEADER);
+			if (sequence != null) {
+				String epoch = fields
+						.getStringField(BookStoreConstants.EPOCH_HEADER);
+				try {
+					advance(lastPosition,
+							epoch == null ? 0 : Long.parseLong(epoch),
+							Long.parseLong(sequence));
+				} catch (NumberFormatException ex) {
+					; // not a server of this bookstore
+				}
+			}
+		}
+	}
+
+	/**
+	 * Moves the position to the sequence number if it is higher in the same
+	 * epoch, or to the sequence number of another epoch. An epoch of 0 stands
+	 * for the epoch of the position.
+	 */
+	private static void advance(AtomicReference<CatalogPosition> position,
+			long epoch, long sequence) {
+		while (true) {
+			CatalogPosition current = position.get();
+			CatalogPosition next;
+			if (epoch == 0 || epoch == current.epoch) {
+				if (sequence <= current.sequence) {
+					return;
+				}
+				next = new CatalogPosition(current.epoch, sequence);
+			} else {
+				next = new CatalogPosition(epoch, sequence);
+			}
+			if (position.compareAndSet(current, next)) {
+				return;
+			}
+		}
+	}
+
+	private List<Book> cacheBooks(List<Book> books) {
+		BookMetadataCache cache = this.cache;
+		if (cache != null) {
+			cache.putAll(books);
+		}
+		return books;
+	}
+
+	/**
+	 * Returns an empty batch of operations sent to this proxy's server
+	 * 
+	 * @return
+	 */
+	public BookStoreBatch batch() {
+		return new BookStoreBatch(client, serverAddress, codec);
 	}
 
 	public void stop() {
@@ -130,15 +351,38 @@ public class BookStoreHTTPProxy implements BookStore {
 
 	@Override
 	public void rateBooks(Set<BookRating> bookRating) throws BookStoreException {
-		// TODO Auto-generated method stub
-		throw new BookStoreException("Not implemented");
-		
+		ContentExchange exchange = new ContentExchange(true);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.RATEBOOKS;
+
+		byte[] requestBytes = codec.serialize(bookRating);
+		exchange.setMethod("POST");
+		exchange.setURL(urlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
+		exchange.setRequestContent(requestContent);
+
+		send(exchange);
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
-		// TODO Auto-generated method stub
-		throw new BookStoreException("Not implemented");
+		ContentExchange exchange = new ContentExchange(true);
+		String urlEncodedNumBooks = null;
+
+		try {
+			urlEncodedNumBooks = URLEncoder.encode(Integer.toString(numBooks),
+					"UTF-8");
+		} catch (UnsupportedEncodingException ex) {
+			throw new BookStoreException("unsupported encoding of numbooks", ex);
+		}
+
+		String urlString = serverAddress + "/"
+				+ BookStoreMessageTag.GETTOPRATEDBOOKS + "?"
+				+ BookStoreConstants.BOOK_NUM_PARAM + "=" + urlEncodedNumBooks;
+
+		exchange.setURL(urlString);
+
+		return cacheBooks((List<Book>) send(exchange));
 	}
 
 }
@@ -0,0 +1,205 @@
+package com.acertainbookstore.client;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.interfaces.BookStore;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * ReplicatedBookStoreHTTPProxy implements the BookStore API over a primary
+ * server and its read replicas, cf. CatalogReplicator. Purchases and ratings
+ * are sent to the primary, and getBooks, getEditorPicks and getTopRatedBooks
+ * go round robin over the replicas, or to the primary if there are none.
+ *
+ * A replica may lag behind the primary. With read your writes on, a read
+ * reflects at least the writes of this proxy, since a replica waits for the
+ * sequence number of the last write before it answers. The session token
+ * carries that sequence number to another proxy, with the epoch of the
+ * primary it belongs to: a primary that restarted numbers its changes anew,
+ * so a token of another epoch replaces the one required so far. A read a replica cannot
+ * answer, because it is down or has not caught up in time, is sent to the
+ * primary.
+ *
+ */
+public class ReplicatedBookStoreHTTPProxy implements BookStore {
+	private static final Set<String> RETRY_ON_PRIMARY = new HashSet<String>(
+			Arrays.asList(BookStoreClientConstants.strERR_CLIENT_REQUEST_SENDING,
+					BookStoreClientConstants.strERR_CLIENT_REQUEST_EXCEPTION,
+					BookStoreClientConstants.strERR_CLIENT_REQUEST_TIMEOUT,
+					BookStoreConstants.REPLICA_BEHIND));
+
+	private final BookStoreHTTPProxy primary;
+	private final List<BookStoreHTTPProxy> replicas = new ArrayList<BookStoreHTTPProxy>();
+	private final AtomicInteger nextReplica = new AtomicInteger(0);
+	private volatile boolean readYourWrites = true;
+
+	/**
+	 * Creates a proxy writing to the server at primaryAddress and reading
+	 * from the servers at replicaAddresses
+	 *
+	 * @param primaryAddress
+	 * @param replicaAddresses
+	 * @throws Exception
+	 */
+	public ReplicatedBookStoreHTTPProxy(String primaryAddress,
+			List<String> replicaAddresses) throws Exception {
+		primary = new BookStoreHTTPProxy(primaryAddress);
+		try {
+			for (String replicaAddress : replicaAddresses) {
+				replicas.add(new BookStoreHTTPProxy(replicaAddress));
+			}
+		} catch (Exception ex) {
+			stop();
+			throw ex;
+		}
+	}
+
+	public boolean isReadYourWrites() {
+		return readYourWrites;
+	}
+
+	/**
+	 * Sets whether a read must reflect the writes of this proxy, true by
+	 * default
+	 *
+	 * @param readYourWrites
+	 */
+	public void setReadYourWrites(boolean readYourWrites) {
+		this.readYourWrites = readYourWrites;
+	}
+
+	/**
+	 * Returns the sequence number of the last change to the catalog this
+	 * proxy has seen on the primary
+	 *
+	 * @return
+	 */
+	public long getSessionToken() {
+		return primary.getLastSequence();
+	}
+
+	/**
+	 * Returns the epoch of the session token, 0 if the primary has not
+	 * answered yet
+	 *
+	 * @return
+	 */
+	public long getSessionEpoch() {
+		return primary.getLastEpoch();
+	}
+
+	/**
+	 * Makes the reads reflect at least the change with the sequence number
+	 * in the epoch last required
+	 *
+	 * @param sessionToken
+	 */
+	public void setSessionToken(long sessionToken) {
+		setSessionToken(0, sessionToken);
+	}
+
+	/**
+	 * Makes the reads reflect at least the change with the sequence number
+	 * of the epoch, e.g. the session token and epoch of another proxy
+	 *
+	 * @param sessionEpoch
+	 * @param sessionToken
+	 */
+	public void setSessionToken(long sessionEpoch, long sessionToken) {
+		for (BookStoreHTTPProxy replica : replicas) {
+			replica.requireSequence(sessionEpoch, sessionToken);
+		}
+	}
+
+	public void buyBooks(Set<BookCopy> isbnSet) throws BookStoreException {
+		try {
+			primary.buyBooks(isbnSet);
+		} finally {
+			// A failed purchase may still be a change, a sale miss
+			afterWrite();
+		}
+	}
+
+	public void rateBooks(Set<BookRating> bookRating)
+			throws BookStoreException {
+		try {
+			primary.rateBooks(bookRating);
+		} finally {
+			afterWrite();
+		}
+	}
+
+	public List<Book> getBooks(Set<Integer> isbnSet) throws BookStoreException {
+		BookStoreHTTPProxy replica = nextReplica();
+		if (replica != null) {
+			try {
+				return replica.getBooks(isbnSet);
+			} catch (BookStoreException ex) {
+				if (!RETRY_ON_PRIMARY.contains(ex.getMessage())) {
+					throw ex;
+				}
+			}
+		}
+		return primary.getBooks(isbnSet);
+	}
+
+	public List<Book> getTopRatedBooks(int numBooks) throws BookStoreException {
+		BookStoreHTTPProxy replica = nextReplica();
+		if (replica != null) {
+			try {
+				return replica.getTopRatedBooks(numBooks);
+			} catch (BookStoreException ex) {
+				if (!RETRY_ON_PRIMARY.contains(ex.getMessage())) {
+					throw ex;
+				}
+			}
+		}
+		return primary.getTopRatedBooks(numBooks);
+	}
+
+	public List<Book> getEditorPicks(int numBooks) throws BookStoreException {
+		BookStoreHTTPProxy replica = nextReplica();
+		if (replica != null) {
+			try {
+				return replica.getEditorPicks(numBooks);
+			} catch (BookStoreException ex) {
+				if (!RETRY_ON_PRIMARY.contains(ex.getMessage())) {
+					throw ex;
+				}
+			}
+		}
+		return primary.getEditorPicks(numBooks);
+	}
+
+	public void stop() {
+		primary.stop();
+		for (BookStoreHTTPProxy replica : replicas) {
+			replica.stop();
+		}
+	}
+
+	private void afterWrite() {
+		if (readYourWrites) {
+			for (BookStoreHTTPProxy replica : replicas) {
+				replica.requireSequenceOf(primary);
+			}
+		}
+	}
+
+	private BookStoreHTTPProxy nextReplica() {
+		if (replicas.isEmpty()) {
+			return null;
+		}
+		int i = nextReplica.getAndIncrement() & Integer.MAX_VALUE;
+		return replicas.get(i % replicas.size());
+	}
+}
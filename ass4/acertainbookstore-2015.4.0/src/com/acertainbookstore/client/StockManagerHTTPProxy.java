@@ -14,8 +14,11 @@ import org.eclipse.jetty.util.thread.QueuedThreadPool;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
 import com.acertainbookstore.utils.BookStoreUtility;
@@ -31,12 +34,24 @@ public class StockManagerHTTPProxy implements StockManager {
 
 	protected HttpClient client;
 	protected String serverAddress;
+	protected BookStoreCodec codec;
+	protected volatile BookMetadataCache cache = null;
 
 	/**
-	 * Initialize the client object
+	 * Initialize the client object, exchanging messages with the codec
+	 * selected by the codec system property
 	 */
 	public StockManagerHTTPProxy(String serverAddress) throws Exception {
+		this(serverAddress, BookStoreUtility.getClientCodec());
+	}
+
+	/**
+	 * Initialize the client object, exchanging messages with the codec
+	 */
+	public StockManagerHTTPProxy(String serverAddress, BookStoreCodec codec)
+			throws Exception {
 		setServerAddress(serverAddress);
+		this.codec = codec;
 		client = new HttpClient();
 		client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
 		client.setMaxConnectionsPerAddress(BookStoreClientConstants.CLIENT_MAX_CONNECTION_ADDRESS); // max
@@ -68,101 +83,167 @@ public class StockManagerHTTPProxy implements StockManager {
 		this.serverAddress = serverAddress;
 	}
 
+	public BookMetadataCache getCache() {
+		return cache;
+	}
+
+	/**
+	 * Sets the cache of a BookStoreHTTPProxy, from which the books this
+	 * proxy adds or removes are evicted, null for none
+	 *
+	 * @param cache
+	 */
+	public void setCache(BookMetadataCache cache) {
+		this.cache = cache;
+	}
+
 	public void addBooks(Set<StockBook> bookSet) throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString;
 		urlString = serverAddress + "/" + BookStoreMessageTag.ADDBOOKS;
 
-		String listBooksxmlString = BookStoreUtility
-				.serializeObjectToXMLString(bookSet);
+		byte[] requestBytes = codec.serialize(bookSet);
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(listBooksxmlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 		exchange.setRequestContent(requestContent);
 
-		BookStoreUtility.SendAndRecv(this.client, exchange);
+		BookStoreUtility.SendAndRecv(this.client, exchange, codec);
+
+		// Books another client removed may be cached with their old metadata
+		BookMetadataCache cache = this.cache;
+		if (cache != null) {
+			for (StockBook book : bookSet) {
+				cache.invalidate(book.getISBN());
+			}
+		}
 	}
 
 	public void addCopies(Set<BookCopy> bookCopiesSet)
 			throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 
 		String urlString;
 		urlString = serverAddress + "/" + BookStoreMessageTag.ADDCOPIES;
 
-		String listBookCopiesxmlString = BookStoreUtility
-				.serializeObjectToXMLString(bookCopiesSet);
+		byte[] requestBytes = codec.serialize(bookCopiesSet);
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(listBookCopiesxmlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 		exchange.setRequestContent(requestContent);
 
-		BookStoreUtility.SendAndRecv(this.client, exchange);
+		BookStoreUtility.SendAndRecv(this.client, exchange, codec);
 	}
 
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooks() throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString = serverAddress + "/" + BookStoreMessageTag.LISTBOOKS;
 
 		exchange.setURL(urlString);
 
 		return (List<StockBook>) BookStoreUtility.SendAndRecv(this.client,
-				exchange);
+				exchange, codec);
 	}
 
 	public void updateEditorPicks(Set<BookEditorPick> editorPicksValues)
 			throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString = serverAddress + "/"
 				+ BookStoreMessageTag.UPDATEEDITORPICKS + "?";
 
-		String xmlStringEditorPicksValues = BookStoreUtility
-				.serializeObjectToXMLString(editorPicksValues);
+		byte[] requestBytes = codec.serialize(editorPicksValues);
 
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(xmlStringEditorPicksValues);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 
 		exchange.setRequestContent(requestContent);
 
-		BookStoreUtility.SendAndRecv(this.client, exchange);
+		BookStoreUtility.SendAndRecv(this.client, exchange, codec);
 
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
 	public List<StockBook> getBooksInDemand() throws BookStoreException {
-		throw new BookStoreException("Not implemented");
+		ContentExchange exchange = new ContentExchange(true);
+		String urlString = serverAddress + "/"
+				+ BookStoreMessageTag.GETBOOKSINDEMAND;
+
+		exchange.setURL(urlString);
+
+		return (List<StockBook>) BookStoreUtility.SendAndRecv(this.client,
+				exchange, codec);
 	}
 
 	public void removeAllBooks() throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString;
 		urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEALLBOOKS;
 
-		String test = "test";
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(test);
-		exchange.setRequestContent(requestContent);
 
-		BookStoreUtility.SendAndRecv(this.client, exchange);
+		try {
+			BookStoreUtility.SendAndRecv(this.client, exchange, codec);
+		} finally {
+			BookMetadataCache cache = this.cache;
+			if (cache != null) {
+				cache.clear();
+			}
+		}
 	}
 
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString;
 		urlString = serverAddress + "/" + BookStoreMessageTag.REMOVEBOOKS;
 
-		String listBooksxmlString = BookStoreUtility
-				.serializeObjectToXMLString(isbnSet);
+		byte[] requestBytes = codec.serialize(isbnSet);
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(listBooksxmlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 		exchange.setRequestContent(requestContent);
 
-		BookStoreUtility.SendAndRecv(this.client, exchange);
+		try {
+			BookStoreUtility.SendAndRecv(this.client, exchange, codec);
+		} finally {
+			// Also when the request timed out after the server removed them
+			BookMetadataCache cache = this.cache;
+			if (cache != null && isbnSet != null) {
+				cache.invalidateAll(isbnSet);
+			}
+		}
+	}
 
+	public CatalogChanges getChanges(long sinceSequence, int maxChanges,
+			long timeoutMillis) throws BookStoreException {
+		ContentExchange exchange = new ContentExchange(true);
+		String urlString = serverAddress + "/" + BookStoreMessageTag.GETCHANGES
+				+ "?" + BookStoreConstants.CHANGES_SINCE_PARAM + "="
+				+ sinceSequence + "&" + BookStoreConstants.CHANGES_MAX_PARAM
+				+ "=" + maxChanges + "&"
+				+ BookStoreConstants.CHANGES_TIMEOUT_PARAM + "="
+				+ timeoutMillis;
+
+		exchange.setURL(urlString);
+		// A server that stopped may leave the poll unanswered
+		exchange.setTimeout(Math.min(Math.max(timeoutMillis, 0),
+				BookStoreConstants.MAX_CHANGES_WAIT_MILLISECS)
+				+ BookStoreClientConstants.CLIENT_POLL_MARGIN_MILLISECS);
+
+		return (CatalogChanges) BookStoreUtility.SendAndRecv(this.client,
+				exchange, codec).get(0);
+	}
+
+	/**
+	 * Returns an empty batch of operations sent to this proxy's server
+	 * 
+	 * @return
+	 */
+	public BookStoreBatch batch() {
+		return new BookStoreBatch(client, serverAddress, codec);
 	}
 
 	public void stop() {
@@ -177,18 +258,17 @@ public class StockManagerHTTPProxy implements StockManager {
 	@SuppressWarnings("unchecked")
 	public List<StockBook> getBooksByISBN(Set<Integer> isbns)
 			throws BookStoreException {
-		ContentExchange exchange = new ContentExchange();
+		ContentExchange exchange = new ContentExchange(true);
 		String urlString;
 		urlString = serverAddress + "/" + BookStoreMessageTag.GETSTOCKBOOKSBYISBN;
 
-		String listBooksxmlString = BookStoreUtility
-				.serializeObjectToXMLString(isbns);
+		byte[] requestBytes = codec.serialize(isbns);
 		exchange.setMethod("POST");
 		exchange.setURL(urlString);
-		Buffer requestContent = new ByteArrayBuffer(listBooksxmlString);
+		Buffer requestContent = new ByteArrayBuffer(requestBytes);
 		exchange.setRequestContent(requestContent);
 
 		return (List<StockBook>) BookStoreUtility.SendAndRecv(this.client,
-				exchange);
+				exchange, codec);
 	}
 }
@@ -0,0 +1,126 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.addressOf;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.bookSet;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.startServer;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.client.AsyncBookStoreHTTPProxy;
+import com.acertainbookstore.client.AsyncStockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * Test class to test the asynchronous proxies against a server started by the
+ * test itself
+ * 
+ */
+public class AsyncBookStoreTest {
+
+	private static final int TEST_ISBN = 3044560;
+	private static BookStoreServerHandle server;
+	private static AsyncStockManagerHTTPProxy storeManager;
+	private static AsyncBookStoreHTTPProxy client;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = startServer(new BookStoreHTTPMessageHandler(
+				new CertainBookStore()));
+		String address = addressOf(server);
+		storeManager = new AsyncStockManagerHTTPProxy(address + "/stock");
+		client = new AsyncBookStoreHTTPProxy(address);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		storeManager.stop();
+		client.stop();
+		server.stop();
+	}
+
+	@Before
+	public void setUp() throws Exception {
+		storeManager.removeAllBooks().get();
+		storeManager.addBooks(bookSet(TEST_ISBN)).get();
+	}
+
+	/**
+	 * Tests that requests sent together all complete with their results
+	 */
+	@Test
+	public void testFanOut() throws Exception {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		CompletableFuture.allOf(storeManager.updateEditorPicks(editorPicks),
+				client.rateBooks(ratings)).get();
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		CompletableFuture<List<Book>> books = client.getBooks(isbnSet);
+		CompletableFuture<List<Book>> picks = client.getEditorPicks(1);
+		CompletableFuture<List<Book>> topRated = client.getTopRatedBooks(1);
+		CompletableFuture.allOf(books, picks, topRated).get();
+
+		assertEquals(TEST_ISBN, books.get().get(0).getISBN());
+		assertEquals(TEST_ISBN, picks.get().get(0).getISBN());
+		assertEquals(TEST_ISBN, topRated.get().get(0).getISBN());
+		assertEquals(4, (int) storeManager.getBooks().get().get(0)
+				.getTotalRating());
+	}
+
+	/**
+	 * Tests that an error in the server completes the future exceptionally
+	 * with the error of the server
+	 */
+	@Test
+	public void testServerException() throws InterruptedException {
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(-1);
+		try {
+			client.getBooks(isbnSet).get();
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+		}
+	}
+
+	/**
+	 * Tests that failing to reach the server completes the future
+	 * exceptionally
+	 */
+	@Test
+	public void testConnectionFailure() throws Exception {
+		BookStoreServerHandle stopped = startServer(null);
+		String address = addressOf(stopped);
+		stopped.stop();
+
+		AsyncBookStoreHTTPProxy unreachable = new AsyncBookStoreHTTPProxy(
+				address);
+		try {
+			unreachable.getEditorPicks(1).get();
+			fail();
+		} catch (ExecutionException ex) {
+			assertTrue(ex.getCause() instanceof BookStoreException);
+		} finally {
+			unreachable.stop();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.addressOf;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.books;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.startServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.client.BookMetadataCache;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * Test class to test the client cache of book metadata
+ *
+ */
+public class BookMetadataCacheTest {
+
+	private static Book book(int isbn) {
+		return new ImmutableBook(isbn, "Title " + isbn, "Author", 10);
+	}
+
+	/**
+	 * Tests that a full cache evicts the least recently used book
+	 */
+	@Test
+	public void testLeastRecentlyUsedEviction() {
+		// A single segment, so that the recency is global
+		BookMetadataCache cache = new BookMetadataCache(3, 0, TimeUnit.SECONDS);
+		cache.put(book(1));
+		cache.put(book(2));
+		cache.put(book(3));
+		assertEquals(book(1), cache.get(1));
+		cache.put(book(4));
+		assertEquals(3, cache.size());
+		assertNull(cache.get(2));
+		assertEquals(book(1), cache.get(1));
+		assertEquals(book(3), cache.get(3));
+		assertEquals(book(4), cache.get(4));
+		assertEquals(1, cache.getEvictions());
+		assertEquals(4, cache.getHits());
+		assertEquals(1, cache.getMisses());
+
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(1);
+		isbns.add(3);
+		cache.invalidateAll(isbns);
+		assertNull(cache.get(1));
+		assertEquals(1, cache.size());
+		cache.clear();
+		assertEquals(0, cache.size());
+	}
+
+	/**
+	 * Tests that a book expires after the time to live
+	 */
+	@Test
+	public void testTimeToLive() {
+		AtomicLong nowInNanoSecs = new AtomicLong(0);
+		BookMetadataCache cache = new BookMetadataCache(100, 50,
+				TimeUnit.MILLISECONDS, nowInNanoSecs::get);
+		cache.put(book(1));
+		nowInNanoSecs.addAndGet(TimeUnit.MILLISECONDS.toNanos(49));
+		assertEquals(book(1), cache.get(1));
+		nowInNanoSecs.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+		assertNull(cache.get(1));
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getEvictions());
+	}
+
+	/**
+	 * Tests that the cache bounds its size when split into segments
+	 */
+	@Test
+	public void testBoundedSize() {
+		BookMetadataCache cache = new BookMetadataCache(1000, 0,
+				TimeUnit.SECONDS);
+		for (int i = 1; i <= 10000; i++) {
+			cache.put(book(i));
+		}
+		assertEquals(1000, cache.size());
+		assertEquals(9000, cache.getEvictions());
+	}
+
+	/**
+	 * Tests that the proxy only asks the server for the books it has not
+	 * cached, and that removing books evicts them
+	 */
+	@Test
+	public void testProxy() throws Exception {
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(
+				new CertainBookStore());
+		BookStoreServerHandle server = startServer(handler);
+		String address = addressOf(server);
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(address);
+		StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy(address
+				+ "/stock");
+		BookMetadataCache cache = new BookMetadataCache(100, 0,
+				TimeUnit.SECONDS);
+		client.setCache(cache);
+		stockManager.setCache(cache);
+		try {
+			stockManager.addBooks(books(1, 2, 3));
+
+			Set<Integer> isbns = new HashSet<Integer>();
+			isbns.add(1);
+			isbns.add(2);
+			List<Book> fetched = client.getBooks(isbns);
+			assertEquals(2, fetched.size());
+			assertEquals(1, handler.getMetrics().getRequests(
+					BookStoreMessageTag.GETBOOKS));
+
+			List<Book> cached = client.getBooks(isbns);
+			assertEquals(fetched, cached);
+			assertSame(fetched.get(0), cached.get(0));
+			assertEquals(1, handler.getMetrics().getRequests(
+					BookStoreMessageTag.GETBOOKS));
+
+			isbns.add(3);
+			List<Book> all = client.getBooks(isbns);
+			assertEquals(3, all.size());
+			int i = 0;
+			for (Integer isbn : isbns) {
+				assertEquals((int) isbn, all.get(i++).getISBN());
+			}
+			assertEquals(2, handler.getMetrics().getRequests(
+					BookStoreMessageTag.GETBOOKS));
+			assertEquals(4, cache.getHits());
+			assertEquals(3, cache.getMisses());
+
+			Set<Integer> removed = new HashSet<Integer>();
+			removed.add(1);
+			stockManager.removeBooks(removed);
+			assertNull(cache.get(1));
+			try {
+				client.getBooks(removed);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			stockManager.removeAllBooks();
+			assertEquals(0, cache.size());
+		} finally {
+			client.stop();
+			stockManager.stop();
+			server.stop();
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.addressOf;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.bookSet;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.copySet;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.startServer;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreResponse;
+
+/**
+ * Test class to test batches of operations sent through the proxies to a
+ * server started by the test itself
+ * 
+ */
+public class BookStoreBatchTest {
+
+	private static final int TEST_ISBN = 3044560;
+	private static final int NUM_COPIES = BookStoreTestUtility.NUM_COPIES;
+	private static BookStoreServerHandle server;
+	private static StockManagerHTTPProxy storeManager;
+	private static BookStoreHTTPProxy client;
+
+	@BeforeClass
+	public static void setUpBeforeClass() throws Exception {
+		server = startServer(new BookStoreHTTPMessageHandler(
+				new CertainBookStore()));
+		String address = addressOf(server);
+		storeManager = new StockManagerHTTPProxy(address + "/stock");
+		client = new BookStoreHTTPProxy(address);
+	}
+
+	@AfterClass
+	public static void tearDownAfterClass() throws Exception {
+		storeManager.stop();
+		client.stop();
+		server.stop();
+	}
+
+	@Before
+	public void setUp() throws BookStoreException {
+		storeManager.removeAllBooks();
+		storeManager.addBooks(bookSet(TEST_ISBN));
+	}
+
+	/**
+	 * Tests that every operation of a batch gets its own response and that a
+	 * failed operation does not stop the others
+	 */
+	@Test
+	public void testBatch() throws BookStoreException {
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		storeManager.updateEditorPicks(editorPicks);
+
+		List<BookStoreResponse> results = client.batch().getEditorPicks(1)
+				.buyBooks(copySet(TEST_ISBN, NUM_COPIES + 1))
+				.buyBooks(copySet(TEST_ISBN, 1)).execute();
+
+		assertEquals(3, results.size());
+		assertEquals(TEST_ISBN,
+				((Book) results.get(0).getList().get(0)).getISBN());
+		assertNotNull(results.get(1).getException());
+		assertNull(results.get(2).getException());
+		StockBook book = storeManager.getBooks().get(0);
+		assertEquals(NUM_COPIES - 1, book.getNumCopies());
+		assertEquals(1, book.getSaleMisses());
+	}
+
+	/**
+	 * Tests that an atomic batch with a failing operation leaves the store as
+	 * it was
+	 */
+	@Test
+	public void testAtomicBatchRollBack() throws BookStoreException {
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN);
+		try {
+			storeManager.batch().setAtomic(true)
+					.addBooks(bookSet(TEST_ISBN + 1))
+					.addCopies(copySet(TEST_ISBN, 2)).removeBooks(isbnSet)
+					.addBooks(bookSet(-1)).execute();
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		List<StockBook> books = storeManager.getBooks();
+		assertEquals(1, books.size());
+		assertEquals(TEST_ISBN, books.get(0).getISBN());
+		assertEquals(NUM_COPIES, books.get(0).getNumCopies());
+
+		List<BookStoreResponse> results = storeManager.batch()
+				.setAtomic(true).addCopies(copySet(TEST_ISBN, 2))
+				.getStockBooks().execute();
+		StockBook book = (StockBook) results.get(1).getList().get(0);
+		assertEquals(NUM_COPIES + 2, book.getNumCopies());
+	}
+
+	/**
+	 * Tests that a batch sent to the bookstore may not change the stock
+	 */
+	@Test
+	public void testBookStoreBatchNotAllowed() throws BookStoreException {
+		try {
+			client.batch().getEditorPicks(1).addBooks(bookSet(TEST_ISBN + 1))
+					.execute();
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+		assertEquals(1, storeManager.getBooks().size());
+	}
+}
@@ -0,0 +1,276 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChange;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BinaryBookStoreCodec;
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreResponse;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BufferPool;
+import com.acertainbookstore.utils.PooledBufferedInputStream;
+import com.acertainbookstore.utils.PooledBufferedOutputStream;
+import com.acertainbookstore.utils.XMLBookStoreCodec;
+
+/**
+ * Test class to test that the codecs carry the bookstore messages unchanged
+ *
+ */
+public class BookStoreCodecTest {
+
+	private final BookStoreCodec codec = new BinaryBookStoreCodec();
+
+	private Object roundTrip(Object object) throws BookStoreException {
+		return codec.deserialize(codec.serialize(object));
+	}
+
+	/**
+	 * Tests that the request sets survive the binary codec
+	 */
+	@Test
+	public void testBinaryRequests() throws BookStoreException {
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(3044560);
+		isbnSet.add(-1);
+		assertEquals(isbnSet, roundTrip(isbnSet));
+
+		Set<BookCopy> bookCopies = new HashSet<BookCopy>();
+		bookCopies.add(new BookCopy(3044560, 5));
+		@SuppressWarnings("unchecked")
+		Set<BookCopy> decodedCopies = (Set<BookCopy>) roundTrip(bookCopies);
+		assertTrue(decodedCopies.size() == 1
+				&& decodedCopies.iterator().next().getNumCopies() == 5);
+
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(3044560, true));
+		@SuppressWarnings("unchecked")
+		Set<BookEditorPick> decodedPicks = (Set<BookEditorPick>) roundTrip(editorPicks);
+		assertTrue(decodedPicks.iterator().next().isEditorPick());
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(3044560, 4));
+		@SuppressWarnings("unchecked")
+		Set<BookRating> decodedRatings = (Set<BookRating>) roundTrip(ratings);
+		assertTrue(decodedRatings.iterator().next().getRating() == 4);
+
+		assertTrue(((Set<?>) roundTrip(new HashSet<Integer>())).isEmpty());
+	}
+
+	/**
+	 * Tests that responses with books or an exception survive the binary
+	 * codec
+	 */
+	@Test
+	public void testBinaryResponses() throws BookStoreException {
+		StockBook stockBook = new ImmutableStockBook(3044560,
+				"Harry Potter and JUnit", "JK Unit \u00e6\u00f8\u00e5",
+				(float) 10.5, 5, 3, 2, 9, true);
+		List<StockBook> stockBooks = new ArrayList<StockBook>();
+		stockBooks.add(stockBook);
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(stockBooks);
+
+		BookStoreResponse decoded = (BookStoreResponse) roundTrip(response);
+		StockBook decodedBook = (StockBook) decoded.getList().get(0);
+		assertNull(decoded.getException());
+		assertTrue(decodedBook.equals(stockBook)
+				&& decodedBook.getNumCopies() == 5
+				&& decodedBook.getSaleMisses() == 3
+				&& decodedBook.getTimesRated() == 2
+				&& decodedBook.getTotalRating() == 9
+				&& decodedBook.isEditorPick()
+				&& decodedBook.getAuthor().equals(stockBook.getAuthor()));
+
+		List<Book> books = new ArrayList<Book>();
+		books.add(new ImmutableBook(3044561, "Test of Thrones",
+				"George RR Testin'", (float) 10));
+		response.setList(books);
+		decoded = (BookStoreResponse) roundTrip(response);
+		assertEquals(books, decoded.getList());
+
+		response = new BookStoreResponse();
+		response.setException(new BookStoreException(BookStoreConstants.ISBN
+				+ -1 + BookStoreConstants.INVALID));
+		decoded = (BookStoreResponse) roundTrip(response);
+		assertEquals(response.getException().getMessage(), decoded
+				.getException().getMessage());
+		assertNull(decoded.getList());
+	}
+
+	/**
+	 * Tests that the types with their own XStream converters survive the XML
+	 * codec
+	 */
+	@Test
+	public void testXMLConverters() throws BookStoreException {
+		BookStoreCodec xmlCodec = new XMLBookStoreCodec();
+		StockBook stockBook = new ImmutableStockBook(3044560,
+				"Harry Potter & <JUnit>", null, (float) 10.5, 5, 3, 2, 9, true);
+		List<Book> books = new ArrayList<Book>();
+		books.add(stockBook);
+		books.add(new ImmutableBook(3044561, "Test of Thrones",
+				"George RR Testin'", (float) 10));
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(books);
+
+		BookStoreResponse decoded = (BookStoreResponse) xmlCodec
+				.deserialize(xmlCodec.serialize(response));
+		StockBook decodedBook = (StockBook) decoded.getList().get(0);
+		assertTrue(decodedBook.getTitle().equals(stockBook.getTitle())
+				&& decodedBook.getAuthor() == null
+				&& decodedBook.getPrice() == stockBook.getPrice()
+				&& decodedBook.getNumCopies() == 5
+				&& decodedBook.getSaleMisses() == 3
+				&& decodedBook.getTimesRated() == 2
+				&& decodedBook.getTotalRating() == 9
+				&& decodedBook.isEditorPick());
+		assertEquals(books.get(1), decoded.getList().get(1));
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(3044560, 4));
+		assertEquals(ratings, xmlCodec.deserialize(xmlCodec.serialize(ratings)));
+
+		response = new BookStoreResponse();
+		response.setException(new BookStoreException(BookStoreConstants.ISBN
+				+ -1 + BookStoreConstants.INVALID));
+		decoded = (BookStoreResponse) xmlCodec.deserialize(xmlCodec
+				.serialize(response));
+		assertEquals(response.getException().getMessage(), decoded
+				.getException().getMessage());
+	}
+
+	/**
+	 * Tests that the catalog changes survive both codecs
+	 */
+	@Test
+	public void testCatalogChanges() throws BookStoreException {
+		List<StockBook> books = new ArrayList<StockBook>();
+		books.add(new ImmutableStockBook(3044560, "Harry Potter and JUnit",
+				"JK Unit", (float) 10.5, 5, 3, 2, 9, true));
+		Set<Integer> removedISBNs = new HashSet<Integer>();
+		removedISBNs.add(3044561);
+		List<CatalogChange> changeList = new ArrayList<CatalogChange>();
+		changeList.add(new CatalogChange(1L << 40, books,
+				new HashSet<Integer>()));
+		changeList.add(new CatalogChange((1L << 40) + 1,
+				new ArrayList<StockBook>(), removedISBNs));
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(Collections.singletonList(new CatalogChanges(
+				changeList, (1L << 40) + 1, false, -5)));
+
+		for (BookStoreCodec codec : new BookStoreCodec[] { this.codec,
+				new XMLBookStoreCodec() }) {
+			BookStoreResponse decoded = (BookStoreResponse) codec
+					.deserialize(codec.serialize(response));
+			CatalogChanges changes = (CatalogChanges) decoded.getList().get(0);
+			assertEquals((1L << 40) + 1, changes.getNextSequence());
+			assertFalse(changes.isResyncRequired());
+			assertEquals(-5, changes.getEpoch());
+			assertEquals(2, changes.getChanges().size());
+			CatalogChange first = changes.getChanges().get(0);
+			assertEquals(1L << 40, first.getSequence());
+			assertEquals(books, first.getBooks());
+			assertEquals(5, first.getBooks().get(0).getNumCopies());
+			assertTrue(first.getRemovedISBNs().isEmpty());
+			CatalogChange second = changes.getChanges().get(1);
+			assertTrue(second.getBooks().isEmpty());
+			assertEquals(removedISBNs, second.getRemovedISBNs());
+
+			CatalogChanges resync = (CatalogChanges) codec.deserialize(codec
+					.serialize(new CatalogChanges(Collections
+							.<CatalogChange> emptyList(), 7, true, 1)));
+			assertTrue(resync.isResyncRequired()
+					&& resync.getChanges().isEmpty()
+					&& resync.getNextSequence() == 7);
+		}
+	}
+
+	/**
+	 * Tests that a string longer than the codec reads is rejected before it
+	 * is allocated
+	 */
+	@Test
+	public void testOversizeString() {
+		// Version 1, a string tag and a length of 2^30 as a zigzag varint
+		byte[] message = new byte[] { 1, 3, (byte) 0x80, (byte) 0x80,
+				(byte) 0x80, (byte) 0x80, 0x08 };
+		try {
+			codec.deserialize(message);
+			fail();
+		} catch (BookStoreException ex) {
+			assertTrue(ex.getMessage().contains("longer than"));
+		}
+	}
+
+	/**
+	 * Tests that a response much larger than the stream buffers survives
+	 * being streamed through pooled buffers with both codecs
+	 */
+	@Test
+	public void testStreaming() throws IOException, BookStoreException {
+		BufferPool pool = new BufferPool(64, 1);
+		List<StockBook> books = new ArrayList<StockBook>();
+		for (int i = 1; i <= 1000; i++) {
+			books.add(new ImmutableStockBook(i, "Title " + i, "Author " + i,
+					(float) i, i, 0, 0, 0, i % 2 == 0));
+		}
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(books);
+
+		for (BookStoreCodec streamCodec : new BookStoreCodec[] {
+				new XMLBookStoreCodec(), new BinaryBookStoreCodec() }) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			OutputStream out = new PooledBufferedOutputStream(bytes, pool);
+			streamCodec.serialize(response, out);
+			out.close();
+
+			InputStream in = new PooledBufferedInputStream(
+					new ByteArrayInputStream(bytes.toByteArray()), pool);
+			BookStoreResponse decoded = (BookStoreResponse) streamCodec
+					.deserialize(in);
+			in.close();
+			assertEquals(books, decoded.getList());
+		}
+	}
+
+	/**
+	 * Tests that the codec is chosen by content type, falling back to XML
+	 */
+	@Test
+	public void testCodecNegotiation() {
+		assertEquals(BookStoreConstants.CONTENT_TYPE_BINARY, BookStoreUtility
+				.getCodec(BookStoreConstants.CONTENT_TYPE_BINARY)
+				.getContentType());
+		assertEquals(BookStoreConstants.CONTENT_TYPE_XML, BookStoreUtility
+				.getCodec("text/xml;charset=utf-8").getContentType());
+		assertEquals(BookStoreConstants.CONTENT_TYPE_XML, BookStoreUtility
+				.getCodec(null).getContentType());
+		assertEquals(BookStoreConstants.CONTENT_TYPE_BINARY, BookStoreUtility
+				.getResponseCodec("text/html, "
+						+ BookStoreConstants.CONTENT_TYPE_BINARY, null)
+				.getContentType());
+	}
+}
@@ -0,0 +1,154 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.addressOf;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.books;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.startServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreMetrics;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.ConcurrentHistogram;
+
+/**
+ * Test class to test the metrics the server records and serves
+ *
+ */
+public class BookStoreMetricsTest {
+	private static final int NUM_THREADS = 8;
+	private static final int NUM_RECORDS = 100000;
+
+	/**
+	 * Tests that the histograms lose no update from concurrent threads
+	 */
+	@Test
+	public void testConcurrentRecording() throws InterruptedException {
+		final ConcurrentHistogram histogram = new ConcurrentHistogram();
+		Thread[] threads = new Thread[NUM_THREADS];
+		for (int i = 0; i < NUM_THREADS; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					for (int j = 1; j <= NUM_RECORDS; j++) {
+						histogram.record(j * 1000L);
+					}
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		ConcurrentHistogram.Snapshot snapshot = histogram.snapshot();
+		assertEquals(NUM_THREADS * NUM_RECORDS, snapshot.getCount());
+		assertEquals(NUM_RECORDS * 1000L, snapshot.getMax());
+		assertEquals(NUM_THREADS * 1000L * NUM_RECORDS * (NUM_RECORDS + 1)
+				/ 2, snapshot.getSum());
+		long median = snapshot.getValueAtPercentile(50);
+		assertTrue(median >= NUM_RECORDS * 500L
+				&& median <= NUM_RECORDS * 500L * 1.04);
+		assertEquals(NUM_RECORDS * 1000L, snapshot.getValueAtPercentile(100));
+	}
+
+	/**
+	 * Tests that the server counts the requests and exceptions of each
+	 * message tag and serves them on the metrics path
+	 */
+	@Test
+	public void testMetricsPath() throws Exception {
+		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(
+				new CertainBookStore());
+		BookStoreServerHandle server = startServer(handler);
+		String address = addressOf(server);
+		BookStoreHTTPProxy client = new BookStoreHTTPProxy(address);
+		StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy(address
+				+ "/stock");
+		try {
+			stockManager.addBooks(books(1));
+			Set<BookCopy> copies = new HashSet<BookCopy>();
+			copies.add(new BookCopy(1, 2));
+			client.buyBooks(copies);
+			client.buyBooks(copies);
+			try {
+				client.buyBooks(copies);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+
+			BookStoreMetrics metrics = handler.getMetrics();
+			assertEquals(3, metrics.getRequests(BookStoreMessageTag.BUYBOOKS));
+			assertEquals(1,
+					metrics.getExceptions(BookStoreMessageTag.BUYBOOKS));
+			assertEquals(1, metrics.getRequests(BookStoreMessageTag.ADDBOOKS));
+
+			HttpURLConnection connection = (HttpURLConnection) new URL(address
+					+ "/nosuchmessage").openConnection();
+			connection.getResponseCode();
+			connection.disconnect();
+			assertEquals(1, metrics.getUnknownRequests());
+
+			Map<String, String> lines = fetchMetrics(address
+					+ BookStoreConstants.METRICS_PATH);
+			assertEquals("3", lines.get("bookstore_requests_total{tag=\"BUYBOOKS\"}"));
+			assertEquals("1", lines.get("bookstore_exceptions_total{tag=\"BUYBOOKS\"}"));
+			assertEquals("1", lines.get("bookstore_unknown_requests_total"));
+			assertEquals("3", lines.get("bookstore_latency_seconds_count"
+					+ "{tag=\"BUYBOOKS\",phase=\"total\"}"));
+			assertTrue(Long.parseLong(lines
+					.get("bookstore_received_bytes_total{tag=\"BUYBOOKS\"}")) > 0);
+			assertTrue(Long.parseLong(lines
+					.get("bookstore_sent_bytes_total{tag=\"BUYBOOKS\"}")) > 0);
+			assertTrue(Double.parseDouble(lines
+					.get("bookstore_latency_seconds{tag=\"BUYBOOKS\","
+							+ "phase=\"execute\",quantile=\"0.99\"}")) > 0);
+			assertTrue(!lines.containsKey("bookstore_requests_total"
+					+ "{tag=\"REMOVEALLBOOKS\"}"));
+		} finally {
+			client.stop();
+			stockManager.stop();
+			server.stop();
+		}
+	}
+
+	private static Map<String, String> fetchMetrics(String url)
+			throws Exception {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url)
+				.openConnection();
+		Map<String, String> lines = new HashMap<String, String>();
+		try {
+			assertEquals(200, connection.getResponseCode());
+			assertTrue(connection.getContentType().startsWith("text/plain"));
+			BufferedReader reader = new BufferedReader(new InputStreamReader(
+					connection.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int space = line.lastIndexOf(' ');
+				lines.put(line.substring(0, space), line.substring(space + 1));
+			}
+		} finally {
+			connection.disconnect();
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,80 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Properties;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.client.BookStoreHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.server.BookStoreServerConfiguration;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * Test class to test configuring, starting and stopping the HTTP server
+ * 
+ */
+public class BookStoreServerConfigurationTest {
+
+	/**
+	 * Tests that properties override the defaults and that values that cannot
+	 * be parsed are ignored
+	 */
+	@Test
+	public void testFromProperties() {
+		Properties properties = new Properties();
+		properties.setProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT,
+				"9090");
+		properties.setProperty(
+				BookStoreConstants.PROPERTY_KEY_SERVER_THREAD_POOL, "virtual");
+		properties.setProperty(
+				BookStoreConstants.PROPERTY_KEY_SERVER_MAX_THREADS, "512");
+		properties.setProperty(
+				BookStoreConstants.PROPERTY_KEY_SERVER_ACCEPTORS, "four");
+
+		BookStoreServerConfiguration defaults = new BookStoreServerConfiguration();
+		BookStoreServerConfiguration configuration = BookStoreServerConfiguration
+				.fromProperties(properties);
+		assertEquals(9090, configuration.getPort());
+		assertEquals(BookStoreServerConfiguration.ThreadPoolType.VIRTUAL,
+				configuration.getThreadPoolType());
+		assertEquals(512, configuration.getMaxThreads());
+		assertEquals(defaults.getAcceptors(), configuration.getAcceptors());
+		assertEquals(defaults.getMinThreads(), configuration.getMinThreads());
+	}
+
+	/**
+	 * Tests that a server started with either thread pool answers requests
+	 * and stops through its handle. Virtual threads fall back to the bounded
+	 * pool on JDKs without them.
+	 */
+	@Test
+	public void testStartAndStop() throws Exception {
+		for (BookStoreServerConfiguration.ThreadPoolType type : BookStoreServerConfiguration.ThreadPoolType
+				.values()) {
+			BookStoreServerConfiguration configuration = new BookStoreServerConfiguration();
+			configuration.setPort(0);
+			configuration.setAcceptors(2);
+			configuration.setThreadPoolType(type);
+			BookStoreServerHandle server = BookStoreHTTPServerUtility
+					.startServer(configuration,
+							new BookStoreHTTPMessageHandler(
+									new CertainBookStore()));
+			BookStoreHTTPProxy client = new BookStoreHTTPProxy(
+					"http://localhost:" + server.getLocalPort());
+			try {
+				assertTrue(server.isRunning());
+				assertTrue(client.getBooks(new HashSet<Integer>()).isEmpty());
+			} finally {
+				client.stop();
+				server.stop();
+			}
+			assertFalse(server.isRunning());
+		}
+	}
+}
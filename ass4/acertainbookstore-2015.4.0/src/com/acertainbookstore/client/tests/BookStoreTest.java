@@ -3,6 +3,7 @@ package com.acertainbookstore.client.tests;
 import static org.junit.Assert.*;
 
 import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -14,6 +15,7 @@ import org.junit.Test;
 
 import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -179,6 +181,36 @@ public class BookStoreTest {
 
 	}
 
+	/**
+	 * Tests that a purchase rejected for an ISBN not in the store counts no
+	 * sale miss for the other books in it, in the catalog or in demand
+	 */
+	@Test
+	public void testBuyMissAndNonExistingISBN() throws BookStoreException {
+		// The miss comes first, so it is checked before the missing ISBN
+		Set<BookCopy> booksToBuy = new LinkedHashSet<BookCopy>();
+		booksToBuy.add(new BookCopy(TEST_ISBN, NUM_COPIES + 1)); // miss
+		booksToBuy.add(new BookCopy(100000, 1)); // invalid
+
+		try {
+			client.buyBooks(booksToBuy);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+
+		// A later purchase must not commit a miss of the rejected one
+		booksToBuy.clear();
+		booksToBuy.add(new BookCopy(TEST_ISBN, 1));
+		client.buyBooks(booksToBuy);
+
+		List<StockBook> listBooks = storeManager.getBooks();
+		assertEquals(1, listBooks.size());
+		assertEquals(0, listBooks.get(0).getSaleMisses());
+		assertEquals(NUM_COPIES - 1, listBooks.get(0).getNumCopies());
+		assertTrue(storeManager.getBooksInDemand().isEmpty());
+	}
+
 	/**
 	 * Tests that you can't buy more books than there are copies
 	 */
@@ -314,6 +346,47 @@ public class BookStoreTest {
 
 	}
 
+	/**
+	 * Tests that getTopRatedBooks follows the ratings as books are rated
+	 */
+	@Test
+	public void testTopRatedBooks() throws BookStoreException {
+		addBooks(TEST_ISBN + 1, NUM_COPIES);
+		addBooks(TEST_ISBN + 2, NUM_COPIES);
+
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		ratings.add(new BookRating(TEST_ISBN + 1, 5));
+		client.rateBooks(ratings);
+
+		List<Book> topRated = client.getTopRatedBooks(2);
+		assertTrue(topRated.size() == 2
+				&& topRated.get(0).getISBN() == TEST_ISBN + 1
+				&& topRated.get(1).getISBN() == TEST_ISBN);
+
+		// The average of 5 and 2 is 3.5, which puts the book below 4
+		ratings.clear();
+		ratings.add(new BookRating(TEST_ISBN + 1, 2));
+		client.rateBooks(ratings);
+
+		topRated = client.getTopRatedBooks(3);
+		assertTrue(topRated.size() == 3
+				&& topRated.get(0).getISBN() == TEST_ISBN
+				&& topRated.get(1).getISBN() == TEST_ISBN + 1
+				&& topRated.get(2).getISBN() == TEST_ISBN + 2);
+
+		Set<Integer> isbnSet = new HashSet<Integer>();
+		isbnSet.add(TEST_ISBN + 1);
+		assertTrue(storeManager.getBooksByISBN(isbnSet).get(0)
+				.getAverageRating() == 3.5f);
+
+		storeManager.removeBooks(isbnSet);
+		topRated = client.getTopRatedBooks(3);
+		assertTrue(topRated.size() == 2
+				&& topRated.get(0).getISBN() == TEST_ISBN
+				&& topRated.get(1).getISBN() == TEST_ISBN + 2);
+	}
+
 	@AfterClass
 	public static void tearDownAfterClass() throws BookStoreException {
 		storeManager.removeAllBooks();
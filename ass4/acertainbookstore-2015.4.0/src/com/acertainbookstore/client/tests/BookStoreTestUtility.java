@@ -0,0 +1,96 @@
+package com.acertainbookstore.client.tests;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreHTTPServerUtility;
+import com.acertainbookstore.server.BookStoreServerConfiguration;
+import com.acertainbookstore.server.BookStoreServerHandle;
+
+/**
+ * BookStoreTestUtility builds the sets of books and copies the tests send to
+ * the bookstore, and starts the servers the tests send them to
+ *
+ */
+public final class BookStoreTestUtility {
+	public static final int NUM_COPIES = 5;
+
+	private BookStoreTestUtility() {
+	}
+
+	/**
+	 * Returns a set of the default book with the ISBN and NUM_COPIES copies
+	 *
+	 * @param isbn
+	 * @return
+	 */
+	public static Set<StockBook> bookSet(int isbn) {
+		Set<StockBook> books = new HashSet<StockBook>();
+		books.add(new ImmutableStockBook(isbn, "Harry Potter and JUnit",
+				"JK Unit", (float) 10, NUM_COPIES, 0, 0, 0, false));
+		return books;
+	}
+
+	/**
+	 * Returns a set of books with the ISBNs, each titled after its ISBN and
+	 * with NUM_COPIES copies
+	 *
+	 * @param isbns
+	 * @return
+	 */
+	public static Set<StockBook> books(int... isbns) {
+		Set<StockBook> books = new HashSet<StockBook>();
+		for (int isbn : isbns) {
+			books.add(new ImmutableStockBook(isbn, "Title " + isbn, "Author",
+					10, NUM_COPIES, 0, 0, 0, false));
+		}
+		return books;
+	}
+
+	public static Set<BookCopy> copySet(int isbn, int numCopies) {
+		Set<BookCopy> copies = new HashSet<BookCopy>();
+		copies.add(new BookCopy(isbn, numCopies));
+		return copies;
+	}
+
+	/**
+	 * Starts a server with the handler on a free port
+	 *
+	 * @param handler
+	 * @return
+	 * @throws Exception
+	 */
+	public static BookStoreServerHandle startServer(
+			BookStoreHTTPMessageHandler handler) throws Exception {
+		return startServer(handler, 0);
+	}
+
+	/**
+	 * Starts a server with the handler on the port
+	 *
+	 * @param handler
+	 * @param port
+	 * @return
+	 * @throws Exception
+	 */
+	public static BookStoreServerHandle startServer(
+			BookStoreHTTPMessageHandler handler, int port) throws Exception {
+		BookStoreServerConfiguration configuration = new BookStoreServerConfiguration();
+		configuration.setPort(port);
+		return BookStoreHTTPServerUtility.startServer(configuration, handler);
+	}
+
+	/**
+	 * Returns the address the proxies reach the server at
+	 *
+	 * @param server
+	 * @return
+	 */
+	public static String addressOf(BookStoreServerHandle server) {
+		return "http://localhost:" + server.getLocalPort();
+	}
+}
@@ -0,0 +1,177 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.addressOf;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.books;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.startServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChange;
+import com.acertainbookstore.business.CatalogChangeFeed;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.interfaces.StockManager;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * Test class to test the feed of the changes to the catalog
+ *
+ */
+public class CatalogChangeFeedTest {
+	private static final int TEST_ISBN = 3044560;
+
+	private static CatalogChange change(long sequence) {
+		return new CatalogChange(sequence, new ArrayList<StockBook>(),
+				new HashSet<Integer>());
+	}
+
+	/**
+	 * Tests that every operation changing the store is a change with the
+	 * books it changed, numbered in order
+	 */
+	@Test
+	public void testOperations() throws BookStoreException {
+		CertainBookStore store = new CertainBookStore();
+		store.addBooks(books(TEST_ISBN, TEST_ISBN + 1));
+		store.addCopies(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+		store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 1)));
+		try {
+			store.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 100)));
+			fail();
+		} catch (BookStoreException ex) {
+			; // the sale miss is a change
+		}
+		store.updateEditorPicks(Collections.singleton(new BookEditorPick(
+				TEST_ISBN, true)));
+		store.rateBooks(Collections.singleton(new BookRating(TEST_ISBN, 4)));
+		store.removeBooks(Collections.singleton(TEST_ISBN + 1));
+		store.getBooks();
+
+		CatalogChanges changes = store.getChanges(0, 100, 0);
+		assertFalse(changes.isResyncRequired());
+		assertEquals(7, changes.getNextSequence());
+		List<CatalogChange> changeList = changes.getChanges();
+		assertEquals(7, changeList.size());
+		for (int i = 0; i < changeList.size(); i++) {
+			assertEquals(i + 1, changeList.get(i).getSequence());
+		}
+		assertEquals(2, changeList.get(0).getBooks().size());
+		assertEquals(7, changeList.get(1).getBooks().get(0).getNumCopies());
+		assertEquals(6, changeList.get(2).getBooks().get(0).getNumCopies());
+		assertEquals(1, changeList.get(3).getBooks().get(0).getSaleMisses());
+		assertTrue(changeList.get(4).getBooks().get(0).isEditorPick());
+		assertEquals(4, changeList.get(5).getBooks().get(0).getTotalRating());
+		assertTrue(changeList.get(6).getBooks().isEmpty());
+		assertEquals(Collections.singleton(TEST_ISBN + 1), changeList.get(6)
+				.getRemovedISBNs());
+
+		changes = store.getChanges(5, 1, 0);
+		assertEquals(1, changes.getChanges().size());
+		assertEquals(6, changes.getNextSequence());
+		changes = store.getChanges(7, 100, 0);
+		assertTrue(changes.getChanges().isEmpty());
+		assertEquals(7, changes.getNextSequence());
+	}
+
+	/**
+	 * Tests that a client asking for changes that are no longer kept, or
+	 * after a change the store has not made, has to resync
+	 */
+	@Test
+	public void testResync() {
+		CatalogChangeFeed feed = new CatalogChangeFeed(4, 1);
+		for (int i = 1; i <= 10; i++) {
+			feed.publish(change(i));
+		}
+		CatalogChanges changes = feed.getChanges(6, 100, 0);
+		assertFalse(changes.isResyncRequired());
+		assertEquals(4, changes.getChanges().size());
+		assertEquals(7, changes.getChanges().get(0).getSequence());
+
+		changes = feed.getChanges(5, 100, 0);
+		assertTrue(changes.isResyncRequired());
+		assertTrue(changes.getChanges().isEmpty());
+		assertEquals(10, changes.getNextSequence());
+		assertTrue(feed.getChanges(0, 100, 0).isResyncRequired());
+		assertTrue(feed.getChanges(11, 100, 0).isResyncRequired());
+
+		try {
+			feed.publish(change(12));
+			fail();
+		} catch (IllegalStateException ex) {
+			;
+		}
+	}
+
+	/**
+	 * Tests that a client waiting for a change through the proxy wakes up
+	 * when it is made, and returns without changes after the timeout
+	 */
+	@Test
+	public void testLongPoll() throws Exception {
+		BookStoreServerHandle server = startServer(new BookStoreHTTPMessageHandler(
+				new CertainBookStore()));
+		final StockManager stockManager = new StockManagerHTTPProxy(
+				addressOf(server) + "/stock");
+		try {
+			long startTime = System.currentTimeMillis();
+			CatalogChanges changes = stockManager.getChanges(0, 100, 200);
+			assertTrue(System.currentTimeMillis() - startTime >= 150);
+			assertTrue(changes.getChanges().isEmpty());
+			assertEquals(0, changes.getNextSequence());
+
+			final AtomicReference<Object> result = new AtomicReference<Object>();
+			final CountDownLatch polling = new CountDownLatch(1);
+			Thread poller = new Thread() {
+				public void run() {
+					try {
+						polling.countDown();
+						result.set(stockManager.getChanges(0, 100, 10000));
+					} catch (BookStoreException ex) {
+						result.set(ex);
+					}
+				}
+			};
+			poller.start();
+			// Whether the poll reaches the server before or after the change,
+			// it returns the change well before its timeout
+			polling.await();
+			startTime = System.currentTimeMillis();
+			stockManager.addBooks(books(TEST_ISBN));
+			poller.join(5000);
+			assertTrue(System.currentTimeMillis() - startTime < 5000);
+			changes = (CatalogChanges) result.get();
+			assertEquals(1, changes.getNextSequence());
+			assertEquals(TEST_ISBN, changes.getChanges().get(0).getBooks()
+					.get(0).getISBN());
+
+			try {
+				stockManager.getChanges(-1, 100, 0);
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+		} finally {
+			((StockManagerHTTPProxy) stockManager).stop();
+			server.stop();
+		}
+	}
+}
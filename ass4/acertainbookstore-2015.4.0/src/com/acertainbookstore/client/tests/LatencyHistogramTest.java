@@ -0,0 +1,87 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.acertainbookstore.client.workloads.LatencyHistogram;
+
+/**
+ * Test class to test that the latency histograms of the workload keep the
+ * percentiles within their precision and merge
+ *
+ */
+public class LatencyHistogramTest {
+
+	/**
+	 * Tests the percentiles of latencies spread uniformly from 1 microsecond
+	 * to 1 second
+	 */
+	@Test
+	public void testPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long latency = 1; latency <= 1000000; latency++) {
+			histogram.record(latency * 1000);
+		}
+		assertEquals(1000000, histogram.getTotalCount());
+		assertEquals(1000, histogram.getMin());
+		assertEquals(1000000000L, histogram.getMax());
+		double[] percentiles = { 1, 50, 90, 99, 99.9, 99.99 };
+		for (double percentile : percentiles) {
+			double expected = percentile * 1e7;
+			long value = histogram.getValueAtPercentile(percentile);
+			assertTrue(percentile + ": " + value, value >= expected
+					&& value <= expected * 1.01);
+		}
+		assertEquals(1000000000L, histogram.getValueAtPercentile(100));
+		assertEquals(500000.5 * 1000, histogram.getMean(), 1);
+	}
+
+	/**
+	 * Tests that the small latencies are kept exactly and that the extremes
+	 * are recorded
+	 */
+	@Test
+	public void testExtremes() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getValueAtPercentile(99));
+		for (long latency = 0; latency < 200; latency++) {
+			histogram.record(latency);
+		}
+		assertEquals(99, histogram.getValueAtPercentile(50));
+		histogram.record(-5);
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(0, histogram.getMin());
+		assertEquals(Long.MAX_VALUE, histogram.getMax());
+		assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+	}
+
+	/**
+	 * Tests that merging histograms gives the percentiles of all their
+	 * latencies
+	 */
+	@Test
+	public void testAdd() {
+		Random random = new Random(42);
+		LatencyHistogram all = new LatencyHistogram();
+		LatencyHistogram merged = new LatencyHistogram();
+		for (int i = 0; i < 4; i++) {
+			LatencyHistogram worker = new LatencyHistogram();
+			for (int j = 0; j < 10000; j++) {
+				long latency = (long) (random.nextDouble() * 1e6 * (i + 1));
+				worker.record(latency);
+				all.record(latency);
+			}
+			merged.add(worker);
+		}
+		assertEquals(all.getTotalCount(), merged.getTotalCount());
+		assertEquals(all.getMax(), merged.getMax());
+		assertEquals(all.getMin(), merged.getMin());
+		assertEquals(all.getMean(), merged.getMean(), 1e-6);
+		assertEquals(all.getValueAtPercentile(99),
+				merged.getValueAtPercentile(99));
+	}
+}
@@ -0,0 +1,113 @@
+package com.acertainbookstore.client.tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.acertainbookstore.client.workloads.BookSetGenerator;
+import com.acertainbookstore.client.workloads.PopularityDistribution;
+
+/**
+ * Test class to test that the popularity distributions of the workload pick
+ * the books with the expected frequencies
+ *
+ */
+public class PopularityDistributionTest {
+	private static final int NUM_DRAWS = 1000000;
+
+	private static int[] draw(PopularityDistribution distribution,
+			int numBooks) {
+		Random random = new Random(42);
+		int[] counts = new int[numBooks];
+		for (int i = 0; i < NUM_DRAWS; i++) {
+			counts[distribution.nextRank(random, numBooks)]++;
+		}
+		return counts;
+	}
+
+	/**
+	 * Tests that the Zipf distribution picks the ranks in proportion to
+	 * 1 / (rank + 1)^skew
+	 */
+	@Test
+	public void testZipf() {
+		int numBooks = 1000;
+		for (double skew : new double[] { 0.5, 0.99, 1, 1.5 }) {
+			int[] counts = draw(PopularityDistribution.zipf(skew), numBooks);
+			double norm = 0;
+			for (int rank = 0; rank < numBooks; rank++) {
+				norm += Math.pow(rank + 1, -skew);
+			}
+			for (int rank : new int[] { 0, 1, 9, 99 }) {
+				double expected = NUM_DRAWS * Math.pow(rank + 1, -skew) / norm;
+				assertEquals(skew + " " + rank, expected, counts[rank],
+						5 * Math.sqrt(expected) + 1);
+			}
+		}
+	}
+
+	/**
+	 * Tests that the hotspot distribution gives its share of the picks to the
+	 * hot books and that the uniform distribution spreads them
+	 */
+	@Test
+	public void testHotspotAndUniform() {
+		int[] counts = draw(PopularityDistribution.hotspot(0.1, 0.9), 100);
+		int hot = 0;
+		for (int rank = 0; rank < 10; rank++) {
+			hot += counts[rank];
+		}
+		assertEquals(0.9, (double) hot / NUM_DRAWS, 0.005);
+
+		counts = draw(PopularityDistribution.uniform(), 100);
+		Arrays.sort(counts);
+		assertTrue(counts[0] > NUM_DRAWS / 100 * 0.9
+				&& counts[99] < NUM_DRAWS / 100 * 1.1);
+	}
+
+	/**
+	 * Tests that the samples hold distinct ISBNs of the catalog, even when
+	 * the distribution keeps picking the same books
+	 */
+	@Test
+	public void testSample() {
+		BookSetGenerator generator = new BookSetGenerator(10, 10,
+				PopularityDistribution.parse("zipf:3"));
+		for (int i = 0; i < 1000; i++) {
+			Set<Integer> isbns = generator.sampleFromCatalog(20, 15);
+			assertEquals(15, isbns.size());
+			for (int isbn : isbns) {
+				assertTrue(isbn >= 1 && isbn <= 20);
+			}
+		}
+		assertEquals(5, generator.sampleFromCatalog(5, 10).size());
+		Set<Integer> picks = new HashSet<>(Arrays.asList(3, 17, 29, 41));
+		assertEquals(picks, generator.sampleFromSetOfISBNs(picks, 4));
+		assertTrue(picks.containsAll(generator.sampleFromSetOfISBNs(picks, 2)));
+	}
+
+	/**
+	 * Tests that invalid distributions are rejected
+	 */
+	@Test
+	public void testParse() {
+		String[] invalid = { "zipf", "zipf:x", "zipf:0", "hotspot:0.1",
+				"hotspot:2:0.5", "pareto" };
+		for (String distribution : invalid) {
+			try {
+				PopularityDistribution.parse(distribution);
+				throw new AssertionError(distribution);
+			} catch (IllegalArgumentException ex) {
+				;
+			}
+		}
+		assertEquals("hotspot:0.2:0.8",
+				PopularityDistribution.parse("hotspot:0.2:0.8").toString());
+	}
+}
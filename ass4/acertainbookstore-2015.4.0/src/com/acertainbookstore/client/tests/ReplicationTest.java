@@ -0,0 +1,255 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.addressOf;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.books;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.startServer;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChange;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.client.ReplicatedBookStoreHTTPProxy;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.server.BookStoreHTTPMessageHandler;
+import com.acertainbookstore.server.BookStoreServerHandle;
+import com.acertainbookstore.server.CatalogReplicator;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * Test class to test the replication of the catalog to read replicas
+ *
+ */
+public class ReplicationTest {
+	private static final int TEST_ISBN = 3044560;
+	private static final long WAIT_MILLISECS = 5000;
+
+	/**
+	 * Asserts that the stores hold the same books with the same stock,
+	 * ratings and editor picks
+	 */
+	private static void assertSameCatalog(List<StockBook> expected,
+			List<StockBook> actual) {
+		assertEquals(expected.size(), actual.size());
+		Map<Integer, StockBook> actualBooks = new HashMap<Integer, StockBook>();
+		for (StockBook book : actual) {
+			actualBooks.put(book.getISBN(), book);
+		}
+		for (StockBook book : expected) {
+			StockBook actualBook = actualBooks.get(book.getISBN());
+			assertEquals(book, actualBook);
+			assertEquals(book.getNumCopies(), actualBook.getNumCopies());
+			assertEquals(book.getSaleMisses(), actualBook.getSaleMisses());
+			assertEquals(book.getTotalRating(), actualBook.getTotalRating());
+			assertEquals(book.getTimesRated(), actualBook.getTimesRated());
+			assertEquals(book.isEditorPick(), actualBook.isEditorPick());
+		}
+	}
+
+	/**
+	 * Tests that applying the changes of a store in order, or resetting to
+	 * its catalog, gives the same catalog
+	 */
+	@Test
+	public void testApplyChanges() throws BookStoreException {
+		CertainBookStore primary = new CertainBookStore();
+		primary.addBooks(books(TEST_ISBN, TEST_ISBN + 1, TEST_ISBN + 2));
+		primary.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN, 2)));
+		primary.rateBooks(Collections.singleton(new BookRating(TEST_ISBN + 1,
+				3)));
+		primary.updateEditorPicks(Collections.singleton(new BookEditorPick(
+				TEST_ISBN + 2, true)));
+		primary.removeBooks(Collections.singleton(TEST_ISBN + 1));
+
+		CertainBookStore replica = new CertainBookStore();
+		for (CatalogChange change : primary.getChanges(0, 100, 0)
+				.getChanges()) {
+			replica.applyChange(change);
+		}
+		assertSameCatalog(primary.getBooks(), replica.getBooks());
+		assertEquals(primary.getLastSequence(), replica.getLastSequence());
+		assertEquals(1, replica.getEditorPicks(1).size());
+
+		CertainBookStore resynced = new CertainBookStore();
+		resynced.addBooks(books(TEST_ISBN + 5));
+		resynced.resetCatalog(primary.getBooks());
+		assertSameCatalog(primary.getBooks(), resynced.getBooks());
+		assertEquals(TEST_ISBN + 2, resynced.getEditorPicks(1).get(0)
+				.getISBN());
+	}
+
+	/**
+	 * Tests that a replica catches up with the primary, serves the reads
+	 * with the writes of the client reflected, and rejects the writes
+	 */
+	@Test
+	public void testReplica() throws Exception {
+		BookStoreHTTPMessageHandler primaryHandler = new BookStoreHTTPMessageHandler(
+				new CertainBookStore());
+		BookStoreServerHandle primaryServer = startServer(primaryHandler);
+		String primaryAddress = addressOf(primaryServer);
+		StockManagerHTTPProxy stockManager = new StockManagerHTTPProxy(
+				primaryAddress + "/stock");
+		stockManager.addBooks(books(TEST_ISBN, TEST_ISBN + 1));
+
+		CertainBookStore replicaStore = new CertainBookStore();
+		CatalogReplicator replicator = new CatalogReplicator(replicaStore,
+				primaryAddress);
+		BookStoreHTTPMessageHandler replicaHandler = new BookStoreHTTPMessageHandler(
+				replicaStore, replicator);
+		BookStoreServerHandle replicaServer = startServer(replicaHandler);
+		String replicaAddress = addressOf(replicaServer);
+		StockManagerHTTPProxy replicaStockManager = new StockManagerHTTPProxy(
+				replicaAddress + "/stock");
+		List<String> replicaAddresses = new ArrayList<String>();
+		replicaAddresses.add(replicaAddress);
+		ReplicatedBookStoreHTTPProxy client = new ReplicatedBookStoreHTTPProxy(
+				primaryAddress, replicaAddresses);
+		replicator.start();
+		try {
+			assertTrue(replicator.awaitSequence(1, WAIT_MILLISECS));
+			assertSameCatalog(stockManager.getBooks(),
+					replicaStockManager.getBooks());
+
+			try {
+				replicaStockManager.addBooks(books(TEST_ISBN + 2));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+			try {
+				replicaStockManager.removeAllBooks();
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+			assertEquals(2, replicaStore.getBooks().size());
+
+			// The replica waits for the rating before it answers
+			client.rateBooks(Collections.singleton(new BookRating(
+					TEST_ISBN + 1, 5)));
+			assertEquals(2, client.getSessionToken());
+			assertEquals(TEST_ISBN + 1, client.getTopRatedBooks(1).get(0)
+					.getISBN());
+			assertEquals(1, replicaHandler.getMetrics().getRequests(
+					BookStoreMessageTag.GETTOPRATEDBOOKS));
+			assertEquals(0, primaryHandler.getMetrics().getRequests(
+					BookStoreMessageTag.GETTOPRATEDBOOKS));
+
+			// A failed purchase is a sale miss the replica catches up with
+			try {
+				client.buyBooks(Collections.singleton(new BookCopy(TEST_ISBN,
+						100)));
+				fail();
+			} catch (BookStoreException ex) {
+				;
+			}
+			assertEquals(3, client.getSessionToken());
+			assertEquals(1, client.getBooks(Collections.singleton(TEST_ISBN))
+					.size());
+			assertTrue(replicator.getAppliedSequence() >= 3);
+			assertSameCatalog(stockManager.getBooks(),
+					replicaStockManager.getBooks());
+
+			// A replica too far behind the session sends the read to the
+			// primary
+			client.setSessionToken(100);
+			assertTrue(client.getEditorPicks(1).isEmpty());
+			assertEquals(1, primaryHandler.getMetrics().getRequests(
+					BookStoreMessageTag.EDITORPICKS));
+		} finally {
+			client.stop();
+			replicaStockManager.stop();
+			stockManager.stop();
+			replicator.stop();
+			replicaServer.stop();
+			primaryServer.stop();
+		}
+	}
+
+	/**
+	 * Tests that a replica resyncs with a restarted primary, whose sequence
+	 * numbers start over, even where they do not go back, and that the
+	 * session token starts over with them
+	 */
+	@Test
+	public void testPrimaryRestart() throws Exception {
+		CertainBookStore primaryStore = new CertainBookStore();
+		BookStoreServerHandle primaryServer = startServer(new BookStoreHTTPMessageHandler(
+				primaryStore));
+		int port = primaryServer.getLocalPort();
+		String primaryAddress = addressOf(primaryServer);
+		primaryStore.addBooks(books(TEST_ISBN));
+
+		CertainBookStore replicaStore = new CertainBookStore();
+		CatalogReplicator replicator = new CatalogReplicator(replicaStore,
+				primaryAddress);
+		BookStoreServerHandle replicaServer = startServer(new BookStoreHTTPMessageHandler(
+				replicaStore, replicator));
+		List<String> replicaAddresses = new ArrayList<String>();
+		replicaAddresses.add(addressOf(replicaServer));
+		ReplicatedBookStoreHTTPProxy client = new ReplicatedBookStoreHTTPProxy(
+				primaryAddress, replicaAddresses);
+		replicator.start();
+		try {
+			for (int i = 0; i < 3; i++) {
+				client.rateBooks(Collections.singleton(new BookRating(
+						TEST_ISBN, 4)));
+			}
+			assertEquals(primaryStore.getEpoch(), client.getSessionEpoch());
+			assertEquals(4, client.getSessionToken());
+			assertTrue(replicator.awaitSequence(4, WAIT_MILLISECS));
+			assertEquals(primaryStore.getEpoch(), replicator.getAppliedEpoch());
+			primaryServer.stop();
+
+			// The restarted primary is at sequence number 2 with other books
+			CertainBookStore restartedStore = new CertainBookStore();
+			restartedStore.addBooks(books(TEST_ISBN + 1));
+			restartedStore.addBooks(books(TEST_ISBN + 2));
+			BookStoreHTTPMessageHandler restartedHandler = new BookStoreHTTPMessageHandler(
+					restartedStore);
+			primaryServer = startServer(restartedHandler, port);
+			// The replicator may first wait out a long poll the stopped
+			// primary never answers
+			long deadline = System.currentTimeMillis() + 4 * WAIT_MILLISECS;
+			while (replicator.getAppliedEpoch() != restartedStore.getEpoch()
+					&& System.currentTimeMillis() < deadline) {
+				replicator.awaitSequence(Long.MAX_VALUE, 10);
+			}
+			assertEquals(restartedStore.getEpoch(),
+					replicator.getAppliedEpoch());
+			assertEquals(2, replicator.getAppliedSequence());
+			assertSameCatalog(restartedStore.getBooks(),
+					replicaStore.getBooks());
+
+			// The replica does not wait for sequence number 4 of the old
+			// epoch
+			client.rateBooks(Collections.singleton(new BookRating(
+					TEST_ISBN + 1, 5)));
+			assertEquals(restartedStore.getEpoch(), client.getSessionEpoch());
+			assertEquals(3, client.getSessionToken());
+			assertEquals(TEST_ISBN + 1, client.getTopRatedBooks(1).get(0)
+					.getISBN());
+			assertEquals(0, restartedHandler.getMetrics().getRequests(
+					BookStoreMessageTag.GETTOPRATEDBOOKS));
+		} finally {
+			client.stop();
+			replicator.stop();
+			replicaServer.stop();
+			primaryServer.stop();
+		}
+	}
+}
@@ -0,0 +1,358 @@
+package com.acertainbookstore.client.tests;
+
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.bookSet;
+import static com.acertainbookstore.client.tests.BookStoreTestUtility.copySet;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.persistence.CheckpointStore;
+import com.acertainbookstore.persistence.WriteAheadLog;
+import com.acertainbookstore.persistence.WriteAheadLog.DurabilityMode;
+import com.acertainbookstore.utils.BatchOperation;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreMessageTag;
+
+/**
+ * Test class to test that the write-ahead log and the checkpoints keep the
+ * changes of the bookstore across restarts
+ *
+ */
+public class WriteAheadLogTest {
+
+	private static final int TEST_ISBN = 3044560;
+	private static final int NUM_COPIES = BookStoreTestUtility.NUM_COPIES;
+	private File directory;
+
+	@Before
+	public void setUp() throws IOException {
+		directory = Files.createTempDirectory("wal").toFile();
+	}
+
+	@After
+	public void tearDown() {
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+	private static StockBook getBook(CertainBookStore store, int isbn)
+			throws BookStoreException {
+		Set<Integer> isbns = new HashSet<Integer>();
+		isbns.add(isbn);
+		return store.getBooksByISBN(isbns).get(0);
+	}
+
+	private List<Object> readAll(WriteAheadLog log) throws IOException,
+			BookStoreException {
+		final List<Object> records = new ArrayList<Object>();
+		log.replay(new WriteAheadLog.RecordHandler() {
+			public void onRecord(long lsn, Object record) {
+				assertEquals(records.size() + 1, lsn);
+				records.add(record);
+			}
+		});
+		return records;
+	}
+
+	/**
+	 * Tests that a bookstore opened on the log of another ends up in the same
+	 * state, including the sale misses of a failed purchase
+	 */
+	@Test
+	public void testReplay() throws IOException, BookStoreException {
+		WriteAheadLog log = new WriteAheadLog(directory, DurabilityMode.FSYNC);
+		CertainBookStore store = new CertainBookStore(log);
+		store.addBooks(bookSet(TEST_ISBN));
+		store.addBooks(bookSet(TEST_ISBN + 1));
+		store.addCopies(copySet(TEST_ISBN, 2));
+		store.buyBooks(copySet(TEST_ISBN, 3));
+		try {
+			store.buyBooks(copySet(TEST_ISBN, NUM_COPIES + 10));
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(TEST_ISBN, 4));
+		store.rateBooks(ratings);
+		Set<BookEditorPick> editorPicks = new HashSet<BookEditorPick>();
+		editorPicks.add(new BookEditorPick(TEST_ISBN, true));
+		store.updateEditorPicks(editorPicks);
+		Set<Integer> removed = new HashSet<Integer>();
+		removed.add(TEST_ISBN + 1);
+		store.removeBooks(removed);
+		StockBook before = getBook(store, TEST_ISBN);
+		log.close();
+
+		log = new WriteAheadLog(directory, DurabilityMode.FSYNC);
+		CertainBookStore replayed = new CertainBookStore(log);
+		StockBook after = getBook(replayed, TEST_ISBN);
+		assertEquals(1, replayed.getBooks().size());
+		assertTrue(after.getNumCopies() == before.getNumCopies()
+				&& after.getSaleMisses() == before.getSaleMisses()
+				&& after.getSaleMisses() > 0
+				&& after.getTimesRated() == 1
+				&& after.getTotalRating() == 4 && after.isEditorPick());
+
+		// Replaying must not log the operations again
+		long lastAppended = log.getLastAppended();
+		replayed.addCopies(copySet(TEST_ISBN, 1));
+		assertEquals(lastAppended + 1, log.getLastAppended());
+		log.close();
+	}
+
+	private static void assertSameBooks(CertainBookStore expected,
+			CertainBookStore actual) throws BookStoreException {
+		assertEquals(expected.getBooks().size(), actual.getBooks().size());
+		for (StockBook book : expected.getBooks()) {
+			StockBook other = getBook(actual, book.getISBN());
+			assertTrue(other.getTitle().equals(book.getTitle())
+					&& other.getNumCopies() == book.getNumCopies()
+					&& other.getSaleMisses() == book.getSaleMisses()
+					&& other.getTimesRated() == book.getTimesRated()
+					&& other.getTotalRating() == book.getTotalRating()
+					&& other.isEditorPick() == book.isEditorPick());
+		}
+		assertEquals(expected.getBooksInDemand().size(), actual
+				.getBooksInDemand().size());
+	}
+
+	/**
+	 * Changes the books of the store, so that the log grows by a few records
+	 */
+	private static void changeBooks(CertainBookStore store, int isbn)
+			throws BookStoreException {
+		store.addBooks(bookSet(isbn));
+		store.addCopies(copySet(isbn, 3));
+		try {
+			store.buyBooks(copySet(isbn, 100));
+		} catch (BookStoreException ex) {
+			;
+		}
+		Set<BookRating> ratings = new HashSet<BookRating>();
+		ratings.add(new BookRating(isbn, isbn % 6));
+		store.rateBooks(ratings);
+	}
+
+	/**
+	 * Tests that a restart starts from the newest checkpoint and the records
+	 * after it, and that checkpoints truncate the log
+	 */
+	@Test
+	public void testCheckpoint() throws IOException, BookStoreException {
+		WriteAheadLog log = new WriteAheadLog(directory, DurabilityMode.NONE,
+				256, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MILLIS);
+		CertainBookStore store = new CertainBookStore(log, new CheckpointStore(
+				directory));
+		for (int isbn = 1; isbn <= 20; isbn++) {
+			changeBooks(store, isbn);
+		}
+		long firstCheckpoint = store.checkpoint();
+		assertEquals(log.getLastAppended(), firstCheckpoint);
+		assertEquals(firstCheckpoint, store.checkpoint());
+		for (int isbn = 21; isbn <= 40; isbn++) {
+			changeBooks(store, isbn);
+		}
+		store.checkpoint();
+		for (int isbn = 41; isbn <= 45; isbn++) {
+			changeBooks(store, isbn);
+		}
+		log.close();
+
+		// Only the segments after the older checkpoint are kept
+		try {
+			log = new WriteAheadLog(directory, DurabilityMode.NONE);
+			log.replay(0, new WriteAheadLog.RecordHandler() {
+				public void onRecord(long lsn, Object record) {
+				}
+			});
+			fail();
+		} catch (IOException ex) {
+			;
+		}
+		log.close();
+
+		log = new WriteAheadLog(directory, DurabilityMode.NONE);
+		CertainBookStore restarted = new CertainBookStore(log,
+				new CheckpointStore(directory));
+		assertSameBooks(store, restarted);
+		log.close();
+	}
+
+	/**
+	 * Tests that a corrupt checkpoint is skipped in favor of the one before
+	 * it
+	 */
+	@Test
+	public void testCorruptCheckpoint() throws IOException, BookStoreException {
+		WriteAheadLog log = new WriteAheadLog(directory, DurabilityMode.NONE,
+				256, WriteAheadLog.DEFAULT_SYNC_INTERVAL_MILLIS);
+		CertainBookStore store = new CertainBookStore(log, new CheckpointStore(
+				directory));
+		changeBooks(store, 1);
+		store.checkpoint();
+		changeBooks(store, 2);
+		long lsn = store.checkpoint();
+		changeBooks(store, 3);
+		log.close();
+
+		RandomAccessFile checkpoint = new RandomAccessFile(new File(directory,
+				String.format("checkpoint-%020d.snap", lsn)), "rw");
+		checkpoint.seek(30);
+		checkpoint.write(checkpoint.read() ^ 0xff);
+		checkpoint.close();
+
+		log = new WriteAheadLog(directory, DurabilityMode.NONE);
+		CheckpointStore checkpoints = new CheckpointStore(directory);
+		CertainBookStore restarted = new CertainBookStore(log, checkpoints);
+		assertSameBooks(store, restarted);
+		assertEquals(1, checkpoints.getSkippedCheckpoints().size());
+		log.close();
+	}
+
+	/**
+	 * Tests that an atomic batch that was rolled back is not replayed while
+	 * one that succeeded is
+	 */
+	@Test
+	public void testAtomicBatch() throws IOException, BookStoreException {
+		WriteAheadLog log = new WriteAheadLog(directory, DurabilityMode.NONE);
+		CertainBookStore store = new CertainBookStore(log);
+		store.addBooks(bookSet(TEST_ISBN));
+
+		List<BatchOperation> failing = new ArrayList<BatchOperation>();
+		failing.add(new BatchOperation(BookStoreMessageTag.ADDCOPIES, copySet(
+				TEST_ISBN, 2)));
+		failing.add(new BatchOperation(BookStoreMessageTag.BUYBOOKS, copySet(
+				TEST_ISBN, NUM_COPIES + 10)));
+		try {
+			store.executeBatch(failing, true);
+			fail();
+		} catch (BookStoreException ex) {
+			;
+		}
+		List<BatchOperation> succeeding = new ArrayList<BatchOperation>();
+		succeeding.add(new BatchOperation(BookStoreMessageTag.ADDCOPIES,
+				copySet(TEST_ISBN, 2)));
+		succeeding.add(new BatchOperation(BookStoreMessageTag.BUYBOOKS,
+				copySet(TEST_ISBN, 1)));
+		store.executeBatch(succeeding, true);
+		assertEquals(2, log.getLastAppended());
+		log.close();
+
+		log = new WriteAheadLog(directory, DurabilityMode.NONE);
+		StockBook book = getBook(new CertainBookStore(log), TEST_ISBN);
+		assertTrue(book.getNumCopies() == NUM_COPIES + 1
+				&& book.getSaleMisses() == 0);
+		log.close();
+	}
+
+	/**
+	 * Tests that a record torn by a crash is cut off when the log is opened
+	 * and that new records follow the last complete one
+	 */
+	@Test
+	public void testTornTail() throws IOException, BookStoreException {
+		WriteAheadLog log = new WriteAheadLog(directory, DurabilityMode.FSYNC);
+		log.sync(log.append(bookSet(TEST_ISBN)));
+		log.sync(log.append(copySet(TEST_ISBN, 1)));
+		log.close();
+
+		File[] segments = directory.listFiles();
+		assertEquals(1, segments.length);
+		long length = segments[0].length();
+		FileOutputStream out = new FileOutputStream(segments[0], true);
+		out.write(new byte[] { 0, 0, 0, 42, 0, 0 });
+		out.close();
+
+		log = new WriteAheadLog(directory, DurabilityMode.FSYNC);
+		assertEquals(length, segments[0].length());
+		assertEquals(2, log.getLastAppended());
+		assertEquals(3, log.append(copySet(TEST_ISBN, 2)));
+		assertEquals(3, readAll(log).size());
+		log.close();
+	}
+
+	/**
+	 * Tests that the log rolls over to new segments and replays across them
+	 * in order
+	 */
+	@Test
+	public void testSegments() throws IOException, BookStoreException {
+		WriteAheadLog log = new WriteAheadLog(directory,
+				DurabilityMode.PERIODIC, 256, 10);
+		for (int i = 1; i <= 50; i++) {
+			assertEquals(i, log.append(copySet(i, i)));
+		}
+		log.close();
+		assertTrue(directory.listFiles().length > 1);
+
+		log = new WriteAheadLog(directory, DurabilityMode.PERIODIC, 256, 10);
+		List<Object> records = readAll(log);
+		assertEquals(50, records.size());
+		for (int i = 1; i <= 50; i++) {
+			assertEquals(copySet(i, i), records.get(i - 1));
+		}
+		log.close();
+	}
+
+	/**
+	 * Tests that concurrent committers all get their records durable and
+	 * replayed exactly once
+	 */
+	@Test
+	public void testGroupCommit() throws Exception {
+		final WriteAheadLog log = new WriteAheadLog(directory,
+				DurabilityMode.FSYNC);
+		final int numThreads = 8;
+		final int numRecords = 25;
+		final List<Exception> errors = new ArrayList<Exception>();
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; t++) {
+			final int isbn = t + 1;
+			threads[t] = new Thread() {
+				public void run() {
+					try {
+						for (int i = 0; i < numRecords; i++) {
+							log.sync(log.append(copySet(isbn, i + 1)));
+						}
+					} catch (Exception ex) {
+						synchronized (errors) {
+							errors.add(ex);
+						}
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertTrue(errors.isEmpty());
+		assertEquals(numThreads * numRecords, log.getLastAppended());
+		log.close();
+
+		WriteAheadLog reopened = new WriteAheadLog(directory,
+				DurabilityMode.FSYNC);
+		assertEquals(numThreads * numRecords, readAll(reopened).size());
+		reopened.close();
+	}
+}
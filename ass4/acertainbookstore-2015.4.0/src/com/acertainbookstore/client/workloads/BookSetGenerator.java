@@ -1,15 +1,9 @@
 package com.acertainbookstore.client.workloads;
 
-import java.awt.event.ItemEvent;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Random;
 import java.util.Set;
-import java.util.TreeSet;
-
-import sun.reflect.generics.reflectiveObjects.NotImplementedException;
 
 import com.acertainbookstore.business.ImmutableStockBook;
 import com.acertainbookstore.business.StockBook;
@@ -17,13 +11,20 @@ import com.acertainbookstore.business.StockBook;
 /**
  * Helper class to generate stockbooks and isbns modelled similar to Random
  * class
+ * 
+ * The isbns are sampled following a PopularityDistribution, the books with
+ * the lowest isbns being the most popular
  */
 public class BookSetGenerator {
+  // Draws of the distribution before the rest of a sample is drawn uniformly,
+  // per isbn sampled
+  private static final int MAX_DRAWS_PER_ISBN = 16;
 
-  private static final Random ran = new Random();
   private static final char[] chars;
+  private final Random ran = new Random();
   private int titleLength;
   private int authorLength;
+  private PopularityDistribution distribution;
   static {
     StringBuilder tmp = new StringBuilder();
     for(char c = '0'; c <= '9'; c++) {
@@ -37,22 +38,72 @@ public class BookSetGenerator {
   }
   
   public BookSetGenerator(int titleLength, int authorLength) {
+    this(titleLength, authorLength, PopularityDistribution.uniform());
+  }
+
+  public BookSetGenerator(int titleLength, int authorLength,
+      PopularityDistribution distribution) {
     this.titleLength = titleLength;
     this.authorLength = authorLength;
+    this.distribution = distribution;
   }
 
   /**
-   * Returns num randomly selected isbns from the input set
-   * 
-   * Combination of negative algorithm and
+   * Returns num isbns selected from the input set following the popularity
+   * distribution
    * 
    * @param num
    * @return
    */
   public Set<Integer> sampleFromSetOfISBNs(Set<Integer> isbns, int num) {
-    List<Integer> l = new ArrayList<>(isbns);
-    Collections.shuffle(l);
-    return new HashSet<Integer>(l.subList(0, num));
+    Integer[] ranked = isbns.toArray(new Integer[isbns.size()]);
+    Arrays.sort(ranked);
+    Set<Integer> res = new HashSet<>();
+    for (int rank : sampleRanks(ranked.length, num)) {
+      res.add(ranked[rank]);
+    }
+    return res;
+  }
+
+  /**
+   * Returns num isbns selected from the catalog of the isbns 1 to
+   * catalogSize following the popularity distribution, in O(num) time
+   * 
+   * @param catalogSize
+   * @param num
+   * @return
+   */
+  public Set<Integer> sampleFromCatalog(int catalogSize, int num) {
+    Set<Integer> res = new HashSet<>();
+    for (int rank : sampleRanks(catalogSize, num)) {
+      res.add(rank + 1);
+    }
+    return res;
+  }
+
+  /**
+   * Returns min(num, numBooks) distinct ranks in [0, numBooks)
+   * 
+   * The ranks are drawn from the distribution until enough distinct ones are
+   * found. Should a skewed distribution keep drawing the same ranks, the rest
+   * are drawn uniformly.
+   */
+  private Set<Integer> sampleRanks(int numBooks, int num) {
+    Set<Integer> ranks = new HashSet<>();
+    if (num >= numBooks) {
+      for (int rank = 0; rank < numBooks; rank++) {
+        ranks.add(rank);
+      }
+      return ranks;
+    }
+    for (int draws = 0; ranks.size() < num
+        && draws < MAX_DRAWS_PER_ISBN * num; draws++) {
+      ranks.add(distribution.nextRank(ran, numBooks));
+    }
+    while (ranks.size() < num) {
+      ranks.add(ran.nextInt(numBooks));
+    }
+    return ranks;
   }
 
   /**
@@ -72,7 +123,7 @@ public class BookSetGenerator {
       for(int i = 0; i < titleLength; i++) {
         title[i] = chars[ran.nextInt(chars.length)];
       }
-      res.add(new ImmutableStockBook(ran.nextInt(Integer.MAX_VALUE-1)+1, title.toString(), author.toString(), 1, 100,
+      res.add(new ImmutableStockBook(ran.nextInt(Integer.MAX_VALUE-1)+1, new String(title), new String(author), 1, 100,
           0, 0, 0, true));
     }
     return res;
@@ -29,7 +29,6 @@ import com.acertainbookstore.interfaces.BookStore;
 import com.acertainbookstore.interfaces.StockManager;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
-import com.sun.xml.internal.ws.api.ha.StickyFeature;
 
 /**
  * 
@@ -39,6 +38,9 @@ import com.sun.xml.internal.ws.api.ha.StickyFeature;
  * 
  */
 public class CertainWorkload {
+  private static final int DEFAULT_CATALOG_SIZE = 1000;
+  // Books added per request while seeding the catalog
+  private static final int SEED_BATCH_SIZE = 10000;
 
   /**
    * @param args
@@ -47,8 +49,6 @@ public class CertainWorkload {
     int numConcurrentWorkloadThreads = 2;
         String serverAddress = "http://localhost:8081";
     boolean localTest = true;
-    List<WorkerRunResult> workerRunResults = new ArrayList<WorkerRunResult>();
-    List<Future<WorkerRunResult>> runResults = new ArrayList<Future<WorkerRunResult>>();
 
     // Initialize the RPC interfaces if its not a localTest, the variable is
     // overriden if the property is set
@@ -57,6 +57,27 @@ public class CertainWorkload {
     localTest = (localTestProperty != null) ? Boolean
         .parseBoolean(localTestProperty) : localTest;
 
+    // Interactions started per second by all workers together, 0 to run the
+    // workers in a closed loop
+    String rateProperty = System
+        .getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_RATE);
+    double rate = (rateProperty != null) ? Double.parseDouble(rateProperty)
+        : 0;
+    String catalogSizeProperty = System
+        .getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_CATALOG_SIZE);
+    int catalogSize = (catalogSizeProperty != null) ? Integer
+        .parseInt(catalogSizeProperty) : DEFAULT_CATALOG_SIZE;
+    String popularityProperty = System
+        .getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_POPULARITY);
+    PopularityDistribution popularity = PopularityDistribution.uniform();
+    if (popularityProperty != null) {
+      popularity = PopularityDistribution.parse(popularityProperty);
+    }
+    String ratingPercentProperty = System
+        .getProperty(BookStoreConstants.PROPERTY_KEY_WORKLOAD_RATING_PERCENT);
+    float ratingPercent = (ratingPercentProperty != null) ? Float
+        .parseFloat(ratingPercentProperty) : 0f;
+
     BookStore bookStore = null;
     StockManager stockManager = null;
     if (localTest) {
@@ -70,17 +91,22 @@ public class CertainWorkload {
     }
 
     // Generate data in the bookstore before running the workload
-    initializeBookStoreData(bookStore, stockManager);
+    initializeBookStoreData(bookStore, stockManager, catalogSize);
     while (numConcurrentWorkloadThreads <= 32) {
       if (numConcurrentWorkloadThreads == 32) {
         numConcurrentWorkloadThreads = 24;
       }
+      List<WorkerRunResult> workerRunResults = new ArrayList<WorkerRunResult>();
+      List<Future<WorkerRunResult>> runResults = new ArrayList<Future<WorkerRunResult>>();
       ExecutorService exec = Executors
           .newFixedThreadPool(numConcurrentWorkloadThreads);
 
       for (int i = 0; i < numConcurrentWorkloadThreads; i++) {
         WorkloadConfiguration config = new WorkloadConfiguration(bookStore,
-            stockManager);
+            stockManager, popularity);
+        config.setTargetInteractionsPerSec(rate / numConcurrentWorkloadThreads);
+        config.setCatalogSize(catalogSize);
+        config.setPercentRatingInteraction(ratingPercent);
         Worker workerTask = new Worker(config);
         // Keep the futures to wait for the result from the thread
         runResults.add(exec.submit(workerTask));
@@ -94,23 +120,28 @@ public class CertainWorkload {
 
       exec.shutdownNow(); // shutdown the executor
 
-      // Finished initialization, stop the clients if not localTest
-      if (!localTest) {
-        ((BookStoreHTTPProxy) bookStore).stop();
-        ((StockManagerHTTPProxy) stockManager).stop();
-      }
-
-      reportMetric(workerRunResults);
+      reportMetric(numConcurrentWorkloadThreads, workerRunResults);
       numConcurrentWorkloadThreads *= 2;
     }
+
+    // Finished the runs, stop the clients if not localTest
+    if (!localTest) {
+      ((BookStoreHTTPProxy) bookStore).stop();
+      ((StockManagerHTTPProxy) stockManager).stop();
+    }
   }
 
   /**
    * Computes the metrics and prints them
    * 
+   * The latencies of all the workers are merged per interaction and reported
+   * as percentiles in microseconds
+   * 
+   * @param numWorkers
    * @param workerRunResults
    */
-  public static void reportMetric(List<WorkerRunResult> workerRunResults) {
+  public static void reportMetric(int numWorkers,
+      List<WorkerRunResult> workerRunResults) {
     // TODO: You should aggregate metrics and output them for plotting here
 
     double totElapsed = 0;
@@ -126,30 +157,59 @@ public class CertainWorkload {
       }
     }
 
-    List<String> lines = Arrays.asList("throughput=" + (int) aggrThroughput,
-        "latency=" + totElapsed / workerRunResults.size());
+    List<String> lines = new ArrayList<String>(Arrays.asList("threads="
+        + numWorkers, "throughput=" + (int) aggrThroughput, "latency="
+        + totElapsed / workerRunResults.size()));
+    for (Interaction interaction : Interaction.values()) {
+      LatencyHistogram latencies = new LatencyHistogram();
+      for (WorkerRunResult res : workerRunResults) {
+        latencies.add(res.getLatencies().get(interaction));
+      }
+      if (latencies.getTotalCount() == 0) {
+        continue;
+      }
+      lines.add("latency." + interaction.getName() + " count="
+          + latencies.getTotalCount() + " p50="
+          + micros(latencies.getValueAtPercentile(50)) + " p90="
+          + micros(latencies.getValueAtPercentile(90)) + " p99="
+          + micros(latencies.getValueAtPercentile(99)) + " p99.9="
+          + micros(latencies.getValueAtPercentile(99.9)) + " max="
+          + micros(latencies.getMax()));
+    }
+    for (String line : lines) {
+      System.out.println(line);
+    }
     Path file = Paths.get("./test/dataOfflineNewNew.txt");
     try {
-      Files.write(file, lines, Charset.forName("UTF-8"), StandardOpenOption.APPEND);
+      Files.write(file, lines, Charset.forName("UTF-8"),
+          StandardOpenOption.CREATE, StandardOpenOption.APPEND);
     } catch (IOException e) {
       // TODO Auto-generated catch block
       e.printStackTrace();
     }
   }
 
+  private static String micros(long nanoSecs) {
+    return String.format("%.1f", nanoSecs / 1000.0);
+  }
+
   /**
    * Generate the data in bookstore before the workload interactions are run
    * 
-   * Ignores the serverAddress if its a localTest
+   * Adds the books with the isbns 1 to catalogSize, a batch at a time so that
+   * large catalogs do not have to be held in memory or sent at once
    * 
    */
   public static void initializeBookStoreData(BookStore bookStore,
-      StockManager stockManager) throws BookStoreException {
-    Set<StockBook> initBooks = new HashSet<>();
-    for (int i = 1; i <= 9; i++) {
-      initBooks.add(new ImmutableStockBook(i, "BookPrjct" + i, "MonkeyNum" + i,
-          i, 10000, 0, 0, 0, true));
+      StockManager stockManager, int catalogSize) throws BookStoreException {
+    for (int first = 1; first <= catalogSize; first += SEED_BATCH_SIZE) {
+      Set<StockBook> initBooks = new HashSet<>();
+      int last = Math.min(catalogSize, first + SEED_BATCH_SIZE - 1);
+      for (int i = first; i <= last; i++) {
+        initBooks.add(new ImmutableStockBook(i, "BookPrjct" + i, "MonkeyNum"
+            + i, i, 10000, 0, 0, 0, true));
+      }
+      stockManager.addBooks(initBooks);
     }
-    stockManager.addBooks(initBooks);
   }
 }
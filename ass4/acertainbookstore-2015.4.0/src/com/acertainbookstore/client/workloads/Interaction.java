@@ -0,0 +1,22 @@
+package com.acertainbookstore.client.workloads;
+
+/**
+ * Interaction lists the interactions a Worker runs, with the names their
+ * latencies are reported under
+ *
+ */
+public enum Interaction {
+	RARE_STOCK_MANAGER("newStockAcquisition"), FREQUENT_STOCK_MANAGER(
+			"stockReplenishment"), FREQUENT_BOOK_STORE("customer"), RATING(
+			"rating");
+
+	private final String name;
+
+	private Interaction(String name) {
+		this.name = name;
+	}
+
+	public String getName() {
+		return name;
+	}
+}
@@ -0,0 +1,88 @@
+package com.acertainbookstore.client.workloads;
+
+import com.acertainbookstore.utils.HistogramBuckets;
+
+/**
+ * LatencyHistogram counts latencies in nanoseconds in buckets whose width
+ * grows with the latency, so that any latency is kept with a relative error
+ * below 1% in a fixed amount of memory.
+ *
+ * The latencies are counted in the buckets of HistogramBuckets with
+ * SUB_BUCKET_BITS. Histograms are merged by adding their counts, so the
+ * workers can each record into their own histogram without synchronization.
+ *
+ */
+public class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 8;
+	private static final HistogramBuckets BUCKETS = new HistogramBuckets(
+			SUB_BUCKET_BITS);
+
+	private final long[] counts = new long[BUCKETS.getNumBuckets()];
+	private long totalCount = 0;
+	private long totalLatency = 0;
+	private long minLatency = Long.MAX_VALUE;
+	private long maxLatency = 0;
+
+	/**
+	 * Records one latency, negative latencies count as 0
+	 *
+	 * @param latencyInNanoSecs
+	 */
+	public void record(long latencyInNanoSecs) {
+		long latency = Math.max(latencyInNanoSecs, 0);
+		counts[BUCKETS.bucketOf(latency)]++;
+		totalCount++;
+		totalLatency += latency;
+		minLatency = Math.min(minLatency, latency);
+		maxLatency = Math.max(maxLatency, latency);
+	}
+
+	/**
+	 * Adds the latencies recorded in the other histogram to this one
+	 *
+	 * @param other
+	 */
+	public void add(LatencyHistogram other) {
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		totalCount += other.totalCount;
+		totalLatency += other.totalLatency;
+		minLatency = Math.min(minLatency, other.minLatency);
+		maxLatency = Math.max(maxLatency, other.maxLatency);
+	}
+
+	public long getTotalCount() {
+		return totalCount;
+	}
+
+	public long getMin() {
+		return totalCount == 0 ? 0 : minLatency;
+	}
+
+	public long getMax() {
+		return maxLatency;
+	}
+
+	public double getMean() {
+		return totalCount == 0 ? 0 : (double) totalLatency / totalCount;
+	}
+
+	/**
+	 * Returns the latency below or at which the percentile of the recorded
+	 * latencies are, rounded up to the end of its bucket, 0 if none were
+	 * recorded
+	 *
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return
+	 */
+	public long getValueAtPercentile(double percentile) {
+		if (totalCount == 0) {
+			return 0;
+		}
+		return Math.min(Math.max(
+				BUCKETS.valueAtPercentile(counts, totalCount, percentile),
+				minLatency), maxLatency);
+	}
+}
@@ -0,0 +1,192 @@
+package com.acertainbookstore.client.workloads;
+
+import java.util.Random;
+
+/**
+ * PopularityDistribution draws the popularity rank of the book a customer
+ * picks, 0 being the most popular book.
+ *
+ * The distributions are uniform, Zipf with a tunable skew and hotspot, where a
+ * fraction of the books gets a fixed share of the picks. A draw takes constant
+ * time whatever the number of books, so the number can change from one draw
+ * to the next.
+ *
+ */
+public abstract class PopularityDistribution {
+
+	/**
+	 * Returns a rank in [0, numBooks)
+	 *
+	 * @param random
+	 * @param numBooks
+	 * @return
+	 */
+	public abstract int nextRank(Random random, int numBooks);
+
+	public static PopularityDistribution uniform() {
+		return new Uniform();
+	}
+
+	/**
+	 * Returns the Zipf distribution picking the book of rank r with a
+	 * probability proportional to 1 / (r + 1)^skew
+	 *
+	 * @param skew
+	 *            positive, 0.99 being the usual skew of bestsellers
+	 * @return
+	 */
+	public static PopularityDistribution zipf(double skew) {
+		return new Zipf(skew);
+	}
+
+	/**
+	 * Returns the distribution picking the hotFraction most popular books
+	 * with a probability of hotProbability, uniformly within the hot and the
+	 * cold books
+	 *
+	 * @param hotFraction
+	 * @param hotProbability
+	 * @return
+	 */
+	public static PopularityDistribution hotspot(double hotFraction,
+			double hotProbability) {
+		return new Hotspot(hotFraction, hotProbability);
+	}
+
+	/**
+	 * Parses a distribution written as uniform, zipf:skew or
+	 * hotspot:hotFraction:hotProbability
+	 *
+	 * @param distribution
+	 * @return
+	 */
+	public static PopularityDistribution parse(String distribution) {
+		String[] parts = distribution.trim().split(":");
+		try {
+			if (parts[0].equals("uniform") && parts.length == 1) {
+				return uniform();
+			} else if (parts[0].equals("zipf") && parts.length == 2) {
+				return zipf(Double.parseDouble(parts[1]));
+			} else if (parts[0].equals("hotspot") && parts.length == 3) {
+				return hotspot(Double.parseDouble(parts[1]),
+						Double.parseDouble(parts[2]));
+			}
+		} catch (NumberFormatException ex) {
+			throw new IllegalArgumentException("Invalid distribution "
+					+ distribution, ex);
+		}
+		throw new IllegalArgumentException("Invalid distribution "
+				+ distribution);
+	}
+
+	private static final class Uniform extends PopularityDistribution {
+		@Override
+		public int nextRank(Random random, int numBooks) {
+			return random.nextInt(numBooks);
+		}
+
+		@Override
+		public String toString() {
+			return "uniform";
+		}
+	}
+
+	/**
+	 * Draws by rejection-inversion (Hoermann and Derflinger, 1996), which
+	 * needs no table of the probabilities and rejects few draws
+	 */
+	private static final class Zipf extends PopularityDistribution {
+		private final double skew;
+		private final double hIntegralX1;
+		private final double s;
+
+		private Zipf(double skew) {
+			if (!(skew > 0)) {
+				throw new IllegalArgumentException("The skew must be positive");
+			}
+			this.skew = skew;
+			hIntegralX1 = hIntegral(1.5) - 1;
+			s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+		}
+
+		@Override
+		public int nextRank(Random random, int numBooks) {
+			double hIntegralN = hIntegral(numBooks + 0.5);
+			while (true) {
+				double u = hIntegralN + random.nextDouble()
+						* (hIntegralX1 - hIntegralN);
+				double x = hIntegralInverse(u);
+				int k = (int) (x + 0.5);
+				k = Math.min(Math.max(k, 1), numBooks);
+				if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+					return k - 1;
+				}
+			}
+		}
+
+		private double h(double x) {
+			return Math.exp(-skew * Math.log(x));
+		}
+
+		private double hIntegral(double x) {
+			double logX = Math.log(x);
+			return helper2((1 - skew) * logX) * logX;
+		}
+
+		private double hIntegralInverse(double x) {
+			double t = Math.max(x * (1 - skew), -1);
+			return Math.exp(helper1(t) * x);
+		}
+
+		// log(1 + x) / x, accurate near 0
+		private static double helper1(double x) {
+			if (Math.abs(x) > 1e-8) {
+				return Math.log1p(x) / x;
+			}
+			return 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+		}
+
+		// (exp(x) - 1) / x, accurate near 0
+		private static double helper2(double x) {
+			if (Math.abs(x) > 1e-8) {
+				return Math.expm1(x) / x;
+			}
+			return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+		}
+
+		@Override
+		public String toString() {
+			return "zipf:" + skew;
+		}
+	}
+
+	private static final class Hotspot extends PopularityDistribution {
+		private final double hotFraction;
+		private final double hotProbability;
+
+		private Hotspot(double hotFraction, double hotProbability) {
+			if (hotFraction < 0 || hotFraction > 1 || hotProbability < 0
+					|| hotProbability > 1) {
+				throw new IllegalArgumentException(
+						"The hot fraction and probability must be in [0, 1]");
+			}
+			this.hotFraction = hotFraction;
+			this.hotProbability = hotProbability;
+		}
+
+		@Override
+		public int nextRank(Random random, int numBooks) {
+			int hotBooks = Math.min(
+					Math.max((int) (hotFraction * numBooks), 1), numBooks);
+			if (hotBooks == numBooks || random.nextDouble() < hotProbability) {
+				return random.nextInt(hotBooks);
+			}
+			return hotBooks + random.nextInt(numBooks - hotBooks);
+		}
+
+		@Override
+		public String toString() {
+			return "hotspot:" + hotFraction + ":" + hotProbability;
+		}
+	}
+}
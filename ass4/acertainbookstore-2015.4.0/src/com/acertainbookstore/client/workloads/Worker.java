@@ -5,12 +5,13 @@ package com.acertainbookstore.client.workloads;
 
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
 
-import com.acertainbookstore.business.Book;
 import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
-import org.eclipse.jetty.webapp.Configuration;
 
 /**
  * 
@@ -28,24 +29,51 @@ public class Worker implements Callable<WorkerRunResult> {
 	}
 
 	/**
-	 * Run the appropriate interaction while trying to maintain the configured
+	 * Chooses the interaction to run so as to maintain the configured
 	 * distributions
 	 * 
+	 * @param chooseInteraction
+	 * @return
+	 */
+	private Interaction chooseInteraction(float chooseInteraction) {
+		if (chooseInteraction < configuration
+				.getPercentRareStockManagerInteraction()) {
+			return Interaction.RARE_STOCK_MANAGER;
+		} else if (chooseInteraction < configuration
+				.getPercentFrequentStockManagerInteraction()) {
+			return Interaction.FREQUENT_STOCK_MANAGER;
+		} else if (chooseInteraction >= 100f - configuration
+				.getPercentRatingInteraction()) {
+			return Interaction.RATING;
+		}
+		return Interaction.FREQUENT_BOOK_STORE;
+	}
+
+	/**
+	 * Run the interaction
+	 * 
 	 * Updates the counts of total runs and successful runs for customer
 	 * interaction
 	 * 
-	 * @param chooseInteraction
+	 * @param interaction
 	 * @return
 	 */
-	private boolean runInteraction(float chooseInteraction) {
+	private boolean runInteraction(Interaction interaction) {
 		try {
-			if (chooseInteraction < configuration
-					.getPercentRareStockManagerInteraction()) {
+			switch (interaction) {
+			case RARE_STOCK_MANAGER:
 				runRareStockManagerInteraction();
-			} else if (chooseInteraction < configuration
-					.getPercentFrequentStockManagerInteraction()) {
+				break;
+			case FREQUENT_STOCK_MANAGER:
 				runFrequentStockManagerInteraction();
-			} else {
+				break;
+			case RATING:
+				// Rating is a customer interaction too
+				numTotalFrequentBookStoreInteraction++;
+				runRatingInteraction();
+				numSuccessfulFrequentBookStoreInteraction++;
+				break;
+			default:
 				numTotalFrequentBookStoreInteraction++;
 				runFrequentBookStoreInteraction();
 				numSuccessfulFrequentBookStoreInteraction++;
@@ -59,6 +87,12 @@ public class Worker implements Callable<WorkerRunResult> {
 	/**
 	 * Run the workloads trying to respect the distributions of the interactions
 	 * and return result in the end
+	 * 
+	 * The latency of every actual run is recorded in the histogram of its
+	 * interaction. If the configuration sets a rate the runs are open loop:
+	 * they are started on a fixed schedule and their latency is measured from
+	 * the time they were scheduled at, so that a slow run also counts the
+	 * delay it causes to the runs queued behind it.
 	 */
 	public WorkerRunResult call() throws Exception {
 		int count = 1;
@@ -68,32 +102,64 @@ public class Worker implements Callable<WorkerRunResult> {
 		long timeForRunsInNanoSecs = 0;
 
 		Random rand = new Random();
-		float chooseInteraction;
+		Interaction interaction;
 
 		// Perform the warmup runs
 		while (count++ <= configuration.getWarmUpRuns()) {
-			chooseInteraction = rand.nextFloat() * 100f;
-			runInteraction(chooseInteraction);
+			runInteraction(chooseInteraction(rand.nextFloat() * 100f));
 		}
 
 		count = 1;
 		numTotalFrequentBookStoreInteraction = 0;
 		numSuccessfulFrequentBookStoreInteraction = 0;
+		Map<Interaction, LatencyHistogram> latencies = new EnumMap<>(
+				Interaction.class);
+		for (Interaction i : Interaction.values()) {
+			latencies.put(i, new LatencyHistogram());
+		}
+		long intervalInNanoSecs = 0;
+		if (configuration.getTargetInteractionsPerSec() > 0) {
+			intervalInNanoSecs = (long) (1e9 / configuration
+					.getTargetInteractionsPerSec());
+		}
 
 		// Perform the actual runs
 		startTimeInNanoSecs = System.nanoTime();
+		long scheduledTimeInNanoSecs = startTimeInNanoSecs;
 		while (count++ <= configuration.getNumActualRuns()) {
-			chooseInteraction = rand.nextFloat() * 100f;
-			if (runInteraction(chooseInteraction)) {
+			interaction = chooseInteraction(rand.nextFloat() * 100f);
+			long runStartTimeInNanoSecs;
+			if (intervalInNanoSecs > 0) {
+				waitUntil(scheduledTimeInNanoSecs);
+				runStartTimeInNanoSecs = scheduledTimeInNanoSecs;
+				scheduledTimeInNanoSecs += intervalInNanoSecs;
+			} else {
+				runStartTimeInNanoSecs = System.nanoTime();
+			}
+			if (runInteraction(interaction)) {
 				successfulInteractions++;
 			}
+			latencies.get(interaction).record(
+					System.nanoTime() - runStartTimeInNanoSecs);
 		}
 		endTimeInNanoSecs = System.nanoTime();
 		timeForRunsInNanoSecs += (endTimeInNanoSecs - startTimeInNanoSecs);
 		return new WorkerRunResult(successfulInteractions,
 				timeForRunsInNanoSecs, configuration.getNumActualRuns(),
 				numSuccessfulFrequentBookStoreInteraction,
-				numTotalFrequentBookStoreInteraction);
+				numTotalFrequentBookStoreInteraction, latencies);
+	}
+
+	/**
+	 * Sleeps until the time, returns at once if it has passed
+	 * 
+	 * @param timeInNanoSecs
+	 */
+	private static void waitUntil(long timeInNanoSecs) {
+		long delay;
+		while ((delay = timeInNanoSecs - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(delay);
+		}
 	}
 
 	/**
@@ -130,7 +196,7 @@ public class Worker implements Callable<WorkerRunResult> {
       public int compare(StockBook b1, StockBook b2) {
         int a = b1.getNumCopies();
         int b = b2.getNumCopies();
-        return (a>b ? -1 : (a==b ? 0 : 1));
+        return (a<b ? -1 : (a==b ? 0 : 1));
       }
     });
     Set<StockBook> booksToAdd = new HashSet<>(snapShot.subList(0,configuration.getNumBooksWithLeastCopies()));
@@ -144,16 +210,14 @@ public class Worker implements Callable<WorkerRunResult> {
 	/**
 	 * Runs the customer interaction
 	 * 
+	 * The customer browses the editor picks, then buys books drawn from the
+	 * catalog following the popularity distribution
+	 * 
 	 * @throws BookStoreException
 	 */
 	private void runFrequentBookStoreInteraction() throws BookStoreException {
-		List<Book> potBooks = configuration.getBookStore().getEditorPicks(configuration.getNumEditorPicksToGet());
-		Set<Integer> isbns = new HashSet<>();
-		for(Book b : potBooks) {
-		  isbns.add(b.getISBN());
-		}
-		
-		Set<Integer> isbnsToBuy = configuration.getBookSetGenerator().sampleFromSetOfISBNs(isbns,configuration.getNumBooksToBuy());
+		configuration.getBookStore().getEditorPicks(configuration.getNumEditorPicksToGet());
+		Set<Integer> isbnsToBuy = configuration.getBookSetGenerator().sampleFromCatalog(configuration.getCatalogSize(), configuration.getNumBooksToBuy());
 		Set<BookCopy> booksToBuy = new HashSet<>();
 		for(Integer isbn : isbnsToBuy) {
 		  booksToBuy.add(new BookCopy(isbn, configuration.getNumBookCopiesToBuy()));
@@ -161,4 +225,19 @@ public class Worker implements Callable<WorkerRunResult> {
 		configuration.getBookStore().buyBooks(booksToBuy);
 	}
 
+	/**
+	 * Runs the rating interaction, rating books drawn from the catalog
+	 * following the popularity distribution
+	 * 
+	 * @throws BookStoreException
+	 */
+	private void runRatingInteraction() throws BookStoreException {
+		Set<Integer> isbnsToRate = configuration.getBookSetGenerator().sampleFromCatalog(configuration.getCatalogSize(), configuration.getNumBooksToRate());
+		Set<BookRating> ratings = new HashSet<>();
+		for(Integer isbn : isbnsToRate) {
+		  ratings.add(new BookRating(isbn, ThreadLocalRandom.current().nextInt(6)));
+		}
+		configuration.getBookStore().rateBooks(ratings);
+	}
+
 }
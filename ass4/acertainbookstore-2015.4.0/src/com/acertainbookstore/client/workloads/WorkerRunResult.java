@@ -1,5 +1,7 @@
 package com.acertainbookstore.client.workloads;
 
+import java.util.Map;
+
 /**
  * 
  * WorkerRunResult class represents the result returned by a worker class after
@@ -19,15 +21,19 @@ public class WorkerRunResult {
 	private int totalFrequentBookStoreInteractionRuns; // total number of
 														// bookstore interaction
 														// runs
+	// latencies of the runs of each interaction
+	private Map<Interaction, LatencyHistogram> latencies;
 
 	public WorkerRunResult(int successfulInteractions, long elapsedTimeInNanoSecs,
 			int totalRuns, int successfulFrequentBookStoreInteractionRuns,
-			int totalFrequentBookStoreInteractionRuns) {
+			int totalFrequentBookStoreInteractionRuns,
+			Map<Interaction, LatencyHistogram> latencies) {
 		this.setSuccessfulInteractions(successfulInteractions);
 		this.setElapsedTimeInNanoSecs(elapsedTimeInNanoSecs);
 		this.setTotalRuns(totalRuns);
 		this.setSuccessfulFrequentBookStoreInteractionRuns(successfulFrequentBookStoreInteractionRuns);
 		this.setTotalFrequentBookStoreInteractionRuns(totalFrequentBookStoreInteractionRuns);
+		this.setLatencies(latencies);
 	}
 
 	public int getTotalRuns() {
@@ -72,4 +78,12 @@ public class WorkerRunResult {
 		this.totalFrequentBookStoreInteractionRuns = totalFrequentBookStoreInteractionRuns;
 	}
 
+	public Map<Interaction, LatencyHistogram> getLatencies() {
+		return latencies;
+	}
+
+	public void setLatencies(Map<Interaction, LatencyHistogram> latencies) {
+		this.latencies = latencies;
+	}
+
 }
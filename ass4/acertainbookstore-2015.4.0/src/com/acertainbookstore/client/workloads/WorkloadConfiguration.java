@@ -16,10 +16,18 @@ public class WorkloadConfiguration {
 	private int numAddCopies = 10;
 	private int numBooksToAdd = 5;
 	private int numBooksWithLeastCopies = 5;
+	private int numBooksToRate = 5;
+	// the books seeded before the runs, with the isbns 1 to catalogSize
+	private int catalogSize = 9;
 	private int warmUpRuns = 100;
 	private int numActualRuns = 500;
 	private float percentRareStockManagerInteraction = 10f;
 	private float percentFrequentStockManagerInteraction = 40f;
+	// taken from the top of the range, out of the customer interactions
+	private float percentRatingInteraction = 0f;
+	// runs started per second on a fixed schedule, 0 to start each run when
+	// the previous one ends
+	private double targetInteractionsPerSec = 0;
 	private BookSetGenerator bookSetGenerator = null;
 	private StockManager stockManager = null;
 	private BookStore bookStore = null;
@@ -29,8 +37,15 @@ public class WorkloadConfiguration {
    private int authorLenght = 10;
 
 	public WorkloadConfiguration(BookStore bookStore, StockManager stockManager) throws Exception {
+		this(bookStore, stockManager, PopularityDistribution.uniform());
+	}
+
+	public WorkloadConfiguration(BookStore bookStore,
+			StockManager stockManager, PopularityDistribution popularity)
+			throws Exception {
 		// Create a new one so that it is not shared
-		bookSetGenerator = new BookSetGenerator(this.titleLenght,this.authorLenght);
+		bookSetGenerator = new BookSetGenerator(this.titleLenght,
+				this.authorLenght, popularity);
 		this.bookStore = bookStore;
 		this.stockManager = stockManager;
 	}
@@ -140,4 +155,36 @@ public class WorkloadConfiguration {
 	public void setBookSetGenerator(BookSetGenerator bookSetGenerator) {
 		this.bookSetGenerator = bookSetGenerator;
 	}
+
+	public double getTargetInteractionsPerSec() {
+		return targetInteractionsPerSec;
+	}
+
+	public void setTargetInteractionsPerSec(double targetInteractionsPerSec) {
+		this.targetInteractionsPerSec = targetInteractionsPerSec;
+	}
+
+	public int getNumBooksToRate() {
+		return numBooksToRate;
+	}
+
+	public void setNumBooksToRate(int numBooksToRate) {
+		this.numBooksToRate = numBooksToRate;
+	}
+
+	public int getCatalogSize() {
+		return catalogSize;
+	}
+
+	public void setCatalogSize(int catalogSize) {
+		this.catalogSize = catalogSize;
+	}
+
+	public float getPercentRatingInteraction() {
+		return percentRatingInteraction;
+	}
+
+	public void setPercentRatingInteraction(float percentRatingInteraction) {
+		this.percentRatingInteraction = percentRatingInteraction;
+	}
 }
@@ -0,0 +1,30 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookRating;
+
+/**
+ * AsyncBookStore declares the methods of the BookStore interface without
+ * blocking the caller. Each method returns as soon as the request is sent and
+ * the future is completed with the result, or exceptionally with a
+ * BookStoreException, when the response arrives. See the BookStore interface
+ * for comments on the individual methods.
+ * 
+ */
+public interface AsyncBookStore {
+
+	public CompletableFuture<Void> buyBooks(Set<BookCopy> booksToBuy);
+
+	public CompletableFuture<Void> rateBooks(Set<BookRating> bookRating);
+
+	public CompletableFuture<List<Book>> getBooks(Set<Integer> ISBNList);
+
+	public CompletableFuture<List<Book>> getTopRatedBooks(int numBooks);
+
+	public CompletableFuture<List<Book>> getEditorPicks(int numBooks);
+}
@@ -0,0 +1,37 @@
+package com.acertainbookstore.interfaces;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * AsyncStockManager declares the methods of the StockManager interface without
+ * blocking the caller. Each method returns as soon as the request is sent and
+ * the future is completed with the result, or exceptionally with a
+ * BookStoreException, when the response arrives. See the StockManager
+ * interface for comments on the individual methods.
+ * 
+ */
+public interface AsyncStockManager {
+
+	public CompletableFuture<Void> addBooks(Set<StockBook> bookSet);
+
+	public CompletableFuture<Void> addCopies(Set<BookCopy> bookCopiesSet);
+
+	public CompletableFuture<List<StockBook>> getBooks();
+
+	public CompletableFuture<List<StockBook>> getBooksByISBN(Set<Integer> isbns);
+
+	public CompletableFuture<List<StockBook>> getBooksInDemand();
+
+	public CompletableFuture<Void> updateEditorPicks(
+			Set<BookEditorPick> editorPicks);
+
+	public CompletableFuture<Void> removeAllBooks();
+
+	public CompletableFuture<Void> removeBooks(Set<Integer> isbnSet);
+}
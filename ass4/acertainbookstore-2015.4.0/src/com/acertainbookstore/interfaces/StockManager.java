@@ -5,6 +5,7 @@ import java.util.Set;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.CatalogChanges;
 import com.acertainbookstore.business.StockBook;
 import com.acertainbookstore.utils.BookStoreException;
 
@@ -86,4 +87,19 @@ public interface StockManager {
 	 */
 	public void removeBooks(Set<Integer> isbnSet) throws BookStoreException;
 
+	/**
+	 * Returns the changes to the catalog after the sequence number, at most
+	 * maxChanges of them, waiting up to timeoutMillis for a change if there
+	 * is none yet. Pass 0 to get the changes from the start, and the next
+	 * sequence number of the result to get the following ones.
+	 * 
+	 * @param sinceSequence
+	 * @param maxChanges
+	 * @param timeoutMillis
+	 * @return
+	 * @throws BookStoreException
+	 */
+	public CatalogChanges getChanges(long sinceSequence, int maxChanges,
+			long timeoutMillis) throws BookStoreException;
+
 }
\ No newline at end of file
@@ -0,0 +1,298 @@
+package com.acertainbookstore.persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * CheckpointStore keeps checkpoints of the catalog of the bookstore, so that a
+ * restart loads the newest checkpoint and only replays the records of the
+ * WriteAheadLog after it.
+ *
+ * A checkpoint is a file named after the LSN of the last record it includes.
+ * It holds a header with a magic number, the format version, the LSN and the
+ * number of books, the books with fixed-size fields followed by the title and
+ * author as UTF-8, and a CRC32 of everything before it. A checkpoint is
+ * written to a temporary file that is forced and then renamed, so a crash
+ * never leaves a partial checkpoint under a checkpoint name, and the
+ * directory is forced so that the rename survives a crash. It is loaded
+ * through a MappedByteBuffer. A checkpoint whose CRC does not match is
+ * skipped in favor of the one before it.
+ *
+ */
+public class CheckpointStore {
+
+	/**
+	 * The books of a checkpoint and the LSN of the last record they include
+	 */
+	public static final class Checkpoint {
+		private final long lsn;
+		private final List<StockBook> books;
+
+		private Checkpoint(long lsn, List<StockBook> books) {
+			this.lsn = lsn;
+			this.books = books;
+		}
+
+		public long getLsn() {
+			return lsn;
+		}
+
+		public List<StockBook> getBooks() {
+			return books;
+		}
+	}
+
+	private static final String CHECKPOINT_PREFIX = "checkpoint-";
+	private static final String CHECKPOINT_SUFFIX = ".snap";
+	private static final String TEMPORARY_SUFFIX = ".tmp";
+	private static final int MAGIC = 0x42534350;
+	private static final int VERSION = 1;
+	// ISBN, price, copies, sale misses, times rated, total rating and editor
+	// pick, before the lengths of the title and the author
+	private static final int BOOK_SIZE = 4 + 4 + 4 + 8 + 8 + 8 + 1;
+
+	private final File directory;
+	// The corrupt checkpoints the last loadLatest skipped
+	private volatile List<File> skipped = Collections.emptyList();
+
+	/**
+	 * Keeps the checkpoints in the directory, creating it if needed
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	public CheckpointStore(File directory) throws IOException {
+		this.directory = directory;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the checkpoint directory "
+					+ directory);
+		}
+	}
+
+	/**
+	 * Writes a checkpoint of the books, which include every record up to lsn
+	 *
+	 * @param lsn
+	 * @param books
+	 * @throws IOException
+	 */
+	public void write(long lsn, Collection<StockBook> books)
+			throws IOException {
+		File temporary = new File(directory, CHECKPOINT_PREFIX + lsn
+				+ TEMPORARY_SUFFIX);
+		FileOutputStream file = new FileOutputStream(temporary);
+		try {
+			CheckedOutputStream checked = new CheckedOutputStream(
+					new BufferedOutputStream(file, 64 * 1024), new CRC32());
+			DataOutputStream out = new DataOutputStream(checked);
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(lsn);
+			out.writeInt(books.size());
+			for (StockBook book : books) {
+				out.writeInt(book.getISBN());
+				out.writeFloat(book.getPrice());
+				out.writeInt(book.getNumCopies());
+				out.writeLong(book.getSaleMisses());
+				out.writeLong(book.getTimesRated());
+				out.writeLong(book.getTotalRating());
+				out.writeBoolean(book.isEditorPick());
+				writeString(out, book.getTitle());
+				writeString(out, book.getAuthor());
+			}
+			out.writeInt((int) checked.getChecksum().getValue());
+			out.flush();
+			file.getChannel().force(false);
+		} finally {
+			file.close();
+		}
+		Files.move(temporary.toPath(), checkpointFile(lsn).toPath(),
+				StandardCopyOption.ATOMIC_MOVE);
+		DirectorySync.force(directory);
+	}
+
+	/**
+	 * Loads the newest checkpoint that is intact. The corrupt checkpoints
+	 * skipped on the way are returned by getSkippedCheckpoints.
+	 *
+	 * @return the checkpoint, null if there is none
+	 * @throws IOException
+	 */
+	public Checkpoint loadLatest() throws IOException {
+		List<File> corrupt = new ArrayList<File>();
+		try {
+			List<Long> checkpoints = listCheckpoints();
+			for (int i = checkpoints.size() - 1; i >= 0; i--) {
+				File file = checkpointFile(checkpoints.get(i));
+				Checkpoint checkpoint = load(file);
+				if (checkpoint != null) {
+					return checkpoint;
+				}
+				corrupt.add(file);
+			}
+			return null;
+		} finally {
+			skipped = Collections.unmodifiableList(corrupt);
+		}
+	}
+
+	/**
+	 * Returns the corrupt checkpoints the last loadLatest skipped, newest
+	 * first
+	 *
+	 * @return
+	 */
+	public List<File> getSkippedCheckpoints() {
+		return skipped;
+	}
+
+	/**
+	 * Deletes all but the newest count checkpoints, and any temporary file
+	 * left by a crash while writing one
+	 *
+	 * @param count
+	 * @return the LSN of the oldest checkpoint kept, 0 if there is none
+	 * @throws IOException
+	 */
+	public long retainLatest(int count) throws IOException {
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(CHECKPOINT_PREFIX)
+						&& name.endsWith(TEMPORARY_SUFFIX)) {
+					new File(directory, name).delete();
+				}
+			}
+		}
+		List<Long> checkpoints = listCheckpoints();
+		int kept = Math.max(0, checkpoints.size() - count);
+		for (int i = 0; i < kept; i++) {
+			File checkpoint = checkpointFile(checkpoints.get(i));
+			if (!checkpoint.delete() && checkpoint.exists()) {
+				throw new IOException("Cannot delete the checkpoint "
+						+ checkpoint);
+			}
+		}
+		return kept < checkpoints.size() ? checkpoints.get(kept) : 0;
+	}
+
+	/**
+	 * Maps the checkpoint and reads its books, or returns null if it is
+	 * corrupt
+	 */
+	private Checkpoint load(File file) throws IOException {
+		FileChannel channel = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < 24 || size > Integer.MAX_VALUE) {
+				return null;
+			}
+			MappedByteBuffer buffer = channel.map(
+					FileChannel.MapMode.READ_ONLY, 0, size);
+			buffer.limit((int) size - 4);
+			CRC32 crc = new CRC32();
+			crc.update(buffer);
+			buffer.limit((int) size);
+			if ((int) crc.getValue() != buffer.getInt()) {
+				return null;
+			}
+
+			buffer.position(0);
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				return null;
+			}
+			long lsn = buffer.getLong();
+			int count = buffer.getInt();
+			if (count < 0 || (long) count * BOOK_SIZE > size) {
+				return null;
+			}
+			List<StockBook> books = new ArrayList<StockBook>(count);
+			for (int i = 0; i < count; i++) {
+				int isbn = buffer.getInt();
+				float price = buffer.getFloat();
+				int numCopies = buffer.getInt();
+				long saleMisses = buffer.getLong();
+				long timesRated = buffer.getLong();
+				long totalRating = buffer.getLong();
+				boolean editorPick = buffer.get() != 0;
+				String title = readString(buffer);
+				String author = readString(buffer);
+				books.add(new ImmutableStockBook(isbn, title, author, price,
+						numCopies, saleMisses, timesRated, totalRating,
+						editorPick));
+			}
+			return new Checkpoint(lsn, books);
+		} catch (BufferUnderflowException ex) {
+			return null;
+		} finally {
+			channel.close();
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value)
+			throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(MappedByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private File checkpointFile(long lsn) {
+		return new File(directory, String.format("%s%020d%s",
+				CHECKPOINT_PREFIX, lsn, CHECKPOINT_SUFFIX));
+	}
+
+	private List<Long> listCheckpoints() {
+		List<Long> checkpoints = new ArrayList<Long>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(CHECKPOINT_PREFIX)
+						&& name.endsWith(CHECKPOINT_SUFFIX)) {
+					try {
+						checkpoints.add(Long.parseLong(name.substring(
+								CHECKPOINT_PREFIX.length(), name.length()
+										- CHECKPOINT_SUFFIX.length())));
+					} catch (NumberFormatException ex) {
+						; // not a checkpoint
+					}
+				}
+			}
+		}
+		Collections.sort(checkpoints);
+		return checkpoints;
+	}
+}
@@ -0,0 +1,44 @@
+package com.acertainbookstore.persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * DirectorySync forces a directory to disk, so that a file created in or
+ * renamed into it is still there after a crash. Forcing a file only makes its
+ * contents durable, not its name.
+ *
+ */
+final class DirectorySync {
+
+	private DirectorySync() {
+	}
+
+	/**
+	 * Forces the entries of the directory to disk. Does nothing on a platform
+	 * that cannot open a directory, such as Windows, whose file systems make
+	 * the entries durable with the file.
+	 *
+	 * @param directory
+	 * @throws IOException
+	 */
+	static void force(File directory) throws IOException {
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(directory.toPath(),
+					StandardOpenOption.READ);
+		} catch (IOException ex) {
+			if (System.getProperty("os.name").startsWith("Windows")) {
+				return;
+			}
+			throw ex;
+		}
+		try {
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+}
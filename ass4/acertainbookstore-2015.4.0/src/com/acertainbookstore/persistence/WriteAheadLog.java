@@ -0,0 +1,511 @@
+package com.acertainbookstore.persistence;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.acertainbookstore.utils.BinaryBookStoreCodec;
+import com.acertainbookstore.utils.BookStoreCodec;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * WriteAheadLog is an append-only log of the operations that changed the
+ * bookstore, so that the bookstore can be rebuilt by replaying them.
+ *
+ * The log is a directory of segment files named after the log sequence number
+ * (LSN) of their first record; a new segment is started when the current one
+ * grows past the segment size. A record is its payload length, its LSN, a
+ * CRC32 of the LSN and the payload, and the payload itself, which is the
+ * record serialized with the binary codec. A torn record at the end of the
+ * last segment, left by a crash in the middle of a write, is cut off when the
+ * log is opened.
+ *
+ * Appending only writes the record to the file. How a caller then waits for
+ * the record to be durable depends on the durability mode:
+ * <ul>
+ * <li>FSYNC: sync forces the file to disk before it returns. Callers that
+ * sync at the same time share one force: the first one forces everything
+ * appended so far and the others find their record already durable (group
+ * commit).</li>
+ * <li>PERIODIC: sync returns at once and a background thread forces the file
+ * every sync interval, so a crash loses at most the last interval.</li>
+ * <li>NONE: the file is never forced and the operating system decides when
+ * the records reach the disk.</li>
+ * </ul>
+ *
+ */
+public class WriteAheadLog implements Closeable {
+
+	/**
+	 * When the records appended to the log are forced to disk
+	 */
+	public enum DurabilityMode {
+		FSYNC, PERIODIC, NONE;
+	}
+
+	/**
+	 * Receives the records of the log when it is replayed
+	 */
+	public interface RecordHandler {
+		public void onRecord(long lsn, Object record) throws BookStoreException;
+	}
+
+	public static final long DEFAULT_SEGMENT_SIZE = 64L * 1024 * 1024;
+	public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 100;
+
+	private static final String SEGMENT_PREFIX = "wal-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	// Payload length, LSN and CRC
+	private static final int HEADER_SIZE = 4 + 8 + 4;
+	private static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+	private final File directory;
+	private final DurabilityMode durabilityMode;
+	private final long segmentSize;
+	private final BookStoreCodec codec = new BinaryBookStoreCodec();
+	private final Object syncLock = new Object();
+	private final ScheduledExecutorService syncer;
+
+	// Guarded by this
+	private FileChannel channel;
+	private long segmentLength;
+	private long lastAppended;
+	private boolean closed = false;
+
+	// Written with syncLock held
+	private volatile long lastDurable;
+	// The failure of a background force in the PERIODIC mode
+	private volatile IOException syncFailure = null;
+
+	/**
+	 * Opens the log in the directory with the default segment size and sync
+	 * interval
+	 *
+	 * @param directory
+	 * @param durabilityMode
+	 * @throws IOException
+	 */
+	public WriteAheadLog(File directory, DurabilityMode durabilityMode)
+			throws IOException {
+		this(directory, durabilityMode, DEFAULT_SEGMENT_SIZE,
+				DEFAULT_SYNC_INTERVAL_MILLIS);
+	}
+
+	/**
+	 * Opens the log in the directory, creating it if needed, and positions it
+	 * after the last complete record
+	 *
+	 * @param directory
+	 * @param durabilityMode
+	 * @param segmentSize
+	 * @param syncIntervalMillis
+	 *            the interval between forces in the PERIODIC mode
+	 * @throws IOException
+	 */
+	public WriteAheadLog(File directory, DurabilityMode durabilityMode,
+			long segmentSize, long syncIntervalMillis) throws IOException {
+		this.directory = directory;
+		this.durabilityMode = durabilityMode;
+		this.segmentSize = segmentSize;
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Cannot create the log directory "
+					+ directory);
+		}
+
+		List<Long> segments = listSegments();
+		long nextLsn = 1;
+		if (segments.isEmpty()) {
+			openSegment(nextLsn);
+		} else {
+			// The segments before a checkpoint may have been truncated
+			nextLsn = segments.get(0);
+			for (int i = 0; i < segments.size(); i++) {
+				boolean last = i == segments.size() - 1;
+				nextLsn = scanSegment(segments.get(i), nextLsn, last);
+			}
+			File lastSegment = segmentFile(segments.get(segments.size() - 1));
+			channel = FileChannel.open(lastSegment.toPath(),
+					StandardOpenOption.WRITE);
+			segmentLength = channel.size();
+			channel.position(segmentLength);
+		}
+		lastAppended = nextLsn - 1;
+		lastDurable = lastAppended;
+
+		if (durabilityMode == DurabilityMode.PERIODIC) {
+			syncer = Executors
+					.newSingleThreadScheduledExecutor(new ThreadFactory() {
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable,
+									"WriteAheadLog-sync");
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+			syncer.scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						force();
+					} catch (IOException ex) {
+						syncFailure = ex;
+					}
+				}
+			}, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+		} else {
+			syncer = null;
+		}
+	}
+
+	public DurabilityMode getDurabilityMode() {
+		return durabilityMode;
+	}
+
+	/**
+	 * Returns the LSN of the last record appended to the log, 0 if it is
+	 * empty
+	 *
+	 * @return
+	 */
+	public synchronized long getLastAppended() {
+		return lastAppended;
+	}
+
+	/**
+	 * Appends a record to the log. The record is written to the file but is
+	 * not durable before sync returns for its LSN.
+	 *
+	 * @param record
+	 * @return the LSN of the record
+	 * @throws IOException
+	 * @throws BookStoreException
+	 *             if the record cannot be serialized
+	 */
+	public long append(Object record) throws IOException, BookStoreException {
+		byte[] payload = codec.serialize(record);
+		synchronized (this) {
+			if (closed) {
+				throw new ClosedChannelException();
+			}
+			long lsn = lastAppended + 1;
+			if (segmentLength > 0
+					&& segmentLength + HEADER_SIZE + payload.length > segmentSize) {
+				rollSegment(lsn);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE
+					+ payload.length);
+			buffer.putInt(payload.length);
+			buffer.putLong(lsn);
+			buffer.putInt(checksum(lsn, payload));
+			buffer.put(payload);
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			segmentLength += buffer.limit();
+			lastAppended = lsn;
+			return lsn;
+		}
+	}
+
+	/**
+	 * Waits until the record with the LSN is as durable as the durability mode
+	 * makes it, cf. the class comment
+	 *
+	 * @param lsn
+	 * @throws IOException
+	 *             if the log cannot be forced, or a background force failed
+	 *             in the PERIODIC mode
+	 */
+	public void sync(long lsn) throws IOException {
+		IOException failure = syncFailure;
+		if (failure != null) {
+			throw new IOException("A background force of the log failed",
+					failure);
+		}
+		if (durabilityMode != DurabilityMode.FSYNC || lastDurable >= lsn) {
+			return;
+		}
+		synchronized (syncLock) {
+			// Another committer may have forced our record while we waited
+			if (lastDurable < lsn) {
+				forceLocked();
+			}
+		}
+	}
+
+	/**
+	 * Forces everything appended so far to disk
+	 *
+	 * @throws IOException
+	 */
+	public void force() throws IOException {
+		synchronized (syncLock) {
+			forceLocked();
+		}
+	}
+
+	private void forceLocked() throws IOException {
+		FileChannel toForce;
+		long target;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			toForce = channel;
+			target = lastAppended;
+		}
+		try {
+			// Appends go on while the force runs and are left for the next one
+			toForce.force(false);
+		} catch (ClosedChannelException ex) {
+			// The segment was rolled, which forces it before closing it
+		}
+		lastDurable = target;
+	}
+
+	/**
+	 * Reads every record of the log in order and hands it to the handler
+	 *
+	 * @param handler
+	 * @throws IOException
+	 * @throws BookStoreException
+	 *             if a record cannot be de-serialized or the handler fails
+	 */
+	public void replay(RecordHandler handler) throws IOException,
+			BookStoreException {
+		replay(0, handler);
+	}
+
+	/**
+	 * Reads the records of the log after afterLsn in order and hands them to
+	 * the handler. The segments that only hold earlier records are not read.
+	 *
+	 * @param afterLsn
+	 * @param handler
+	 * @throws IOException
+	 *             if the log was truncated past afterLsn
+	 * @throws BookStoreException
+	 *             if a record cannot be de-serialized or the handler fails
+	 */
+	public void replay(long afterLsn, RecordHandler handler)
+			throws IOException, BookStoreException {
+		long endLsn = getLastAppended();
+		List<Long> segments = listSegments();
+		if (!segments.isEmpty() && segments.get(0) > afterLsn + 1) {
+			throw new IOException("The log starts at record "
+					+ segments.get(0) + " after record " + (afterLsn + 1));
+		}
+		for (int i = 0; i < segments.size(); i++) {
+			long firstLsn = segments.get(i);
+			if (i + 1 < segments.size() && segments.get(i + 1) <= afterLsn + 1) {
+				continue;
+			}
+			FileChannel in = FileChannel.open(segmentFile(firstLsn).toPath(),
+					StandardOpenOption.READ);
+			try {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				while (true) {
+					header.clear();
+					if (!readFully(in, header)) {
+						break;
+					}
+					header.flip();
+					int length = header.getInt();
+					long lsn = header.getLong();
+					header.getInt(); // checked when the log was opened
+					if (lsn > endLsn) {
+						return;
+					}
+					if (lsn <= afterLsn) {
+						in.position(in.position() + length);
+						continue;
+					}
+					ByteBuffer payload = ByteBuffer.allocate(length);
+					if (!readFully(in, payload)) {
+						throw new EOFException();
+					}
+					handler.onRecord(lsn, codec.deserialize(payload.array()));
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the segments that only hold records up to lsn, which a
+	 * checkpoint has made unnecessary. The current segment is never deleted.
+	 *
+	 * @param lsn
+	 * @throws IOException
+	 */
+	public void truncate(long lsn) throws IOException {
+		List<Long> segments = listSegments();
+		// A segment ends with the record before the first one of the next
+		for (int i = 0; i + 1 < segments.size()
+				&& segments.get(i + 1) <= lsn + 1; i++) {
+			File segment = segmentFile(segments.get(i));
+			if (!segment.delete() && segment.exists()) {
+				throw new IOException("Cannot delete the log segment "
+						+ segment);
+			}
+		}
+	}
+
+	/**
+	 * Forces and closes the log
+	 */
+	public void close() throws IOException {
+		if (syncer != null) {
+			syncer.shutdownNow();
+		}
+		synchronized (syncLock) {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				if (durabilityMode != DurabilityMode.NONE) {
+					channel.force(false);
+				}
+				channel.close();
+				lastDurable = lastAppended;
+			}
+		}
+	}
+
+	private void rollSegment(long firstLsn) throws IOException {
+		if (durabilityMode != DurabilityMode.NONE) {
+			channel.force(false);
+		}
+		channel.close();
+		openSegment(firstLsn);
+	}
+
+	private void openSegment(long firstLsn) throws IOException {
+		channel = FileChannel.open(segmentFile(firstLsn).toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		channel.truncate(0);
+		segmentLength = 0;
+		if (durabilityMode != DurabilityMode.NONE) {
+			// Otherwise a crash may lose the segment with its forced records
+			DirectorySync.force(directory);
+		}
+	}
+
+	/**
+	 * Checks the records of a segment and returns the LSN after its last
+	 * record. A torn or corrupt record ends the log, so it is cut off if it is
+	 * in the last segment and is an error anywhere else.
+	 */
+	private long scanSegment(long firstLsn, long expectedLsn, boolean last)
+			throws IOException {
+		File file = segmentFile(firstLsn);
+		if (firstLsn != expectedLsn) {
+			throw new IOException("The log segment " + file
+					+ " does not follow the record " + (expectedLsn - 1));
+		}
+		FileChannel in = FileChannel.open(file.toPath(),
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long position = 0;
+			long lsn = firstLsn;
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			while (true) {
+				header.clear();
+				if (!readFully(in, header)) {
+					break;
+				}
+				header.flip();
+				int length = header.getInt();
+				long recordLsn = header.getLong();
+				int crc = header.getInt();
+				if (length < 0 || length > MAX_RECORD_SIZE || recordLsn != lsn) {
+					break;
+				}
+				ByteBuffer payload = ByteBuffer.allocate(length);
+				if (!readFully(in, payload)
+						|| checksum(recordLsn, payload.array()) != crc) {
+					break;
+				}
+				position = in.position();
+				lsn++;
+			}
+			if (position < in.size()) {
+				if (!last) {
+					throw new IOException("The log segment " + file
+							+ " is corrupt at offset " + position);
+				}
+				in.truncate(position);
+			}
+			return lsn;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Fills the buffer from the channel and returns false if the channel ends
+	 * before the buffer is full
+	 */
+	private static boolean readFully(FileChannel in, ByteBuffer buffer)
+			throws IOException {
+		while (buffer.hasRemaining()) {
+			if (in.read(buffer) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int checksum(long lsn, byte[] payload) {
+		CRC32 crc = new CRC32();
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			crc.update((int) (lsn >>> shift));
+		}
+		crc.update(payload, 0, payload.length);
+		return (int) crc.getValue();
+	}
+
+	private File segmentFile(long firstLsn) {
+		return new File(directory, String.format("%s%020d%s", SEGMENT_PREFIX,
+				firstLsn, SEGMENT_SUFFIX));
+	}
+
+	/**
+	 * Returns the first LSNs of the segments in the directory in order
+	 */
+	private List<Long> listSegments() {
+		List<Long> segments = new ArrayList<Long>();
+		String[] names = directory.list();
+		if (names != null) {
+			for (String name : names) {
+				if (name.startsWith(SEGMENT_PREFIX)
+						&& name.endsWith(SEGMENT_SUFFIX)) {
+					try {
+						segments.add(Long.parseLong(name.substring(
+								SEGMENT_PREFIX.length(), name.length()
+										- SEGMENT_SUFFIX.length())));
+					} catch (NumberFormatException ex) {
+						; // not a segment of the log
+					}
+				}
+			}
+		}
+		Collections.sort(segments);
+		return segments;
+	}
+}
@@ -1,10 +1,13 @@
 /**
- * 
+ *
  */
 package com.acertainbookstore.server;
 
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Set;
 
 import javax.servlet.ServletException;
@@ -16,8 +19,12 @@ import org.eclipse.jetty.server.handler.AbstractHandler;
 
 import com.acertainbookstore.business.BookCopy;
 import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
 import com.acertainbookstore.business.CertainBookStore;
 import com.acertainbookstore.business.StockBook;
+import com.acertainbookstore.utils.BatchOperation;
+import com.acertainbookstore.utils.BatchRequest;
+import com.acertainbookstore.utils.BookStoreCodec;
 import com.acertainbookstore.utils.BookStoreConstants;
 import com.acertainbookstore.utils.BookStoreException;
 import com.acertainbookstore.utils.BookStoreMessageTag;
@@ -28,33 +35,100 @@ import com.acertainbookstore.utils.BookStoreUtility;
  * BookStoreHTTPMessageHandler implements the message handler class which is
  * invoked to handle messages received by the BookStoreHTTPServerUtility. It
  * decodes the HTTP message and invokes the CertainBookStore server API
- * 
- * 
+ *
+ * Request bodies are decoded with the codec named by their Content-Type and
+ * responses are encoded with the codec named by the Accept header, cf.
+ * BookStoreUtility.getCodec; messages without these headers are XML.
+ *
+ * A BATCH message carries several operations; a batch sent to the bookstore
+ * rather than to /stock may only hold the operations of the BookStore
+ * interface.
+ *
+ * Every response carries the sequence number of the last change to the
+ * catalog it reflects and its epoch. A handler given a CatalogReplicator serves a read-only
+ * replica: it rejects the messages that change the store, and waits with a
+ * read until the replica has applied the sequence number the request
+ * requires, if any.
+ *
  */
 public class BookStoreHTTPMessageHandler extends AbstractHandler {
+	private static final Set<BookStoreMessageTag> BOOKSTORE_TAGS = EnumSet.of(
+			BookStoreMessageTag.BUYBOOKS, BookStoreMessageTag.RATEBOOKS,
+			BookStoreMessageTag.GETBOOKS, BookStoreMessageTag.EDITORPICKS,
+			BookStoreMessageTag.GETTOPRATEDBOOKS);
+	// The messages that carry a request body
+	private static final Set<BookStoreMessageTag> BODY_TAGS = EnumSet.of(
+			BookStoreMessageTag.REMOVEBOOKS, BookStoreMessageTag.ADDBOOKS,
+			BookStoreMessageTag.ADDCOPIES,
+			BookStoreMessageTag.UPDATEEDITORPICKS,
+			BookStoreMessageTag.BUYBOOKS, BookStoreMessageTag.GETBOOKS,
+			BookStoreMessageTag.GETSTOCKBOOKSBYISBN,
+			BookStoreMessageTag.RATEBOOKS, BookStoreMessageTag.BATCH);
+	// The messages a replica serves
+	private static final Set<BookStoreMessageTag> REPLICA_TAGS = EnumSet.of(
+			BookStoreMessageTag.GETBOOKS, BookStoreMessageTag.EDITORPICKS,
+			BookStoreMessageTag.GETTOPRATEDBOOKS,
+			BookStoreMessageTag.LISTBOOKS,
+			BookStoreMessageTag.GETSTOCKBOOKSBYISBN,
+			BookStoreMessageTag.GETBOOKSINDEMAND);
 	private CertainBookStore myBookStore = null;
+	private final CatalogReplicator replicator;
+	private final BookStoreMetrics metrics = new BookStoreMetrics();
 
 	public BookStoreHTTPMessageHandler(CertainBookStore bookStore) {
+		this(bookStore, null);
+	}
+
+	/**
+	 * Creates a handler serving the bookstore as a replica kept up to date by
+	 * the replicator, or as a primary if the replicator is null
+	 *
+	 * @param bookStore
+	 * @param replicator
+	 */
+	public BookStoreHTTPMessageHandler(CertainBookStore bookStore,
+			CatalogReplicator replicator) {
 		myBookStore = bookStore;
+		this.replicator = replicator;
+	}
+
+	public BookStoreMetrics getMetrics() {
+		return metrics;
 	}
 
 	@SuppressWarnings("unchecked")
 	public void handle(String target, Request baseRequest,
 			HttpServletRequest request, HttpServletResponse response)
 			throws IOException, ServletException {
+		long startTimeInNanoSecs = System.nanoTime();
 		BookStoreMessageTag messageTag;
 		String numBooksString = null;
 		int numBooks = -1;
 		String requestURI;
+		boolean fromStockManager = false;
 		BookStoreResponse bookStoreResponse = null;
 
-		response.setContentType("text/html;charset=utf-8");
 		response.setStatus(HttpServletResponse.SC_OK);
 		requestURI = request.getRequestURI();
 
+		if (BookStoreConstants.METRICS_PATH.equals(requestURI)) {
+			response.setContentType(BookStoreConstants.CONTENT_TYPE_TEXT);
+			PrintWriter out = response.getWriter();
+			metrics.write(out);
+			out.flush();
+			baseRequest.setHandled(true);
+			return;
+		}
+
+		BookStoreCodec requestCodec = BookStoreUtility.getCodec(request
+				.getContentType());
+		BookStoreCodec responseCodec = BookStoreUtility.getResponseCodec(
+				request.getHeader("Accept"), requestCodec);
+
 		// Need to do request multi-plexing
 		if (!BookStoreUtility.isEmpty(requestURI)
 				&& requestURI.toLowerCase().startsWith("/stock")) {
+			fromStockManager = true;
 			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI
 					.substring(6)); // the request is from store
 			// manager, more
@@ -64,180 +138,213 @@ public class BookStoreHTTPMessageHandler extends AbstractHandler {
 		} else {
 			messageTag = BookStoreUtility.convertURItoMessageTag(requestURI);
 		}
+		long decodeTimeInNanoSecs = 0;
+		long executeStartTimeInNanoSecs = 0;
+		long executeEndTimeInNanoSecs = 0;
+		boolean failed = false;
 		// the RequestURI before the switch
 		if (messageTag == null) {
-			System.out.println("Unknown message tag");
+			metrics.recordUnknown();
 		} else {
-			switch (messageTag) {
-			case REMOVEBOOKS:
-				String xml = BookStoreUtility
-						.extractPOSTDataFromRequest(request);
-
-				Set<Integer> bookSet = (Set<Integer>) BookStoreUtility
-						.deserializeXMLStringToObject(xml);
-
-				bookStoreResponse = new BookStoreResponse();
-				try {
-					myBookStore.removeBooks(bookSet);
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
+			bookStoreResponse = new BookStoreResponse();
+			try {
+				Object body = null;
+				if (BODY_TAGS.contains(messageTag)) {
+					body = BookStoreUtility.deserializeRequest(request,
+							requestCodec);
 				}
-				String listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case REMOVEALLBOOKS:
-				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
+				executeStartTimeInNanoSecs = System.nanoTime();
+				decodeTimeInNanoSecs = executeStartTimeInNanoSecs
+						- startTimeInNanoSecs;
+				if (replicator != null) {
+					awaitReplica(messageTag, request);
+				}
+				switch (messageTag) {
+				case REMOVEBOOKS:
+					myBookStore.removeBooks((Set<Integer>) body);
+					break;
 
-				bookStoreResponse = new BookStoreResponse();
-				try {
+				case REMOVEALLBOOKS:
 					myBookStore.removeAllBooks();
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case ADDBOOKS:
-				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
-
-				Set<StockBook> newBooks = (Set<StockBook>) BookStoreUtility
-						.deserializeXMLStringToObject(xml);
-
-				bookStoreResponse = new BookStoreResponse();
-				try {
-					myBookStore.addBooks(newBooks);
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case ADDCOPIES:
-				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
-
-				Set<BookCopy> listBookCopies = (Set<BookCopy>) BookStoreUtility
-						.deserializeXMLStringToObject(xml);
-				bookStoreResponse = new BookStoreResponse();
-				try {
-					myBookStore.addCopies(listBookCopies);
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
+					break;
 
-			case LISTBOOKS:
-				bookStoreResponse = new BookStoreResponse();
-				bookStoreResponse.setList(myBookStore.getBooks());
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
+				case ADDBOOKS:
+					myBookStore.addBooks((Set<StockBook>) body);
+					break;
 
-			case UPDATEEDITORPICKS:
+				case ADDCOPIES:
+					myBookStore.addCopies((Set<BookCopy>) body);
+					break;
 
-				bookStoreResponse = new BookStoreResponse();
+				case LISTBOOKS:
+					bookStoreResponse.setList(myBookStore.getBooks());
+					break;
 
-				try {
-					String xmlStringEditorPicksValues = BookStoreUtility
-							.extractPOSTDataFromRequest(request);
+				case GETBOOKSINDEMAND:
+					bookStoreResponse.setList(myBookStore.getBooksInDemand());
+					break;
 
-					Set<BookEditorPick> mapEditorPicksValues = (Set<BookEditorPick>) BookStoreUtility
-							.deserializeXMLStringToObject(xmlStringEditorPicksValues);
+				case UPDATEEDITORPICKS:
+					myBookStore.updateEditorPicks((Set<BookEditorPick>) body);
+					break;
 
-					myBookStore.updateEditorPicks(mapEditorPicksValues);
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case BUYBOOKS:
-				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
-				Set<BookCopy> bookCopiesToBuy = (Set<BookCopy>) BookStoreUtility
-						.deserializeXMLStringToObject(new String(xml));
-
-				// Make the purchase
-				bookStoreResponse = new BookStoreResponse();
-				try {
-					myBookStore.buyBooks(bookCopiesToBuy);
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case GETBOOKS:
-				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
-				Set<Integer> isbnSet = (Set<Integer>) BookStoreUtility
-						.deserializeXMLStringToObject(xml);
-
-				bookStoreResponse = new BookStoreResponse();
-				try {
-					bookStoreResponse.setList(myBookStore.getBooks(isbnSet));
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case EDITORPICKS:
-				numBooksString = URLDecoder
-						.decode(request
-								.getParameter(BookStoreConstants.BOOK_NUM_PARAM),
-								"UTF-8");
-				bookStoreResponse = new BookStoreResponse();
-				try {
+				case BUYBOOKS:
+					// Make the purchase
+					myBookStore.buyBooks((Set<BookCopy>) body);
+					break;
+
+				case GETBOOKS:
+					bookStoreResponse.setList(myBookStore
+							.getBooks((Set<Integer>) body));
+					break;
+
+				case EDITORPICKS:
+					numBooksString = URLDecoder.decode(request
+							.getParameter(BookStoreConstants.BOOK_NUM_PARAM),
+							"UTF-8");
 					numBooks = BookStoreUtility
 							.convertStringToInt(numBooksString);
 					bookStoreResponse.setList(myBookStore
 							.getEditorPicks(numBooks));
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
-				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-
-			case GETSTOCKBOOKSBYISBN:
-				xml = BookStoreUtility.extractPOSTDataFromRequest(request);
-				isbnSet = (Set<Integer>) BookStoreUtility
-						.deserializeXMLStringToObject(xml);
-
-				bookStoreResponse = new BookStoreResponse();
-				try {
+					break;
+
+				case GETSTOCKBOOKSBYISBN:
 					bookStoreResponse.setList(myBookStore
-							.getBooksByISBN(isbnSet));
-				} catch (BookStoreException ex) {
-					bookStoreResponse.setException(ex);
+							.getBooksByISBN((Set<Integer>) body));
+					break;
+
+				case RATEBOOKS:
+					myBookStore.rateBooks((Set<BookRating>) body);
+					break;
+
+				case GETTOPRATEDBOOKS:
+					numBooksString = URLDecoder.decode(request
+							.getParameter(BookStoreConstants.BOOK_NUM_PARAM),
+							"UTF-8");
+					numBooks = BookStoreUtility
+							.convertStringToInt(numBooksString);
+					bookStoreResponse.setList(myBookStore
+							.getTopRatedBooks(numBooks));
+					break;
+
+				case GETCHANGES:
+					// Jetty decodes the query parameters
+					long sinceSequence = BookStoreUtility
+							.convertStringToLong(request
+									.getParameter(BookStoreConstants.CHANGES_SINCE_PARAM));
+					int maxChanges = BookStoreUtility
+							.convertStringToInt(request
+									.getParameter(BookStoreConstants.CHANGES_MAX_PARAM));
+					long timeoutMillis = BookStoreUtility
+							.convertStringToLong(request
+									.getParameter(BookStoreConstants.CHANGES_TIMEOUT_PARAM));
+					bookStoreResponse.setList(Collections
+							.singletonList(myBookStore.getChanges(
+									sinceSequence, maxChanges, timeoutMillis)));
+					break;
+
+				case BATCH:
+					BatchRequest batch = (BatchRequest) body;
+					if (batch == null) {
+						throw new BookStoreException(
+								BookStoreConstants.NULL_INPUT);
+					}
+					if (!fromStockManager && batch.getOperations() != null) {
+						for (BatchOperation operation : batch.getOperations()) {
+							if (operation != null
+									&& !BOOKSTORE_TAGS.contains(operation
+											.getTag())) {
+								throw new BookStoreException(
+										BookStoreConstants.OPERATION
+												+ operation.getTag()
+												+ BookStoreConstants.NOT_ALLOWED);
+							}
+						}
+					}
+					bookStoreResponse.setList(myBookStore.executeBatch(
+							batch.getOperations(), batch.isAtomic()));
+					break;
+
+				default:
+					bookStoreResponse = null;
+					break;
+				}
+			} catch (BookStoreException ex) {
+				bookStoreResponse.setException(ex);
+				failed = true;
+			}
+			executeEndTimeInNanoSecs = System.nanoTime();
+			if (executeStartTimeInNanoSecs == 0) {
+				// Decoding the request failed
+				decodeTimeInNanoSecs = executeEndTimeInNanoSecs
+						- startTimeInNanoSecs;
+				executeStartTimeInNanoSecs = executeEndTimeInNanoSecs;
+			}
+		}
+
+		if (bookStoreResponse != null) {
+			long epoch;
+			long sequence;
+			if (replicator != null) {
+				synchronized (replicator) {
+					epoch = replicator.getAppliedEpoch();
+					sequence = replicator.getAppliedSequence();
 				}
-				listBooksxmlString = BookStoreUtility
-						.serializeObjectToXMLString(bookStoreResponse);
-				response.getWriter().println(listBooksxmlString);
-				break;
-				
-			default:
-				System.out.println("Unhandled message tag");
-				break;
+			} else {
+				epoch = myBookStore.getEpoch();
+				sequence = myBookStore.getLastSequence();
 			}
+			response.setHeader(BookStoreConstants.SEQUENCE_HEADER,
+					Long.toString(sequence));
+			response.setHeader(BookStoreConstants.EPOCH_HEADER,
+					Long.toString(epoch));
+			BookStoreUtility.serializeResponse(response, responseCodec,
+					bookStoreResponse);
 		}
 		// Mark the request as handled so that the HTTP response can be sent
 		baseRequest.setHandled(true);
 
+		if (messageTag != null) {
+			long endTimeInNanoSecs = System.nanoTime();
+			metrics.record(messageTag, decodeTimeInNanoSecs,
+					executeEndTimeInNanoSecs - executeStartTimeInNanoSecs,
+					endTimeInNanoSecs - executeEndTimeInNanoSecs,
+					endTimeInNanoSecs - startTimeInNanoSecs,
+					baseRequest.getContentRead(), baseRequest.getResponse()
+							.getContentCount(), failed);
+		}
+	}
+
+	/**
+	 * Rejects the messages a replica does not serve, and waits for the
+	 * replica to apply the sequence number, and epoch, the request requires
+	 *
+	 * @param messageTag
+	 * @param request
+	 * @throws BookStoreException
+	 */
+	private void awaitReplica(BookStoreMessageTag messageTag,
+			HttpServletRequest request) throws BookStoreException {
+		if (!REPLICA_TAGS.contains(messageTag)) {
+			throw new BookStoreException(BookStoreConstants.OPERATION
+					+ messageTag + BookStoreConstants.NOT_ALLOWED_ON_REPLICA);
+		}
+		String minSequence = request
+				.getHeader(BookStoreConstants.MIN_SEQUENCE_HEADER);
+		if (minSequence == null) {
+			return;
+		}
+		String epoch = request.getHeader(BookStoreConstants.EPOCH_HEADER);
+		try {
+			if (!replicator.awaitSequence(
+					epoch == null ? 0 : BookStoreUtility
+							.convertStringToLong(epoch),
+					BookStoreUtility.convertStringToLong(minSequence),
+					BookStoreConstants.REPLICA_MAX_WAIT_MILLISECS)) {
+				throw new BookStoreException(BookStoreConstants.REPLICA_BEHIND);
+			}
+		} catch (InterruptedException ex) {
+			throw new BookStoreException(BookStoreConstants.REPLICA_BEHIND, ex);
+		}
 	}
 }
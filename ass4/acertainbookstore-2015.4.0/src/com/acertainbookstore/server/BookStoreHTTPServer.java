@@ -3,33 +3,107 @@
  */
 package com.acertainbookstore.server;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.persistence.CheckpointStore;
+import com.acertainbookstore.persistence.WriteAheadLog;
 import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+import com.acertainbookstore.utils.BookStoreUtility;
+import com.acertainbookstore.utils.BookStoreXStream;
 
 /**
  * Starts the bookstore HTTP server that the clients will communicate with.
+ * The server is configured from the system properties, cf.
+ * BookStoreServerConfiguration. If the wal.dir property names a directory,
+ * the bookstore logs its changes there, checkpoints its catalog there every
+ * wal.checkpointinterval milliseconds and starts from the newest checkpoint
+ * and the changes logged after it.
+ *
+ * If the replica.primary property names the address of another server, the
+ * server is a read-only replica of that server's bookstore, cf.
+ * CatalogReplicator. A replica keeps no log.
  */
 public class BookStoreHTTPServer {
+	private static final long DEFAULT_CHECKPOINT_INTERVAL_MILLIS = 60000;
 
 	/**
 	 * @param args
 	 */
-	public static void main(String[] args) {
-		CertainBookStore bookStore = new CertainBookStore();
-		int listen_on_port = 8081;
-		BookStoreHTTPMessageHandler handler = new BookStoreHTTPMessageHandler(
-				bookStore);
-		String server_port_string = System.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_PORT);
-		if(server_port_string != null) {
-			try {
-				listen_on_port = Integer.parseInt(server_port_string);
-			} catch(NumberFormatException ex) {
-				System.err.println(ex);
-			}
+	public static void main(String[] args) throws Exception {
+		String primaryAddress = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_REPLICA_PRIMARY);
+		BookStoreHTTPMessageHandler handler;
+		if (BookStoreUtility.isEmpty(primaryAddress)) {
+			handler = new BookStoreHTTPMessageHandler(createBookStore());
+		} else {
+			CertainBookStore bookStore = new CertainBookStore();
+			CatalogReplicator replicator = new CatalogReplicator(bookStore,
+					primaryAddress);
+			replicator.start();
+			handler = new BookStoreHTTPMessageHandler(bookStore, replicator);
 		}
-		if (BookStoreHTTPServerUtility.createServer(listen_on_port, handler)) {
+		BookStoreServerConfiguration configuration = BookStoreServerConfiguration
+				.fromSystemProperties();
+		// Configure the serializers before the first request arrives
+		BookStoreXStream.warmUp();
+		if (BookStoreHTTPServerUtility.createServer(configuration, handler)) {
 			;
 		}
 	}
 
+	private static CertainBookStore createBookStore() throws IOException,
+			BookStoreException {
+		String directory = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_WAL_DIRECTORY);
+		if (directory == null) {
+			return new CertainBookStore();
+		}
+		String durability = System.getProperty(
+				BookStoreConstants.PROPERTY_KEY_WAL_DURABILITY, "fsync");
+		long syncInterval = Long.getLong(
+				BookStoreConstants.PROPERTY_KEY_WAL_SYNC_INTERVAL,
+				WriteAheadLog.DEFAULT_SYNC_INTERVAL_MILLIS);
+		long checkpointInterval = Long.getLong(
+				BookStoreConstants.PROPERTY_KEY_WAL_CHECKPOINT_INTERVAL,
+				DEFAULT_CHECKPOINT_INTERVAL_MILLIS);
+		WriteAheadLog log = new WriteAheadLog(new File(directory),
+				WriteAheadLog.DurabilityMode.valueOf(durability.toUpperCase()),
+				WriteAheadLog.DEFAULT_SEGMENT_SIZE, syncInterval);
+		CertainBookStore bookStore = new CertainBookStore(log,
+				new CheckpointStore(new File(directory)));
+		if (checkpointInterval > 0) {
+			scheduleCheckpoints(bookStore, checkpointInterval);
+		}
+		return bookStore;
+	}
+
+	private static void scheduleCheckpoints(final CertainBookStore bookStore,
+			long intervalMillis) {
+		ScheduledExecutorService checkpointer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable runnable) {
+						Thread thread = new Thread(runnable,
+								"CertainBookStore-checkpoint");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		checkpointer.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					bookStore.checkpoint();
+				} catch (BookStoreException ex) {
+					ex.printStackTrace();
+				}
+			}
+		}, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
 }
@@ -3,12 +3,15 @@
  */
 package com.acertainbookstore.server;
 
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.UnknownHostException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
 
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.util.thread.ExecutorThreadPool;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ThreadPool;
 
 /**
  * Utility methods to create Jetty server instances
@@ -20,18 +23,9 @@ public class BookStoreHTTPServerUtility {
 	 * Creates a server on the port and blocks the calling thread
 	 */
 	public static boolean createServer(int port, AbstractHandler handler) {
-		Server server = new Server(port);
-		if (handler != null) {
-			server.setHandler(handler);
-		}
-
-		try {
-			server.start();
-			server.join();
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}
-		return true;
+		BookStoreServerConfiguration configuration = new BookStoreServerConfiguration();
+		configuration.setPort(port);
+		return createServer(configuration, handler);
 	}
 
 	/**
@@ -39,33 +33,86 @@ public class BookStoreHTTPServerUtility {
 	 */
 	public static boolean createServer(String ipAddress, int port,
 			AbstractHandler handler) {
-		InetAddress inetIpAddress;
-		InetSocketAddress address;
-		Server server;
-
 		if (ipAddress == null)
 			return false;
 
+		BookStoreServerConfiguration configuration = new BookStoreServerConfiguration();
+		configuration.setHost(ipAddress);
+		configuration.setPort(port);
+		return createServer(configuration, handler);
+	}
+
+	/**
+	 * Creates a server with the configuration and blocks the calling thread
+	 */
+	public static boolean createServer(
+			BookStoreServerConfiguration configuration, AbstractHandler handler) {
 		try {
-			inetIpAddress = InetAddress.getByName(ipAddress);
-			address = new InetSocketAddress(inetIpAddress, port);
-		} catch (UnknownHostException ex) {
+			startServer(configuration, handler).join();
+		} catch (Exception ex) {
 			ex.printStackTrace();
 			return false;
 		}
+		return true;
+	}
+
+	/**
+	 * Starts a server with the configuration and returns without waiting for
+	 * it to stop
+	 * 
+	 * @param configuration
+	 * @param handler
+	 * @return the handle to stop the server with
+	 * @throws Exception
+	 *             if the server could not be started
+	 */
+	public static BookStoreServerHandle startServer(
+			BookStoreServerConfiguration configuration, AbstractHandler handler)
+			throws Exception {
+		Server server = new Server();
+		server.setThreadPool(createThreadPool(configuration));
+
+		SelectChannelConnector connector = new SelectChannelConnector();
+		connector.setHost(configuration.getHost());
+		connector.setPort(configuration.getPort());
+		connector.setAcceptors(configuration.getAcceptors());
+		connector.setAcceptQueueSize(configuration.getAcceptQueueSize());
+		connector.setMaxIdleTime(configuration.getMaxIdleTimeMillis());
+		connector.setRequestHeaderSize(configuration.getRequestHeaderSize());
+		connector.setRequestBufferSize(configuration.getRequestBufferSize());
+		connector.setResponseBufferSize(configuration.getResponseBufferSize());
+		server.addConnector(connector);
 
-		server = new Server(address);
 		if (handler != null) {
 			server.setHandler(handler);
 		}
+		server.start();
+		return new BookStoreServerHandle(server);
+	}
 
-		try {
-			server.start();
-			server.join();
-		} catch (Exception ex) {
-			ex.printStackTrace();
+	/**
+	 * Creates the thread pool of the configuration. Virtual threads are
+	 * created through reflection so that the server still builds and runs on
+	 * JDKs without them, where it falls back to the bounded pool.
+	 */
+	private static ThreadPool createThreadPool(
+			BookStoreServerConfiguration configuration) {
+		if (configuration.getThreadPoolType() == BookStoreServerConfiguration.ThreadPoolType.VIRTUAL) {
+			try {
+				Method newVirtualThreadPerTaskExecutor = java.util.concurrent.Executors.class
+						.getMethod("newVirtualThreadPerTaskExecutor");
+				return new ExecutorThreadPool(
+						(ExecutorService) newVirtualThreadPerTaskExecutor
+								.invoke(null));
+			} catch (Exception ex) {
+				System.err.println("Virtual threads are not available, "
+						+ "using a bounded thread pool: " + ex);
+			}
 		}
-		return true;
+		QueuedThreadPool threadPool = new QueuedThreadPool(
+				configuration.getMaxThreads());
+		threadPool.setMinThreads(configuration.getMinThreads());
+		return threadPool;
 	}
 
 }
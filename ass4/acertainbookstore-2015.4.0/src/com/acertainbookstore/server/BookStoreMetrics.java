@@ -0,0 +1,151 @@
+package com.acertainbookstore.server;
+
+import java.io.PrintWriter;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.acertainbookstore.utils.BookStoreMessageTag;
+import com.acertainbookstore.utils.ConcurrentHistogram;
+
+/**
+ * BookStoreMetrics counts the messages the server handles per message tag:
+ * the requests, the requests that failed with a BookStoreException, the bytes
+ * received and sent, and the time spent decoding the request, executing it
+ * against the bookstore, encoding the response and in total.
+ *
+ * Recording takes no lock, cf. LongAdder and ConcurrentHistogram. The
+ * metrics are written as plain text, one value per line in the exposition
+ * format of Prometheus, with the latencies given as quantiles in seconds.
+ *
+ */
+public class BookStoreMetrics {
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] PHASES = { "decode", "execute", "encode",
+			"total" };
+	private static final int DECODE = 0;
+	private static final int EXECUTE = 1;
+	private static final int ENCODE = 2;
+	private static final int TOTAL = 3;
+
+	private final Map<BookStoreMessageTag, TagMetrics> metrics = new EnumMap<BookStoreMessageTag, TagMetrics>(
+			BookStoreMessageTag.class);
+	private final LongAdder unknownRequests = new LongAdder();
+	private final long startTimeInNanoSecs = System.nanoTime();
+
+	public BookStoreMetrics() {
+		for (BookStoreMessageTag tag : BookStoreMessageTag.values()) {
+			metrics.put(tag, new TagMetrics());
+		}
+	}
+
+	/**
+	 * Records a handled message
+	 *
+	 * @param tag
+	 * @param decodeNanoSecs
+	 * @param executeNanoSecs
+	 * @param encodeNanoSecs
+	 * @param totalNanoSecs
+	 * @param bytesIn
+	 * @param bytesOut
+	 * @param failed
+	 *            whether the bookstore threw a BookStoreException
+	 */
+	public void record(BookStoreMessageTag tag, long decodeNanoSecs,
+			long executeNanoSecs, long encodeNanoSecs, long totalNanoSecs,
+			long bytesIn, long bytesOut, boolean failed) {
+		TagMetrics tagMetrics = metrics.get(tag);
+		tagMetrics.requests.increment();
+		if (failed) {
+			tagMetrics.exceptions.increment();
+		}
+		tagMetrics.bytesIn.add(Math.max(bytesIn, 0));
+		tagMetrics.bytesOut.add(Math.max(bytesOut, 0));
+		tagMetrics.latencies[DECODE].record(decodeNanoSecs);
+		tagMetrics.latencies[EXECUTE].record(executeNanoSecs);
+		tagMetrics.latencies[ENCODE].record(encodeNanoSecs);
+		tagMetrics.latencies[TOTAL].record(totalNanoSecs);
+	}
+
+	/**
+	 * Records a message whose tag the server does not know
+	 */
+	public void recordUnknown() {
+		unknownRequests.increment();
+	}
+
+	public long getRequests(BookStoreMessageTag tag) {
+		return metrics.get(tag).requests.sum();
+	}
+
+	public long getExceptions(BookStoreMessageTag tag) {
+		return metrics.get(tag).exceptions.sum();
+	}
+
+	public long getUnknownRequests() {
+		return unknownRequests.sum();
+	}
+
+	/**
+	 * Writes the metrics of the tags that had requests
+	 *
+	 * @param out
+	 */
+	public void write(PrintWriter out) {
+		out.printf(Locale.ROOT, "bookstore_uptime_seconds %.3f%n",
+				(System.nanoTime() - startTimeInNanoSecs) / 1e9);
+		out.println("bookstore_unknown_requests_total "
+				+ unknownRequests.sum());
+		for (Map.Entry<BookStoreMessageTag, TagMetrics> entry : metrics
+				.entrySet()) {
+			TagMetrics tagMetrics = entry.getValue();
+			long requests = tagMetrics.requests.sum();
+			if (requests == 0) {
+				continue;
+			}
+			String tag = "tag=\"" + entry.getKey() + "\"";
+			out.println("bookstore_requests_total{" + tag + "} " + requests);
+			out.println("bookstore_exceptions_total{" + tag + "} "
+					+ tagMetrics.exceptions.sum());
+			out.println("bookstore_received_bytes_total{" + tag + "} "
+					+ tagMetrics.bytesIn.sum());
+			out.println("bookstore_sent_bytes_total{" + tag + "} "
+					+ tagMetrics.bytesOut.sum());
+			for (int phase = 0; phase < PHASES.length; phase++) {
+				String labels = tag + ",phase=\"" + PHASES[phase] + "\"";
+				ConcurrentHistogram.Snapshot snapshot = tagMetrics.latencies[phase]
+						.snapshot();
+				for (double quantile : QUANTILES) {
+					out.printf(Locale.ROOT,
+							"bookstore_latency_seconds{%s,quantile=\"%s\"} %.9f%n",
+							labels, quantile,
+							snapshot.getValueAtPercentile(quantile * 100) / 1e9);
+				}
+				out.printf(Locale.ROOT,
+						"bookstore_latency_seconds_max{%s} %.9f%n", labels,
+						snapshot.getMax() / 1e9);
+				out.printf(Locale.ROOT,
+						"bookstore_latency_seconds_sum{%s} %.9f%n", labels,
+						snapshot.getSum() / 1e9);
+				out.println("bookstore_latency_seconds_count{" + labels
+						+ "} " + snapshot.getCount());
+			}
+		}
+	}
+
+	private static final class TagMetrics {
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder exceptions = new LongAdder();
+		private final LongAdder bytesIn = new LongAdder();
+		private final LongAdder bytesOut = new LongAdder();
+		private final ConcurrentHistogram[] latencies = new ConcurrentHistogram[PHASES.length];
+
+		private TagMetrics() {
+			for (int i = 0; i < latencies.length; i++) {
+				latencies[i] = new ConcurrentHistogram();
+			}
+		}
+	}
+}
@@ -0,0 +1,229 @@
+package com.acertainbookstore.server;
+
+import java.util.Properties;
+
+import com.acertainbookstore.utils.BookStoreConstants;
+
+/**
+ * BookStoreServerConfiguration represents the runtime parameters of the HTTP
+ * server: the address it listens on, the threads that run the requests and
+ * the tuning of its connector.
+ * 
+ * The defaults are the ones Jetty uses for a plain new Server(port). Every
+ * parameter can be set from a system property, cf. fromSystemProperties.
+ * 
+ */
+public class BookStoreServerConfiguration {
+
+	/**
+	 * The kinds of thread pools that can run the requests
+	 */
+	public enum ThreadPoolType {
+		/**
+		 * A pool of between minThreads and maxThreads platform threads
+		 */
+		BOUNDED,
+		/**
+		 * A new virtual thread per request, available on JDK 21 and later
+		 */
+		VIRTUAL;
+	}
+
+	private int port = 8081;
+	private String host = null;
+	private ThreadPoolType threadPoolType = ThreadPoolType.BOUNDED;
+	private int minThreads = 8;
+	private int maxThreads = 254;
+	private int acceptors = 1;
+	private int acceptQueueSize = 0;
+	private int maxIdleTimeMillis = 200000;
+	private int requestHeaderSize = 6 * 1024;
+	private int requestBufferSize = 16 * 1024;
+	private int responseBufferSize = 32 * 1024;
+
+	/**
+	 * Returns a configuration with the defaults overridden by the system
+	 * properties that are set
+	 * 
+	 * @return
+	 */
+	public static BookStoreServerConfiguration fromSystemProperties() {
+		return fromProperties(System.getProperties());
+	}
+
+	/**
+	 * Returns a configuration with the defaults overridden by the properties
+	 * that are set. Values that cannot be parsed are reported and ignored.
+	 * 
+	 * @param properties
+	 * @return
+	 */
+	public static BookStoreServerConfiguration fromProperties(
+			Properties properties) {
+		BookStoreServerConfiguration configuration = new BookStoreServerConfiguration();
+		configuration.setPort(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_PORT,
+				configuration.getPort()));
+		configuration.setHost(properties.getProperty(
+				BookStoreConstants.PROPERTY_KEY_SERVER_HOST,
+				configuration.getHost()));
+		String threadPoolType = properties
+				.getProperty(BookStoreConstants.PROPERTY_KEY_SERVER_THREAD_POOL);
+		if (threadPoolType != null) {
+			try {
+				configuration.setThreadPoolType(ThreadPoolType
+						.valueOf(threadPoolType.trim().toUpperCase()));
+			} catch (IllegalArgumentException ex) {
+				System.err.println(ex);
+			}
+		}
+		configuration.setMinThreads(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_MIN_THREADS,
+				configuration.getMinThreads()));
+		configuration.setMaxThreads(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_MAX_THREADS,
+				configuration.getMaxThreads()));
+		configuration.setAcceptors(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_ACCEPTORS,
+				configuration.getAcceptors()));
+		configuration.setAcceptQueueSize(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_ACCEPT_QUEUE,
+				configuration.getAcceptQueueSize()));
+		configuration.setMaxIdleTimeMillis(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_IDLE_TIMEOUT,
+				configuration.getMaxIdleTimeMillis()));
+		configuration.setRequestHeaderSize(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_REQUEST_HEADER_SIZE,
+				configuration.getRequestHeaderSize()));
+		configuration.setRequestBufferSize(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_REQUEST_BUFFER_SIZE,
+				configuration.getRequestBufferSize()));
+		configuration.setResponseBufferSize(intProperty(properties,
+				BookStoreConstants.PROPERTY_KEY_SERVER_RESPONSE_BUFFER_SIZE,
+				configuration.getResponseBufferSize()));
+		return configuration;
+	}
+
+	private static int intProperty(Properties properties, String key,
+			int defaultValue) {
+		String value = properties.getProperty(key);
+		if (value != null) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException ex) {
+				System.err.println(ex);
+			}
+		}
+		return defaultValue;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * Sets the port to listen on, 0 for any free port
+	 * 
+	 * @param port
+	 */
+	public void setPort(int port) {
+		this.port = port;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	/**
+	 * Sets the address to listen on, null for all addresses
+	 * 
+	 * @param host
+	 */
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public ThreadPoolType getThreadPoolType() {
+		return threadPoolType;
+	}
+
+	public void setThreadPoolType(ThreadPoolType threadPoolType) {
+		this.threadPoolType = threadPoolType;
+	}
+
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	public void setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * Sets the number of acceptor threads. The connector also runs one
+	 * selector per acceptor.
+	 * 
+	 * @param acceptors
+	 */
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	public int getAcceptQueueSize() {
+		return acceptQueueSize;
+	}
+
+	/**
+	 * Sets the backlog of connections waiting to be accepted, 0 for the
+	 * default of the operating system
+	 * 
+	 * @param acceptQueueSize
+	 */
+	public void setAcceptQueueSize(int acceptQueueSize) {
+		this.acceptQueueSize = acceptQueueSize;
+	}
+
+	public int getMaxIdleTimeMillis() {
+		return maxIdleTimeMillis;
+	}
+
+	public void setMaxIdleTimeMillis(int maxIdleTimeMillis) {
+		this.maxIdleTimeMillis = maxIdleTimeMillis;
+	}
+
+	public int getRequestHeaderSize() {
+		return requestHeaderSize;
+	}
+
+	public void setRequestHeaderSize(int requestHeaderSize) {
+		this.requestHeaderSize = requestHeaderSize;
+	}
+
+	public int getRequestBufferSize() {
+		return requestBufferSize;
+	}
+
+	public void setRequestBufferSize(int requestBufferSize) {
+		this.requestBufferSize = requestBufferSize;
+	}
+
+	public int getResponseBufferSize() {
+		return responseBufferSize;
+	}
+
+	public void setResponseBufferSize(int responseBufferSize) {
+		this.responseBufferSize = responseBufferSize;
+	}
+}
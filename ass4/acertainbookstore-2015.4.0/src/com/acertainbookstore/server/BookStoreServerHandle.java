@@ -0,0 +1,51 @@
+package com.acertainbookstore.server;
+
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+
+/**
+ * BookStoreServerHandle is returned for a started server so that the caller
+ * can find the port it listens on, wait for it or stop it.
+ * 
+ */
+public class BookStoreServerHandle {
+	private final Server server;
+
+	BookStoreServerHandle(Server server) {
+		this.server = server;
+	}
+
+	/**
+	 * Returns the port the server listens on, which is useful if it was
+	 * started on port 0
+	 * 
+	 * @return
+	 */
+	public int getLocalPort() {
+		Connector[] connectors = server.getConnectors();
+		return connectors.length > 0 ? connectors[0].getLocalPort() : -1;
+	}
+
+	public boolean isRunning() {
+		return server.isRunning();
+	}
+
+	/**
+	 * Blocks the calling thread until the server is stopped
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void join() throws InterruptedException {
+		server.join();
+	}
+
+	/**
+	 * Stops the server and waits for its threads to finish
+	 * 
+	 * @throws Exception
+	 */
+	public void stop() throws Exception {
+		server.stop();
+		server.join();
+	}
+}
@@ -0,0 +1,196 @@
+package com.acertainbookstore.server;
+
+import com.acertainbookstore.business.CatalogChange;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.CertainBookStore;
+import com.acertainbookstore.client.StockManagerHTTPProxy;
+import com.acertainbookstore.utils.BookStoreConstants;
+import com.acertainbookstore.utils.BookStoreException;
+
+/**
+ * CatalogReplicator keeps a CertainBookStore a replica of the bookstore of a
+ * primary server by pulling the changes to the primary's catalog, cf.
+ * CertainBookStore.getChanges, and applying them in order.
+ *
+ * The replicator waits for the next change with a long poll, so a change
+ * reaches the replica one round trip after it is committed on the primary.
+ * If the primary no longer keeps the changes after the last one applied, or
+ * restarted, the replicator reads the primary's whole catalog and goes on
+ * from there. The replicator tells a restarted primary by the epoch of its
+ * changes, since the sequence numbers start over with the new epoch. The replica applies the changes of the primary only, so it
+ * must not be changed otherwise; the server rejects changes sent to a
+ * replica.
+ *
+ * The sequence number of the last change applied tells how far the replica
+ * has caught up with the primary, and a reader can wait for it to reach the
+ * sequence number of its own last write, cf. awaitSequence.
+ *
+ */
+public class CatalogReplicator implements Runnable {
+	private static final long POLL_TIMEOUT_MILLISECS = 10000;
+	private static final long RETRY_DELAY_MILLISECS = 1000;
+
+	private final CertainBookStore bookStore;
+	private final StockManagerHTTPProxy primary;
+	private volatile boolean running = false;
+	private Thread thread = null;
+	// Guarded by the monitor of the replicator, 0 before the first change
+	private long appliedEpoch = 0;
+	private long appliedSequence = 0;
+
+	/**
+	 * Creates a replicator applying the changes of the server at
+	 * primaryAddress to the bookStore, which must be empty
+	 *
+	 * @param bookStore
+	 * @param primaryAddress
+	 * @throws Exception
+	 *             if the client to the primary cannot be started
+	 */
+	public CatalogReplicator(CertainBookStore bookStore, String primaryAddress)
+			throws Exception {
+		this.bookStore = bookStore;
+		this.primary = new StockManagerHTTPProxy(primaryAddress + "/stock");
+	}
+
+	/**
+	 * Starts pulling the changes in a daemon thread
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		running = true;
+		thread = new Thread(this, "CertainBookStore-replicator");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Stops pulling the changes and the client to the primary
+	 */
+	public void stop() throws InterruptedException {
+		Thread thread;
+		synchronized (this) {
+			running = false;
+			thread = this.thread;
+			notifyAll();
+		}
+		primary.stop();
+		if (thread != null) {
+			thread.join();
+		}
+	}
+
+	public synchronized long getAppliedSequence() {
+		return appliedSequence;
+	}
+
+	/**
+	 * Returns the epoch of the primary the applied sequence number belongs
+	 * to, 0 if nothing has been applied
+	 *
+	 * @return
+	 */
+	public synchronized long getAppliedEpoch() {
+		return appliedEpoch;
+	}
+
+	/**
+	 * Waits up to timeoutMillis for the replica to apply the change with the
+	 * sequence number, in whatever epoch
+	 *
+	 * @param sequence
+	 * @param timeoutMillis
+	 * @return whether the change has been applied
+	 * @throws InterruptedException
+	 */
+	public boolean awaitSequence(long sequence, long timeoutMillis)
+			throws InterruptedException {
+		return awaitSequence(0, sequence, timeoutMillis);
+	}
+
+	/**
+	 * Waits up to timeoutMillis for the replica to apply the change with the
+	 * sequence number of the epoch, or of any epoch if it is 0
+	 *
+	 * @param epoch
+	 * @param sequence
+	 * @param timeoutMillis
+	 * @return whether the change has been applied
+	 * @throws InterruptedException
+	 */
+	public synchronized boolean awaitSequence(long epoch, long sequence,
+			long timeoutMillis) throws InterruptedException {
+		long deadlineInNanoSecs = System.nanoTime() + timeoutMillis * 1000000;
+		while ((epoch != 0 && appliedEpoch != epoch)
+				|| appliedSequence < sequence) {
+			long remainingMillis = (deadlineInNanoSecs - System.nanoTime()) / 1000000;
+			if (remainingMillis <= 0) {
+				return false;
+			}
+			wait(remainingMillis);
+		}
+		return true;
+	}
+
+	public void run() {
+		while (running) {
+			try {
+				CatalogChanges changes = primary.getChanges(
+						getAppliedSequence(),
+						BookStoreConstants.MAX_CHANGES_PER_REQUEST,
+						POLL_TIMEOUT_MILLISECS);
+				long epoch = getAppliedEpoch();
+				if (changes.isResyncRequired()
+						|| (epoch != 0 && epoch != changes.getEpoch())) {
+					// The catalog read includes at least the changes up to
+					// the next sequence number
+					bookStore.resetCatalog(primary.getBooks());
+				} else {
+					for (CatalogChange change : changes.getChanges()) {
+						bookStore.applyChange(change);
+					}
+				}
+				setApplied(changes.getEpoch(), changes.getNextSequence());
+			} catch (BookStoreException ex) {
+				if (!backOff("Cannot replicate the primary: " + ex.getMessage())) {
+					break;
+				}
+			} catch (RuntimeException ex) {
+				// The changes applied before the failure are applied again on
+				// the retry, which leaves the replica with the same books
+				if (!backOff("Cannot apply the changes of the primary: " + ex)) {
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reports the failure and waits before the next try
+	 *
+	 * @param failure
+	 * @return whether the replicator is still running
+	 */
+	private boolean backOff(String failure) {
+		if (!running) {
+			return false;
+		}
+		System.err.println(failure);
+		synchronized (this) {
+			try {
+				wait(RETRY_DELAY_MILLISECS);
+			} catch (InterruptedException e) {
+				return false;
+			}
+		}
+		return running;
+	}
+
+	private synchronized void setApplied(long epoch, long sequence) {
+		appliedEpoch = epoch;
+		appliedSequence = sequence;
+		notifyAll();
+	}
+}
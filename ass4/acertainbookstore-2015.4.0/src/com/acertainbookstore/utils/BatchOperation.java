@@ -0,0 +1,34 @@
+package com.acertainbookstore.utils;
+
+/**
+ * One operation of a batch: the message tag of the operation and the argument
+ * it would have been sent with on its own, i.e. the set in the request body or
+ * the number of books in the query. Operations without an argument have a
+ * null argument.
+ * 
+ */
+public class BatchOperation {
+	private BookStoreMessageTag tag;
+	private Object argument;
+
+	public BatchOperation(BookStoreMessageTag tag, Object argument) {
+		this.setTag(tag);
+		this.setArgument(argument);
+	}
+
+	public BookStoreMessageTag getTag() {
+		return tag;
+	}
+
+	public void setTag(BookStoreMessageTag tag) {
+		this.tag = tag;
+	}
+
+	public Object getArgument() {
+		return argument;
+	}
+
+	public void setArgument(Object argument) {
+		this.argument = argument;
+	}
+}
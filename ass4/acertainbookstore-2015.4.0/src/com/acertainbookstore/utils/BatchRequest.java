@@ -0,0 +1,35 @@
+package com.acertainbookstore.utils;
+
+import java.util.List;
+
+/**
+ * Data Structure that we use to send an ordered list of operations to the
+ * server in one message. The server answers with one BookStoreResponse per
+ * operation. An atomic batch is applied completely or not at all.
+ * 
+ */
+public class BatchRequest {
+	private List<BatchOperation> operations;
+	private boolean atomic;
+
+	public BatchRequest(List<BatchOperation> operations, boolean atomic) {
+		this.setOperations(operations);
+		this.setAtomic(atomic);
+	}
+
+	public List<BatchOperation> getOperations() {
+		return operations;
+	}
+
+	public void setOperations(List<BatchOperation> operations) {
+		this.operations = operations;
+	}
+
+	public boolean isAtomic() {
+		return atomic;
+	}
+
+	public void setAtomic(boolean atomic) {
+		this.atomic = atomic;
+	}
+}
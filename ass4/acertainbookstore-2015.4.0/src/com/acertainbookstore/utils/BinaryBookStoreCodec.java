@@ -0,0 +1,436 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.CatalogChange;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+
+/**
+ * BinaryBookStoreCodec encodes messages in a compact binary format instead of
+ * XML.
+ *
+ * A message is a format version byte followed by one value. Every value starts
+ * with a tag byte naming its type. Ints and longs are zigzag varints, so small
+ * numbers and ISBNs take few bytes. Strings are the varint length of their
+ * UTF-8 bytes, at most MAX_STRING_BYTES, followed by the bytes, and floats are
+ * their 4 IEEE bytes. Sets and lists are a varint count followed by the
+ * elements; sets of ints, such as ISBN sets, are written without a tag per
+ * element. Books travel as their
+ * immutable versions and exceptions only carry their message. Batch operations
+ * carry the name of their message tag. Catalog changes carry their sequence
+ * numbers and epoch as varints.
+ *
+ */
+public class BinaryBookStoreCodec implements BookStoreCodec {
+	private static final int FORMAT_VERSION = 1;
+	private static final int MAX_INITIAL_CAPACITY = 1024;
+	// The longest string read, so that a malformed length cannot exhaust the
+	// memory of the server
+	private static final int MAX_STRING_BYTES = 1 << 16;
+
+	private static final int TAG_NULL = 0;
+	private static final int TAG_INT = 1;
+	private static final int TAG_LONG = 2;
+	private static final int TAG_STRING = 3;
+	private static final int TAG_FALSE = 4;
+	private static final int TAG_TRUE = 5;
+	private static final int TAG_INT_SET = 6;
+	private static final int TAG_SET = 7;
+	private static final int TAG_LIST = 8;
+	private static final int TAG_BOOK_COPY = 9;
+	private static final int TAG_BOOK = 10;
+	private static final int TAG_STOCK_BOOK = 11;
+	private static final int TAG_EDITOR_PICK = 12;
+	private static final int TAG_RATING = 13;
+	private static final int TAG_RESPONSE = 14;
+	private static final int TAG_EXCEPTION = 15;
+	private static final int TAG_BATCH_OPERATION = 16;
+	private static final int TAG_BATCH_REQUEST = 17;
+	private static final int TAG_CATALOG_CHANGE = 18;
+	private static final int TAG_CATALOG_CHANGES = 19;
+
+	public String getContentType() {
+		return BookStoreConstants.CONTENT_TYPE_BINARY;
+	}
+
+	public byte[] serialize(Object object) throws BookStoreException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			serialize(object, out);
+		} catch (IOException ex) {
+			throw new BookStoreException(ex);
+		}
+		return out.toByteArray();
+	}
+
+	public Object deserialize(byte[] data) throws BookStoreException {
+		try {
+			return deserialize(new ByteArrayInputStream(data));
+		} catch (IOException ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	public void serialize(Object object, OutputStream out) throws IOException,
+			BookStoreException {
+		out.write(FORMAT_VERSION);
+		writeValue(out, object);
+		out.flush();
+	}
+
+	public Object deserialize(InputStream in) throws IOException,
+			BookStoreException {
+		int version = readByte(in);
+		if (version != FORMAT_VERSION) {
+			throw new BookStoreException("Unsupported message version "
+					+ version);
+		}
+		return readValue(in);
+	}
+
+	private void writeValue(OutputStream out, Object value)
+			throws IOException, BookStoreException {
+		if (value == null) {
+			out.write(TAG_NULL);
+		} else if (value instanceof Integer) {
+			out.write(TAG_INT);
+			writeVarLong(out, (Integer) value);
+		} else if (value instanceof Long) {
+			out.write(TAG_LONG);
+			writeVarLong(out, (Long) value);
+		} else if (value instanceof String) {
+			out.write(TAG_STRING);
+			writeString(out, (String) value);
+		} else if (value instanceof Boolean) {
+			out.write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+		} else if (value instanceof Set) {
+			Set<?> set = (Set<?>) value;
+			if (!set.isEmpty() && isIntCollection(set)) {
+				out.write(TAG_INT_SET);
+				writeVarLong(out, set.size());
+				for (Object element : set) {
+					writeVarLong(out, (Integer) element);
+				}
+			} else {
+				out.write(TAG_SET);
+				writeCollection(out, set);
+			}
+		} else if (value instanceof List) {
+			out.write(TAG_LIST);
+			writeCollection(out, (List<?>) value);
+		} else if (value instanceof BookCopy) {
+			BookCopy bookCopy = (BookCopy) value;
+			out.write(TAG_BOOK_COPY);
+			writeVarLong(out, bookCopy.getISBN());
+			writeVarLong(out, bookCopy.getNumCopies());
+		} else if (value instanceof StockBook) {
+			StockBook book = (StockBook) value;
+			out.write(TAG_STOCK_BOOK);
+			writeBook(out, book);
+			writeVarLong(out, book.getNumCopies());
+			writeVarLong(out, book.getSaleMisses());
+			writeVarLong(out, book.getTimesRated());
+			writeVarLong(out, book.getTotalRating());
+			out.write(book.isEditorPick() ? 1 : 0);
+		} else if (value instanceof Book) {
+			out.write(TAG_BOOK);
+			writeBook(out, (Book) value);
+		} else if (value instanceof BookEditorPick) {
+			BookEditorPick editorPick = (BookEditorPick) value;
+			out.write(TAG_EDITOR_PICK);
+			writeVarLong(out, editorPick.getISBN());
+			out.write(editorPick.isEditorPick() ? 1 : 0);
+		} else if (value instanceof BookRating) {
+			BookRating rating = (BookRating) value;
+			out.write(TAG_RATING);
+			writeVarLong(out, rating.getISBN());
+			writeVarLong(out, rating.getRating());
+		} else if (value instanceof BookStoreResponse) {
+			BookStoreResponse response = (BookStoreResponse) value;
+			out.write(TAG_RESPONSE);
+			writeValue(out, response.getException());
+			writeValue(out, response.getList());
+		} else if (value instanceof BatchOperation) {
+			BatchOperation operation = (BatchOperation) value;
+			out.write(TAG_BATCH_OPERATION);
+			writeString(out, operation.getTag().name());
+			writeValue(out, operation.getArgument());
+		} else if (value instanceof BatchRequest) {
+			BatchRequest request = (BatchRequest) value;
+			out.write(TAG_BATCH_REQUEST);
+			out.write(request.isAtomic() ? 1 : 0);
+			writeValue(out, request.getOperations());
+		} else if (value instanceof CatalogChange) {
+			CatalogChange change = (CatalogChange) value;
+			out.write(TAG_CATALOG_CHANGE);
+			writeVarLong(out, change.getSequence());
+			writeValue(out, change.getBooks());
+			writeValue(out, change.getRemovedISBNs());
+		} else if (value instanceof CatalogChanges) {
+			CatalogChanges changes = (CatalogChanges) value;
+			out.write(TAG_CATALOG_CHANGES);
+			writeVarLong(out, changes.getNextSequence());
+			out.write(changes.isResyncRequired() ? 1 : 0);
+			writeVarLong(out, changes.getEpoch());
+			writeValue(out, changes.getChanges());
+		} else if (value instanceof BookStoreException) {
+			out.write(TAG_EXCEPTION);
+			writeNullableString(out, ((BookStoreException) value).getMessage());
+		} else {
+			throw new BookStoreException("Cannot serialize "
+					+ value.getClass().getName());
+		}
+	}
+
+	private Object readValue(InputStream in) throws IOException,
+			BookStoreException {
+		int tag = readByte(in);
+		switch (tag) {
+		case TAG_NULL:
+			return null;
+		case TAG_INT:
+			return readInt(in);
+		case TAG_LONG:
+			return readVarLong(in);
+		case TAG_STRING:
+			return readString(in);
+		case TAG_FALSE:
+			return Boolean.FALSE;
+		case TAG_TRUE:
+			return Boolean.TRUE;
+		case TAG_INT_SET: {
+			int size = readSize(in);
+			Set<Integer> set = new HashSet<Integer>(initialCapacity(size));
+			for (int i = 0; i < size; i++) {
+				set.add(readInt(in));
+			}
+			return set;
+		}
+		case TAG_SET: {
+			int size = readSize(in);
+			Set<Object> set = new HashSet<Object>(initialCapacity(size));
+			for (int i = 0; i < size; i++) {
+				set.add(readValue(in));
+			}
+			return set;
+		}
+		case TAG_LIST: {
+			int size = readSize(in);
+			List<Object> list = new ArrayList<Object>(initialCapacity(size));
+			for (int i = 0; i < size; i++) {
+				list.add(readValue(in));
+			}
+			return list;
+		}
+		case TAG_BOOK_COPY:
+			return new BookCopy(readInt(in), readInt(in));
+		case TAG_BOOK:
+			return new ImmutableBook(readInt(in), readNullableString(in),
+					readNullableString(in), readFloat(in));
+		case TAG_STOCK_BOOK: {
+			int isbn = readInt(in);
+			String title = readNullableString(in);
+			String author = readNullableString(in);
+			float price = readFloat(in);
+			int numCopies = readInt(in);
+			long saleMisses = readVarLong(in);
+			long timesRated = readVarLong(in);
+			long totalRating = readVarLong(in);
+			boolean editorPick = readByte(in) != 0;
+			return new ImmutableStockBook(isbn, title, author, price,
+					numCopies, saleMisses, timesRated, totalRating, editorPick);
+		}
+		case TAG_EDITOR_PICK:
+			return new BookEditorPick(readInt(in), readByte(in) != 0);
+		case TAG_RATING:
+			return new BookRating(readInt(in), readInt(in));
+		case TAG_RESPONSE: {
+			BookStoreResponse response = new BookStoreResponse();
+			response.setException((BookStoreException) readValue(in));
+			response.setList((List<?>) readValue(in));
+			return response;
+		}
+		case TAG_EXCEPTION:
+			return new BookStoreException(readNullableString(in));
+		case TAG_BATCH_OPERATION: {
+			String tagName = readString(in);
+			BookStoreMessageTag messageTag;
+			try {
+				messageTag = BookStoreMessageTag.valueOf(tagName);
+			} catch (IllegalArgumentException ex) {
+				throw new BookStoreException("Unknown message tag " + tagName);
+			}
+			return new BatchOperation(messageTag, readValue(in));
+		}
+		case TAG_BATCH_REQUEST: {
+			boolean atomic = readByte(in) != 0;
+			@SuppressWarnings("unchecked")
+			List<BatchOperation> operations = (List<BatchOperation>) readValue(in);
+			return new BatchRequest(operations, atomic);
+		}
+		case TAG_CATALOG_CHANGE: {
+			long sequence = readVarLong(in);
+			@SuppressWarnings("unchecked")
+			List<StockBook> books = (List<StockBook>) readValue(in);
+			@SuppressWarnings("unchecked")
+			Set<Integer> removedISBNs = (Set<Integer>) readValue(in);
+			return new CatalogChange(sequence, books, removedISBNs);
+		}
+		case TAG_CATALOG_CHANGES: {
+			long nextSequence = readVarLong(in);
+			boolean resyncRequired = readByte(in) != 0;
+			long epoch = readVarLong(in);
+			@SuppressWarnings("unchecked")
+			List<CatalogChange> changes = (List<CatalogChange>) readValue(in);
+			return new CatalogChanges(changes, nextSequence, resyncRequired,
+					epoch);
+		}
+		default:
+			throw new BookStoreException("Unknown value tag " + tag);
+		}
+	}
+
+	/**
+	 * Sizes collections from the count in the message, but does not trust a
+	 * large count before the elements have actually been read
+	 */
+	private static int initialCapacity(int size) {
+		return Math.min(size, MAX_INITIAL_CAPACITY);
+	}
+
+	private static boolean isIntCollection(Collection<?> collection) {
+		for (Object element : collection) {
+			if (!(element instanceof Integer)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void writeCollection(OutputStream out, Collection<?> collection)
+			throws IOException, BookStoreException {
+		writeVarLong(out, collection.size());
+		for (Object element : collection) {
+			writeValue(out, element);
+		}
+	}
+
+	private static void writeBook(OutputStream out, Book book)
+			throws IOException {
+		writeVarLong(out, book.getISBN());
+		writeNullableString(out, book.getTitle());
+		writeNullableString(out, book.getAuthor());
+		int bits = Float.floatToIntBits(book.getPrice());
+		out.write(bits >>> 24);
+		out.write(bits >>> 16);
+		out.write(bits >>> 8);
+		out.write(bits);
+	}
+
+	private static void writeVarLong(OutputStream out, long value)
+			throws IOException {
+		long zigzag = (value << 1) ^ (value >> 63);
+		while ((zigzag & ~0x7FL) != 0) {
+			out.write((int) ((zigzag & 0x7F) | 0x80));
+			zigzag >>>= 7;
+		}
+		out.write((int) zigzag);
+	}
+
+	private static void writeString(OutputStream out, String value)
+			throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(out, bytes.length);
+		out.write(bytes);
+	}
+
+	private static void writeNullableString(OutputStream out, String value)
+			throws IOException {
+		if (value == null) {
+			out.write(TAG_NULL);
+		} else {
+			out.write(TAG_STRING);
+			writeString(out, value);
+		}
+	}
+
+	private static int readByte(InputStream in) throws IOException {
+		int b = in.read();
+		if (b < 0) {
+			throw new EOFException();
+		}
+		return b;
+	}
+
+	private static long readVarLong(InputStream in) throws IOException {
+		long zigzag = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte(in);
+			zigzag |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return (zigzag >>> 1) ^ -(zigzag & 1);
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static int readInt(InputStream in) throws IOException {
+		return (int) readVarLong(in);
+	}
+
+	private static int readSize(InputStream in) throws IOException {
+		long size = readVarLong(in);
+		if (size < 0 || size > Integer.MAX_VALUE) {
+			throw new IOException("Malformed size " + size);
+		}
+		return (int) size;
+	}
+
+	private static float readFloat(InputStream in) throws IOException {
+		int bits = readByte(in) << 24 | readByte(in) << 16
+				| readByte(in) << 8 | readByte(in);
+		return Float.intBitsToFloat(bits);
+	}
+
+	private static String readString(InputStream in) throws IOException,
+			BookStoreException {
+		int size = readSize(in);
+		if (size > MAX_STRING_BYTES) {
+			throw new BookStoreException("String of " + size
+					+ " bytes is longer than " + MAX_STRING_BYTES + " bytes");
+		}
+		byte[] bytes = new byte[size];
+		int read = 0;
+		while (read < bytes.length) {
+			int n = in.read(bytes, read, bytes.length - read);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			read += n;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String readNullableString(InputStream in)
+			throws IOException, BookStoreException {
+		return readByte(in) == TAG_NULL ? null : readString(in);
+	}
+}
@@ -0,0 +1,66 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * BookStoreCodec converts the objects exchanged between the bookstore clients
+ * and server to and from the bytes sent over HTTP. The codec used for a message
+ * is identified by its content type, cf. BookStoreUtility.getCodec.
+ *
+ * The stream methods let the server decode and encode messages without
+ * holding a copy of the whole message in memory.
+ *
+ */
+public interface BookStoreCodec {
+
+	/**
+	 * Returns the content type of the messages produced by the codec
+	 *
+	 * @return
+	 */
+	public String getContentType();
+
+	/**
+	 * Serializes an object to bytes
+	 *
+	 * @param object
+	 * @return
+	 * @throws BookStoreException
+	 */
+	public byte[] serialize(Object object) throws BookStoreException;
+
+	/**
+	 * De-serializes bytes produced by serialize to an object
+	 *
+	 * @param data
+	 * @return
+	 * @throws BookStoreException
+	 */
+	public Object deserialize(byte[] data) throws BookStoreException;
+
+	/**
+	 * Serializes an object into a stream. The stream is flushed but not
+	 * closed.
+	 *
+	 * @param object
+	 * @param out
+	 * @throws IOException
+	 * @throws BookStoreException
+	 */
+	public void serialize(Object object, OutputStream out) throws IOException,
+			BookStoreException;
+
+	/**
+	 * De-serializes an object from a stream holding a message produced by
+	 * serialize
+	 *
+	 * @param in
+	 * @return
+	 * @throws IOException
+	 * @throws BookStoreException
+	 */
+	public Object deserialize(InputStream in) throws IOException,
+			BookStoreException;
+}
@@ -14,6 +14,9 @@ public final class BookStoreConstants {
 	public static final String BOOKISBN_PARAM = "ISBN";
 	public static final String BOOK_NUM_PARAM = "number_of_books";
 	public static final String XMLSTRINGLEN_PARAM = "len";
+	public static final String CHANGES_SINCE_PARAM = "since";
+	public static final String CHANGES_MAX_PARAM = "max_changes";
+	public static final String CHANGES_TIMEOUT_PARAM = "timeout_millis";
 	
 	// Used as error code when converting numbers to integer
 	public static final int INVALID_PARAMS = -1;
@@ -29,8 +32,84 @@ public final class BookStoreConstants {
 	public static final String ISBN = "The ISBN: ";
 	public static final String NUM_COPIES = "The Number of copies: ";
 	public static final String RATING = "The rating: ";
+	public static final String OPERATION = "The operation: ";
+	// When a batch holds an operation the sender may not run
+	public static final String NOT_ALLOWED = " is not allowed in this batch";
 	public static final String NULL_INPUT = "null input parameters";
+	public static final String NO_CHECKPOINTS = "The bookstore has no log to checkpoint";
+	// When a replica is asked to change the store or has not caught up with
+	// the sequence number a client requires
+	public static final String NOT_ALLOWED_ON_REPLICA = " is not allowed on a replica";
+	public static final String REPLICA_BEHIND = "The replica has not caught up with the primary";
 
 	public static final String PROPERTY_KEY_LOCAL_TEST = "localtest";
 	public static final String PROPERTY_KEY_SERVER_PORT = "port";
+	public static final String PROPERTY_KEY_CODEC = "codec";
+
+	// Properties tuning the HTTP server, cf. BookStoreServerConfiguration
+	public static final String PROPERTY_KEY_SERVER_HOST = "host";
+	public static final String PROPERTY_KEY_SERVER_THREAD_POOL = "server.threadpool";
+	public static final String PROPERTY_KEY_SERVER_MIN_THREADS = "server.minthreads";
+	public static final String PROPERTY_KEY_SERVER_MAX_THREADS = "server.maxthreads";
+	public static final String PROPERTY_KEY_SERVER_ACCEPTORS = "server.acceptors";
+	public static final String PROPERTY_KEY_SERVER_ACCEPT_QUEUE = "server.acceptqueue";
+	public static final String PROPERTY_KEY_SERVER_IDLE_TIMEOUT = "server.idletimeout";
+	public static final String PROPERTY_KEY_SERVER_REQUEST_HEADER_SIZE = "server.requestheadersize";
+	public static final String PROPERTY_KEY_SERVER_REQUEST_BUFFER_SIZE = "server.requestbuffersize";
+	public static final String PROPERTY_KEY_SERVER_RESPONSE_BUFFER_SIZE = "server.responsebuffersize";
+
+	// Properties enabling the write-ahead log, cf. WriteAheadLog; the
+	// durability is one of fsync, periodic or none
+	public static final String PROPERTY_KEY_WAL_DIRECTORY = "wal.dir";
+	public static final String PROPERTY_KEY_WAL_DURABILITY = "wal.durability";
+	public static final String PROPERTY_KEY_WAL_SYNC_INTERVAL = "wal.syncinterval";
+	// Milliseconds between checkpoints, 0 to take none
+	public static final String PROPERTY_KEY_WAL_CHECKPOINT_INTERVAL = "wal.checkpointinterval";
+
+	// Interactions per second the workload starts on a fixed schedule, 0 to
+	// run it in a closed loop, cf. Worker
+	public static final String PROPERTY_KEY_WORKLOAD_RATE = "workload.rate";
+	// Books seeded before the workload runs and the popularity of the books
+	// bought and rated, one of uniform, zipf:skew or
+	// hotspot:hotFraction:hotProbability, cf. PopularityDistribution
+	public static final String PROPERTY_KEY_WORKLOAD_CATALOG_SIZE = "workload.catalogsize";
+	public static final String PROPERTY_KEY_WORKLOAD_POPULARITY = "workload.popularity";
+	// Percentage of the interactions rating books
+	public static final String PROPERTY_KEY_WORKLOAD_RATING_PERCENT = "workload.ratingpercent";
+
+	// Content types of the codecs the clients and server can exchange
+	// messages in
+	public static final String CONTENT_TYPE_XML = "text/xml";
+	public static final String CONTENT_TYPE_BINARY = "application/x-acertainbookstore";
+	public static final String CODEC_XML = "xml";
+	public static final String CODEC_BINARY = "binary";
+
+	// The path the server serves its metrics on, as plain text, cf.
+	// BookStoreMetrics
+	public static final String METRICS_PATH = "/metrics";
+	public static final String CONTENT_TYPE_TEXT = "text/plain; charset=utf-8";
+
+	// Changes the bookstore keeps for GETCHANGES, the most it returns at once
+	// and the longest it waits for a change, which is below the client
+	// timeout, cf. CatalogChangeFeed
+	public static final int CHANGE_FEED_CAPACITY = 4096;
+	public static final int MAX_CHANGES_PER_REQUEST = 1024;
+	public static final long MAX_CHANGES_WAIT_MILLISECS = 20000;
+
+	// Address of the primary a server replicates, which makes the server a
+	// read-only replica, cf. CatalogReplicator
+	public static final String PROPERTY_KEY_REPLICA_PRIMARY = "replica.primary";
+	// Header with the sequence number of the last change to the catalog the
+	// response reflects, header with the epoch of that sequence number, and
+	// header with the sequence number a read must reflect, which a replica
+	// waits for up to REPLICA_MAX_WAIT_MILLISECS in the epoch the request
+	// names in the epoch header
+	public static final String SEQUENCE_HEADER = "X-Catalog-Sequence";
+	public static final String EPOCH_HEADER = "X-Catalog-Epoch";
+	public static final String MIN_SEQUENCE_HEADER = "X-Min-Catalog-Sequence";
+	public static final long REPLICA_MAX_WAIT_MILLISECS = 1000;
+
+	// Buffers used to stream messages in and out of the server
+	public static final int STREAM_BUFFER_SIZE = 8192;
+	public static final int MAX_POOLED_STREAM_BUFFERS = 256;
 }
@@ -8,5 +8,5 @@ package com.acertainbookstore.utils;
  * 
  */
 public enum BookStoreMessageTag {
-	ADDBOOKS, LISTBOOKS, ADDCOPIES, GETBOOKS, BUYBOOKS, UPDATEEDITORPICKS, EDITORPICKS, REMOVEALLBOOKS, REMOVEBOOKS, GETSTOCKBOOKSBYISBN;
+	ADDBOOKS, LISTBOOKS, ADDCOPIES, GETBOOKS, BUYBOOKS, UPDATEEDITORPICKS, EDITORPICKS, REMOVEALLBOOKS, REMOVEBOOKS, GETSTOCKBOOKSBYISBN, RATEBOOKS, GETTOPRATEDBOOKS, GETBOOKSINDEMAND, BATCH, GETCHANGES;
 }
@@ -4,19 +4,20 @@
 package com.acertainbookstore.utils;
 
 import java.io.IOException;
-import java.io.Reader;
-import java.io.UnsupportedEncodingException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import org.eclipse.jetty.client.ContentExchange;
 import org.eclipse.jetty.client.HttpClient;
 import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeaders;
 
 import com.acertainbookstore.client.BookStoreClientConstants;
-import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
  * BookStoreUtility implements utility methods used by bookstore servers and
@@ -24,6 +25,11 @@ import com.thoughtworks.xstream.io.xml.StaxDriver;
  * 
  */
 public final class BookStoreUtility {
+	private static final BookStoreCodec XML_CODEC = new XMLBookStoreCodec();
+	private static final BookStoreCodec BINARY_CODEC = new BinaryBookStoreCodec();
+	private static final BufferPool BUFFER_POOL = new BufferPool(
+			BookStoreConstants.STREAM_BUFFER_SIZE,
+			BookStoreConstants.MAX_POOLED_STREAM_BUFFERS);
 
 	public static boolean isInvalidISBN(int isbn) {
 		return (isbn < 1);
@@ -86,6 +92,15 @@ public final class BookStoreUtility {
 		return returnValue;
 	}
 
+	public static long convertStringToLong(String str)
+			throws BookStoreException {
+		try {
+			return Long.parseLong(str);
+		} catch (Exception ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
 	/**
 	 * Convert a request URI to the message tags supported in CertainBookStore
 	 * 
@@ -107,35 +122,80 @@ public final class BookStoreUtility {
 	}
 
 	/**
-	 * Serializes an object to an xml string
+	 * Serializes an object to an xml string with the shared XStream
 	 * 
 	 * @param object
 	 * @return
 	 */
 	public static String serializeObjectToXMLString(Object object) {
-		String xmlString;
-		XStream xmlStream = new XStream(new StaxDriver());
-		xmlString = xmlStream.toXML(object);
-		return xmlString;
+		return BookStoreXStream.getInstance().toXML(object);
 	}
 
 	/**
-	 * De-serializes an xml string to object
+	 * De-serializes an xml string to object with the shared XStream
 	 * 
 	 * @param xmlObject
 	 * @return
 	 */
 	public static Object deserializeXMLStringToObject(String xmlObject) {
-		Object dataObject = null;
-		XStream xmlStream = new XStream(new StaxDriver());
-		dataObject = xmlStream.fromXML(xmlObject);
-		return dataObject;
+		return BookStoreXStream.getInstance().fromXML(xmlObject);
+	}
+
+
+	/**
+	 * Returns the codec named by a Content-Type or Accept header value, the
+	 * XML codec if the value does not name a known codec
+	 * 
+	 * @param contentType
+	 * @return
+	 */
+	public static BookStoreCodec getCodec(String contentType) {
+		return getResponseCodec(contentType, XML_CODEC);
+	}
+
+	/**
+	 * Returns the first known codec named by an Accept header value, or the
+	 * fallback codec if it names none
+	 * 
+	 * @param accept
+	 * @param fallback
+	 * @return
+	 */
+	public static BookStoreCodec getResponseCodec(String accept,
+			BookStoreCodec fallback) {
+		if (accept != null) {
+			for (String mediaRange : accept.split(",")) {
+				String mediaType = mediaRange.split(";")[0].trim();
+				if (mediaType
+						.equalsIgnoreCase(BookStoreConstants.CONTENT_TYPE_BINARY)) {
+					return BINARY_CODEC;
+				} else if (mediaType
+						.equalsIgnoreCase(BookStoreConstants.CONTENT_TYPE_XML)) {
+					return XML_CODEC;
+				}
+			}
+		}
+		return fallback;
 	}
 
+	/**
+	 * Returns the codec selected by the codec system property, which the
+	 * clients use to talk to the server. Binary unless xml is asked for.
+	 * 
+	 * @return
+	 */
+	public static BookStoreCodec getClientCodec() {
+		String codecName = System
+				.getProperty(BookStoreConstants.PROPERTY_KEY_CODEC);
+		if (BookStoreConstants.CODEC_XML.equalsIgnoreCase(codecName)) {
+			return XML_CODEC;
+		}
+		return BINARY_CODEC;
+	}
 
 	/**
 	 * Manages the sending of an exchange through the client, waits for the
-	 * response and unpacks the response
+	 * response and unpacks the response. Messages are exchanged in XML.
 	 * 
 	 * @param client
 	 * @param exchange
@@ -144,7 +204,25 @@ public final class BookStoreUtility {
 	 */
 	public static List<?> SendAndRecv(HttpClient client,
 			ContentExchange exchange) throws BookStoreException {
+		return SendAndRecv(client, exchange, XML_CODEC);
+	}
+
+	/**
+	 * Manages the sending of an exchange through the client, waits for the
+	 * response and unpacks the response. The request content must have been
+	 * serialized with the codec, which is also asked for the response.
+	 * 
+	 * @param client
+	 * @param exchange
+	 * @param codec
+	 * @return A List<Book> for a get function, otherwise null
+	 * @throws BookStoreException
+	 */
+	public static List<?> SendAndRecv(HttpClient client,
+			ContentExchange exchange, BookStoreCodec codec)
+			throws BookStoreException {
 		int exchangeState;
+		prepareExchange(exchange, codec);
 		try {
 			client.send(exchange);
 		} catch (IOException ex) {
@@ -161,21 +239,7 @@ public final class BookStoreUtility {
 		}
 
 		if (exchangeState == HttpExchange.STATUS_COMPLETED) {
-			try {
-				BookStoreResponse bookStoreResponse = (BookStoreResponse) BookStoreUtility
-						.deserializeXMLStringToObject(exchange
-								.getResponseContent().trim());
-				BookStoreException ex = bookStoreResponse.getException();
-				if (ex != null) {
-					throw ex;
-				}
-				return bookStoreResponse.getList();
-				
-			} catch (UnsupportedEncodingException ex) {
-				throw new BookStoreException(
-						BookStoreClientConstants.strERR_CLIENT_RESPONSE_DECODING,
-						ex);
-			}
+			return decodeResponse(exchange, codec);
 		} else if (exchangeState == HttpExchange.STATUS_EXCEPTED) {
 			throw new BookStoreException(
 					BookStoreClientConstants.strERR_CLIENT_REQUEST_EXCEPTION);
@@ -189,21 +253,104 @@ public final class BookStoreUtility {
 	}
 
 	/**
-	 * Returns the message of the request as a string
+	 * Sets the headers telling the server which codec the request content is
+	 * in and which codec the response should be in
+	 * 
+	 * @param exchange
+	 * @param codec
+	 */
+	public static void prepareExchange(ContentExchange exchange,
+			BookStoreCodec codec) {
+		exchange.setRequestHeader(HttpHeaders.ACCEPT, codec.getContentType());
+		if (exchange.getRequestContent() != null) {
+			exchange.setRequestContentType(codec.getContentType());
+		}
+	}
+
+	/**
+	 * Unpacks the response of a completed exchange. The response is decoded
+	 * with the codec named by its Content-Type if the exchange caches the
+	 * response headers, otherwise with the codec given.
+	 * 
+	 * @param exchange
+	 * @param codec
+	 * @return A List<Book> for a get function, otherwise null
+	 * @throws BookStoreException
+	 *             the exception sent by the server, or if the response could
+	 *             not be decoded
+	 */
+	public static List<?> decodeResponse(ContentExchange exchange,
+			BookStoreCodec codec) throws BookStoreException {
+		BookStoreCodec responseCodec = codec;
+		HttpFields responseFields = exchange.getResponseFields();
+		if (responseFields != null) {
+			responseCodec = getCodec(responseFields
+					.getStringField(HttpHeaders.CONTENT_TYPE));
+		}
+		byte[] responseContent = exchange.getResponseContentBytes();
+		if (responseContent == null) {
+			throw new BookStoreException(
+					BookStoreClientConstants.strERR_CLIENT_RESPONSE_DECODING);
+		}
+		BookStoreResponse bookStoreResponse;
+		try {
+			bookStoreResponse = (BookStoreResponse) responseCodec
+					.deserialize(responseContent);
+		} catch (RuntimeException ex) {
+			throw new BookStoreException(
+					BookStoreClientConstants.strERR_CLIENT_RESPONSE_DECODING, ex);
+		}
+		BookStoreException ex = bookStoreResponse.getException();
+		if (ex != null) {
+			throw ex;
+		}
+		return bookStoreResponse.getList();
+	}
+
+	/**
+	 * De-serializes the message of the request with the codec, reading it
+	 * straight from the request stream
 	 * 
 	 * @param request
-	 * @return xml string
+	 * @param codec
+	 * @return
 	 * @throws IOException
+	 * @throws BookStoreException
 	 */
-	public static String extractPOSTDataFromRequest(HttpServletRequest request)
+	public static Object deserializeRequest(HttpServletRequest request,
+			BookStoreCodec codec) throws IOException, BookStoreException {
+		InputStream in = new PooledBufferedInputStream(
+				request.getInputStream(), BUFFER_POOL);
+		try {
+			return codec.deserialize(in);
+		} catch (RuntimeException ex) {
+			throw new BookStoreException(ex);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Serializes the response with the codec straight into the content of the
+	 * HTTP response
+	 * 
+	 * @param response
+	 * @param codec
+	 * @param bookStoreResponse
+	 * @throws IOException
+	 */
+	public static void serializeResponse(HttpServletResponse response,
+			BookStoreCodec codec, BookStoreResponse bookStoreResponse)
 			throws IOException {
-		Reader reader = request.getReader();
-		int len = request.getContentLength();
-
-		// Request must be read into a char[] first
-		char res[] = new char[len];
-		reader.read(res);
-		reader.close();
-		return new String(res);
+		response.setContentType(codec.getContentType());
+		OutputStream out = new PooledBufferedOutputStream(
+				response.getOutputStream(), BUFFER_POOL);
+		try {
+			codec.serialize(bookStoreResponse, out);
+		} catch (BookStoreException ex) {
+			throw new IOException(ex);
+		} finally {
+			out.close();
+		}
 	}
 }
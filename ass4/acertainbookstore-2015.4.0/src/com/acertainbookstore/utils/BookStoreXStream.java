@@ -0,0 +1,302 @@
+package com.acertainbookstore.utils;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.acertainbookstore.business.Book;
+import com.acertainbookstore.business.BookCopy;
+import com.acertainbookstore.business.BookEditorPick;
+import com.acertainbookstore.business.BookRating;
+import com.acertainbookstore.business.BookStoreBook;
+import com.acertainbookstore.business.CatalogChange;
+import com.acertainbookstore.business.CatalogChanges;
+import com.acertainbookstore.business.ImmutableBook;
+import com.acertainbookstore.business.ImmutableStockBook;
+import com.acertainbookstore.business.StockBook;
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+import com.thoughtworks.xstream.io.xml.StaxDriver;
+
+/**
+ * BookStoreXStream holds the XStream instance shared by all XML serialization
+ * in the bookstore.
+ *
+ * Building an XStream sets up its mappers and reflection caches, so it is done
+ * once and the configured instance is shared; XStream is thread-safe once it
+ * is configured. All business classes get short aliases, and the types sent in
+ * every message have explicit converters instead of the reflection converter.
+ *
+ */
+public final class BookStoreXStream {
+	private static final XStream XSTREAM = createXStream();
+
+	private BookStoreXStream() {
+	}
+
+	/**
+	 * Returns the shared XStream instance
+	 *
+	 * @return
+	 */
+	public static XStream getInstance() {
+		return XSTREAM;
+	}
+
+	/**
+	 * Serializes and de-serializes a message with each of the registered types,
+	 * so that the classes are loaded and the XStream caches are filled before
+	 * the first request
+	 */
+	public static void warmUp() {
+		List<Object> books = new ArrayList<Object>();
+		books.add(new ImmutableBook(1, "title", "author", 1.0f));
+		books.add(new ImmutableStockBook(1, "title", "author", 1.0f, 1, 0, 0,
+				0, false));
+		Set<Object> requests = new HashSet<Object>();
+		requests.add(1);
+		requests.add(new BookCopy(1, 1));
+		requests.add(new BookEditorPick(1, true));
+		requests.add(new BookRating(1, 1));
+
+		BookStoreResponse response = new BookStoreResponse();
+		response.setList(books);
+		XSTREAM.fromXML(XSTREAM.toXML(response));
+		response = new BookStoreResponse();
+		response.setException(new BookStoreException("warm up"));
+		XSTREAM.fromXML(XSTREAM.toXML(response));
+		XSTREAM.fromXML(XSTREAM.toXML(requests));
+	}
+
+	private static XStream createXStream() {
+		XStream xStream = new XStream(new StaxDriver());
+
+		xStream.alias("book", ImmutableBook.class);
+		xStream.alias("stockBook", ImmutableStockBook.class);
+		xStream.alias("bookStoreBook", BookStoreBook.class);
+		xStream.alias("bookCopy", BookCopy.class);
+		xStream.alias("editorPick", BookEditorPick.class);
+		xStream.alias("rating", BookRating.class);
+		xStream.alias("response", BookStoreResponse.class);
+		xStream.alias("exception", BookStoreException.class);
+		xStream.alias("batch", BatchRequest.class);
+		xStream.alias("operation", BatchOperation.class);
+		xStream.alias("change", CatalogChange.class);
+		xStream.alias("changes", CatalogChanges.class);
+
+		xStream.registerConverter(new BookConverter());
+		xStream.registerConverter(new StockBookConverter());
+		xStream.registerConverter(new BookCopyConverter());
+		xStream.registerConverter(new EditorPickConverter());
+		xStream.registerConverter(new RatingConverter());
+		xStream.registerConverter(new ExceptionConverter());
+		return xStream;
+	}
+
+	private static void writeBook(Book book, HierarchicalStreamWriter writer) {
+		writer.addAttribute("isbn", Integer.toString(book.getISBN()));
+		writer.addAttribute("price", Float.toString(book.getPrice()));
+		writeNode(writer, "title", book.getTitle());
+		writeNode(writer, "author", book.getAuthor());
+	}
+
+	private static void writeNode(HierarchicalStreamWriter writer, String name,
+			String value) {
+		if (value != null) {
+			writer.startNode(name);
+			writer.setValue(value);
+			writer.endNode();
+		}
+	}
+
+	private static int intAttribute(HierarchicalStreamReader reader,
+			String name) {
+		return Integer.parseInt(reader.getAttribute(name));
+	}
+
+	private static long longAttribute(HierarchicalStreamReader reader,
+			String name) {
+		return Long.parseLong(reader.getAttribute(name));
+	}
+
+	/**
+	 * Reads the title and author nodes of a book, either of which may be
+	 * missing if it was null
+	 */
+	private static String[] readTitleAndAuthor(HierarchicalStreamReader reader) {
+		String[] titleAndAuthor = new String[2];
+		while (reader.hasMoreChildren()) {
+			reader.moveDown();
+			if ("title".equals(reader.getNodeName())) {
+				titleAndAuthor[0] = reader.getValue();
+			} else if ("author".equals(reader.getNodeName())) {
+				titleAndAuthor[1] = reader.getValue();
+			}
+			reader.moveUp();
+		}
+		return titleAndAuthor;
+	}
+
+	private static class BookConverter implements Converter {
+
+		@SuppressWarnings("rawtypes")
+		public boolean canConvert(Class type) {
+			return type == ImmutableBook.class;
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer,
+				MarshallingContext context) {
+			writeBook((Book) source, writer);
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader,
+				UnmarshallingContext context) {
+			int isbn = intAttribute(reader, "isbn");
+			float price = Float.parseFloat(reader.getAttribute("price"));
+			String[] titleAndAuthor = readTitleAndAuthor(reader);
+			return new ImmutableBook(isbn, titleAndAuthor[0],
+					titleAndAuthor[1], price);
+		}
+	}
+
+	private static class StockBookConverter implements Converter {
+
+		@SuppressWarnings("rawtypes")
+		public boolean canConvert(Class type) {
+			return type == ImmutableStockBook.class;
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer,
+				MarshallingContext context) {
+			StockBook book = (StockBook) source;
+			writer.addAttribute("numCopies",
+					Integer.toString(book.getNumCopies()));
+			writer.addAttribute("saleMisses",
+					Long.toString(book.getSaleMisses()));
+			writer.addAttribute("timesRated",
+					Long.toString(book.getTimesRated()));
+			writer.addAttribute("totalRating",
+					Long.toString(book.getTotalRating()));
+			writer.addAttribute("editorPick",
+					Boolean.toString(book.isEditorPick()));
+			writeBook(book, writer);
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader,
+				UnmarshallingContext context) {
+			int isbn = intAttribute(reader, "isbn");
+			float price = Float.parseFloat(reader.getAttribute("price"));
+			int numCopies = intAttribute(reader, "numCopies");
+			long saleMisses = longAttribute(reader, "saleMisses");
+			long timesRated = longAttribute(reader, "timesRated");
+			long totalRating = longAttribute(reader, "totalRating");
+			boolean editorPick = Boolean.parseBoolean(reader
+					.getAttribute("editorPick"));
+			String[] titleAndAuthor = readTitleAndAuthor(reader);
+			return new ImmutableStockBook(isbn, titleAndAuthor[0],
+					titleAndAuthor[1], price, numCopies, saleMisses,
+					timesRated, totalRating, editorPick);
+		}
+	}
+
+	private static class BookCopyConverter implements Converter {
+
+		@SuppressWarnings("rawtypes")
+		public boolean canConvert(Class type) {
+			return type == BookCopy.class;
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer,
+				MarshallingContext context) {
+			BookCopy bookCopy = (BookCopy) source;
+			writer.addAttribute("isbn", Integer.toString(bookCopy.getISBN()));
+			writer.addAttribute("numCopies",
+					Integer.toString(bookCopy.getNumCopies()));
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader,
+				UnmarshallingContext context) {
+			return new BookCopy(intAttribute(reader, "isbn"), intAttribute(
+					reader, "numCopies"));
+		}
+	}
+
+	private static class EditorPickConverter implements Converter {
+
+		@SuppressWarnings("rawtypes")
+		public boolean canConvert(Class type) {
+			return type == BookEditorPick.class;
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer,
+				MarshallingContext context) {
+			BookEditorPick editorPick = (BookEditorPick) source;
+			writer.addAttribute("isbn", Integer.toString(editorPick.getISBN()));
+			writer.addAttribute("editorPick",
+					Boolean.toString(editorPick.isEditorPick()));
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader,
+				UnmarshallingContext context) {
+			return new BookEditorPick(intAttribute(reader, "isbn"),
+					Boolean.parseBoolean(reader.getAttribute("editorPick")));
+		}
+	}
+
+	private static class RatingConverter implements Converter {
+
+		@SuppressWarnings("rawtypes")
+		public boolean canConvert(Class type) {
+			return type == BookRating.class;
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer,
+				MarshallingContext context) {
+			BookRating rating = (BookRating) source;
+			writer.addAttribute("isbn", Integer.toString(rating.getISBN()));
+			writer.addAttribute("rating", Integer.toString(rating.getRating()));
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader,
+				UnmarshallingContext context) {
+			return new BookRating(intAttribute(reader, "isbn"), intAttribute(
+					reader, "rating"));
+		}
+	}
+
+	/**
+	 * Exceptions only carry their message, as the stack trace of the server is
+	 * of no use to the client and is by far the largest part of the message
+	 */
+	private static class ExceptionConverter implements Converter {
+
+		@SuppressWarnings("rawtypes")
+		public boolean canConvert(Class type) {
+			return type == BookStoreException.class;
+		}
+
+		public void marshal(Object source, HierarchicalStreamWriter writer,
+				MarshallingContext context) {
+			writeNode(writer, "message",
+					((BookStoreException) source).getMessage());
+		}
+
+		public Object unmarshal(HierarchicalStreamReader reader,
+				UnmarshallingContext context) {
+			String message = null;
+			while (reader.hasMoreChildren()) {
+				reader.moveDown();
+				if ("message".equals(reader.getNodeName())) {
+					message = reader.getValue();
+				}
+				reader.moveUp();
+			}
+			return new BookStoreException(message);
+		}
+	}
+}
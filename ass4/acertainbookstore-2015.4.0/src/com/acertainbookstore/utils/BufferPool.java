@@ -0,0 +1,49 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * BufferPool keeps a bounded number of byte buffers of one size for reuse, so
+ * that streaming a message does not allocate a fresh buffer per request.
+ * Buffers are handed out to one user at a time and must be released when the
+ * user is done with them.
+ *
+ */
+public final class BufferPool {
+	private final int bufferSize;
+	private final BlockingQueue<byte[]> buffers;
+
+	/**
+	 * Creates a pool that keeps at most maxPooledBuffers buffers of
+	 * bufferSize bytes each
+	 *
+	 * @param bufferSize
+	 * @param maxPooledBuffers
+	 */
+	public BufferPool(int bufferSize, int maxPooledBuffers) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<byte[]>(maxPooledBuffers);
+	}
+
+	/**
+	 * Returns a pooled buffer, or a new one if the pool is empty
+	 *
+	 * @return
+	 */
+	public byte[] acquire() {
+		byte[] buffer = buffers.poll();
+		return buffer != null ? buffer : new byte[bufferSize];
+	}
+
+	/**
+	 * Returns a buffer to the pool. It is dropped if the pool is full.
+	 *
+	 * @param buffer
+	 */
+	public void release(byte[] buffer) {
+		if (buffer != null && buffer.length == bufferSize) {
+			buffers.offer(buffer);
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package com.acertainbookstore.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentHistogram counts non-negative values, such as latencies in
+ * nanoseconds, from many threads without locks.
+ *
+ * The values are counted in the buckets of HistogramBuckets with
+ * SUB_BUCKET_BITS, so a value is kept with a relative error below 4%.
+ * Recording a value is an atomic increment of its bucket and an addition to
+ * a LongAdder. Percentiles are computed from a snapshot of the buckets, which
+ * may miss the values recorded while it is taken.
+ *
+ */
+public class ConcurrentHistogram {
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final HistogramBuckets BUCKETS = new HistogramBuckets(
+			SUB_BUCKET_BITS);
+
+	private final AtomicLongArray counts = new AtomicLongArray(
+			BUCKETS.getNumBuckets());
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Records the value, negative values count as 0
+	 *
+	 * @param value
+	 */
+	public void record(long value) {
+		value = Math.max(value, 0);
+		counts.getAndIncrement(BUCKETS.bucketOf(value));
+		sum.add(value);
+		long current;
+		while (value > (current = max.get())
+				&& !max.compareAndSet(current, value)) {
+			;
+		}
+	}
+
+	/**
+	 * Returns the counts of the buckets, from which the percentiles are
+	 * computed
+	 *
+	 * @return
+	 */
+	public Snapshot snapshot() {
+		long[] snapshot = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		return new Snapshot(snapshot, count, sum.sum(), max.get());
+	}
+
+	/**
+	 * The counts of a histogram at one point in time
+	 */
+	public static final class Snapshot {
+		private final long[] counts;
+		private final long count;
+		private final long sum;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		public long getCount() {
+			return count;
+		}
+
+		public long getSum() {
+			return sum;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		/**
+		 * Returns the value below or at which the percentile of the values
+		 * are, rounded up to the end of its bucket, 0 if none were recorded
+		 *
+		 * @param percentile
+		 *            between 0 and 100
+		 * @return
+		 */
+		public long getValueAtPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			return Math.min(
+					BUCKETS.valueAtPercentile(counts, count, percentile), max);
+		}
+	}
+}
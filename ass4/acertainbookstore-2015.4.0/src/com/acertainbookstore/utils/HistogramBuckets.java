@@ -0,0 +1,101 @@
+package com.acertainbookstore.utils;
+
+/**
+ * HistogramBuckets maps non-negative values to the buckets of a histogram
+ * whose bucket width grows with the value, so that any value is kept with a
+ * bounded relative error in a fixed number of buckets.
+ *
+ * The values below 2^subBucketBits have a bucket each. Above that, every
+ * power of two is split into 2^(subBucketBits - 1) buckets of equal width, so
+ * the relative error is below 2^(1 - subBucketBits).
+ *
+ */
+public final class HistogramBuckets {
+	private final int subBucketBits;
+	private final int subBuckets;
+	private final int halfSubBuckets;
+	private final int numBuckets;
+
+	/**
+	 * Creates the buckets for values of up to 64 bits
+	 *
+	 * @param subBucketBits
+	 *            between 1 and 30
+	 */
+	public HistogramBuckets(int subBucketBits) {
+		if (subBucketBits < 1 || subBucketBits > 30) {
+			throw new IllegalArgumentException("subBucketBits = "
+					+ subBucketBits + ", but it must be between 1 and 30");
+		}
+		this.subBucketBits = subBucketBits;
+		subBuckets = 1 << subBucketBits;
+		halfSubBuckets = subBuckets / 2;
+		numBuckets = (64 - subBucketBits + 1) * halfSubBuckets;
+	}
+
+	public int getNumBuckets() {
+		return numBuckets;
+	}
+
+	/**
+	 * Returns the bucket of the value, which must not be negative
+	 *
+	 * @param value
+	 * @return
+	 */
+	public int bucketOf(long value) {
+		if (value < subBuckets) {
+			return (int) value;
+		}
+		// The buckets of the power of two holding the value are 2^shift wide
+		int shift = 63 - Long.numberOfLeadingZeros(value)
+				- (subBucketBits - 1);
+		int subBucket = (int) (value >>> shift);
+		return (shift + 1) * halfSubBuckets + subBucket - halfSubBuckets;
+	}
+
+	/**
+	 * Returns the highest value counted in the bucket
+	 *
+	 * @param bucket
+	 * @return
+	 */
+	public long highestValueOf(int bucket) {
+		if (bucket < subBuckets) {
+			return bucket;
+		}
+		int shift = bucket / halfSubBuckets - 1;
+		long subBucket = bucket % halfSubBuckets + halfSubBuckets;
+		return (subBucket << shift) + (1L << shift) - 1;
+	}
+
+	/**
+	 * Returns the highest value of the bucket holding the value below or at
+	 * which the percentile of the counted values are, -1 if the count is 0
+	 *
+	 * @param counts
+	 *            the count of each bucket
+	 * @param totalCount
+	 *            the sum of the counts
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return
+	 */
+	public long valueAtPercentile(long[] counts, long totalCount,
+			double percentile) {
+		if (totalCount == 0) {
+			return -1;
+		}
+		long rank = Math.max((long) Math.ceil(Math.min(
+				Math.max(percentile, 0), 100)
+				/ 100 * totalCount), 1);
+		long seen = 0;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return highestValueOf(i);
+			}
+		}
+		return Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,87 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * PooledBufferedInputStream buffers the reads from an input stream in a buffer
+ * taken from a BufferPool. The buffer goes back to the pool when the stream is
+ * closed.
+ *
+ */
+public class PooledBufferedInputStream extends InputStream {
+	private final InputStream in;
+	private final BufferPool pool;
+	private byte[] buffer;
+	private int position = 0;
+	private int count = 0;
+
+	public PooledBufferedInputStream(InputStream in, BufferPool pool) {
+		this.in = in;
+		this.pool = pool;
+		this.buffer = pool.acquire();
+	}
+
+	/**
+	 * Refills the buffer and returns false at the end of the stream
+	 */
+	private boolean fill() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Stream closed");
+		}
+		position = 0;
+		count = 0;
+		int n = in.read(buffer, 0, buffer.length);
+		if (n <= 0) {
+			return false;
+		}
+		count = n;
+		return true;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (position >= count && !fill()) {
+			return -1;
+		}
+		return buffer[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (position >= count) {
+			if (buffer != null && len >= buffer.length) {
+				// Larger than the buffer, so read it directly
+				return in.read(b, off, len);
+			}
+			if (!fill()) {
+				return -1;
+			}
+		}
+		int n = Math.min(len, count - position);
+		System.arraycopy(buffer, position, b, off, n);
+		position += n;
+		return n;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (count - position) + in.available();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			in.close();
+		} finally {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+}
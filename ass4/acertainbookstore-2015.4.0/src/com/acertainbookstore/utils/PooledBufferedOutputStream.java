@@ -0,0 +1,82 @@
+package com.acertainbookstore.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * PooledBufferedOutputStream buffers the writes to an output stream in a
+ * buffer taken from a BufferPool. The buffer goes back to the pool when the
+ * stream is closed.
+ *
+ */
+public class PooledBufferedOutputStream extends OutputStream {
+	private final OutputStream out;
+	private final BufferPool pool;
+	private byte[] buffer;
+	private int count = 0;
+
+	public PooledBufferedOutputStream(OutputStream out, BufferPool pool) {
+		this.out = out;
+		this.pool = pool;
+		this.buffer = pool.acquire();
+	}
+
+	private void ensureOpen() throws IOException {
+		if (buffer == null) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+	private void flushBuffer() throws IOException {
+		if (count > 0) {
+			out.write(buffer, 0, count);
+			count = 0;
+		}
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		ensureOpen();
+		if (count == buffer.length) {
+			flushBuffer();
+		}
+		buffer[count++] = (byte) b;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		ensureOpen();
+		if (len >= buffer.length) {
+			// Larger than the buffer, so copying it would only cost time
+			flushBuffer();
+			out.write(b, off, len);
+			return;
+		}
+		if (len > buffer.length - count) {
+			flushBuffer();
+		}
+		System.arraycopy(b, off, buffer, count, len);
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		ensureOpen();
+		flushBuffer();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (buffer == null) {
+			return;
+		}
+		try {
+			flushBuffer();
+			out.close();
+		} finally {
+			pool.release(buffer);
+			buffer = null;
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package com.acertainbookstore.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * XMLBookStoreCodec encodes messages as XStream XML. It is the codec used when
+ * the peer does not ask for another one.
+ *
+ */
+public class XMLBookStoreCodec implements BookStoreCodec {
+
+	public String getContentType() {
+		return BookStoreConstants.CONTENT_TYPE_XML;
+	}
+
+	public byte[] serialize(Object object) throws BookStoreException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serialize(object, out);
+		return out.toByteArray();
+	}
+
+	public Object deserialize(byte[] data) throws BookStoreException {
+		return deserialize(new ByteArrayInputStream(data));
+	}
+
+	public void serialize(Object object, OutputStream out)
+			throws BookStoreException {
+		try {
+			BookStoreXStream.getInstance().toXML(object, out);
+		} catch (RuntimeException ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+
+	public Object deserialize(InputStream in) throws BookStoreException {
+		try {
+			return BookStoreXStream.getInstance().fromXML(in);
+		} catch (RuntimeException ex) {
+			throw new BookStoreException(ex);
+		}
+	}
+}